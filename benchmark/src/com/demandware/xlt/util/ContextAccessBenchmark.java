@@ -0,0 +1,107 @@
+package com.demandware.xlt.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of resolving the current {@link Context}, the bound thread-local context as well as the thread
+ * group fallback, next to the bare lookups they are made of. Needs the project configuration, so run it from the
+ * project directory via the <code>jmh</code> profile:
+ *
+ * <pre>
+ * mvn -P jmh package exec:exec -Djmh.args=ContextAccessBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class ContextAccessBenchmark
+{
+    /** Map keyed by thread group, as contexts were resolved before. */
+    private static final Map<ThreadGroup, Object> BY_GROUP = new ConcurrentHashMap<ThreadGroup, Object>();
+
+    /** Thread-local holder. */
+    private static final ThreadLocal<Object> BY_THREAD = new ThreadLocal<Object>();
+
+    /** How the context is resolved: bound to the thread or via the thread group. */
+    @Param(
+        {
+            "bound", "threadGroup"
+        })
+    public String resolution;
+
+    /** The context of the benchmark thread. */
+    private Context context;
+
+    /**
+     * Creates a context for the benchmark thread.
+     */
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        Context.addContext(ContextAccessBenchmark.class.getName(), Site.DEFAULT);
+        context = Context.capture();
+
+        BY_GROUP.put(Thread.currentThread().getThreadGroup(), context);
+        BY_THREAD.set(context);
+
+        if ("threadGroup".equals(resolution))
+        {
+            Context.bind(null);
+        }
+    }
+
+    /**
+     * Releases the context of the benchmark thread.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        Context.bind(context);
+        Context.releaseContext();
+
+        BY_GROUP.remove(Thread.currentThread().getThreadGroup());
+        BY_THREAD.remove();
+    }
+
+    /** Bare lookup by thread group. */
+    @Benchmark
+    public Object threadGroupLookup()
+    {
+        return BY_GROUP.get(Thread.currentThread().getThreadGroup());
+    }
+
+    /** Bare thread-local lookup. */
+    @Benchmark
+    public Object threadLocalLookup()
+    {
+        return BY_THREAD.get();
+    }
+
+    /** Context access. */
+    @Benchmark
+    public Configuration contextAccess()
+    {
+        return Context.getConfiguration();
+    }
+}
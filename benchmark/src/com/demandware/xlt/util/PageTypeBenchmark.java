@@ -0,0 +1,135 @@
+package com.demandware.xlt.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.gargoylesoftware.htmlunit.MockWebConnection;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+import com.xceptance.xlt.api.util.elementLookup.strategy.PageLookupCache;
+
+/**
+ * Compares the {@link PageType} checks against the CSS probes the <code>Page.is*</code> methods ran before, on the
+ * saved SiteGenesis pages (see <code>benchmark/fixtures</code>). The page type results are dropped before every
+ * operation, as after a DOM change, so each operation classifies the page again:
+ *
+ * <pre>
+ * mvn -P jmh package exec:exec -Djmh.args=PageTypeBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PageTypeBenchmark
+{
+    /** The CSS probes of all page types as run by the former <code>Page.is*</code> methods. */
+    private static final String[] LEGACY_PROBES =
+        {
+            "#" + Page.SEARCH_RESULT_ITEMS_ID,
+            "#" + Page.MAIN_CONTAINER_ID + " > div.camera-landing > div.camera-twoX-wrapper > div > div.twoXCameras",
+            "#" + Page.SINGLE_PRODUCT_CONTAINER_ID, "#" + Page.PRODUCT_SET_CONTAINER_ID,
+            "#pdpMain > div[class*='product-col-2'] > form[class*='bundle']",
+            "#" + Page.PRIMARY_CONTENT_CONTAINER_ID + " .category-main-banner",
+            "#" + Page.PRIMARY_CONTENT_CONTAINER_ID + " .gift-certificate-purchase", "#" + Page.CART_ITEMS_FORM_ID,
+            "#" + Page.PRIMARY_CONTENT_CONTAINER_ID + " .cart-empty"
+        };
+
+    /** The fixture page to run against. */
+    @Param(
+        {
+            "grid", "pdp", "cart", "checkout"
+        })
+    public String fixture;
+
+    /** The fixture page. */
+    private HtmlPage page;
+
+    /**
+     * Loads the fixture page.
+     *
+     * @throws IOException
+     *             if the fixture cannot be read
+     */
+    @Setup(Level.Trial)
+    public void loadPage() throws IOException
+    {
+        final String html;
+        final InputStream in = getClass().getResourceAsStream("/fixtures/" + fixture + ".html");
+        try
+        {
+            html = IOUtils.toString(in, "UTF-8");
+        }
+        finally
+        {
+            IOUtils.closeQuietly(in);
+        }
+
+        final WebClient webClient = new WebClient();
+        webClient.getOptions().setJavaScriptEnabled(false);
+        webClient.getOptions().setCssEnabled(false);
+
+        final MockWebConnection connection = new MockWebConnection();
+        connection.setDefaultResponse(html);
+        webClient.setWebConnection(connection);
+
+        page = webClient.getPage("http://localhost/");
+    }
+
+    /** All page types via the former CSS probes. */
+    @Benchmark
+    public int allTypesLegacy()
+    {
+        int found = 0;
+        for (final String probe : LEGACY_PROBES)
+        {
+            if (!page.querySelectorAll(probe).isEmpty())
+            {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    /** All page types via {@link PageType#of(HtmlPage)}. */
+    @Benchmark
+    public Set<PageType> allTypes()
+    {
+        PageLookupCache.invalidate();
+        return PageType.of(page);
+    }
+
+    /** The cart page check via the former CSS probes. */
+    @Benchmark
+    public boolean cartPageLegacy()
+    {
+        return !page.querySelectorAll("#" + Page.CART_ITEMS_FORM_ID).isEmpty() ||
+               !page.querySelectorAll("#" + Page.PRIMARY_CONTENT_CONTAINER_ID + " .cart-empty").isEmpty();
+    }
+
+    /** The cart page check via {@link PageType}. */
+    @Benchmark
+    public boolean cartPage()
+    {
+        PageLookupCache.invalidate();
+        return PageType.CART.isTypeOf(page) || PageType.CART_EMPTY.isTypeOf(page);
+    }
+}
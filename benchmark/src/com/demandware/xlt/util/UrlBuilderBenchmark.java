@@ -0,0 +1,175 @@
+package com.demandware.xlt.util;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.message.BasicNameValuePair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares building an XHR URL and updating the URL hash of a refine/sort/paging call with {@link UrlBuilder} against
+ * the map and split based code it replaced. Allocations per call are reported by the GC profiler the <code>jmh</code>
+ * profile enables (<code>gc.alloc.rate.norm</code>):
+ *
+ * <pre>
+ * mvn -P jmh package exec:exec -Djmh.args=UrlBuilderBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UrlBuilderBenchmark
+{
+    /** URL of the current page, as after a few refinements. */
+    private final String pageUrl = "https://www.example.com/s/SiteGenesis/womens/clothing/tops/?prefn1=refinementColor&prefv1=Blue#srule=price-low-to-high&start=1&sz=12";
+
+    /** URL of the XHR. */
+    private final String xhrUrl = "/s/SiteGenesis/womens/clothing/tops/?prefn1=refinementColor&prefv1=Blue";
+
+    /** Query string of the XHR response. */
+    private final String responseQuery = "prefn1=refinementColor&prefv1=Blue&srule=top-sellers&start=12&sz=12&format=ajax";
+
+    /** Explicit XHR parameters. */
+    private final Map<String, String> xhrParams = new LinkedHashMap<String, String>();
+
+    /** Base URL to resolve relative URLs against, like the page does. */
+    private final URL base;
+
+    /**
+     * Constructor
+     *
+     * @throws Exception
+     */
+    public UrlBuilderBenchmark() throws Exception
+    {
+        base = new URL(pageUrl);
+
+        xhrParams.put("format", "ajax");
+        xhrParams.put("q", "tops & shirts");
+        xhrParams.put("fake", "1234567890");
+    }
+
+    /** XHR URL as built before: resolved, concatenated with the encoded parameters and resolved again. */
+    @Benchmark
+    public URL xhrUrlLegacy() throws Exception
+    {
+        URL url = new URL(base, xhrUrl);
+        String s = url.toExternalForm();
+        s += (url.getQuery() == null ? "?" : "&") + URLEncodedUtils.format(toNameValuePairs(xhrParams), "UTF-8");
+        url = new URL(base, s);
+        return url;
+    }
+
+    /** XHR URL built with {@link UrlBuilder}. */
+    @Benchmark
+    public URL xhrUrlBuilder() throws Exception
+    {
+        return new UrlBuilder(new URL(base, xhrUrl).toExternalForm()).addParams(xhrParams).toURL();
+    }
+
+    /** URL hash update as done before: both parameter strings split into maps, merged and concatenated. */
+    @Benchmark
+    public URL hashLegacy() throws Exception
+    {
+        final URL currentUrl = new URL(pageUrl);
+        final Map<String, String> qsParams = parseUrlParams(responseQuery);
+        qsParams.remove("format");
+
+        final Map<String, String> params = new HashMap<String, String>();
+        params.putAll(parseUrlParams(currentUrl.getRef()));
+        params.putAll(qsParams);
+        if (!params.containsKey("start"))
+        {
+            params.put("start", "1");
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        sb.append("#");
+        for (final Map.Entry<String, String> pair : params.entrySet())
+        {
+            sb.append(pair.getKey()).append("=").append(pair.getValue()).append("&");
+        }
+        String hash = sb.toString();
+        if (hash.endsWith("&"))
+        {
+            hash = hash.substring(0, hash.length() - 1);
+        }
+
+        String urlString = currentUrl.toString();
+        final int hashIndex = urlString.lastIndexOf("#");
+        if (hashIndex > 0)
+        {
+            urlString = urlString.substring(0, hashIndex);
+        }
+        return new URL(new StringBuilder().append(urlString).append(hash).toString());
+    }
+
+    /** URL hash update with {@link UrlBuilder}, as done by <code>AjaxUtils.updateUrlHash</code>. */
+    @Benchmark
+    public URL hashBuilder() throws Exception
+    {
+        final UrlBuilder url = new UrlBuilder(pageUrl);
+        url.fragment(AjaxUtils.extend(url.getFragment(), responseQuery).substring(1));
+        return url.toURL();
+    }
+
+    /**
+     * The parameter parsing replaced by {@link UrlBuilder#parseQuery(String)}.
+     *
+     * @param params
+     *            hash/query parameters
+     * @return parameter map
+     */
+    private static Map<String, String> parseUrlParams(final String params)
+    {
+        final Map<String, String> parsedParams = new HashMap<String, String>();
+        if (params != null)
+        {
+            final String[] pairs = params.split("&");
+            for (int i = 0; i < pairs.length; i++)
+            {
+                final String[] pair = pairs[i].split("=");
+                if (pair.length == 2)
+                {
+                    parsedParams.put(pair[0], pair[1]);
+                }
+            }
+        }
+        return parsedParams;
+    }
+
+    /**
+     * The parameter conversion replaced by {@link UrlBuilder#addParams(Map)}.
+     *
+     * @param params
+     *            parameters
+     * @return name value pairs
+     */
+    private static List<NameValuePair> toNameValuePairs(final Map<String, String> params)
+    {
+        final List<NameValuePair> pairs = new ArrayList<NameValuePair>();
+        for (final Map.Entry<String, String> param : params.entrySet())
+        {
+            pairs.add(new BasicNameValuePair(param.getKey(), param.getValue()));
+        }
+        return pairs;
+    }
+}
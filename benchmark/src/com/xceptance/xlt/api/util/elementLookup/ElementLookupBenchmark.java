@@ -0,0 +1,193 @@
+package com.xceptance.xlt.api.util.elementLookup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.gargoylesoftware.htmlunit.MockWebConnection;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.html.HtmlElement;
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+import com.xceptance.xlt.api.util.elementLookup.strategy.PageLookupCache;
+
+/**
+ * Measures the element lookup engine against saved SiteGenesis pages (see <code>benchmark/fixtures</code>).
+ * <p>
+ * Each benchmark runs for every fixture page, once with the page lookup cache in place and once with the cache
+ * dropped before every operation to measure the lookup itself. Run it via the <code>jmh</code> profile:
+ * </p>
+ *
+ * <pre>
+ * mvn -P jmh package exec:exec
+ * </pre>
+ * <p>
+ * Throughput and allocation rates (GC profiler) are written to <code>target/jmh-result.json</code>.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ElementLookupBenchmark
+{
+    /** Account link in the header as used by the login flows. */
+    private static final String ACCOUNT_LINK_XPATH = "./ul/li[contains(@class, 'user-info')]/a[@class='user-account']";
+
+    /** Prepared account link locator. */
+    private static final Locator ACCOUNT_LINK = HPU.prepare().byId("header").byXPath(ACCOUNT_LINK_XPATH);
+
+    /** The fixture page to run against. */
+    @Param(
+        {
+            "grid", "pdp", "cart", "checkout"
+        })
+    public String fixture;
+
+    /** Whether lookup results may be served from the page lookup cache. */
+    @Param(
+        {
+            "true", "false"
+        })
+    public boolean pageCache;
+
+    /** The fixture page. */
+    private HtmlPage page;
+
+    /**
+     * Loads the fixture page.
+     *
+     * @throws IOException
+     *             if the fixture cannot be read
+     */
+    @Setup(Level.Trial)
+    public void loadPage() throws IOException
+    {
+        final String html;
+        final InputStream in = getClass().getResourceAsStream("/fixtures/" + fixture + ".html");
+        try
+        {
+            html = IOUtils.toString(in, "UTF-8");
+        }
+        finally
+        {
+            IOUtils.closeQuietly(in);
+        }
+
+        final WebClient webClient = new WebClient();
+        webClient.getOptions().setJavaScriptEnabled(false);
+        webClient.getOptions().setCssEnabled(false);
+
+        final MockWebConnection connection = new MockWebConnection();
+        connection.setDefaultResponse(html);
+        webClient.setWebConnection(connection);
+
+        page = webClient.getPage("http://localhost/");
+    }
+
+    /**
+     * Drops cached lookup results if the cache is not to be used.
+     */
+    private void prepare()
+    {
+        if (!pageCache)
+        {
+            PageLookupCache.invalidate();
+        }
+    }
+
+    /** ID lookup. */
+    @Benchmark
+    public HtmlElement byId()
+    {
+        prepare();
+        return HPU.find().in(page).byId("footer").first();
+    }
+
+    /** Page-wide XPath lookup using the class token idiom. */
+    @Benchmark
+    public int byXPath()
+    {
+        prepare();
+        return HPU.find().in(page).byXPath("//div[contains(concat(' ',@class,' '),' product-tile ')]//a").count();
+    }
+
+    /** Relative XPath lookup below an ID lookup. */
+    @Benchmark
+    public int byXPathRelative()
+    {
+        prepare();
+        return HPU.find().in(page).byId("main").byXPath("./div/div[contains(@class, 'primary-content')]").count();
+    }
+
+    /** CSS lookup with a descendant combinator. */
+    @Benchmark
+    public int byCss()
+    {
+        prepare();
+        return HPU.find().in(page).byCss("#primary .product-name a").count();
+    }
+
+    /** ID and XPath lookup chained on every call. */
+    @Benchmark
+    public HtmlElement chained()
+    {
+        prepare();
+        return HPU.find().in(page).byId("header").byXPath(ACCOUNT_LINK_XPATH).first();
+    }
+
+    /** The same chain as {@link #chained()} as prepared locator. */
+    @Benchmark
+    public HtmlElement prepared()
+    {
+        prepare();
+        return ACCOUNT_LINK.in(page).first();
+    }
+
+    /** Existence check that can stop at the first match. */
+    @Benchmark
+    public boolean exists()
+    {
+        prepare();
+        return HPU.find().in(page).byXPath("//a[@href]").exists();
+    }
+
+    /** Random pick out of all links. */
+    @Benchmark
+    public HtmlElement random()
+    {
+        prepare();
+        return HPU.find().in(page).byCss("#main a").random();
+    }
+
+    /** Asserted unique ID lookup. */
+    @Benchmark
+    public HtmlElement asserted()
+    {
+        prepare();
+        return HPU.findAsserted().in(page).byId("primary").single();
+    }
+
+    /** Asserted chained lookup. */
+    @Benchmark
+    public HtmlElement assertedChained()
+    {
+        prepare();
+        return HPU.findAsserted().in(page).byId("main").byCss("div").first();
+    }
+}
@@ -1,14 +1,12 @@
 package com.demandware.xlt.actions;
 
 import org.apache.commons.lang.RandomStringUtils;
-import org.json.JSONObject;
 import org.junit.Assert;
 
 import com.demandware.xlt.util.Page;
 import com.demandware.xlt.util.SearchOption;
 import com.demandware.xlt.util.XHR;
 import com.demandware.xlt.validators.Validator;
-import com.gargoylesoftware.htmlunit.WebResponse;
 import com.xceptance.xlt.api.util.XltRandom;
 
 /**
@@ -69,10 +67,12 @@ public class Search extends AbstractHtmlPageAction
          * //ajax call to search returns json blob, not sure how to parse that into the page. .fire();
          */
 
-        WebResponse r = new XHR().url(searchUrl)
-                 .param("lang", "en_US")
-                 .param("q", phrase)
-                 .fire();
+        final XHR xhr = new XHR().url(searchUrl)
+                                 .param("lang", "en_US")
+                                 .param("q", phrase)
+                                 .expectJsonObject()
+                                 .extractJson("products.count");
+        xhr.fire();
 
         // String ajaxResponse = Context.getPage().asXml();
         // JSONObject json = new JSONObject(ajaxResponse);
@@ -81,14 +81,7 @@ public class Search extends AbstractHtmlPageAction
         // XltLogger.runTimeLogger.debug(r.getContentAsString());
         // XltLogger.runTimeLogger.debug("Search Ajax -- debug -- Body END");
 
-        JSONObject json = new JSONObject(r.getContentAsString());
-
-        // int num_items = json.length();
-        // System.out.println("num_items = " + num_items);
-        // JSONArray elementsArray = json.names();
-
-        JSONObject prod = json.getJSONObject("products");
-        int prod_count = prod.getInt("count");
+        int prod_count = xhr.getJson().getInt("products.count");
         System.out.println("prod_count = " + prod_count);
 
         if (prod_count != 0)
@@ -3,6 +3,7 @@ package com.demandware.xlt.actions.account;
 import org.junit.Assert;
 
 import com.demandware.xlt.actions.AbstractHtmlPageAction;
+import com.demandware.xlt.util.Context;
 import com.demandware.xlt.util.Page;
 import com.demandware.xlt.validators.Validator;
 import com.gargoylesoftware.htmlunit.html.HtmlElement;
@@ -24,6 +25,9 @@ public class Logout extends AbstractHtmlPageAction
 
         // Click the logout link.
         loadPageByClick(logoutLink);
+
+        // The session's cart has changed on the server, so check it again.
+        Context.getCartState().invalidate();
     }
 
     /**
@@ -1,17 +1,21 @@
 package com.demandware.xlt.actions.order;
 
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 import org.junit.Assert;
 
 import com.demandware.xlt.actions.AbstractAjaxAction;
 import com.demandware.xlt.util.AjaxUtils;
+import com.demandware.xlt.util.CartState;
 import com.demandware.xlt.util.Context;
 import com.demandware.xlt.util.Page;
 import com.demandware.xlt.util.XHR;
 import com.demandware.xlt.validators.Validator;
+import com.gargoylesoftware.htmlunit.WebResponse;
 import com.gargoylesoftware.htmlunit.html.HtmlElement;
 import com.gargoylesoftware.htmlunit.html.HtmlForm;
 import com.xceptance.xlt.api.util.XltLogger;
@@ -74,24 +78,33 @@ public class AddToCart extends AbstractAjaxAction
     protected void doExecute() throws Exception
     {
         // Remember the number of cart items.
-        this.total_items_count_in_cart = Page.getNumItemsInMiniCartByAjax();
+        final CartState cart = Context.getCartState();
+        this.total_items_count_in_cart = cart.getQuantity();
 
         // Get the add-to-cart form(s).
         final List<HtmlForm> addToCartForms = getAddToCartForms();
+
+        // Get the Add-To-Cart URL.
+        final String url = AjaxUtils.getAppResourceValue("addProduct");
+
+        // Update the minicart.
+        final HtmlElement minicart = Page.getMiniCartLocator().asserted("No mini cart found on page.").single();
+
+        // Send request by GET on product set pages and POST on single product pages.
+        final boolean isSingleProductDetailPage = Page.isSingleProductDetailPage();
+
+        // The items of a product set are added in parallel, just like the browser does.
+        final boolean parallel = addToCartForms.size() > 1;
+        final List<Future<WebResponse>> pending = new ArrayList<Future<WebResponse>>();
+        final List<WebResponse> responses = new ArrayList<WebResponse>();
+
         for (final HtmlForm form : addToCartForms)
         {
             // Collect the form's parameters.
             final Map<String, String> params = AjaxUtils.serializeForm(form);
 
-            // Get the Add-To-Cart URL.
-            final String url = AjaxUtils.getAppResourceValue("addProduct");
-
-            // Update the minicart.
-            final HtmlElement minicart = Page.getMiniCartLocator().asserted("No mini cart found on page.").single();
-
-            // Send request by GET on product set pages and POST on single product pages.
             final XHR xhr = new XHR().url(url).param("format", "ajax");
-            if (Page.isSingleProductDetailPage())
+            if (isSingleProductDetailPage)
             {
                 xhr.POST().postParams(params);
             }
@@ -99,10 +112,25 @@ public class AddToCart extends AbstractAjaxAction
             {
                 xhr.GET().params(params);
             }
-            xhr.replaceContentOf(minicart).fire();
+            xhr.replaceContentOf(minicart);
+
+            if (parallel)
+            {
+                pending.add(xhr.fireAsync());
+            }
+            else
+            {
+                responses.add(xhr.fire());
+            }
 
         } // for
 
+        // Wait for the parallel requests.
+        responses.addAll(XHR.join(pending));
+
+        // Take the new cart quantity from the returned mini cart.
+        cart.added(responses);
+
     } // doExecute
 
     /**
@@ -115,7 +143,7 @@ public class AddToCart extends AbstractAjaxAction
         // This can be achieved by comparing the number of cart items, the cart totals that have to be higher, or any
         // other characteristic. In this case we use the cart item count.
         URL itemURL = Context.getPage().getUrl();
-        int CurrentNumItemsInCart = Page.getNumItemsInMiniCartByAjax();
+        int CurrentNumItemsInCart = Context.getCartState().getQuantity();
         XltLogger.runTimeLogger.debug("CurrentNumItemsInCart = " + CurrentNumItemsInCart);
         XltLogger.runTimeLogger.debug("total_items_count_in_cart = " + total_items_count_in_cart);
 
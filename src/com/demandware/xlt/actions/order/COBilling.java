@@ -11,7 +11,6 @@ import com.demandware.xlt.util.Page;
 import com.demandware.xlt.validators.Validator;
 import com.gargoylesoftware.htmlunit.html.HtmlCheckBoxInput;
 import com.gargoylesoftware.htmlunit.html.HtmlElement;
-import com.xceptance.xlt.api.util.XltRandom;
 import com.xceptance.xlt.api.util.elementLookup.Results;
 
 /**
@@ -27,7 +26,7 @@ public class COBilling extends AbstractHtmlPageAction
 
     public COBilling()
     {
-        isPaypalCheckout = XltRandom.nextBoolean(Context.getConfiguration().getPaypalProbability());
+        isPaypalCheckout = Context.getConfiguration().getPaypalChoice().next();
     }
 
     /**
@@ -1,6 +1,7 @@
 package com.demandware.xlt.actions.order;
 
 import com.demandware.xlt.actions.AbstractHtmlPageAction;
+import com.demandware.xlt.util.Context;
 import com.demandware.xlt.util.Page;
 import com.demandware.xlt.validators.Validator;
 import com.gargoylesoftware.htmlunit.html.HtmlElement;
@@ -30,6 +31,9 @@ public class COPlaceOrder extends AbstractHtmlPageAction
                                              .single();
 
         loadPageByClick(submitButton);
+
+        // Placing the order has emptied the cart on the server, so check it again.
+        Context.getCartState().invalidate();
     }
 
     /**
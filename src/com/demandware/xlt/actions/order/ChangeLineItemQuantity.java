@@ -7,9 +7,9 @@ import org.junit.Assert;
 import com.demandware.xlt.actions.AbstractAjaxAction;
 import com.demandware.xlt.util.Context;
 import com.demandware.xlt.util.Page;
+import com.demandware.xlt.util.PriceParser;
 import com.gargoylesoftware.htmlunit.html.HtmlElement;
 import com.gargoylesoftware.htmlunit.html.HtmlInput;
-import com.xceptance.common.util.RegExUtils;
 import com.xceptance.xlt.api.util.elementLookup.HPU;
 import com.xceptance.xlt.api.util.elementLookup.Results;
 
@@ -26,9 +26,9 @@ public class ChangeLineItemQuantity extends AbstractAjaxAction
     private int newQuantity;
 
     /**
-     * The totals of the cart before the line items get updated.
+     * The totals of the cart before the line items get updated (cents).
      */
-    private double cartTotals;
+    private long cartTotals;
 
     /**
      * Check if the totals are within the blocked price range
@@ -39,11 +39,11 @@ public class ChangeLineItemQuantity extends AbstractAjaxAction
     public static boolean isInInvalidPriceRange()
     {
         // Get cart totals string and convert it to a number.
-        final double cartTotals = priceStringToNumber(getCartTotals());
+        final long cartTotals = priceStringToNumber(getCartTotals());
 
-        // Get the configured limits.
-        final int lowerLimit = Context.getConfiguration().getPaymentsBlockedAbove();
-        final int upperLimit = Context.getConfiguration().getPaymentsBlockedBelow();
+        // Get the configured limits in cents.
+        final long lowerLimit = Context.getConfiguration().getPaymentsBlockedAbove() * 100L;
+        final long upperLimit = Context.getConfiguration().getPaymentsBlockedBelow() * 100L;
 
         // Check if the cart totals are within the configured blocked range
         return lowerLimit <= cartTotals && cartTotals <= upperLimit;
@@ -75,8 +75,8 @@ public class ChangeLineItemQuantity extends AbstractAjaxAction
         {
             // If we have a blocked price range we can raise the quantity of the most expensive element to get the cart
             // totals over this upper limit.
-            final double itemPrice = getItemPrice(mostExpensiveItem);
-            newQuantity = getQuantityForUpperPaymentLimitBound(itemPrice, cartTotals, upperLimit);
+            final long itemPrice = getItemPrice(mostExpensiveItem);
+            newQuantity = getQuantityForUpperPaymentLimitBound(itemPrice, cartTotals, upperLimit * 100L);
         }
 
         // Set item quantity.
@@ -96,6 +96,9 @@ public class ChangeLineItemQuantity extends AbstractAjaxAction
     @Override
     protected void postValidate() throws Exception
     {
+        // Take over the changed quantities.
+        Context.getCartState().updateFromCartPage();
+
         // Validate if line was updated.
         if (newQuantity > 0)
         {
@@ -134,7 +137,7 @@ public class ChangeLineItemQuantity extends AbstractAjaxAction
     }
 
     /**
-     * Convert a string containing a price into a double number.<br>
+     * Convert a string containing a price into cents using the configured language's number format.<br>
      * Input might be:
      * <ul>
      * <li>$1,000.00</li>
@@ -144,40 +147,16 @@ public class ChangeLineItemQuantity extends AbstractAjaxAction
      * </ul>
      * 
      * @param priceString
-     * @return converted price
+     * @return converted price in cents
+     * @throws AssertionError
+     *             if the string does not contain a price
      */
-    private static double priceStringToNumber(final String priceString)
+    private static long priceStringToNumber(final String priceString) throws AssertionError
     {
-        // Strip currency.
-        String cleanPrice = RegExUtils.getFirstMatch(priceString.trim(), Page.PRICE_REGEXP);
-
-        // Remove any whitespaces.
-        cleanPrice = RegExUtils.removeAll(cleanPrice, "\\s");
-
-        final double result;
-
-        if (RegExUtils.isMatching(cleanPrice, "^\\d$"))
-        {
-            // It's plain number (1000)
-            result = Double.parseDouble(cleanPrice);
-        }
-        else
-        {
-            // Remember if price has decimal part.
-            final boolean hasDecimalSeparator = RegExUtils.isMatching(cleanPrice, "[.,]\\d{2}$");
-
-            // Keep the digits only, remove all separators.
-            cleanPrice = RegExUtils.removeAll(cleanPrice, ",");
-            cleanPrice = RegExUtils.removeAll(cleanPrice, "\\.");
-
-            // Parse to double.
-            final double d = Double.parseDouble(cleanPrice);
-
-            // Fix decimal if necessary.
-            result = hasDecimalSeparator ? (d / 100) : d;
-        }
+        final long price = Context.getConfiguration().getPriceParser().parse(priceString);
+        Assert.assertTrue("Not a price: " + priceString, price != PriceParser.NO_PRICE);
 
-        return result;
+        return price;
     }
 
     /**
@@ -199,12 +178,12 @@ public class ChangeLineItemQuantity extends AbstractAjaxAction
      */
     private static HtmlElement getMostExpensiveFrom(List<HtmlElement> list)
     {
-        double maxPrice = Double.MIN_VALUE;
+        long maxPrice = -1;
         HtmlElement maxPriceRow = null;
 
         for (final HtmlElement row : list)
         {
-            final double itemPrice = getItemPrice(row);
+            final long itemPrice = getItemPrice(row);
 
             if (maxPrice < itemPrice)
             {
@@ -220,9 +199,9 @@ public class ChangeLineItemQuantity extends AbstractAjaxAction
      * Get the single item price of the given row
      * 
      * @param row
-     * @return item price
+     * @return item price in cents
      */
-    private static double getItemPrice(final HtmlElement row)
+    private static long getItemPrice(final HtmlElement row)
     {
         return priceStringToNumber(HPU.find().in(row).byCss(".price-sales").single().getTextContent());
     }
@@ -231,12 +210,16 @@ public class ChangeLineItemQuantity extends AbstractAjaxAction
      * Calculate which quantity is needed to put the cart into a valid price range.
      * 
      * @param itemPrice
-     *            item price
+     *            item price in cents
+     * @param lastCartTotals
+     *            cart totals in cents
+     * @param upperLimit
+     *            upper limit in cents
      * @return quantity
      */
-    private static int getQuantityForUpperPaymentLimitBound(final double itemPrice, final double lastCartTotals, final int upperLimit)
+    private static int getQuantityForUpperPaymentLimitBound(final long itemPrice, final long lastCartTotals, final long upperLimit)
     {
-        return (int) (Math.floor((upperLimit - lastCartTotals) / itemPrice) + 2);
+        return (int) ((upperLimit - lastCartTotals) / Math.max(1, itemPrice) + 2);
     }
 
     /**
@@ -2,17 +2,16 @@ package com.demandware.xlt.actions.order.paypal.paypal2;
 
 import java.util.Map;
 
-import org.json.JSONObject;
 import org.junit.Assert;
 
 import com.demandware.xlt.actions.AbstractAjaxAction;
 import com.demandware.xlt.util.AjaxUtils;
 import com.demandware.xlt.util.Context;
 import com.demandware.xlt.util.FormUtils;
+import com.demandware.xlt.util.JsonValues;
 import com.demandware.xlt.util.Page;
 import com.demandware.xlt.util.PaypalAccount;
 import com.demandware.xlt.util.XHR;
-import com.gargoylesoftware.htmlunit.WebResponse;
 import com.gargoylesoftware.htmlunit.html.HtmlForm;
 import com.xceptance.xlt.api.util.HtmlPageUtils;
 import com.xceptance.xlt.api.util.elementLookup.Results;
@@ -42,8 +41,8 @@ public class Paypal2Login extends AbstractAjaxAction
         return getPaypalLoginFormLocator().exists();
     }
 
-    /** JSON returned on login. */
-    private JSONObject loginJson;
+    /** Values of the JSON returned on login. */
+    private JsonValues loginJson;
 
     /** PayPal account. */
     private final PaypalAccount paypalAccount;
@@ -89,15 +88,17 @@ public class Paypal2Login extends AbstractAjaxAction
         getWebClient().addRequestHeader("X-CSRF-Token", Context.getPage().getBody().getAttribute("data-token"));
 
         // Send the XHR.
-        final WebResponse r = new XHR().url(loginForm.getActionAttribute())
-                                       .POST()
-                                       .postParams(params)
-                                       .removeHeader("X-CSRF-Token")
-                                       .removeHeader("Accept")
-                                       .fire();
+        final XHR xhr = new XHR().url(loginForm.getActionAttribute())
+                                 .POST()
+                                 .postParams(params)
+                                 .removeHeader("X-CSRF-Token")
+                                 .removeHeader("Accept")
+                                 .expectJsonObject()
+                                 .extractJson(Paypal2PayNow.CSRF, Paypal2PayNow.FLOW_EXECUTION_KEY, Paypal2PayNow.FLOW_EXECUTION_URL);
+        xhr.fire();
 
         // Remember the response.
-        loginJson = new JSONObject(r.getContentAsString());
+        loginJson = xhr.getJson();
 
         // TODO check if resetting the email field is necessary
         HtmlPageUtils.setInputValue(loginForm, "email", "");
@@ -106,7 +107,7 @@ public class Paypal2Login extends AbstractAjaxAction
         Page.findAsserted().byXPath("//input[@name='password']").single().remove();
     }
 
-    public JSONObject getLoginJson()
+    public JsonValues getLoginJson()
     {
         return loginJson;
     }
@@ -3,15 +3,14 @@ package com.demandware.xlt.actions.order.paypal.paypal2;
 import java.util.HashMap;
 import java.util.Map;
 
-import org.json.JSONObject;
 import org.junit.Assert;
 
 import com.demandware.xlt.actions.AbstractHtmlPageAction;
-import com.demandware.xlt.util.AjaxUtils;
 import com.demandware.xlt.util.Context;
+import com.demandware.xlt.util.JsonValues;
+import com.demandware.xlt.util.UrlBuilder;
 import com.demandware.xlt.util.XHR;
 import com.demandware.xlt.validators.Validator;
-import com.gargoylesoftware.htmlunit.WebResponse;
 import com.gargoylesoftware.htmlunit.html.HtmlElement;
 import com.xceptance.xlt.api.util.HtmlPageUtils;
 
@@ -20,8 +19,20 @@ import com.xceptance.xlt.api.util.HtmlPageUtils;
  */
 public class Paypal2PayNow extends AbstractHtmlPageAction
 {
+    /** JSON path of the CSRF token in the login response. */
+    static final String CSRF = "data._csrf";
+
+    /** JSON path of the flow execution key in the login response. */
+    static final String FLOW_EXECUTION_KEY = "data.flowExecutionKey";
+
+    /** JSON path of the flow execution URL in the login response. */
+    static final String FLOW_EXECUTION_URL = "data.flowExecutionUrl";
+
+    /** JSON path of the flow control location in the pay now response. */
+    private static final String FLOW_CONTROL_LOCATION = "data.flowControl.location";
+
     /** Login response from previous action. */
-    private final JSONObject loginJson;
+    private final JsonValues loginJson;
 
     /**
      * Create "Pay Now" action.
@@ -29,7 +40,7 @@ public class Paypal2PayNow extends AbstractHtmlPageAction
      * @param loginJson
      *            Login response from previous action
      */
-    public Paypal2PayNow(final JSONObject loginJson)
+    public Paypal2PayNow(final JsonValues loginJson)
     {
         super();
         this.loginJson = loginJson;
@@ -43,25 +54,26 @@ public class Paypal2PayNow extends AbstractHtmlPageAction
     {
         // Collect parameters.
         final Map<String, String> params = new HashMap<String, String>();
-        params.put("_csrf", loginJson.getJSONObject("data").getString("_csrf"));
+        params.put("_csrf", loginJson.getString(CSRF));
         params.put("_eventId_submit", "");
         params.put("bp_ks1", "");
         params.put("bp_ks2", "");
         params.put("bp_ks3", "");
         params.put("bp_mid", "");
-        params.put("execution", loginJson.getJSONObject("data").getString("flowExecutionKey"));
+        params.put("execution", loginJson.getString(FLOW_EXECUTION_KEY));
         params.put("token", getPaypalToken());
 
         // Send the XHR.
-        final WebResponse r = new XHR().url(loginJson.getJSONObject("data").getString("flowExecutionUrl"))
-                                       .POST()
-                                       .postParams(params)
-                                       .fire();
+        final XHR xhr = new XHR().url(loginJson.getString(FLOW_EXECUTION_URL))
+                                 .POST()
+                                 .postParams(params)
+                                 .expectJsonObject()
+                                 .extractJson(FLOW_CONTROL_LOCATION);
+        xhr.fire();
 
         // Create flow control link that points back to the DW system.
-        final JSONObject json2 = new JSONObject(r.getContentAsString());
         final HtmlElement a = HtmlPageUtils.createHtmlElement("a", Context.getPage().getBody());
-        a.setAttribute("href", json2.getJSONObject("data").getJSONObject("flowControl").getString("location"));
+        a.setAttribute("href", xhr.getJson().getString(FLOW_CONTROL_LOCATION));
 
         // Click that link.
         loadPageByClick(a);
@@ -84,7 +96,7 @@ public class Paypal2PayNow extends AbstractHtmlPageAction
      */
     private static String getPaypalToken()
     {
-        final String token = AjaxUtils.parseUrlParams(Context.getPage().getUrl().getQuery()).get("token");
+        final String token = new UrlBuilder().parseQuery(Context.getPage().getUrl().getQuery()).getParam("token");
         Assert.assertNotNull("Could not find PayPal token", token);
         return token;
     }
@@ -14,6 +14,7 @@ import org.junit.Test;
 
 import com.demandware.xlt.extra.actions.SimpleURL;
 import com.demandware.xlt.tests.AbstractTestCase;
+import com.demandware.xlt.util.Context;
 import com.gargoylesoftware.htmlunit.util.Cookie;
 import com.xceptance.common.util.Getter;
 import com.xceptance.common.util.concurrent.DaemonThreadFactory;
@@ -89,7 +90,7 @@ public class TMultiThreadedPunch extends AbstractTestCase
                 for (int t = 0; t < threadCount; t++)
                 {
                     final Worker worker = new Worker(String.valueOf(t), startLock, browsers.get(t), url, xpath, text);
-                    futures.add(executorService.submit(worker));
+                    futures.add(executorService.submit(Context.wrap(worker)));
                 }
 
                 // start them all
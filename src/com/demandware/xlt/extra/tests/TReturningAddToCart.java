@@ -33,7 +33,7 @@ public class TReturningAddToCart extends AbstractTestCase
         // preserve item count and totals
 
         final int itemCount = Page.getCartItemCount();
-        final String totals = Page.getMiniCartTotal();
+        final long totals = Page.getMiniCartTotal();
 
         // remember last session to make sure it changes
         final String oldSessionID = Context.getPreviousAction().getWebClient().getCookieManager().getCookie("dwsid").getValue();
@@ -72,7 +72,7 @@ public class TReturningAddToCart extends AbstractTestCase
 
         // get item count and totals
         final int newSessionItemCount = Page.getCartItemCount();
-        final String newSessionTotals = Page.getMiniCartTotal();
+        final long newSessionTotals = Page.getMiniCartTotal();
 
         Assert.assertEquals("Item count not the same", itemCount, newSessionItemCount);
         Assert.assertEquals("Totals not the same", totals, newSessionTotals);
@@ -27,7 +27,7 @@ public class AddToCartFlow extends AbstractFlow
 
         // Current number of cart items.
         // int itemsInMiniCart = Page.getItemsInMiniCart();
-        int itemsInMiniCart = Page.getNumItemsInMiniCartByAjax();
+        int itemsInMiniCart = Context.getCartState().getQuantity();
 
         // Add another item to cart.
         while (itemsInMiniCart < nrOfProducts)
@@ -44,7 +44,7 @@ public class AddToCartFlow extends AbstractFlow
                 new AddToCart().run();
 
                 // Check if adding the product was successful.
-                int newItemsInMiniCart = Page.getNumItemsInMiniCartByAjax();
+                int newItemsInMiniCart = Context.getCartState().getQuantity();
                 if (itemsInMiniCart < newItemsInMiniCart)
                 {
                     // Reset the attempts-checker.
@@ -12,7 +12,6 @@ import com.demandware.xlt.util.FlowStoppedException;
 import com.demandware.xlt.util.Page;
 import com.demandware.xlt.util.SafetyBreak;
 import com.xceptance.xlt.api.engine.Session;
-import com.xceptance.xlt.api.util.XltRandom;
 
 /**
  * Browse the catalog and view product details.
@@ -51,7 +50,7 @@ public class BrowsingFlow extends AbstractFlow
             if (Page.isProductGridPage())
             {
                 // Decide to open details as quick view or separate details page.
-                if (XltRandom.nextBoolean(Context.getConfiguration().getQuickViewProbability()))
+                if (Context.getConfiguration().getQuickViewChoice().next())
                 {
                     // Show details as quick view.
                     new QuickView().run();
@@ -97,7 +96,7 @@ public class BrowsingFlow extends AbstractFlow
     private void browse() throws Throwable
     {
         // Click top or sub category from the top menu.
-        if (XltRandom.nextBoolean(Context.getConfiguration().getTopCategoryBrowsingProbability()))
+        if (Context.getConfiguration().getTopCategoryBrowsingChoice().next())
         {
             new SelectTopCategory().run();
         }
@@ -9,7 +9,6 @@ import com.demandware.xlt.actions.catalog.Refine;
 import com.demandware.xlt.actions.catalog.SortBy;
 import com.demandware.xlt.util.Context;
 import com.demandware.xlt.util.Page;
-import com.xceptance.xlt.api.util.XltRandom;
 
 /**
  * Page, sort, change items per page and refine results on the product grid page.
@@ -41,7 +40,7 @@ public class RefineSortingAndPagingFlow extends AbstractFlow
      */
     private void performPaging() throws Throwable
     {
-        if (XltRandom.nextBoolean(Context.getConfiguration().getPagingProbability()))
+        if (Context.getConfiguration().getPagingChoice().next())
         {
             // Get current number of paging rounds determined from the configured
             // min and max value for paging.
@@ -74,7 +73,7 @@ public class RefineSortingAndPagingFlow extends AbstractFlow
      */
     private void performSort() throws Throwable
     {
-        if (XltRandom.nextBoolean(Context.getConfiguration().getSortingProbability()))
+        if (Context.getConfiguration().getSortingChoice().next())
         {
             if (SortBy.isPossible())
             {
@@ -94,7 +93,7 @@ public class RefineSortingAndPagingFlow extends AbstractFlow
      */
     private void performChangeItemsPerPage() throws Throwable
     {
-        if (XltRandom.nextBoolean(Context.getConfiguration().getItemsPerPageProbability()))
+        if (Context.getConfiguration().getItemsPerPageChoice().next())
         {
             if (ChangeItemsPerPage.isPossible())
             {
@@ -114,7 +113,7 @@ public class RefineSortingAndPagingFlow extends AbstractFlow
      */
     private void performRefinement() throws Throwable
     {
-        if (XltRandom.nextBoolean(Context.getConfiguration().getRefineProbability()))
+        if (Context.getConfiguration().getRefineChoice().next())
         {
             // Get the number of refining rounds according to the configured min and
             // max values.
@@ -3,7 +3,7 @@ package com.demandware.xlt.flows;
 import com.demandware.xlt.actions.Search;
 import com.demandware.xlt.util.Context;
 import com.demandware.xlt.util.SearchOption;
-import com.xceptance.xlt.api.util.XltRandom;
+import com.demandware.xlt.util.WeightedChoice;
 
 /**
  * Search for a phrase, browse the results and view a result's details.
@@ -26,7 +26,7 @@ public class SearchFlow extends AbstractFlow
             // The search option is the indicator whether to search for one of
             // the search phrases from the 'HITS_PROVIDER' that results in a hit
             // or a generated phrase that results in a 'no results' page.
-            final SearchOption option = getSearchOption(Context.getConfiguration().getSearchNoHitsProbability());
+            final SearchOption option = getSearchOption(Context.getConfiguration().getSearchNoHitsChoice());
 
             // Run the search with an appropriate search phrase according to the
             // search option.
@@ -59,15 +59,15 @@ public class SearchFlow extends AbstractFlow
     }
 
     /**
-     * Returns a search option using the given probability.
+     * Returns a search option using the given decision.
      * 
-     * @param searchNoHitsProbability
-     *            probability to grab the {@link SearchOption#NO_HITS} search option
+     * @param searchNoHits
+     *            decision to grab the {@link SearchOption#NO_HITS} search option
      * @return search option
      */
-    private SearchOption getSearchOption(final int searchNoHitsProbability)
+    private SearchOption getSearchOption(final WeightedChoice<Boolean> searchNoHits)
     {
-        if (XltRandom.nextBoolean(searchNoHitsProbability))
+        if (searchNoHits.next())
         {
             return SearchOption.NO_HITS;
         }
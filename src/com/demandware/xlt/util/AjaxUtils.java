@@ -2,15 +2,14 @@ package com.demandware.xlt.util;
 
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.commons.lang.RandomStringUtils;
 import org.apache.commons.lang.StringUtils;
-import org.apache.http.client.utils.URLEncodedUtils;
-import org.apache.http.message.BasicNameValuePair;
 import org.junit.Assert;
 
 import com.gargoylesoftware.htmlunit.WebRequest;
@@ -34,8 +33,15 @@ import com.xceptance.xlt.api.util.elementLookup.HPU;
  */
 public final class AjaxUtils
 {
+    /** Pattern to extract the tracking URL from the analytics script. */
+    private static final Pattern TRACKING_URL_PATTERN = Pattern.compile("var\\s+trackingUrl\\s*=\\s*\"([^\"]+?)\"");
+
     // Some generic parameters used for the analytics call.
     private static final Map<String, String> analyticParamsCommon = new HashMap<String, String>();
+
+    /** The generic analytics parameters as query string, encoded once. */
+    private static final String ANALYTICS_COMMON_QUERY;
+
     static
     {
         analyticParamsCommon.put("res", "1600x1200");
@@ -54,6 +60,8 @@ public final class AjaxUtils
         analyticParamsCommon.put("wma", "1");
         analyticParamsCommon.put("dwac", "0.7869769714444649");
         analyticParamsCommon.put("pcat", "new-arrivals");
+
+        ANALYTICS_COMMON_QUERY = UrlBuilder.toQueryString(analyticParamsCommon);
     }
 
     /**
@@ -64,24 +72,6 @@ public final class AjaxUtils
         // Nothing to do
     }
 
-    /**
-     * Transform the given parameter list to an URL conform parameter string.
-     * 
-     * @param parameters
-     *            parameters to transform
-     * @return an URL parameter string
-     */
-    static String paramsToQueryString(final Map<String, String> parameters) throws Exception
-    {
-        final ArrayList<org.apache.http.NameValuePair> arr = new ArrayList<org.apache.http.NameValuePair>();
-        for (final Map.Entry<String, String> param : parameters.entrySet())
-        {
-            arr.add(new BasicNameValuePair(param.getKey(), param.getValue()));
-        }
-
-        return URLEncodedUtils.format(arr, "UTF-8");
-    }
-
     /**
      * Get the form's fields as list of name value pairs.
      * 
@@ -411,6 +401,8 @@ public final class AjaxUtils
      * "key":"value"
      * </pre>
      * 
+     * If the key is missing, the app resources are invalidated so they are looked up again next time.
+     * 
      * @param key
      *            the key to look up
      * @return the value for the given key from the app-resources data
@@ -419,7 +411,12 @@ public final class AjaxUtils
      */
     public static String getAppResourceValue(final String key) throws AssertionError
     {
-        final String value = RegExUtils.getFirstMatch(Context.getAppResources(), "\"" + key + "\":\"([^\"]+?)\"", 1);
+        final AppResources appResources = Context.getAppResources();
+        final String value = appResources != null ? appResources.get(key) : null;
+        if (value == null)
+        {
+            Context.invalidateAppResources();
+        }
         Assert.assertNotNull("Failed to get app resources value for key: " + key, value);
         return value;
     }
@@ -477,22 +474,14 @@ public final class AjaxUtils
      */
     public static void updateUrlHash(final HtmlPage page, final WebResponse response) throws MalformedURLException
     {
-        // get current URL
-        final URL currentUrl = page.getUrl();
-        final String hash = AjaxUtils.extend(currentUrl.getRef(), parseUrlParams(response.getWebRequest().getUrl()
-                                                                                         .getQuery()));
-
-        // update hash and build updated URL
-        String urlString = currentUrl.toString();
-        int hashIndex = urlString.lastIndexOf("#");
-        if (hashIndex > 0)
-        {
-            urlString = urlString.substring(0, hashIndex);
-        }
-        final URL updatedURL = new URL(new StringBuilder().append(urlString).append(hash).toString());
+        // get current URL and update its hash
+        final UrlBuilder url = new UrlBuilder(page.getUrl().toExternalForm());
+        final UrlBuilder hashParams = new UrlBuilder().parseQuery(url.getFragment())
+                                                      .mergeQuery(response.getWebRequest().getUrl().getQuery());
+        url.fragment(toHashParams(hashParams).getQuery());
 
         // set updated URL
-        page.getWebResponse().getWebRequest().setUrl(updatedURL);
+        page.getWebResponse().getWebRequest().setUrl(url.toURL());
     }
 
     /**
@@ -519,7 +508,7 @@ public final class AjaxUtils
      */
     public static String extend(final String hashParams, final String qsParams)
     {
-        return extend(hashParams, parseUrlParams(qsParams));
+        return "#" + toHashParams(new UrlBuilder().parseQuery(hashParams).mergeQuery(qsParams)).getQuery();
     }
 
     /**
@@ -533,41 +522,40 @@ public final class AjaxUtils
      */
     public static String extend(final String hashParams, final Map<String, String> qsParams)
     {
-        final Map<String, String> params = new HashMap<String, String>();
-        // remove format parameter if present
-        qsParams.remove("format");
-
-        // Parse hash.
-        params.putAll(parseUrlParams(hashParams));
-        // Parse query string.
-        params.putAll(qsParams);
-        // Set start parameter.
-        if (!params.containsKey("start"))
+        final UrlBuilder params = new UrlBuilder().parseQuery(hashParams);
+        for (final Map.Entry<String, String> param : qsParams.entrySet())
         {
-            params.put("start", "1");
+            params.setParam(param.getKey(), param.getValue());
         }
 
-        // Summarize parameters and transform them to a hash string.
-        final StringBuilder sb = new StringBuilder();
-        sb.append("#");
-        for (final Map.Entry<String, String> pair : params.entrySet())
-        {
-            sb.append(pair.getKey()).append("=").append(pair.getValue()).append("&");
-        }
+        return "#" + toHashParams(params).getQuery();
+    }
 
-        String result = sb.toString();
+    /**
+     * Prepares the given merged parameters for the URL hash. The <code>format</code> parameter is dropped and the
+     * <code>start</code> parameter is set if missing.
+     * 
+     * @param params
+     *            merged hash and query string parameters
+     * @return the given parameters
+     */
+    private static UrlBuilder toHashParams(final UrlBuilder params)
+    {
+        // remove format parameter if present
+        params.removeParam("format");
 
-        // remove trailing ampersand.
-        if (result.endsWith("&"))
+        // Set start parameter.
+        if (!params.hasParam("start"))
         {
-            result = result.substring(0, result.length() - 1);
+            params.addParam("start", "1");
         }
 
-        return result;
+        return params;
     }
 
     /**
-     * Transform parameter string to key value map.
+     * Transform parameter string to key value map. Prefer {@link UrlBuilder#parseQuery(String)}, which does not create
+     * a map.
      * 
      * @param params
      *            hash/query parameters
@@ -575,30 +563,20 @@ public final class AjaxUtils
      */
     public static Map<String, String> parseUrlParams(final String params)
     {
-        // Initialize
+        final UrlBuilder parsed = new UrlBuilder().parseQuery(params);
+
         final Map<String, String> parsedParams = new HashMap<String, String>();
-        // IS there something to do?
-        if (params != null)
+        for (int i = 0; i < parsed.getParamCount(); i++)
         {
-            // Split at ampersand an iterate over the resulting parts. Split
-            // each part at the equal sign what gives the key value pair for a
-            // map entry.
-            final String[] pairs = params.split("&");
-            for (int i = 0; i < pairs.length; i++)
-            {
-                final String[] pair = pairs[i].split("=");
-                if (pair.length == 2)
-                {
-                    parsedParams.put(pair[0], pair[1]);
-                }
-            }
+            parsedParams.put(parsed.getParamName(i), parsed.getParamValue(i));
         }
 
         return parsedParams;
     }
 
     /**
-     * Perform an analytics call with static parameters.
+     * Perform an analytics call with static parameters. If the {@link BeaconDispatcher} is enabled, the call is queued
+     * and sent in the background, otherwise it is sent right away.
      * 
      * @param page
      *            the current page
@@ -615,39 +593,36 @@ public final class AjaxUtils
             final HtmlElement analyticsScript = (HtmlElement) o;
 
             // Get Analytics base URL.
-            final String analyticsUrl = RegExUtils.getFirstMatch(analyticsScript.getTextContent(),
-                                                                 "var\\s+trackingUrl\\s*=\\s*\"([^\"]+?)\"", 1);
+            final Matcher matcher = TRACKING_URL_PATTERN.matcher(analyticsScript.getTextContent());
+            final String analyticsUrl = matcher.find() ? matcher.group(1) : null;
             Assert.assertTrue("Failed to get app resource value.", StringUtils.isNotBlank(analyticsUrl));
 
-            final URL pageURL = page.getUrl();
-            final Map<String, String> params = new HashMap<String, String>();
+            final String pageUrl = page.getUrl().toExternalForm();
 
-            params.put("url", pageURL.toExternalForm());
-            params.putAll(analyticParamsCommon);
+            // Add the page specific parameters to the common ones.
+            final UrlBuilder query = new UrlBuilder(analyticsUrl).parseQuery(ANALYTICS_COMMON_QUERY);
+            query.addParam("url", pageUrl);
+            query.addParam("title", page.getTitleText());
+            query.addParam("fake", String.valueOf(System.nanoTime()));
+            query.addParam("ref", previousAction != null ? previousAction.getHtmlPage().getUrl().toExternalForm() : "");
 
-            params.put("title", page.getTitleText());
-            params.put("fake", Long.toString(System.nanoTime()));
+            final URL analyticsRequestUrl = page.getFullyQualifiedUrl(query.build());
 
-            if (previousAction != null)
+            final WebRequest request = new WebRequest(analyticsRequestUrl);
+            request.getAdditionalHeaders().put("Accept", "image/png,image/*;q=0.8,*/*;q=0.5");
+            request.getAdditionalHeaders().put("Accept-Encoding", "gzip, deflate");
+            request.getAdditionalHeaders().put("Referer", pageUrl);
+
+            if (BeaconDispatcher.getInstance().isEnabled())
             {
-                params.put("ref", previousAction.getHtmlPage().getUrl().toExternalForm());
+                BeaconDispatcher.getInstance().dispatch(page.getWebClient(), request);
             }
             else
             {
-                params.put("ref", "");
+                // Perform the call.
+                final WebResponse r = page.getWebClient().loadWebResponse(request);
+                Assert.assertEquals("Analytics not load", 200, r.getStatusCode());
             }
-
-            final WebRequest request = new WebRequest(
-                                                      page.getFullyQualifiedUrl(new StringBuilder(analyticsUrl).append("?")
-                                                                                                               .append(paramsToQueryString(params))
-                                                                                                               .toString()));
-            request.setAdditionalHeader("Accept", "image/png,image/*;q=0.8,*/*;q=0.5");
-            request.setAdditionalHeader("Accept-Encoding", "gzip, deflate");
-            request.setAdditionalHeader("Referer", pageURL.toExternalForm());
-
-            // Perform the call.
-            final WebResponse r = page.getWebClient().loadWebResponse(request);
-            Assert.assertEquals("Analytics not load", 200, r.getStatusCode());
         }
     }
 
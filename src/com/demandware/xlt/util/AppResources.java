@@ -0,0 +1,156 @@
+package com.demandware.xlt.util;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The key/URL pairs of a storefront's app resources script, parsed once. Parsed app resources are shared by all users
+ * of the agent per site and language until their time to live has passed or they are invalidated.
+ *
+ * @author Xiaobai Wang
+ */
+public final class AppResources
+{
+    /** Pattern of a single <code>"key":"value"</code> pair. */
+    private static final Pattern KEY_VALUE_PATTERN = Pattern.compile("\"([^\"]+)\":\"([^\"]+?)\"");
+
+    /** Shared app resources by site and language. */
+    private static final Map<String, AppResources> CACHE = new ConcurrentHashMap<String, AppResources>();
+
+    /** The values by key. */
+    private final Map<String, String> values;
+
+    /** Time the app resources were parsed [ms]. */
+    private final long parsedAt;
+
+    /**
+     * Constructor
+     *
+     * @param values
+     *            the values by key
+     */
+    private AppResources(final Map<String, String> values)
+    {
+        this.values = values;
+        this.parsedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Parses the given app resources script. If a key occurs more than once, its first value is taken.
+     *
+     * @param script
+     *            the app resources script content
+     * @return the parsed app resources
+     */
+    public static AppResources parse(final String script)
+    {
+        final Map<String, String> values = new HashMap<String, String>();
+        if (script != null)
+        {
+            final Matcher matcher = KEY_VALUE_PATTERN.matcher(script);
+            while (matcher.find())
+            {
+                if (!values.containsKey(matcher.group(1)))
+                {
+                    values.put(matcher.group(1), matcher.group(2));
+                }
+            }
+        }
+
+        return new AppResources(Collections.unmodifiableMap(values));
+    }
+
+    /**
+     * Get the value for the given key.
+     *
+     * @param key
+     *            the key to look up
+     * @return the value or <code>null</code> if there's no such key
+     */
+    public String get(final String key)
+    {
+        return values.get(key);
+    }
+
+    /**
+     * Get the shared app resources of the given site and language.
+     *
+     * @param site
+     *            site context
+     * @param language
+     *            the language, e.g. en-US
+     * @param timeToLive
+     *            how long shared app resources stay valid [ms], <code>0</code> to not share app resources at all
+     * @return the shared app resources or <code>null</code> if there are none or they have expired
+     */
+    public static AppResources getShared(final Site site, final String language, final long timeToLive)
+    {
+        if (timeToLive <= 0)
+        {
+            return null;
+        }
+
+        final AppResources appResources = CACHE.get(getScope(site, language));
+        if (appResources == null || System.currentTimeMillis() - appResources.parsedAt >= timeToLive)
+        {
+            return null;
+        }
+
+        return appResources;
+    }
+
+    /**
+     * Shares the given app resources with all users of the given site and language.
+     *
+     * @param site
+     *            site context
+     * @param language
+     *            the language, e.g. en-US
+     * @param timeToLive
+     *            how long shared app resources stay valid [ms], <code>0</code> to not share app resources at all
+     * @param appResources
+     *            the app resources to share
+     * @return the given app resources
+     */
+    public static AppResources share(final Site site, final String language, final long timeToLive, final AppResources appResources)
+    {
+        if (timeToLive > 0)
+        {
+            CACHE.put(getScope(site, language), appResources);
+        }
+
+        return appResources;
+    }
+
+    /**
+     * Drops the shared app resources of the given site and language, e.g. because an expected key is missing. The
+     * next user will parse them again.
+     *
+     * @param site
+     *            site context
+     * @param language
+     *            the language, e.g. en-US
+     */
+    public static void invalidate(final Site site, final String language)
+    {
+        CACHE.remove(getScope(site, language));
+    }
+
+    /**
+     * Get the cache key of the given site and language.
+     *
+     * @param site
+     *            site context
+     * @param language
+     *            the language
+     * @return cache key
+     */
+    private static String getScope(final Site site, final String language)
+    {
+        return site.name() + '\n' + language;
+    }
+}
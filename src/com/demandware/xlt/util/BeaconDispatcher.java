@@ -0,0 +1,229 @@
+package com.demandware.xlt.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.WebResponse;
+import com.xceptance.xlt.api.engine.CustomData;
+import com.xceptance.xlt.api.engine.Session;
+import com.xceptance.xlt.api.util.XltLogger;
+import com.xceptance.xlt.api.util.XltProperties;
+
+/**
+ * Sends analytics beacons in the background, so they do not add to the runtime of the page actions. Beacons are queued
+ * in a bounded agent-wide queue and sent by a small agent-wide worker pool, so they neither block the user's thread
+ * nor the user's asynchronous XHRs. Each beacon is sent with the user's own web client, so all XLT connection settings
+ * (SSL easy mode, proxy, authentication, URL filters) apply and cookies set by the beacon response are kept.
+ * <p>
+ * If the queue is full, the beacon is dropped and an event is logged. Beacons still queued when their user finishes
+ * the iteration are dropped as well. Each beacon that is sent is recorded as custom timer <code>Analytics</code> of the
+ * user that sent it. The number of sent, failed and dropped beacons is logged when the agent shuts down.
+ * </p>
+ * <p>
+ * Configuration:
+ * <ul>
+ * <li><code>analytics.dispatcher.enabled</code> - whether to send beacons in the background (default:
+ * <code>true</code>)</li>
+ * <li><code>analytics.dispatcher.threads</code> - number of worker threads on the agent (default: 2)</li>
+ * <li><code>analytics.dispatcher.queue</code> - maximum number of queued beacons on the agent (default: 1000)</li>
+ * </ul>
+ * </p>
+ *
+ * @author Xiaobai Wang
+ */
+public final class BeaconDispatcher
+{
+    /** Name of the custom timer. */
+    private static final String TIMER_NAME = "Analytics";
+
+    /** Whether beacons are sent in the background. */
+    private final boolean enabled;
+
+    /** The worker pool with its bounded queue, <code>null</code> if the dispatcher is disabled. */
+    private final ThreadPoolExecutor executor;
+
+    /** Number of beacons sent successfully. */
+    private final AtomicLong sent = new AtomicLong();
+
+    /** Number of beacons that failed. */
+    private final AtomicLong failed = new AtomicLong();
+
+    /** Number of beacons dropped because the queue was full or their user finished. */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Private constructor to prevent external instantiation.
+     */
+    private BeaconDispatcher()
+    {
+        final XltProperties props = XltProperties.getInstance();
+        this.enabled = props.getProperty("analytics.dispatcher.enabled", true);
+
+        if (enabled)
+        {
+            final int threads = Math.max(1, props.getProperty("analytics.dispatcher.threads", 2));
+            final int queue = Math.max(1, props.getProperty("analytics.dispatcher.queue", 1000));
+
+            final ThreadFactory threadFactory = new ThreadFactory()
+            {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(final Runnable r)
+                {
+                    final Thread thread = new Thread(r, "BeaconDispatcher-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            };
+            this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queue),
+                                                   threadFactory);
+
+            Runtime.getRuntime().addShutdownHook(new Thread("BeaconDispatcher-Report")
+            {
+                @Override
+                public void run()
+                {
+                    XltLogger.runTimeLogger.info(BeaconDispatcher.this.toString());
+                }
+            });
+        }
+        else
+        {
+            this.executor = null;
+        }
+    }
+
+    /**
+     * Returns the agent-wide dispatcher instance.
+     *
+     * @return dispatcher instance
+     */
+    public static BeaconDispatcher getInstance()
+    {
+        return Singleton_Holder._INSTANCE;
+    }
+
+    /**
+     * Whether beacons are sent in the background.
+     *
+     * @return <code>true</code> if the dispatcher is enabled, <code>false</code> otherwise
+     */
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Queues a beacon. Must be called by the user's thread.
+     *
+     * @param webClient
+     *            the user's web client
+     * @param request
+     *            the beacon request
+     * @return <code>true</code> if the beacon was queued, <code>false</code> if it was dropped
+     */
+    public boolean dispatch(final WebClient webClient, final WebRequest request)
+    {
+        final Session session = Session.getCurrent();
+        final Context context = Context.capture();
+
+        try
+        {
+            executor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if (context != null && context.isReleased())
+                    {
+                        drop(session, "User finished before the beacon was sent");
+                    }
+                    else
+                    {
+                        send(session, webClient, request);
+                    }
+                }
+            });
+        }
+        catch (final RejectedExecutionException e)
+        {
+            drop(session, "Beacon queue full");
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Sends the given beacon and records its runtime for the given session. Runs in a worker thread.
+     *
+     * @param session
+     *            the session of the user that sent the beacon
+     * @param webClient
+     *            the user's web client
+     * @param request
+     *            the beacon request
+     */
+    private void send(final Session session, final WebClient webClient, final WebRequest request)
+    {
+        final CustomData timer = new CustomData(TIMER_NAME);
+        final long start = System.currentTimeMillis();
+
+        boolean ok = false;
+        try
+        {
+            final WebResponse response = webClient.loadWebResponse(request);
+            ok = response.getStatusCode() == 200;
+        }
+        catch (final Exception e)
+        {
+            XltLogger.runTimeLogger.debug("Failed to send analytics beacon: " + request.getUrl(), e);
+        }
+
+        (ok ? sent : failed).incrementAndGet();
+
+        timer.setRunTime(System.currentTimeMillis() - start);
+        timer.setFailed(!ok);
+        session.getDataManager().logDataRecord(timer);
+    }
+
+    /**
+     * Counts a dropped beacon and logs an event for the given session.
+     *
+     * @param session
+     *            the session of the user that sent the beacon
+     * @param reason
+     *            why the beacon was dropped
+     */
+    private void drop(final Session session, final String reason)
+    {
+        dropped.incrementAndGet();
+        session.getDataManager().logEvent("Analytics beacon dropped", reason);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "Analytics beacons: " + sent.get() + " sent, " + failed.get() + " failed, " + dropped.get() + " dropped";
+    }
+
+    /**
+     * Singleton holder
+     */
+    private static class Singleton_Holder
+    {
+        /** Singleton */
+        private static final BeaconDispatcher _INSTANCE = new BeaconDispatcher();
+    }
+}
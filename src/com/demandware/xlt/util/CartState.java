@@ -0,0 +1,163 @@
+package com.demandware.xlt.util;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.gargoylesoftware.htmlunit.WebResponse;
+import com.gargoylesoftware.htmlunit.html.HtmlElement;
+import com.xceptance.xlt.api.util.XltLogger;
+
+/**
+ * Client side model of the session's cart. It is kept up to date from the responses the test receives anyway (add to
+ * cart requests, cart pages), so the cart content does not need to be requested separately for each check.
+ * <p>
+ * The model is verified against the mini cart JSON (see {@link Page#getNumItemsInMiniCartByAjax()}) whenever its
+ * state is unknown and every <code>cart.verify.json.every</code> cart operations. Setting this to <code>0</code>
+ * verifies unknown states only.
+ * </p>
+ *
+ * @author Xiaobai Wang
+ */
+public class CartState
+{
+    /** Quantity value of an unknown cart state. */
+    private static final int UNKNOWN = -1;
+
+    /** Pattern to extract the total quantity from a mini cart fragment, e.g. <code>class="minicart-quantity"&gt;3</code>. */
+    private static final Pattern MINI_CART_QUANTITY_PATTERN = Pattern.compile("class=\"(?:[^\"]*\\s)?minicart-quantity(?:\\s[^\"]*)?\"[^>]*>\\s*(\\d+)");
+
+    /** Number of cart operations after which the model is verified, <code>0</code> to never verify a known state. */
+    private final int verifyEvery;
+
+    /** Total quantity of all cart items or {@link #UNKNOWN}. */
+    private int quantity = UNKNOWN;
+
+    /** Number of cart operations since the last verification. */
+    private int operations;
+
+    /**
+     * Constructor
+     *
+     * @param verifyEvery
+     *            number of cart operations after which the model is verified, <code>0</code> to never verify a known
+     *            state
+     */
+    CartState(final int verifyEvery)
+    {
+        this.verifyEvery = Math.max(0, verifyEvery);
+    }
+
+    /**
+     * Get the total quantity of all cart items. The quantity is requested from the server if the state is unknown or
+     * a verification is due.
+     *
+     * @return total quantity of all cart items
+     * @throws Exception
+     *             if the verification request fails
+     */
+    public int getQuantity() throws Exception
+    {
+        if (quantity == UNKNOWN || (verifyEvery > 0 && operations >= verifyEvery))
+        {
+            verify();
+        }
+        return quantity;
+    }
+
+    /**
+     * Requests the cart's total quantity from the server and takes it as the new state.
+     *
+     * @return total quantity of all cart items
+     * @throws Exception
+     *             if the verification request fails
+     */
+    public int verify() throws Exception
+    {
+        final int actual = Page.getNumItemsInMiniCartByAjax();
+        if (quantity != UNKNOWN && quantity != actual)
+        {
+            XltLogger.runTimeLogger.debug("Cart model out of sync. Expected quantity " + quantity + " but was " + actual);
+        }
+
+        quantity = actual;
+        operations = 0;
+
+        return quantity;
+    }
+
+    /**
+     * Records successful add to cart requests and takes the quantity shown by the mini cart fragments they returned as
+     * the new state. If the requests were sent in parallel, the highest quantity wins, as each response shows the cart
+     * including its own item. If any fragment does not show the quantity, the state becomes unknown.
+     *
+     * @param responses
+     *            the add to cart responses
+     */
+    public void added(final List<WebResponse> responses)
+    {
+        int total = UNKNOWN;
+        for (final WebResponse response : responses)
+        {
+            final String content = response.getContentAsString();
+            final Matcher matcher = content == null ? null : MINI_CART_QUANTITY_PATTERN.matcher(content);
+            if (matcher == null || !matcher.find())
+            {
+                // cannot read the response, ask the server next time
+                XltLogger.runTimeLogger.debug("No cart quantity found in add to cart response: " + response.getWebRequest().getUrl());
+                invalidate();
+                return;
+            }
+            total = Math.max(total, Integer.parseInt(matcher.group(1)));
+        }
+
+        if (total != UNKNOWN)
+        {
+            quantity = total;
+        }
+        operations++;
+    }
+
+    /**
+     * Takes the quantities listed on the current cart page as the new state.
+     */
+    public void updateFromCartPage()
+    {
+        if (Page.isCartPageCartEmpty())
+        {
+            quantity = 0;
+            operations = 0;
+            return;
+        }
+
+        int total = 0;
+        final List<HtmlElement> quantityFields = Page.getCartTableLocator().byCss(Page.CART_ROW_CSS + " .item-quantity > .input-text")
+                                                     .all();
+        for (final HtmlElement quantityField : quantityFields)
+        {
+            final String value = quantityField.getAttribute("value").trim();
+            if (StringUtils.isEmpty(value) || !StringUtils.isNumeric(value))
+            {
+                // cannot read the page, ask the server next time
+                invalidate();
+                return;
+            }
+            total += Integer.parseInt(value);
+        }
+
+        quantity = total;
+        operations = 0;
+    }
+
+    /**
+     * Forgets the current state, e.g. because the cart was changed by the server. The next access requests the
+     * quantity from the server.
+     */
+    public void invalidate()
+    {
+        quantity = UNKNOWN;
+        operations = 0;
+    }
+}
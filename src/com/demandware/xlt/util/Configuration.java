@@ -2,18 +2,19 @@ package com.demandware.xlt.util;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang.RandomStringUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.junit.Assert;
 
-import com.xceptance.common.util.PropertiesUtils;
 import com.xceptance.xlt.api.engine.Session;
-import com.xceptance.xlt.api.util.XltProperties;
 import com.xceptance.xlt.api.util.XltRandom;
 
 /**
@@ -109,7 +110,47 @@ public class Configuration
     /**
      * Holds the distribution to pick from
      */
-    private int[] productDistribution;
+    private WeightedChoice<Integer> productDistribution;
+
+    /**
+     * Decision to browse via top category
+     */
+    private final WeightedChoice<Boolean> topCategoryBrowsingChoice;
+
+    /**
+     * Decision to refine
+     */
+    private final WeightedChoice<Boolean> refineChoice;
+
+    /**
+     * Decision to sort
+     */
+    private final WeightedChoice<Boolean> sortingChoice;
+
+    /**
+     * Decision to page
+     */
+    private final WeightedChoice<Boolean> pagingChoice;
+
+    /**
+     * Decision to change the number of items per page
+     */
+    private final WeightedChoice<Boolean> itemsPerPageChoice;
+
+    /**
+     * Decision to open a quick view
+     */
+    private final WeightedChoice<Boolean> quickViewChoice;
+
+    /**
+     * Decision to search for no hits
+     */
+    private final WeightedChoice<Boolean> searchNoHitsChoice;
+
+    /**
+     * Decision to pay with PayPal
+     */
+    private final WeightedChoice<Boolean> paypalChoice;
 
     /**
      * Probability to execute a 'no-hits' search
@@ -131,6 +172,26 @@ public class Configuration
      */
     private final boolean loadAppResources;
 
+    /**
+     * How long parsed app resources are shared by all users [ms]
+     */
+    private final long appResourcesTimeToLive;
+
+    /**
+     * Whether or not to make the Resources-Load call if shared app resources are available
+     */
+    private final boolean appResourcesFetchAlways;
+
+    /**
+     * Maximum number of XHRs a user sends in parallel
+     */
+    private final int asyncXhrThreads;
+
+    /**
+     * How XHRs replace the content of page elements
+     */
+    private final DomPatcher.Mode xhrUpdateMode;
+
     /**
      * Whether or not to load search suggestions
      */
@@ -141,6 +202,11 @@ public class Configuration
      */
     private final boolean isAccountPoolSiteSeparated;
 
+    /**
+     * Number of cart operations after which the cart model is verified
+     */
+    private final int cartVerificationInterval;
+
     /**
      * The predefined country code
      */
@@ -221,6 +287,11 @@ public class Configuration
      */
     private final String language;
 
+    /**
+     * Reads prices in the format of the current language
+     */
+    private final PriceParser priceParser;
+
     private final int paypalProbability;
 
     private final int paymentsBlockedAbove;
@@ -241,12 +312,76 @@ public class Configuration
     
     private final List<String> storeZipcodes;
 
+    /**
+     * The properties this configuration was read from
+     */
+    private final ConfigurationReloader.Snapshot snapshot;
+
+    /**
+     * Effective property keys of the test scope
+     */
+    private final PropertyResolver resolver;
+
+    /**
+     * Last configuration snapshot version seen by test scope, to log reloads once
+     */
+    private static final Map<String, Integer> SNAPSHOT_VERSIONS = new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * Get a new configuration for the given test and the current user, read from the current configuration snapshot
+     * (see {@link ConfigurationReloader}). The configuration holds per-user state, so it is created per context and
+     * never shared. Only the immutable effective key table (see {@link PropertyResolver}) is shared per test scope and
+     * snapshot. If a newer snapshot than the last one seen for the test scope is used, the reload is logged as event.
+     * 
+     * @param testClassName
+     *            the name of the test case class
+     * @param site
+     *            site context
+     * @return the configuration
+     */
+    public static Configuration getInstance(final String testClassName, final Site site)
+    {
+        final ConfigurationReloader.Snapshot snapshot = ConfigurationReloader.getInstance().getSnapshot();
+
+        if (snapshot.getVersion() > 0)
+        {
+            final String scope = Session.getCurrent().getUserName() + '\n' + site.name() + '\n' + testClassName;
+            final Integer previous = SNAPSHOT_VERSIONS.put(scope, snapshot.getVersion());
+            if (previous == null || previous.intValue() != snapshot.getVersion())
+            {
+                Session.logEvent("Configuration reloaded",
+                                 "Snapshot " + snapshot.getVersion() + " for " + testClassName + ": " + snapshot.getChanges());
+            }
+        }
+
+        return new Configuration(testClassName, site, snapshot);
+    }
+
     public Configuration(final String testClassName, final Site site)
+    {
+        this(testClassName, site, ConfigurationReloader.getInstance().getSnapshot());
+    }
+
+    /**
+     * Reads the configuration from the given snapshot.
+     * 
+     * @param testClassName
+     *            the name of the test case class
+     * @param site
+     *            site context
+     * @param snapshot
+     *            the properties to read from
+     */
+    private Configuration(final String testClassName, final Site site, final ConfigurationReloader.Snapshot snapshot)
     {
         this.testClassName = testClassName;
 
         this.site = site;
 
+        this.snapshot = snapshot;
+        this.resolver = PropertyResolver.getInstance(snapshot, Session.getCurrent().getUserName(), site.getPropertyPrefix(),
+                                                     testClassName);
+
         // search
         this.searchNoHitsProbability = getProperty("search.noHitsProbability", 0);
         this.searchSuggestionsEnabled = getProperty("search.loadSuggestions", true);
@@ -279,6 +414,7 @@ public class Configuration
         {
             setupDistributionData();
         }
+        this.cartVerificationInterval = getProperty("cart.verify.json.every", 1);
         // address
         // NOTE: non configured values are generated directly in the AddressImpl.java
         this.street = getProperty("address.1.street");
@@ -302,6 +438,10 @@ public class Configuration
         // other
         this.loadAnalytics = getProperty("load.analytics", false);
         this.loadAppResources = getProperty("load.resources-load", false);
+        this.appResourcesTimeToLive = Math.max(0, getProperty("appResources.shared.ttl", 300)) * 1000L;
+        this.appResourcesFetchAlways = getProperty("appResources.shared.fetch", true);
+        this.asyncXhrThreads = Math.max(1, getProperty("xhr.async.threads", 4));
+        this.xhrUpdateMode = DomPatcher.Mode.valueOf(getProperty("xhr.update.mode", "replace").trim().toUpperCase(Locale.ENGLISH));
         this.isAccountPoolSiteSeparated = getProperty("account.pool.siteSeparated", false);
         this.language = getProperty("test.language");
 
@@ -319,6 +459,16 @@ public class Configuration
             this.paymentsBlockedBelow = (upperLimit >= 0) ? upperLimit : Integer.MAX_VALUE;
         }
 
+        // branch decisions
+        this.topCategoryBrowsingChoice = createChoice("browsing.topCategoryProbability", topCategoryBrowsingProbability);
+        this.refineChoice = createChoice("browsing.refinement.probability", refineProbability);
+        this.sortingChoice = createChoice("browsing.sortProbability", sortingProbability);
+        this.pagingChoice = createChoice("browsing.paging.probability", pagingProbability);
+        this.itemsPerPageChoice = createChoice("browsing.changeItemsPerPageProbability", itemsPerPageProbability);
+        this.quickViewChoice = createChoice("browsing.quickviewProbability", quickViewProbability);
+        this.searchNoHitsChoice = createChoice("search.noHitsProbability", searchNoHitsProbability);
+        this.paypalChoice = createChoice("payment.paypal.probability", paypalProbability);
+
         // Store locator
         this.minStoreSearches = getProperty("storeSearch.min", 0);
         this.maxStoreSearches = getProperty("storeSearch.max", 0);
@@ -328,6 +478,7 @@ public class Configuration
         this.storeZipcodes = getSplittedPropertyList("storeSearch.zipcodes", " ");
 
         Assert.assertNotNull("Property test.language have to be set", this.language);
+        this.priceParser = PriceParser.forLanguage(this.language);
     }
 
     /**
@@ -341,78 +492,8 @@ public class Configuration
      * <li>site prefix plus plus simple key (e.g. <b>de.</b>password)</li>
      * <li>simple key (e.g. password)</li>
      * </ol>
-     * 
-     * @param bareKey
-     *            the bare property key, i.e. without any prefixes
-     * @param sitePrefix
-     *            site specific property prefix (if any)
-     * @return the first key that produces a result
-     */
-    private String getEffectiveKey(final String bareKey, final String sitePrefix)
-    {
-        String effectiveKey = null;
-        final XltProperties xltProperties = XltProperties.getInstance();
-
-        // 1. use the test class' simple name as prefix
-        // TBrowse.<property> (matches all *.TBrowse)
-        // final String userNameQualifiedKey = this.testCaseSimpleName + "." + bareKey;
-        final String userNameQualifiedKey = Session.getCurrent().getUserName() + "." + bareKey;
-        if (xltProperties.containsKey(userNameQualifiedKey))
-        {
-            effectiveKey = userNameQualifiedKey;
-        }
-        else
-        {
-            // 2. use site specific prefix and test case simple class name as property prefix
-            // e.g. <site>.TBrowse.<property> (matches all TBrowse in context of <site>)
-            final String prefixedClassKey = sitePrefix + "." + testClassName + "." + bareKey;
-            if (xltProperties.containsKey(prefixedClassKey))
-            {
-                effectiveKey = prefixedClassKey;
-            }
-            else
-            {
-                // 3. use the test class name as prefix since this is the most specific property
-                // e.g. com.xlt.project.test.TBrowse.property (matches this specific class only)
-                final String classNameQualifiedKey = this.testClassName + "." + bareKey;
-                if (xltProperties.containsKey(classNameQualifiedKey))
-                {
-                    effectiveKey = classNameQualifiedKey;
-                }
-                else
-                {
-                    // 4. use the given site prefix and the bare key
-                    // e.g. <site>.<property> (matches all tests in context of <site>)
-                    final String prefixedBareKey = sitePrefix + bareKey;
-                    if (xltProperties.containsKey(prefixedBareKey))
-                    {
-                        effectiveKey = prefixedBareKey;
-                    }
-                    else
-                    {
-                        // 5. use bare key (most general property notation)
-                        // just <property>
-                        effectiveKey = bareKey;
-                    }
-                }
-            }
-        }
-
-        return effectiveKey;
-    }
-
-    /**
-     * Returns the effective key to be used for property lookup via one of the getProperty(...) methods.
-     * <p>
-     * This method implements the fall-back logic:
-     * <ol>
-     * <li>user name plus simple key (e.g. <b>TMyRunningTest.</b>password)</li>
-     * <li>site prefix plus user name plus simple key (e.g. <b>de.TMyRunningTest.</b>password)</li>
-     * <li>test class name plus simple key (e.g. <b>com.xceptance.xlt.samples.testsuite.tests.TAuthor.</b>password)</li>
-     * <li>site prefix plus plus simple key (e.g. <b>de.</b>password)</li>
-     * <li>simple key (e.g. password)</li>
-     * </ol>
-     * As site the currently configured site is taken.
+     * As site the currently configured site is taken. The keys are looked up in the precomputed table of the test
+     * scope (see {@link PropertyResolver}).
      * 
      * @param bareKey
      *            the bare property key, i.e. without any prefixes
@@ -420,7 +501,7 @@ public class Configuration
      */
     protected String getEffectiveKey(final String bareKey)
     {
-        return getEffectiveKey(bareKey, site.getPropertyPrefix());
+        return resolver.getEffectiveKey(bareKey);
     }
 
     /**
@@ -565,6 +646,46 @@ public class Configuration
         return loadAppResources;
     }
 
+    /**
+     * Get how long parsed app resources are shared by all users.
+     * 
+     * @return time to live of shared app resources [ms], <code>0</code> if app resources are not shared
+     */
+    public long getAppResourcesTimeToLive()
+    {
+        return appResourcesTimeToLive;
+    }
+
+    /**
+     * Is the Resources-Load call desired even if shared app resources are available?
+     * 
+     * @return <code>true</code> if the Resources-Load call is always made, <code>false</code> otherwise.
+     */
+    public boolean fetchSharedAppResources()
+    {
+        return appResourcesFetchAlways;
+    }
+
+    /**
+     * Get the maximum number of XHRs a user sends in parallel.
+     * 
+     * @return maximum number of parallel XHRs per user
+     */
+    public int getAsyncXhrThreads()
+    {
+        return asyncXhrThreads;
+    }
+
+    /**
+     * Get how XHRs replace the content of page elements.
+     * 
+     * @return the update mode
+     */
+    public DomPatcher.Mode getXhrUpdateMode()
+    {
+        return xhrUpdateMode;
+    }
+
     /**
      * Load search suggestions?
      * 
@@ -582,9 +703,9 @@ public class Configuration
      */
     public int getNumberOfProductsForAddToCart()
     {
-        if (productDistributionData != null)
+        if (productDistribution != null)
         {
-            return productDistribution[XltRandom.nextInt(productDistribution.length)];
+            return productDistribution.next();
         }
         else
         {
@@ -679,20 +800,121 @@ public class Configuration
             return;
         }
 
-        // Create the array of integers
-        final int[] distributionList = new int[total];
-
-        int pos = 0;
+        // One branch per bucket, weighted by the bucket's amount
+        final List<Integer> values = new ArrayList<Integer>(buckets.size());
+        final int[] amounts = new int[buckets.size()];
         for (final Pair pair : buckets)
         {
-            for (int i = 0; i < pair.amount; i++)
-            {
-                distributionList[pos] = pair.value;
-                pos++;
-            }
+            amounts[values.size()] = pair.amount;
+            values.add(pair.value);
         }
 
-        this.productDistribution = distributionList;
+        this.productDistribution = new WeightedChoice<Integer>(testClassName + ": addToCart.products.distribution", values, amounts);
+    }
+
+    /**
+     * Creates a yes/no decision of this test.
+     * 
+     * @param key
+     *            property key of the probability, used for reporting
+     * @param probability
+     *            probability in percent
+     * @return the decision
+     */
+    private WeightedChoice<Boolean> createChoice(final String key, final int probability)
+    {
+        final String version = snapshot.getVersion() > 0 ? " (snapshot " + snapshot.getVersion() + ")" : "";
+        return WeightedChoice.probability(testClassName + version + ": " + key, probability);
+    }
+
+    /**
+     * Get the decision to browse via top category instead of a sub category.
+     * 
+     * @return top category decision
+     */
+    public WeightedChoice<Boolean> getTopCategoryBrowsingChoice()
+    {
+        return topCategoryBrowsingChoice;
+    }
+
+    /**
+     * Get the decision to refine a product grid.
+     * 
+     * @return refine decision
+     */
+    public WeightedChoice<Boolean> getRefineChoice()
+    {
+        return refineChoice;
+    }
+
+    /**
+     * Get the decision to sort a product grid.
+     * 
+     * @return sorting decision
+     */
+    public WeightedChoice<Boolean> getSortingChoice()
+    {
+        return sortingChoice;
+    }
+
+    /**
+     * Get the decision to page through a product grid.
+     * 
+     * @return paging decision
+     */
+    public WeightedChoice<Boolean> getPagingChoice()
+    {
+        return pagingChoice;
+    }
+
+    /**
+     * Get the decision to change the number of items per page.
+     * 
+     * @return items per page decision
+     */
+    public WeightedChoice<Boolean> getItemsPerPageChoice()
+    {
+        return itemsPerPageChoice;
+    }
+
+    /**
+     * Get the decision to open product details in a quick view instead of a separate page.
+     * 
+     * @return quick view decision
+     */
+    public WeightedChoice<Boolean> getQuickViewChoice()
+    {
+        return quickViewChoice;
+    }
+
+    /**
+     * Get the decision to search for a phrase without hits.
+     * 
+     * @return no hits search decision
+     */
+    public WeightedChoice<Boolean> getSearchNoHitsChoice()
+    {
+        return searchNoHitsChoice;
+    }
+
+    /**
+     * Get the decision to pay with PayPal.
+     * 
+     * @return PayPal decision
+     */
+    public WeightedChoice<Boolean> getPaypalChoice()
+    {
+        return paypalChoice;
+    }
+
+    /**
+     * Get the number of cart operations after which the cart model is verified against the mini cart JSON.
+     * 
+     * @return cart verification interval, <code>0</code> if a known cart state is never verified
+     */
+    public int getCartVerificationInterval()
+    {
+        return cartVerificationInterval;
     }
 
     /**
@@ -728,9 +950,9 @@ public class Configuration
      */
     public int getProperty(final String key, final int defaultValue)
     {
-        final String effectiveKey = getEffectiveKey(key);
+        final String value = snapshot.getProperty(getEffectiveKey(key));
 
-        return XltProperties.getInstance().getProperty(effectiveKey, defaultValue);
+        return value != null ? Integer.parseInt(value) : defaultValue;
     }
 
     /**
@@ -746,9 +968,9 @@ public class Configuration
      */
     public String getProperty(final String key, final String defaultValue)
     {
-        final String effectiveKey = getEffectiveKey(key);
+        final String value = snapshot.getProperty(getEffectiveKey(key));
 
-        return XltProperties.getInstance().getProperty(effectiveKey, defaultValue);
+        return value != null ? value : defaultValue;
     }
 
     /**
@@ -764,9 +986,9 @@ public class Configuration
      */
     public boolean getProperty(final String key, final boolean defaultValue)
     {
-        final String effectiveKey = getEffectiveKey(key);
+        final String value = snapshot.getProperty(getEffectiveKey(key));
 
-        return XltProperties.getInstance().getProperty(effectiveKey, defaultValue);
+        return value != null ? Boolean.valueOf(value) : defaultValue;
     }
 
     /**
@@ -787,9 +1009,7 @@ public class Configuration
      */
     public String getProperty(final String key)
     {
-        final String effectiveKey = getEffectiveKey(key);
-
-        return XltProperties.getInstance().getProperty(effectiveKey);
+        return snapshot.getProperty(getEffectiveKey(key));
     }
 
     /**
@@ -804,7 +1024,18 @@ public class Configuration
      */
     public Map<String, String> getPropertiesForKey(final String domain)
     {
-        return PropertiesUtils.getPropertiesForKey(getEffectiveKey(domain), XltProperties.getInstance().getProperties());
+        final String prefix = getEffectiveKey(domain) + ".";
+
+        final Map<String, String> result = new HashMap<String, String>();
+        for (final Map.Entry<String, String> entry : snapshot.getProperties().entrySet())
+        {
+            final String key = entry.getKey();
+            if (key.length() > prefix.length() && key.startsWith(prefix))
+            {
+                result.put(key.substring(prefix.length()), entry.getValue());
+            }
+        }
+        return result;
     }
 
     /**
@@ -1039,7 +1270,7 @@ public class Configuration
      * 
      * @return the configured language for this TestCase
      */
-    private String getLanguage()
+    public String getLanguage()
     {
         return this.language;
     }
@@ -1078,6 +1309,16 @@ public class Configuration
                                                                                                                              .next();
     }
 
+    /**
+     * Get the parser for prices in the format of the configured language.
+     * 
+     * @return price parser
+     */
+    public PriceParser getPriceParser()
+    {
+        return priceParser;
+    }
+
     /**
      * Get the upper limit of blocked payment value.
      * 
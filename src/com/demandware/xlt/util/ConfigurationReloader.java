@@ -0,0 +1,304 @@
+package com.demandware.xlt.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.xceptance.xlt.api.util.XltLogger;
+import com.xceptance.xlt.api.util.XltProperties;
+
+/**
+ * Publishes the properties the test {@link Configuration} is read from as immutable, versioned snapshots.
+ * <p>
+ * Properties in an optional overlay file override the test suite's properties. The overlay file is watched while the
+ * test is running. Whenever it changes, a new snapshot is built and published at once. Readers just pick up the
+ * current snapshot, there's no locking involved. Each test iteration reads its configuration from the snapshot that
+ * is current when the iteration starts.
+ * </p>
+ * <p>
+ * Configuration:
+ * <ul>
+ * <li><code>configuration.reload.file</code> - the overlay file, relative to the <code>config</code> directory
+ * (default: none, reloading is disabled)</li>
+ * <li><code>configuration.reload.interval</code> - how often to check the file for changes in seconds (default: 10)</li>
+ * </ul>
+ * </p>
+ *
+ * @author Xiaobai Wang
+ */
+public final class ConfigurationReloader
+{
+    /** The overlay file or <code>null</code> if reloading is disabled. */
+    private final File overlayFile;
+
+    /** Properties of the test suite. */
+    private final Map<String, String> baseProperties;
+
+    /** The current snapshot. */
+    private volatile Snapshot snapshot;
+
+    /** Modification time of the overlay file the current snapshot was built from. */
+    private long overlayLastModified;
+
+    /** Length of the overlay file the current snapshot was built from. */
+    private long overlayLength;
+
+    /**
+     * Private constructor to prevent external instantiation.
+     */
+    private ConfigurationReloader()
+    {
+        final XltProperties props = XltProperties.getInstance();
+
+        final Properties properties = props.getProperties();
+        final Map<String, String> base = new HashMap<String, String>();
+        for (final String key : properties.stringPropertyNames())
+        {
+            base.put(key, properties.getProperty(key).trim());
+        }
+        this.baseProperties = Collections.unmodifiableMap(base);
+
+        final String fileName = props.getProperty("configuration.reload.file", "").trim();
+        if (fileName.isEmpty())
+        {
+            this.overlayFile = null;
+            this.snapshot = new Snapshot(0, baseProperties, "");
+        }
+        else
+        {
+            final File file = new File(fileName);
+            this.overlayFile = file.isAbsolute() ? file : new File("config", fileName);
+
+            final Map<String, String> overlay = readOverlay();
+            this.snapshot = new Snapshot(0, merge(overlay), "initial overlay " + new TreeSet<String>(overlay.keySet()));
+
+            final int interval = Math.max(1, props.getProperty("configuration.reload.interval", 10));
+            final ScheduledExecutorService watcher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(final Runnable r)
+                {
+                    final Thread thread = new Thread(r, "ConfigurationReloader");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            watcher.scheduleWithFixedDelay(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    checkOverlay();
+                }
+            }, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Returns the reloader instance.
+     *
+     * @return reloader instance
+     */
+    public static ConfigurationReloader getInstance()
+    {
+        return Singleton_Holder._INSTANCE;
+    }
+
+    /**
+     * Get the current snapshot.
+     *
+     * @return current snapshot
+     */
+    public Snapshot getSnapshot()
+    {
+        return snapshot;
+    }
+
+    /**
+     * Checks the overlay file for changes and publishes a new snapshot if it has changed.
+     */
+    synchronized void checkOverlay()
+    {
+        if (overlayFile.lastModified() == overlayLastModified && overlayFile.length() == overlayLength)
+        {
+            return;
+        }
+
+        try
+        {
+            final Snapshot previous = snapshot;
+            final Map<String, String> merged = merge(readOverlay());
+
+            // collect changed keys for the log
+            final TreeSet<String> changed = new TreeSet<String>();
+            for (final Map.Entry<String, String> entry : merged.entrySet())
+            {
+                if (!entry.getValue().equals(previous.properties.get(entry.getKey())))
+                {
+                    changed.add(entry.getKey() + "=" + entry.getValue());
+                }
+            }
+            for (final String key : previous.properties.keySet())
+            {
+                if (!merged.containsKey(key))
+                {
+                    changed.add(key + " removed");
+                }
+            }
+
+            if (!changed.isEmpty())
+            {
+                snapshot = new Snapshot(previous.version + 1, merged, changed.toString());
+                XltLogger.runTimeLogger.info("Configuration snapshot " + snapshot.version + " published: " + snapshot.changes);
+            }
+        }
+        catch (final Exception e)
+        {
+            XltLogger.runTimeLogger.error("Failed to reload configuration from " + overlayFile.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Reads the overlay file and remembers its state.
+     *
+     * @return overlay properties, empty if the file does not exist or cannot be read
+     */
+    private Map<String, String> readOverlay()
+    {
+        overlayLastModified = overlayFile.lastModified();
+        overlayLength = overlayFile.length();
+
+        final Map<String, String> overlay = new HashMap<String, String>();
+        if (!overlayFile.isFile())
+        {
+            return overlay;
+        }
+
+        final Properties properties = new Properties();
+        try (final InputStream in = new FileInputStream(overlayFile))
+        {
+            properties.load(in);
+        }
+        catch (final IOException e)
+        {
+            XltLogger.runTimeLogger.error("Failed to read configuration overlay " + overlayFile.getAbsolutePath(), e);
+        }
+
+        for (final String key : properties.stringPropertyNames())
+        {
+            overlay.put(key, properties.getProperty(key).trim());
+        }
+        return overlay;
+    }
+
+    /**
+     * Applies the given overlay to the test suite's properties.
+     *
+     * @param overlay
+     *            overlay properties
+     * @return the merged properties
+     */
+    private Map<String, String> merge(final Map<String, String> overlay)
+    {
+        final Map<String, String> merged = new HashMap<String, String>(baseProperties);
+        merged.putAll(overlay);
+        return Collections.unmodifiableMap(merged);
+    }
+
+    /**
+     * Immutable set of properties.
+     */
+    public static final class Snapshot
+    {
+        /** Snapshot version, starting with 0. */
+        private final int version;
+
+        /** The properties. */
+        private final Map<String, String> properties;
+
+        /** Description of the changes to the previous snapshot. */
+        private final String changes;
+
+        /** Property resolvers built for this snapshot by test scope. */
+        final Map<String, PropertyResolver> resolvers = new ConcurrentHashMap<String, PropertyResolver>();
+
+        /**
+         * Constructor
+         *
+         * @param version
+         *            snapshot version
+         * @param properties
+         *            the (unmodifiable) properties
+         * @param changes
+         *            description of the changes to the previous snapshot
+         */
+        private Snapshot(final int version, final Map<String, String> properties, final String changes)
+        {
+            this.version = version;
+            this.properties = properties;
+            this.changes = changes;
+        }
+
+        /**
+         * Get the snapshot version.
+         *
+         * @return version, <code>0</code> for the initial snapshot
+         */
+        public int getVersion()
+        {
+            return version;
+        }
+
+        /**
+         * Get the value of the given property.
+         *
+         * @param key
+         *            property key
+         * @return the (trimmed) value or <code>null</code> if there's no such property
+         */
+        public String getProperty(final String key)
+        {
+            return properties.get(key);
+        }
+
+        /**
+         * Get all properties.
+         *
+         * @return unmodifiable map of all properties
+         */
+        public Map<String, String> getProperties()
+        {
+            return properties;
+        }
+
+        /**
+         * Get a description of the changes to the previous snapshot.
+         *
+         * @return changes
+         */
+        public String getChanges()
+        {
+            return changes;
+        }
+    }
+
+    /**
+     * Singleton holder
+     */
+    private static class Singleton_Holder
+    {
+        /** Singleton */
+        private static final ConfigurationReloader _INSTANCE = new ConfigurationReloader();
+    }
+}
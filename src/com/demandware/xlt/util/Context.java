@@ -1,22 +1,29 @@
 package com.demandware.xlt.util;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.commons.collections.MapUtils;
-import org.eclipse.jetty.util.ConcurrentHashSet;
 import org.junit.Assert;
 
 import com.demandware.xlt.actions.AbstractHtmlPageAction;
 import com.gargoylesoftware.htmlunit.html.HtmlPage;
-import com.xceptance.xlt.api.data.DataProvider;
 import com.xceptance.xlt.api.engine.Session;
 import com.xceptance.xlt.api.util.XltLogger;
+import com.xceptance.xlt.api.util.XltProperties;
 import com.xceptance.xlt.api.util.elementLookup.Results;
+import com.xceptance.xlt.api.util.elementLookup.strategy.LookupStatistics;
+import com.xceptance.xlt.api.util.elementLookup.strategy.PageLookupCache;
+import com.xceptance.xlt.api.util.elementLookup.strategy.XPathCache;
 import com.xceptance.xlt.common.XltConstants;
 
 /**
@@ -27,14 +34,20 @@ import com.xceptance.xlt.common.XltConstants;
 public class Context
 {
     /**
-     * Data provider for search results.
+     * Search phrases by site, loaded on first use.
      */
-    private static final Map<Site, DataProvider> HITS_PROVIDERS = initHitProviders();
+    private static final Map<Site, MappedLines> HITS_PROVIDERS = new ConcurrentHashMap<Site, MappedLines>();
 
     /**
-     * Known test contexts.
+     * Test context bound to the current thread.
      */
-    private static final Map<ThreadGroup, Context> CONTEXTS = new ConcurrentHashMap<ThreadGroup, Context>();
+    private static final ThreadLocal<Context> CURRENT = new ThreadLocal<Context>();
+
+    /**
+     * Known test contexts by thread group. Used for threads of the test's thread group that were not bound to a
+     * context explicitly.
+     */
+    private static final ConcurrentMap<ThreadGroup, Context> CONTEXTS = new ConcurrentHashMap<ThreadGroup, Context>();
 
     /**
      * The Configuration for the current thread, wrapped and buffered from the properties.
@@ -56,8 +69,8 @@ public class Context
      */
     private Account account;
 
-    /** String that represents the JavaScript snippet that contains the app.URLs */
-    private String appResources;
+    /** The parsed JavaScript snippet that contains the app.URLs */
+    private AppResources appResources;
 
     /**
      * Hash code of page where the current {@link #appResources} were looked up from. This is used to determine if
@@ -68,12 +81,6 @@ public class Context
     /** Only for debugging: Map to remember debug Messages. */
     private Map<String, Map<String, Integer>> debugMessagesMap;
 
-    /** Only for debugging: Map to remember xpath which hadn't had a hit jet. */
-    private Map<String, Integer> invalidXPathSubjectMonitor;
-
-    /** Only for debugging: Set to remember all xpath which had at least one hit. */
-    private Set<String> validXPathSet;
-
     /** String to remember all no-hit search params for test rerun. */
     private String noHitsSearchParams;
 
@@ -83,6 +90,15 @@ public class Context
     /** PayPal account used for checkout. */
     private PaypalAccount paypalAccount;
 
+    /** Client side model of the cart. */
+    private final CartState cartState;
+
+    /** Executor for asynchronous XHRs, created on first use. */
+    private ExecutorService xhrExecutor;
+
+    /** Whether the context was released, i.e. its test iteration is over. */
+    private volatile boolean released;
+
     /** Test case site context. */
     private final Site site;
 
@@ -97,7 +113,8 @@ public class Context
     private Context(final String testName, final Site site)
     {
         this.site = site;
-        this.configuration = new Configuration(testName, site);
+        this.configuration = Configuration.getInstance(testName, site);
+        this.cartState = new CartState(configuration.getCartVerificationInterval());
     }
 
     /**
@@ -111,16 +128,21 @@ public class Context
     }
 
     /**
-     * Retrieves the context instance for the current Thread.
+     * Retrieves the context instance for the current Thread. This is the context bound to the thread or, if there is
+     * none, the context of the thread's group.
      * 
      * @return the context instance for the current Thread
      */
     private static Context getCurrentContext()
     {
-        Context context = CONTEXTS.get(Thread.currentThread().getThreadGroup());
+        Context context = CURRENT.get();
         if (context == null)
         {
-            XltLogger.runTimeLogger.error("No Context available in this Thread. Use this Method only in TestCase Instances..");
+            context = CONTEXTS.get(Thread.currentThread().getThreadGroup());
+            if (context == null)
+            {
+                XltLogger.runTimeLogger.error("No Context available in this Thread. Use this Method only in TestCase Instances..");
+            }
         }
         return context;
     }
@@ -137,7 +159,114 @@ public class Context
     public static void addContext(final String testName, final Site site)
     {
         // NOTE: previous added Context instances for this Thread will be ignored
-        CONTEXTS.put(Thread.currentThread().getThreadGroup(), new Context(testName, site));
+        final Context context = new Context(testName, site);
+        CURRENT.set(context);
+        CONTEXTS.put(Thread.currentThread().getThreadGroup(), context);
+    }
+
+    /**
+     * Get the context of the current thread as handle to pass on to helper threads.
+     * 
+     * @return the current context or <code>null</code> if there is none
+     * @see #bind(Context)
+     */
+    public static Context capture()
+    {
+        return getCurrentContext();
+    }
+
+    /**
+     * Binds the given context to the current thread. Restore the returned context (via {@link #bind(Context)} again)
+     * when done, especially in pooled threads.
+     * 
+     * @param context
+     *            the context to bind or <code>null</code> to unbind the current one
+     * @return the context bound before or <code>null</code> if there was none
+     */
+    public static Context bind(final Context context)
+    {
+        final Context previous = CURRENT.get();
+        if (context == null)
+        {
+            CURRENT.remove();
+        }
+        else
+        {
+            CURRENT.set(context);
+        }
+        return previous;
+    }
+
+    /**
+     * Wraps the given task so it runs with the current context bound, no matter which thread runs it.
+     * 
+     * @param task
+     *            the task to run
+     * @return the wrapped task
+     */
+    public static <T> Callable<T> wrap(final Callable<T> task)
+    {
+        final Context context = capture();
+        return new Callable<T>()
+        {
+            @Override
+            public T call() throws Exception
+            {
+                final Context previous = bind(context);
+                try
+                {
+                    return task.call();
+                }
+                finally
+                {
+                    bind(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * Whether this context was released, i.e. its test iteration is over. Helper threads use this to skip work queued
+     * for a finished user.
+     * 
+     * @return <code>true</code> if the context was released, <code>false</code> otherwise
+     */
+    boolean isReleased()
+    {
+        return released;
+    }
+
+    /**
+     * Get the executor for the current user's asynchronous XHRs (see {@link XHR#fireAsyncFrom(HtmlPage)}). It runs at
+     * most <code>xhr.async.threads</code> XHRs at once. Its threads belong to the thread group of the calling thread,
+     * so XLT records their requests for the user's current action. The executor is shut down when the context is
+     * released.
+     * 
+     * @return XHR executor
+     */
+    static ExecutorService getXhrExecutor()
+    {
+        final Context context = getCurrentContext();
+        synchronized (context)
+        {
+            if (context.xhrExecutor == null)
+            {
+                final ThreadGroup group = Thread.currentThread().getThreadGroup();
+                context.xhrExecutor = Executors.newFixedThreadPool(context.configuration.getAsyncXhrThreads(), new ThreadFactory()
+                {
+                    private int count;
+
+                    @Override
+                    public Thread newThread(final Runnable r)
+                    {
+                        final Thread thread = new Thread(group, r, group.getName() + "-XHR-" + (++count));
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            return context.xhrExecutor;
+        }
     }
 
     /**
@@ -207,6 +336,9 @@ public class Context
     public static void setCurrentPage(final HtmlPage page)
     {
         getCurrentAction().setHtmlPage(page);
+
+        // memoized lookup results might belong to the previous page state
+        PageLookupCache.invalidate();
     }
 
     /**
@@ -307,10 +439,33 @@ public class Context
         try
         {
             getCurrentContext().handlePreRelease();
+
+            // Publish the iteration's lookup times.
+            LookupStatistics.getInstance().endIteration();
         }
         finally
         {
-            CONTEXTS.remove(Thread.currentThread().getThreadGroup());
+            final ThreadGroup group = Thread.currentThread().getThreadGroup();
+            final Context bound = CURRENT.get();
+            CURRENT.remove();
+
+            final Context context = bound != null ? bound : CONTEXTS.get(group);
+            if (context != null)
+            {
+                context.released = true;
+
+                // stop the XHR threads
+                synchronized (context)
+                {
+                    if (context.xhrExecutor != null)
+                    {
+                        context.xhrExecutor.shutdownNow();
+                    }
+                }
+
+                // do not drop a newer context of the thread group
+                CONTEXTS.remove(group, context);
+            }
         }
     }
 
@@ -374,89 +529,16 @@ public class Context
     }
 
     /**
-     * Adds an XPath execution to the internal XPath monitor, which will display an XPath which never had a hit at the
-     * end of the test on console.</br><b>Note: This is only usable in non-load-test mode.</b>
+     * Adds an XPath execution to the agent-wide {@link LocatorMonitor}, which reports the XPaths that never had a hit.
      * 
      * @param xPath
      *            the XPath to monitor
      * @param hit
      *            indicates if the XPath had at least one hit on the page
      */
-    static void addXPathToNoHitCheck(String xPath, final boolean hit)
-    {
-        // Do only in load test mode.
-        if (!isLoadTest())
-        {
-            String additionalMessage = null;
-
-            // Try to get the name of the method to insert an additional message
-            final StackTraceElement[] stackTraceElements = Thread.currentThread().getStackTrace();
-            for (int i = 0; i < stackTraceElements.length; i++)
-            {
-                if (stackTraceElements[i].getClassName().equals(Page.class.getName()))
-                {
-                    // This will filter out the Page.checkExistance*() methods and will give us the real method
-                    // which calls it.
-                    final String className = stackTraceElements[i + 1].getClassName();
-                    additionalMessage = className.substring(className.lastIndexOf('.') + 1) + "."
-                                        + stackTraceElements[i + 1].getMethodName();
-
-                    // We have found what we were looking for so no further parsing is necessary.
-                    break;
-                }
-            }
-
-            // Quote XPath and add with possible message to monitor.
-            xPath = "\"" + xPath + "\"";
-            getCurrentContext().monitorXPath(additionalMessage == null ? xPath : (additionalMessage + ": " + xPath), hit);
-        }
-    }
-
-    /**
-     * Adds an XPath execution to the internal XPath monitor, which will display an XPath which never had a
-     * hit.</br><b>Note: this is only usable in non load test runs.</b>
-     * 
-     * @param xPath
-     *            the XPath to monitor
-     * @param hit
-     *            indicates if the XPath had a hit on the page
-     */
-    private void monitorXPath(final String xPath, final boolean hit)
+    static void addXPathToNoHitCheck(final String xPath, final boolean hit)
     {
-        // Initialize XPath monitoring maps.
-        initXPathMonitoring();
-
-        // If the XPath had (ever) a hit mark it as 'valid' otherwise mark it as 'invalid' and increase the
-        // invalid-counter.
-        if (hit)
-        {
-            validXPathSet.add(xPath);
-        }
-        else if (!validXPathSet.contains(xPath))
-        {
-            Integer value = invalidXPathSubjectMonitor.get(xPath);
-            if (value == null)
-            {
-                value = 0;
-            }
-            invalidXPathSubjectMonitor.put(xPath, value + 1);
-        }
-    }
-
-    /**
-     * Initializes the HashMaps which check if there are XPaths which never hit.
-     */
-    private synchronized void initXPathMonitoring()
-    {
-        if (validXPathSet == null)
-        {
-            validXPathSet = new ConcurrentHashSet<String>();
-        }
-
-        if (invalidXPathSubjectMonitor == null)
-        {
-            invalidXPathSubjectMonitor = new ConcurrentHashMap<String, Integer>();
-        }
+        LocatorMonitor.getInstance().record(xPath, hit);
     }
 
     /**
@@ -541,19 +623,29 @@ public class Context
             }
 
             // XPath(s) that did not have a hit at all.
-            if (invalidXPathSubjectsAvailable())
+            final List<String> neverHit = LocatorMonitor.getInstance().getNeverHitLocators();
+            if (neverHit.size() > 1)
             {
                 // Introduction
-                out.append("Some XPaths never had a hit in this test. These are no errors, but could give an hint on XPath issues, please review them.\n");
+                out.append("Some XPaths never had a hit so far. These are no errors, but could give an hint on XPath issues, please review them.\n");
 
-                // Print XPaths without hit.
-                for (final String xPath : this.invalidXPathSubjectMonitor.keySet())
+                // Print XPaths without hit, skip the CSV header.
+                for (final String line : neverHit.subList(1, neverHit.size()))
                 {
-                    if (!validXPathSet.contains(xPath))
-                    {
-                        out.append("\t - ").append(xPath).append(" had ").append(this.invalidXPathSubjectMonitor.get(xPath))
-                           .append(" tries, but never had a hit.\n");
-                    }
+                    out.append("\t - ").append(line).append("\n");
+                }
+            }
+
+            // Compiled XPath statistics.
+            out.append("XPath expression cache: ").append(XPathCache.getInstance()).append("\n");
+
+            // Most expensive locators so far.
+            if (LookupStatistics.getInstance().isEnabled())
+            {
+                out.append("Most expensive lookups (previous iterations):\n");
+                for (final String line : LookupStatistics.getInstance().getTopLocators(10))
+                {
+                    out.append("\t").append(line).append("\n");
                 }
             }
 
@@ -582,16 +674,6 @@ public class Context
         }
     }
 
-    /**
-     * Checks if there were XPaths which did never had a hit.
-     * 
-     * @return <code>true</code> if at least one monitored XPath had no hit at all, <code>false</code> otherwise
-     */
-    private boolean invalidXPathSubjectsAvailable()
-    {
-        return MapUtils.isNotEmpty(invalidXPathSubjectMonitor) && !validXPathSet.containsAll(invalidXPathSubjectMonitor.keySet());
-    }
-
     /**
      * Get the text representation for the given key from the properties file in the configured language.
      * 
@@ -615,7 +697,9 @@ public class Context
         {
             case HITS:
                 // Return one of the predefined search phrases.
-                return HITS_PROVIDERS.get(getSite()).getRandomRow(false);
+                final String hitSearchParam = getHitsProvider(getSite()).getRandom();
+                Assert.assertNotNull("No search phrases available for site " + getSite(), hitSearchParam);
+                return hitSearchParam;
 
             case NO_HITS:
                 // Return a random alphanumeric string, make it random and long enough.
@@ -662,8 +746,7 @@ public class Context
      */
     static void addIdToNoHitCheck(final String id, final boolean hit)
     {
-        // Do for non-load-test mode only.
-        if (!isLoadTest())
+        if (LocatorMonitor.getInstance().isEnabled())
         {
             // Convert to XPath id-funktion before logging it.
             addXPathToNoHitCheck("id('" + id + "')", hit);
@@ -680,8 +763,7 @@ public class Context
      */
     static void addNoHitCheck(final Results target, final boolean hit)
     {
-        // Do for non-load-test mode only.
-        if (!isLoadTest())
+        if (LocatorMonitor.getInstance().isEnabled())
         {
             addXPathToNoHitCheck(target.getLocatorDescription(), hit);
         }
@@ -720,6 +802,16 @@ public class Context
         return c.paypalAccount;
     }
 
+    /**
+     * Get the client side model of the current session's cart.
+     * 
+     * @return cart model
+     */
+    public static CartState getCartState()
+    {
+        return getCurrentContext().cartState;
+    }
+
     /**
      * Get the site context.
      * 
@@ -731,11 +823,11 @@ public class Context
     }
 
     /**
-     * Get app resources script content of current page.
+     * Get the app resources of the current page. App resources shared by other users are taken if still valid.
      * 
-     * @return app resources script content
+     * @return app resources
      */
-    public static String getAppResources()
+    public static AppResources getAppResources()
     {
         final Context cc = getCurrentContext();
 
@@ -751,8 +843,19 @@ public class Context
                 final int currentPageHash = currentPage.hashCode();
                 if (cc.appResources == null || currentPageHash != cc.appResourcesPageHashCode)
                 {
-                    // Lookup appResources from current page and remember the page's hash value.
-                    cc.appResources = Page.getAppResources();
+                    final Configuration configuration = cc.configuration;
+                    final long timeToLive = configuration.getAppResourcesTimeToLive();
+
+                    // Take the shared appResources or lookup appResources from current page and share them.
+                    AppResources appResources = AppResources.getShared(cc.site, configuration.getLanguage(), timeToLive);
+                    if (appResources == null)
+                    {
+                        appResources = AppResources.share(cc.site, configuration.getLanguage(), timeToLive,
+                                                          AppResources.parse(Page.getAppResources()));
+                    }
+
+                    // Remember the page's hash value.
+                    cc.appResources = appResources;
                     cc.appResourcesPageHashCode = currentPageHash;
                 }
             }
@@ -766,64 +869,63 @@ public class Context
     }
 
     /**
-     * Initialize search phrases providers.
+     * Get the search phrases for the given site. They are loaded on first use. Sites without a search phrases file of
+     * their own use the default site's search phrases.
      * 
-     * @return map containing the site and corresponding search phrase provider
+     * @param site
+     *            site context
+     * @return search phrases of the given site
      */
-    private static Map<Site, DataProvider> initHitProviders()
+    private static MappedLines getHitsProvider(final Site site)
     {
-        final Map<Site, DataProvider> hitsProviders = new HashMap<Site, DataProvider>();
-
-        // Initialize default first to have a fallback provider.
-        hitsProviders.put(Site.DEFAULT, initDataProvider(Site.DEFAULT));
-
-        // Initialize all the other providers.
-        for (final Site site : Site.values())
+        MappedLines hitsProvider = HITS_PROVIDERS.get(site);
+        if (hitsProvider == null)
         {
-            // Of course skip 'default' because it's already processed.
-            if (!Site.DEFAULT.equals(site))
+            synchronized (HITS_PROVIDERS)
             {
-                // Check if a search phrases file is available for current site
-                DataProvider hitsProvider = initDataProvider(site);
+                hitsProvider = HITS_PROVIDERS.get(site);
                 if (hitsProvider == null)
                 {
-                    // If not, fallback to default search file.
-                    hitsProvider = hitsProviders.get(Site.DEFAULT);
+                    hitsProvider = initHitsProvider(site);
+                    if (hitsProvider == null)
+                    {
+                        // Fallback to default search file.
+                        hitsProvider = Site.DEFAULT.equals(site) ? MappedLines.EMPTY : getHitsProvider(Site.DEFAULT);
+                    }
+                    HITS_PROVIDERS.put(site, hitsProvider);
                 }
-                // Assign provider with site.
-                hitsProviders.put(site, hitsProvider);
             }
         }
 
-        return hitsProviders;
+        return hitsProvider;
     }
 
     /**
-     * Initializes the DataProvier for search terms, depending on the current site context.
+     * Maps the search phrases file of the given site context.
      * 
      * @param site
      *            site context
-     * @return search term provider for given site context or <code>null</code> if expected search phrases file was not
+     * @return search phrases of the given site context or <code>null</code> if expected search phrases file was not
      *         found.
      */
-    private static DataProvider initDataProvider(final Site site)
+    private static MappedLines initHitsProvider(final Site site)
     {
-        DataProvider hitsProvider = null;
-
         // Build file name of expected site specific search phrases file.
         final String searchPhraseFileName = "search-phrases" + site.getSuffix() + ".txt";
+        final File dataDirectory = new File(XltProperties.getInstance().getProperty("com.xceptance.xlt.data.directory", "config/data"));
+        final File searchPhraseFile = new File(dataDirectory, searchPhraseFileName);
 
         try
         {
-            // Initialize the search provider with the site specific search phrases file.
-            hitsProvider = DataProvider.getInstance(searchPhraseFileName);
+            // Map the site specific search phrases file.
+            return MappedLines.open(searchPhraseFile);
         }
         catch (IOException ioe)
         {
             Session.logEvent("Search phrases file", "missing: " + searchPhraseFileName);
         }
 
-        return hitsProvider;
+        return null;
     }
 
     /**
@@ -835,9 +937,38 @@ public class Context
     public static void loadAppResources() throws Exception
     {
         Context currentContext = getCurrentContext();
-        if (currentContext.configuration.loadAppResources())
+        final Configuration configuration = currentContext.configuration;
+        if (configuration.loadAppResources())
         {
-            currentContext.appResources = AjaxUtils.loadAppResources();
+            final long timeToLive = configuration.getAppResourcesTimeToLive();
+
+            final AppResources shared = AppResources.getShared(currentContext.site, configuration.getLanguage(), timeToLive);
+            if (shared == null)
+            {
+                // Load, parse and share the app resources.
+                currentContext.appResources = AppResources.share(currentContext.site, configuration.getLanguage(), timeToLive,
+                                                                 AppResources.parse(AjaxUtils.loadAppResources()));
+            }
+            else
+            {
+                // Make the call for load realism only, the content is already known.
+                if (configuration.fetchSharedAppResources())
+                {
+                    AjaxUtils.loadAppResources();
+                }
+                currentContext.appResources = shared;
+            }
         }
     }
+
+    /**
+     * Drops the app resources of the current user and the shared ones of the current site and language. They are
+     * looked up again on next access.
+     */
+    public static void invalidateAppResources()
+    {
+        final Context currentContext = getCurrentContext();
+        currentContext.appResources = null;
+        AppResources.invalidate(currentContext.site, currentContext.configuration.getLanguage());
+    }
 }
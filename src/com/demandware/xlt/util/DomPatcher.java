@@ -0,0 +1,376 @@
+package com.demandware.xlt.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.gargoylesoftware.htmlunit.html.DomAttr;
+import com.gargoylesoftware.htmlunit.html.DomCharacterData;
+import com.gargoylesoftware.htmlunit.html.DomElement;
+import com.gargoylesoftware.htmlunit.html.DomNode;
+import com.gargoylesoftware.htmlunit.html.HTMLParser;
+import com.gargoylesoftware.htmlunit.html.HtmlButton;
+import com.gargoylesoftware.htmlunit.html.HtmlElement;
+import com.gargoylesoftware.htmlunit.html.HtmlInput;
+import com.gargoylesoftware.htmlunit.html.HtmlOption;
+import com.gargoylesoftware.htmlunit.html.HtmlSelect;
+import com.gargoylesoftware.htmlunit.html.HtmlTextArea;
+import com.xceptance.xlt.api.engine.Session;
+import com.xceptance.xlt.api.util.XltLogger;
+
+/**
+ * Replaces the content of an element with an HTML fragment, e.g. the main container after a refine, sort or paging
+ * XHR. Instead of throwing away the whole subtree, the fragment is parsed into a detached element and reconciled with
+ * the existing children: nodes of the same type, tag name and id are kept and only their attributes and text are
+ * updated, nodes with an id are matched by id, all other nodes are inserted or removed.
+ * <p>
+ * Form controls are not patched but replaced if they differ in any way, so their state is the one of the fragment just
+ * like after a full replacement.
+ * </p>
+ *
+ * @author Xiaobai Wang
+ */
+public final class DomPatcher
+{
+    /**
+     * How to replace the content of an element.
+     */
+    public enum Mode
+    {
+        /** Remove all children and parse the fragment into the element. */
+        REPLACE,
+
+        /** Reconcile the existing children with the parsed fragment. */
+        INCREMENTAL,
+
+        /** Reconcile, but verify the result against a full replacement and fall back to it if they differ. */
+        COMPARE
+    }
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private DomPatcher()
+    {
+    }
+
+    /**
+     * Replaces the content of the given element with the given HTML fragment.
+     *
+     * @param container
+     *            the element whose content is replaced
+     * @param html
+     *            the HTML fragment
+     * @param mode
+     *            how to replace the content
+     * @throws Exception
+     *             if the fragment cannot be parsed
+     */
+    public static void replaceContent(final HtmlElement container, final String html, final Mode mode) throws Exception
+    {
+        switch (mode)
+        {
+            case INCREMENTAL:
+                patchChildren(container, parse(container, html));
+                break;
+
+            case COMPARE:
+                final DomElement expected = parse(container, html);
+                patchChildren(container, parse(container, html));
+
+                final String wanted = getChildrenXml(expected);
+                final String actual = getChildrenXml(container);
+                if (!wanted.equals(actual))
+                {
+                    XltLogger.runTimeLogger.warn("Incremental update of " + container.getCanonicalXPath() +
+                                                 " differs from full replacement.\nExpected:\n" + wanted + "\nActual:\n" + actual);
+                    Session.logEvent("Incremental DOM update differs from full replacement", container.getCanonicalXPath());
+
+                    container.removeAllChildren();
+                    moveChildren(expected, container);
+                }
+                break;
+
+            default:
+                container.removeAllChildren();
+                HTMLParser.parseFragment(container, html);
+        }
+    }
+
+    /**
+     * Parses the given HTML fragment into a detached element of the same tag as the given container, so the fragment is
+     * parsed in the same context.
+     *
+     * @param container
+     *            the element whose content is replaced
+     * @param html
+     *            the HTML fragment
+     * @return the detached element holding the parsed fragment
+     * @throws Exception
+     *             if the fragment cannot be parsed
+     */
+    private static DomElement parse(final HtmlElement container, final String html) throws Exception
+    {
+        final DomElement parsed = container.getPage().createElement(container.getTagName());
+        HTMLParser.parseFragment(parsed, html);
+        return parsed;
+    }
+
+    /**
+     * Reconciles the children of the given target node with the children of the given source node. Source children
+     * that have no counterpart are moved to the target.
+     *
+     * @param target
+     *            the node to update
+     * @param source
+     *            the node with the wanted children
+     */
+    private static void patchChildren(final DomNode target, final DomNode source)
+    {
+        // target children with an id, to find moved nodes
+        Map<String, DomNode> byId = null;
+        for (DomNode child = target.getFirstChild(); child != null; child = child.getNextSibling())
+        {
+            final String id = getId(child);
+            if (id != null)
+            {
+                if (byId == null)
+                {
+                    byId = new HashMap<String, DomNode>();
+                }
+                byId.put(id, child);
+            }
+        }
+
+        // all target children before the cursor are done
+        DomNode cursor = target.getFirstChild();
+        DomNode next;
+        for (DomNode wanted = source.getFirstChild(); wanted != null; wanted = next)
+        {
+            next = wanted.getNextSibling();
+
+            DomNode match = null;
+            final String id = getId(wanted);
+            if (id != null)
+            {
+                match = byId == null ? null : byId.remove(id);
+            }
+            else if (cursor != null && getId(cursor) == null)
+            {
+                match = cursor;
+            }
+
+            if (match != null && !isSameKind(match, wanted))
+            {
+                match = null;
+            }
+
+            if (match == null)
+            {
+                // new node, take the parsed one
+                wanted.remove();
+                insertBefore(target, cursor, wanted);
+            }
+            else
+            {
+                if (match == cursor)
+                {
+                    cursor = cursor.getNextSibling();
+                }
+                else
+                {
+                    // moved node
+                    match.remove();
+                    insertBefore(target, cursor, match);
+                }
+
+                patch(match, wanted);
+            }
+        }
+
+        // whatever is left was not matched
+        while (cursor != null)
+        {
+            next = cursor.getNextSibling();
+            cursor.remove();
+            cursor = next;
+        }
+    }
+
+    /**
+     * Updates the given target node to look like the given source node of the same kind.
+     *
+     * @param target
+     *            the node to update
+     * @param source
+     *            the wanted node
+     */
+    private static void patch(final DomNode target, final DomNode source)
+    {
+        if (target instanceof DomCharacterData)
+        {
+            final String data = ((DomCharacterData) source).getData();
+            if (!data.equals(((DomCharacterData) target).getData()))
+            {
+                ((DomCharacterData) target).setData(data);
+            }
+        }
+        else if (isFormControl(target))
+        {
+            if (!target.asXml().equals(source.asXml()))
+            {
+                source.remove();
+                target.replace(source);
+            }
+        }
+        else if (target instanceof DomElement)
+        {
+            patchAttributes((DomElement) target, (DomElement) source);
+            patchChildren(target, source);
+        }
+        else
+        {
+            patchChildren(target, source);
+        }
+    }
+
+    /**
+     * Updates the attributes of the given target element to the ones of the given source element.
+     *
+     * @param target
+     *            the element to update
+     * @param source
+     *            the element with the wanted attributes
+     */
+    private static void patchAttributes(final DomElement target, final DomElement source)
+    {
+        final Map<String, DomAttr> wanted = source.getAttributesMap();
+        final Map<String, DomAttr> current = target.getAttributesMap();
+
+        for (final String name : current.keySet().toArray(new String[current.size()]))
+        {
+            if (!wanted.containsKey(name))
+            {
+                target.removeAttribute(name);
+            }
+        }
+
+        for (final Map.Entry<String, DomAttr> attribute : wanted.entrySet())
+        {
+            final DomAttr currentAttribute = current.get(attribute.getKey());
+            final String value = attribute.getValue().getValue();
+            if (currentAttribute == null || !value.equals(currentAttribute.getValue()))
+            {
+                target.setAttribute(attribute.getKey(), value);
+            }
+        }
+    }
+
+    /**
+     * Whether the given nodes can be patched into each other, that is they have the same type, tag name and id.
+     *
+     * @param a
+     *            the first node
+     * @param b
+     *            the second node
+     * @return <code>true</code> if the nodes are of the same kind, <code>false</code> otherwise
+     */
+    private static boolean isSameKind(final DomNode a, final DomNode b)
+    {
+        return a.getNodeType() == b.getNodeType() && a.getNodeName().equals(b.getNodeName()) &&
+               StringUtils.equals(getId(a), getId(b));
+    }
+
+    /**
+     * Whether the given node holds form state.
+     *
+     * @param node
+     *            the node
+     * @return <code>true</code> if the node is a form control, <code>false</code> otherwise
+     */
+    private static boolean isFormControl(final DomNode node)
+    {
+        return node instanceof HtmlInput || node instanceof HtmlSelect || node instanceof HtmlOption || node instanceof HtmlTextArea ||
+               node instanceof HtmlButton;
+    }
+
+    /**
+     * Get the id of the given node.
+     *
+     * @param node
+     *            the node
+     * @return the id or <code>null</code> if the node is no element or has no id
+     */
+    private static String getId(final DomNode node)
+    {
+        if (node instanceof DomElement)
+        {
+            final String id = ((DomElement) node).getAttribute("id");
+            if (StringUtils.isNotEmpty(id))
+            {
+                return id;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Inserts the given node into the given parent before the given reference node.
+     *
+     * @param parent
+     *            the parent node
+     * @param reference
+     *            the node to insert before or <code>null</code> to append the node
+     * @param node
+     *            the node to insert
+     */
+    private static void insertBefore(final DomNode parent, final DomNode reference, final DomNode node)
+    {
+        if (reference == null)
+        {
+            parent.appendChild(node);
+        }
+        else
+        {
+            reference.insertBefore(node);
+        }
+    }
+
+    /**
+     * Moves all children of the given source node to the given target node.
+     *
+     * @param source
+     *            the node to take the children from
+     * @param target
+     *            the node to move the children to
+     */
+    private static void moveChildren(final DomNode source, final DomNode target)
+    {
+        DomNode child = source.getFirstChild();
+        while (child != null)
+        {
+            final DomNode next = child.getNextSibling();
+            child.remove();
+            target.appendChild(child);
+            child = next;
+        }
+    }
+
+    /**
+     * Serializes the children of the given node.
+     *
+     * @param node
+     *            the node
+     * @return the XML of all children
+     */
+    private static String getChildrenXml(final DomNode node)
+    {
+        final StringBuilder sb = new StringBuilder();
+        for (DomNode child = node.getFirstChild(); child != null; child = child.getNextSibling())
+        {
+            sb.append(child.asXml());
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,202 @@
+package com.demandware.xlt.util;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.demandware.xlt.util.DomPatcher.Mode;
+import com.gargoylesoftware.htmlunit.FailingHttpStatusCodeException;
+import com.gargoylesoftware.htmlunit.MockWebConnection;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.html.DomElement;
+import com.gargoylesoftware.htmlunit.html.HtmlElement;
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+
+/**
+ * Test the implementation of {@link DomPatcher}. Every incremental update must give the same DOM as a full
+ * replacement.
+ */
+public class DomPatcherTest
+{
+    /**
+     * Unchanged content keeps all nodes.
+     */
+    @Test
+    public void testUnchanged() throws Throwable
+    {
+        final String html = "<div id=\"a\" class=\"x\">A<span>1</span></div><p>text</p>";
+        final HtmlElement container = getContainer(html);
+        final DomElement a = ((HtmlPage) container.getPage()).getElementById("a");
+        final DomElement p = container.getElementsByTagName("p").get(0);
+
+        patch(container, html, html);
+
+        Assert.assertSame(a, ((HtmlPage) container.getPage()).getElementById("a"));
+        Assert.assertSame(p, container.getElementsByTagName("p").get(0));
+    }
+
+    /**
+     * Changed text and attributes are updated in place.
+     */
+    @Test
+    public void testChangedTextAndAttributes() throws Throwable
+    {
+        final String html = "<div id=\"a\" class=\"x\" title=\"t\">old</div>";
+        final HtmlElement container = getContainer(html);
+        final DomElement a = ((HtmlPage) container.getPage()).getElementById("a");
+
+        patch(container, html, "<div id=\"a\" class=\"y\" data-new=\"1\">new</div>");
+
+        Assert.assertSame(a, ((HtmlPage) container.getPage()).getElementById("a"));
+        Assert.assertEquals("y", a.getAttribute("class"));
+        Assert.assertEquals("1", a.getAttribute("data-new"));
+        Assert.assertFalse(a.hasAttribute("title"));
+        Assert.assertEquals("new", a.getTextContent());
+    }
+
+    /**
+     * Nodes with an id are kept when the fragment reorders them.
+     */
+    @Test
+    public void testReordered() throws Throwable
+    {
+        final String html = "<p id=\"a\">A</p><p id=\"b\">B</p><p id=\"c\">C</p>";
+        final HtmlElement container = getContainer(html);
+        final HtmlPage page = (HtmlPage) container.getPage();
+        final DomElement a = page.getElementById("a");
+        final DomElement b = page.getElementById("b");
+        final DomElement c = page.getElementById("c");
+
+        patch(container, html, "<p id=\"c\">C</p><p id=\"a\">A</p><p id=\"b\">B</p>");
+
+        Assert.assertSame(c, container.getFirstChild());
+        Assert.assertSame(a, c.getNextSibling());
+        Assert.assertSame(b, a.getNextSibling());
+    }
+
+    /**
+     * A node with an id is found again when it moves between nodes without id.
+     */
+    @Test
+    public void testIdMoved() throws Throwable
+    {
+        final String html = "<div id=\"moving\">M</div><span>1</span><span>2</span>";
+        final HtmlElement container = getContainer(html);
+        final DomElement moving = ((HtmlPage) container.getPage()).getElementById("moving");
+
+        patch(container, html, "<span>1</span><span>2</span><div id=\"moving\">M2</div>");
+
+        Assert.assertSame(moving, container.getLastChild());
+        Assert.assertEquals("M2", moving.getTextContent());
+    }
+
+    /**
+     * Nodes missing in the fragment are removed, new ones are inserted.
+     */
+    @Test
+    public void testRemovedAndInserted() throws Throwable
+    {
+        final String html = "<ul><li>1</li><li>2</li><li>3</li></ul><p id=\"gone\">x</p><div>d</div>";
+        final HtmlElement container = getContainer(html);
+
+        patch(container, html, "<ul><li>1</li></ul><div>d</div><p id=\"new\">n</p>");
+
+        final HtmlPage page = (HtmlPage) container.getPage();
+        Assert.assertNull(page.getElementById("gone"));
+        Assert.assertNotNull(page.getElementById("new"));
+        Assert.assertEquals(1, container.getElementsByTagName("li").size());
+    }
+
+    /**
+     * Form controls are replaced if they differ in any way and kept otherwise.
+     */
+    @Test
+    public void testFormControls() throws Throwable
+    {
+        final String html = "<form id=\"f\"><input id=\"same\" name=\"s\" value=\"1\"><input id=\"changed\" name=\"c\" value=\"1\">"
+                            + "<select id=\"sel\" name=\"sel\"><option value=\"1\" selected>1</option><option value=\"2\">2</option></select></form>";
+        final HtmlElement container = getContainer(html);
+        final HtmlPage page = (HtmlPage) container.getPage();
+        final DomElement same = page.getElementById("same");
+        final DomElement changed = page.getElementById("changed");
+        final DomElement select = page.getElementById("sel");
+
+        patch(container, html, "<form id=\"f\"><input id=\"same\" name=\"s\" value=\"1\"><input id=\"changed\" name=\"c\" value=\"2\">"
+                         + "<select id=\"sel\" name=\"sel\"><option value=\"1\">1</option><option value=\"2\" selected>2</option></select></form>");
+
+        Assert.assertSame(same, page.getElementById("same"));
+        Assert.assertNotSame(changed, page.getElementById("changed"));
+        Assert.assertEquals("2", page.getElementById("changed").getAttribute("value"));
+        Assert.assertNotSame(select, page.getElementById("sel"));
+    }
+
+    /**
+     * Compare mode gives the same result as a full replacement.
+     */
+    @Test
+    public void testCompare() throws Throwable
+    {
+        final String html = "<p id=\"a\">A</p><span>1</span><input name=\"q\" value=\"1\">";
+        final String fragment = "<span>2</span><p id=\"a\" class=\"x\">A</p><input name=\"q\" value=\"2\"><b>new</b>";
+
+        final HtmlElement container = getContainer(html);
+        DomPatcher.replaceContent(container, fragment, Mode.COMPARE);
+
+        Assert.assertEquals(replaced(html, fragment), container.asXml());
+    }
+
+    /**
+     * Patches the given container incrementally and checks the result against a full replacement.
+     *
+     * @param container
+     *            the container to patch
+     * @param html
+     *            the container's original content
+     * @param fragment
+     *            the new content
+     */
+    private void patch(final HtmlElement container, final String html, final String fragment) throws Exception
+    {
+        DomPatcher.replaceContent(container, fragment, Mode.INCREMENTAL);
+
+        Assert.assertEquals(replaced(html, fragment), container.asXml());
+    }
+
+    /**
+     * Replaces the given content with the given fragment on a separate page.
+     *
+     * @param html
+     *            the original content
+     * @param fragment
+     *            the new content
+     * @return the container's XML after the full replacement
+     */
+    private String replaced(final String html, final String fragment) throws Exception
+    {
+        final HtmlElement container = getContainer(html);
+        DomPatcher.replaceContent(container, fragment, Mode.REPLACE);
+        return container.asXml();
+    }
+
+    /**
+     * Creates a page with a container holding the given content.
+     *
+     * @param html
+     *            the container's content
+     * @return the container
+     */
+    private static HtmlElement getContainer(final String html) throws FailingHttpStatusCodeException, MalformedURLException,
+        IOException
+    {
+        final WebClient webClient = new WebClient();
+
+        final MockWebConnection connection = new MockWebConnection();
+        connection.setDefaultResponse("<html><body><div id=\"main\">" + html + "</div></body></html>");
+        webClient.setWebConnection(connection);
+
+        final HtmlPage page = webClient.getPage("http://localhost/");
+        return (HtmlElement) page.getElementById("main");
+    }
+}
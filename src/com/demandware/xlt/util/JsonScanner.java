@@ -0,0 +1,758 @@
+package com.demandware.xlt.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Checks JSON content for well-formedness (RFC 8259) in a single pass and extracts the scalar values of the requested
+ * paths on the way, without building a tree.
+ * <p>
+ * Paths are written in dot notation. Array elements are addressed by index or by <code>*</code> for all elements, e.g.
+ * <code>products.count</code>, <code>items[*].quantity</code> or <code>[0].name</code> for content with an array root.
+ * Only scalar values (strings, numbers, booleans and <code>null</code>) are extracted, paths that point to an object
+ * or array do not yield any value.
+ * </p>
+ *
+ * @author Xiaobai Wang
+ */
+public final class JsonScanner
+{
+    /**
+     * Expected type of the root value.
+     */
+    public enum Root
+    {
+        OBJECT, ARRAY, ANY
+    }
+
+    /** Marks a path segment that matches any array index. */
+    private static final int ANY_INDEX = -1;
+
+    /** Marks a path segment that is an object member and not an array index. */
+    private static final int NO_INDEX = -2;
+
+    /** The content to read. */
+    private final Reader in;
+
+    /** Read buffer. */
+    private final char[] buffer = new char[8192];
+
+    /** Position of the next character in the buffer. */
+    private int pos;
+
+    /** Number of valid characters in the buffer. */
+    private int limit;
+
+    /** Number of characters read before the current buffer content. */
+    private int offset;
+
+    /** The requested paths. */
+    private final Path[] paths;
+
+    /** The values found for each requested path. */
+    private final List<List<String>> values;
+
+    /** Member names of the current location, valid where {@link #indices} is {@link #NO_INDEX}. */
+    private String[] names = new String[16];
+
+    /** Array indices of the current location. */
+    private int[] indices = new int[16];
+
+    /** Nesting depth of the current location. */
+    private int depth;
+
+    /** Reusable buffer for decoding strings. */
+    private final StringBuilder sb = new StringBuilder();
+
+    /**
+     * Constructor
+     *
+     * @param in
+     *            the content to read
+     * @param paths
+     *            the paths to extract
+     */
+    private JsonScanner(final Reader in, final Collection<String> paths)
+    {
+        this.in = in;
+        this.paths = new Path[paths.size()];
+        this.values = new ArrayList<List<String>>(paths.size());
+
+        int i = 0;
+        for (final String path : paths)
+        {
+            this.paths[i++] = new Path(path);
+            this.values.add(new ArrayList<String>());
+        }
+    }
+
+    /**
+     * Checks the given content and extracts the values of the given paths.
+     *
+     * @param in
+     *            the content to read, it is read up to its end but not closed
+     * @param root
+     *            the expected type of the root value
+     * @param paths
+     *            the paths to extract
+     * @return the extracted values
+     * @throws ParseException
+     *             if the content is not well-formed JSON or its root value is not of the expected type
+     * @throws IOException
+     *             if the content cannot be read
+     */
+    public static JsonValues scan(final Reader in, final Root root, final Collection<String> paths) throws ParseException, IOException
+    {
+        final JsonScanner scanner = new JsonScanner(in, paths);
+        scanner.scanDocument(root);
+
+        final List<String> pathList = new ArrayList<String>(paths);
+        return new JsonValues(pathList, scanner.values);
+    }
+
+    /**
+     * Reads the whole document.
+     *
+     * @param root
+     *            the expected type of the root value
+     * @throws ParseException
+     * @throws IOException
+     */
+    private void scanDocument(final Root root) throws ParseException, IOException
+    {
+        // tolerate a byte order mark
+        if (peek() == '\uFEFF')
+        {
+            pos++;
+        }
+
+        final int c = skipWhitespace();
+        if (root == Root.OBJECT && c != '{')
+        {
+            throw error("JSON object expected");
+        }
+        if (root == Root.ARRAY && c != '[')
+        {
+            throw error("JSON array expected");
+        }
+
+        scanValue();
+
+        if (skipWhitespace() != -1)
+        {
+            throw error("Unexpected content after JSON value");
+        }
+    }
+
+    /**
+     * Reads a value at the current location.
+     *
+     * @throws ParseException
+     * @throws IOException
+     */
+    private void scanValue() throws ParseException, IOException
+    {
+        final int c = skipWhitespace();
+        switch (c)
+        {
+            case '{':
+                pos++;
+                scanObject();
+                break;
+
+            case '[':
+                pos++;
+                scanArray();
+                break;
+
+            case '"':
+                pos++;
+                if (isWanted())
+                {
+                    found(readString());
+                }
+                else
+                {
+                    skipString();
+                }
+                break;
+
+            case 't':
+                expectLiteral("true");
+                found("true");
+                break;
+
+            case 'f':
+                expectLiteral("false");
+                found("false");
+                break;
+
+            case 'n':
+                expectLiteral("null");
+                found(null);
+                break;
+
+            case -1:
+                throw error("Unexpected end of content");
+
+            default:
+                if (c == '-' || isDigit(c))
+                {
+                    scanNumber();
+                    break;
+                }
+                throw error("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    /**
+     * Reads the members of an object, the opening brace has been consumed already.
+     *
+     * @throws ParseException
+     * @throws IOException
+     */
+    private void scanObject() throws ParseException, IOException
+    {
+        if (skipWhitespace() == '}')
+        {
+            pos++;
+            return;
+        }
+
+        push();
+        while (true)
+        {
+            if (skipWhitespace() != '"')
+            {
+                throw error("Member name expected");
+            }
+            pos++;
+
+            // member names are only needed to match paths
+            if (paths.length > 0)
+            {
+                names[depth - 1] = readString();
+            }
+            else
+            {
+                skipString();
+            }
+            indices[depth - 1] = NO_INDEX;
+
+            if (skipWhitespace() != ':')
+            {
+                throw error("':' expected");
+            }
+            pos++;
+
+            scanValue();
+
+            final int c = skipWhitespace();
+            pos++;
+            if (c == '}')
+            {
+                break;
+            }
+            if (c != ',')
+            {
+                pos--;
+                throw error("',' or '}' expected");
+            }
+        }
+        depth--;
+    }
+
+    /**
+     * Reads the elements of an array, the opening bracket has been consumed already.
+     *
+     * @throws ParseException
+     * @throws IOException
+     */
+    private void scanArray() throws ParseException, IOException
+    {
+        if (skipWhitespace() == ']')
+        {
+            pos++;
+            return;
+        }
+
+        push();
+        for (int index = 0;; index++)
+        {
+            indices[depth - 1] = index;
+
+            scanValue();
+
+            final int c = skipWhitespace();
+            pos++;
+            if (c == ']')
+            {
+                break;
+            }
+            if (c != ',')
+            {
+                pos--;
+                throw error("',' or ']' expected");
+            }
+        }
+        depth--;
+    }
+
+    /**
+     * Reads a number.
+     *
+     * @throws ParseException
+     * @throws IOException
+     */
+    private void scanNumber() throws ParseException, IOException
+    {
+        final boolean wanted = isWanted();
+        sb.setLength(0);
+
+        if (peek() == '-')
+        {
+            append(wanted);
+        }
+
+        // integer part, no leading zeros
+        if (peek() == '0')
+        {
+            append(wanted);
+        }
+        else
+        {
+            appendDigits(wanted);
+        }
+
+        // fraction
+        if (peek() == '.')
+        {
+            append(wanted);
+            appendDigits(wanted);
+        }
+
+        // exponent
+        int c = peek();
+        if (c == 'e' || c == 'E')
+        {
+            append(wanted);
+            c = peek();
+            if (c == '+' || c == '-')
+            {
+                append(wanted);
+            }
+            appendDigits(wanted);
+        }
+
+        if (wanted)
+        {
+            found(sb.toString());
+        }
+    }
+
+    /**
+     * Consumes one or more digits.
+     *
+     * @param wanted
+     *            whether to keep the digits
+     * @throws ParseException
+     *             if there is no digit
+     * @throws IOException
+     */
+    private void appendDigits(final boolean wanted) throws ParseException, IOException
+    {
+        if (!isDigit(peek()))
+        {
+            throw error("Digit expected");
+        }
+        do
+        {
+            append(wanted);
+        }
+        while (isDigit(peek()));
+    }
+
+    /**
+     * Consumes the current character.
+     *
+     * @param wanted
+     *            whether to keep the character
+     * @throws IOException
+     */
+    private void append(final boolean wanted) throws IOException
+    {
+        if (wanted)
+        {
+            sb.append(buffer[pos]);
+        }
+        pos++;
+    }
+
+    /**
+     * Reads and decodes the rest of a string, the opening quote has been consumed already.
+     *
+     * @return the decoded string
+     * @throws ParseException
+     * @throws IOException
+     */
+    private String readString() throws ParseException, IOException
+    {
+        sb.setLength(0);
+        scanString(true);
+        return sb.toString();
+    }
+
+    /**
+     * Checks the rest of a string without decoding it, the opening quote has been consumed already.
+     *
+     * @throws ParseException
+     * @throws IOException
+     */
+    private void skipString() throws ParseException, IOException
+    {
+        scanString(false);
+    }
+
+    /**
+     * Reads the rest of a string, the opening quote has been consumed already.
+     *
+     * @param decode
+     *            whether to append the decoded characters to {@link #sb}
+     * @throws ParseException
+     * @throws IOException
+     */
+    private void scanString(final boolean decode) throws ParseException, IOException
+    {
+        while (true)
+        {
+            final int c = peek();
+            if (c == -1)
+            {
+                throw error("Unterminated string");
+            }
+            pos++;
+
+            if (c == '"')
+            {
+                return;
+            }
+            if (c < 0x20)
+            {
+                pos--;
+                throw error("Unescaped control character in string");
+            }
+            if (c != '\\')
+            {
+                if (decode)
+                {
+                    sb.append((char) c);
+                }
+                continue;
+            }
+
+            final int e = peek();
+            pos++;
+            final char decoded;
+            switch (e)
+            {
+                case '"':
+                case '\\':
+                case '/':
+                    decoded = (char) e;
+                    break;
+                case 'b':
+                    decoded = '\b';
+                    break;
+                case 'f':
+                    decoded = '\f';
+                    break;
+                case 'n':
+                    decoded = '\n';
+                    break;
+                case 'r':
+                    decoded = '\r';
+                    break;
+                case 't':
+                    decoded = '\t';
+                    break;
+                case 'u':
+                    int code = 0;
+                    for (int i = 0; i < 4; i++)
+                    {
+                        final int h = Character.digit(peek(), 16);
+                        if (h < 0)
+                        {
+                            throw error("Invalid unicode escape");
+                        }
+                        code = (code << 4) | h;
+                        pos++;
+                    }
+                    decoded = (char) code;
+                    break;
+                default:
+                    pos--;
+                    throw error("Invalid escape sequence");
+            }
+
+            if (decode)
+            {
+                sb.append(decoded);
+            }
+        }
+    }
+
+    /**
+     * Consumes the given literal.
+     *
+     * @param literal
+     *            the expected literal
+     * @throws ParseException
+     *             if the content does not continue with the literal
+     * @throws IOException
+     */
+    private void expectLiteral(final String literal) throws ParseException, IOException
+    {
+        for (int i = 0; i < literal.length(); i++)
+        {
+            if (peek() != literal.charAt(i))
+            {
+                throw error("'" + literal + "' expected");
+            }
+            pos++;
+        }
+    }
+
+    /**
+     * Skips whitespace.
+     *
+     * @return the next non-whitespace character (not consumed) or <code>-1</code> at the end of the content
+     * @throws IOException
+     */
+    private int skipWhitespace() throws IOException
+    {
+        while (true)
+        {
+            final int c = peek();
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t')
+            {
+                return c;
+            }
+            pos++;
+        }
+    }
+
+    /**
+     * Get the next character without consuming it.
+     *
+     * @return the next character or <code>-1</code> at the end of the content
+     * @throws IOException
+     */
+    private int peek() throws IOException
+    {
+        if (pos == limit)
+        {
+            offset += limit;
+            pos = 0;
+            limit = 0;
+
+            int n;
+            do
+            {
+                n = in.read(buffer);
+            }
+            while (n == 0);
+
+            if (n < 0)
+            {
+                return -1;
+            }
+            limit = n;
+        }
+
+        return buffer[pos];
+    }
+
+    /**
+     * Enters the next nesting level.
+     */
+    private void push()
+    {
+        if (depth == names.length)
+        {
+            names = Arrays.copyOf(names, depth * 2);
+            indices = Arrays.copyOf(indices, depth * 2);
+        }
+        depth++;
+    }
+
+    /**
+     * Whether any requested path points to the current location.
+     *
+     * @return <code>true</code> if the value at the current location is wanted, <code>false</code> otherwise
+     */
+    private boolean isWanted()
+    {
+        for (final Path path : paths)
+        {
+            if (path.matches(names, indices, depth))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stores the given value for all requested paths that point to the current location.
+     *
+     * @param value
+     *            the scalar value
+     */
+    private void found(final String value)
+    {
+        for (int i = 0; i < paths.length; i++)
+        {
+            if (paths[i].matches(names, indices, depth))
+            {
+                values.get(i).add(value);
+            }
+        }
+    }
+
+    /**
+     * Creates an exception for the current position.
+     *
+     * @param message
+     *            what went wrong
+     * @return the exception
+     */
+    private ParseException error(final String message)
+    {
+        final int position = offset + pos;
+        return new ParseException(message + " at position " + position, position);
+    }
+
+    /**
+     * Whether the given character is an ASCII digit.
+     *
+     * @param c
+     *            the character
+     * @return <code>true</code> if the character is a digit, <code>false</code> otherwise
+     */
+    private static boolean isDigit(final int c)
+    {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * A requested path, split into segments.
+     */
+    private static class Path
+    {
+        /** Member names, valid where {@link #indices} is {@link #NO_INDEX}. */
+        private final String[] names;
+
+        /** Array indices or {@link #ANY_INDEX}. */
+        private final int[] indices;
+
+        /**
+         * Constructor
+         *
+         * @param path
+         *            the path in dot notation
+         * @throws IllegalArgumentException
+         *             if the path is malformed
+         */
+        private Path(final String path)
+        {
+            final List<String> nameList = new ArrayList<String>();
+            final List<Integer> indexList = new ArrayList<Integer>();
+
+            int i = 0;
+            while (i < path.length())
+            {
+                final char c = path.charAt(i);
+                if (c == '[')
+                {
+                    final int end = path.indexOf(']', i);
+                    if (end < 0)
+                    {
+                        throw new IllegalArgumentException("Unterminated index in JSON path: " + path);
+                    }
+                    final String index = path.substring(i + 1, end);
+                    nameList.add(null);
+                    indexList.add("*".equals(index) ? ANY_INDEX : Integer.parseInt(index));
+                    i = end + 1;
+                }
+                else if (c == '.')
+                {
+                    i++;
+                }
+                else
+                {
+                    int end = i;
+                    while (end < path.length() && path.charAt(end) != '.' && path.charAt(end) != '[')
+                    {
+                        end++;
+                    }
+                    nameList.add(path.substring(i, end));
+                    indexList.add(NO_INDEX);
+                    i = end;
+                }
+            }
+
+            if (nameList.isEmpty())
+            {
+                throw new IllegalArgumentException("Empty JSON path");
+            }
+
+            this.names = nameList.toArray(new String[nameList.size()]);
+            this.indices = new int[indexList.size()];
+            for (int j = 0; j < indices.length; j++)
+            {
+                indices[j] = indexList.get(j);
+            }
+        }
+
+        /**
+         * Whether this path points to the given location.
+         *
+         * @param locationNames
+         *            member names of the location
+         * @param locationIndices
+         *            array indices of the location
+         * @param depth
+         *            nesting depth of the location
+         * @return <code>true</code> if the path matches, <code>false</code> otherwise
+         */
+        private boolean matches(final String[] locationNames, final int[] locationIndices, final int depth)
+        {
+            if (depth != indices.length)
+            {
+                return false;
+            }
+
+            for (int i = 0; i < depth; i++)
+            {
+                final int index = indices[i];
+                if (index == NO_INDEX)
+                {
+                    if (locationIndices[i] != NO_INDEX || !names[i].equals(locationNames[i]))
+                    {
+                        return false;
+                    }
+                }
+                else if (locationIndices[i] == NO_INDEX || (index != ANY_INDEX && index != locationIndices[i]))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,367 @@
+package com.demandware.xlt.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.NoSuchElementException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.demandware.xlt.util.JsonScanner.Root;
+
+/**
+ * Test the implementation of {@link JsonScanner} and {@link JsonValues}.
+ */
+public class JsonScannerTest
+{
+    /*
+     * Well-formedness
+     */
+
+    /**
+     * Well-formed content of any kind is accepted.
+     */
+    @Test
+    public void testWellFormed() throws Throwable
+    {
+        final String[] contents =
+            {
+                "{}", "[]", " { } ", "\uFEFF{}", "\"text\"", "0", "-1.5e+3", "true", "false", "null",
+                "{\"a\":[1,{\"b\":[]},\"x\",null]}", "[[[[[[[[[[[[[[[[[[[[1]]]]]]]]]]]]]]]]]]]]", "\t[\r\n1 ,\n2 ]\n"
+            };
+        for (final String content : contents)
+        {
+            scan(content, Root.ANY);
+        }
+    }
+
+    /**
+     * Malformed content is rejected.
+     */
+    @Test
+    public void testMalformed() throws Throwable
+    {
+        final String[] contents =
+            {
+                "", " ", "{", "[", "{]", "[}", "{\"a\"}", "{\"a\":}", "{\"a\":1,}", "[1,]", "[1 2]", "{a:1}", "{'a':1}",
+                "tru", "nul", "True", "{} {}", "[]]", "\"open", "01", "-", "1.", ".5", "1e", "+1", "NaN", "\"\t\"",
+                "\"\\x\"", "\"\\u12\"", "\"\\u12g4\"", "\"\\"
+            };
+        for (final String content : contents)
+        {
+            try
+            {
+                scan(content, Root.ANY);
+                Assert.fail("Malformed content accepted: " + content);
+            }
+            catch (final ParseException e)
+            {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * The root value must be of the expected type.
+     */
+    @Test
+    public void testRoot() throws Throwable
+    {
+        scan("{}", Root.OBJECT);
+        scan(" []", Root.ARRAY);
+
+        assertError("[]", Root.OBJECT, 0);
+        assertError("\"x\"", Root.ARRAY, 0);
+        assertError("  {}", Root.ARRAY, 2);
+    }
+
+    /**
+     * Errors report the position of the offending character.
+     */
+    @Test
+    public void testErrorPosition() throws Throwable
+    {
+        assertError("{\"a\" 1}", Root.ANY, 5);
+        assertError("[1,2;", Root.ANY, 4);
+        assertError("{\"a\":\"b\nc\"}", Root.ANY, 7);
+        assertError("[\"\\q\"]", Root.ANY, 3);
+        assertError("{} x", Root.ANY, 3);
+        assertError("[1", Root.ANY, 2);
+    }
+
+    /**
+     * Errors behind the read buffer report their position in the whole content.
+     */
+    @Test
+    public void testErrorPositionBehindBuffer() throws Throwable
+    {
+        final StringBuilder content = new StringBuilder("[");
+        for (int i = 0; i < 5000; i++)
+        {
+            content.append("1,");
+        }
+        content.append("x]");
+
+        assertError(content.toString(), Root.ANY, 10001);
+    }
+
+    /*
+     * Values
+     */
+
+    /**
+     * String escapes are decoded.
+     */
+    @Test
+    public void testEscapes() throws Throwable
+    {
+        final JsonValues values = scan("{\"s\":\"\\\"\\\\\\/\\b\\f\\n\\r\\t\\u00e9\\u20AC\\ud83d\\ude00 end\"}", Root.OBJECT, "s");
+
+        Assert.assertEquals("\"\\/\b\f\n\r\t\u00e9\u20ac\ud83d\ude00 end", values.getString("s"));
+    }
+
+    /**
+     * Member names are decoded before they are matched.
+     */
+    @Test
+    public void testEscapedMemberName() throws Throwable
+    {
+        final JsonValues values = scan("{\"\\u0061\":\"x\"}", Root.OBJECT, "a");
+
+        Assert.assertEquals("x", values.getString("a"));
+    }
+
+    /**
+     * Numbers and literals are kept as written, <code>null</code> as <code>null</code>.
+     */
+    @Test
+    public void testNumbersAndLiterals() throws Throwable
+    {
+        final JsonValues values = scan("{\"i\":-42,\"z\":0,\"f\":12.50,\"e\":1.5E+2,\"t\":true,\"n\":null,\"big\":12345678901}",
+                                       Root.OBJECT, "i", "z", "f", "e", "t", "n", "big");
+
+        Assert.assertEquals("-42", values.getString("i"));
+        Assert.assertEquals(-42, values.getInt("i"));
+        Assert.assertEquals(0, values.getLong("z"));
+        Assert.assertEquals("12.50", values.getString("f"));
+        Assert.assertEquals(12, values.getLong("f"));
+        Assert.assertEquals("1.5E+2", values.getString("e"));
+        Assert.assertEquals(150, values.getLong("e"));
+        Assert.assertTrue(values.getBoolean("t"));
+        Assert.assertTrue(values.has("n"));
+        Assert.assertNull(values.getString("n"));
+        Assert.assertEquals(12345678901L, values.getLong("big"));
+    }
+
+    /**
+     * <code>null</code> is not a number.
+     */
+    @Test(expected = NumberFormatException.class)
+    public void testNullNumber() throws Throwable
+    {
+        scan("{\"n\":null}", Root.OBJECT, "n").getLong("n");
+    }
+
+    /**
+     * Nested members are addressed in dot notation, objects and arrays do not yield a value.
+     */
+    @Test
+    public void testNesting() throws Throwable
+    {
+        final JsonValues values = scan("{\"a\":{\"b\":{\"c\":\"deep\"},\"c\":\"shallow\"},\"c\":\"top\"}", Root.OBJECT, "a.b.c",
+                                       "a.c", "c", "a.b", "b.c");
+
+        Assert.assertEquals(Collections.singletonList("deep"), values.getStrings("a.b.c"));
+        Assert.assertEquals(Collections.singletonList("shallow"), values.getStrings("a.c"));
+        Assert.assertEquals(Collections.singletonList("top"), values.getStrings("c"));
+        Assert.assertFalse(values.has("a.b"));
+        Assert.assertFalse(values.has("b.c"));
+    }
+
+    /**
+     * Array elements are addressed by index or by <code>*</code> for all elements.
+     */
+    @Test
+    public void testArrayPaths() throws Throwable
+    {
+        final String content = "{\"items\":[{\"id\":\"a\",\"quantity\":2},{\"id\":\"b\"},{\"id\":\"c\",\"quantity\":3}],"
+                               + "\"matrix\":[[1,2],[3,4]]}";
+        final JsonValues values = scan(content, Root.OBJECT, "items[*].quantity", "items[1].id", "items[*].id",
+                                       "matrix[*][1]", "matrix[1][0]", "items.id");
+
+        Assert.assertEquals(Arrays.asList("2", "3"), values.getStrings("items[*].quantity"));
+        Assert.assertEquals(5, values.sum("items[*].quantity"));
+        Assert.assertEquals("b", values.getString("items[1].id"));
+        Assert.assertEquals(Arrays.asList("a", "b", "c"), values.getStrings("items[*].id"));
+        Assert.assertEquals(Arrays.asList("2", "4"), values.getStrings("matrix[*][1]"));
+        Assert.assertEquals(3, values.getInt("matrix[1][0]"));
+        Assert.assertFalse(values.has("items.id"));
+    }
+
+    /**
+     * Content with an array root is addressed by index first.
+     */
+    @Test
+    public void testArrayRoot() throws Throwable
+    {
+        final JsonValues values = scan("[{\"name\":\"x\"},{\"name\":\"y\"}]", Root.ARRAY, "[0].name", "[*].name");
+
+        Assert.assertEquals("x", values.getString("[0].name"));
+        Assert.assertEquals(Arrays.asList("x", "y"), values.getStrings("[*].name"));
+    }
+
+    /**
+     * Values are extracted correctly when the content is read in tiny chunks.
+     */
+    @Test
+    public void testChunkedReader() throws Throwable
+    {
+        final String content = "{\"a\":{\"text\":\"x\\u0041y\",\"n\":-12.5e1},\"list\":[true,false,null]}";
+        final JsonValues values = JsonScanner.scan(new ChunkedReader(content), Root.OBJECT,
+                                                   Arrays.asList("a.text", "a.n", "list[*]"));
+
+        Assert.assertEquals("xAy", values.getString("a.text"));
+        Assert.assertEquals("-12.5e1", values.getString("a.n"));
+        Assert.assertEquals(Arrays.asList("true", "false", null), values.getStrings("list[*]"));
+    }
+
+    /**
+     * A path that was not requested cannot be queried.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnrequestedPath() throws Throwable
+    {
+        scan("{\"a\":1}", Root.OBJECT, "a").getStrings("b");
+    }
+
+    /**
+     * A requested path without value has no first value.
+     */
+    @Test(expected = NoSuchElementException.class)
+    public void testMissingValue() throws Throwable
+    {
+        scan("{\"a\":1}", Root.OBJECT, "b").getString("b");
+    }
+
+    /**
+     * Malformed paths are rejected.
+     */
+    @Test
+    public void testMalformedPaths() throws Throwable
+    {
+        final String[] paths =
+            {
+                "", ".", "items[*", "items[x]"
+            };
+        for (final String path : paths)
+        {
+            try
+            {
+                scan("{}", Root.OBJECT, path);
+                Assert.fail("Malformed path accepted: " + path);
+            }
+            catch (final IllegalArgumentException e)
+            {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Scans the given content.
+     *
+     * @param content
+     *            the content
+     * @param root
+     *            the expected type of the root value
+     * @param paths
+     *            the paths to extract
+     * @return the extracted values
+     */
+    private static JsonValues scan(final String content, final Root root, final String... paths) throws ParseException, IOException
+    {
+        return JsonScanner.scan(new StringReader(content), root, Arrays.asList(paths));
+    }
+
+    /**
+     * Checks that scanning the given content fails at the given position.
+     *
+     * @param content
+     *            the content
+     * @param root
+     *            the expected type of the root value
+     * @param position
+     *            the expected error position
+     */
+    private static void assertError(final String content, final Root root, final int position) throws IOException
+    {
+        try
+        {
+            scan(content, root);
+            Assert.fail("Malformed content accepted: " + content);
+        }
+        catch (final ParseException e)
+        {
+            Assert.assertEquals("Wrong error position for: " + content, position, e.getErrorOffset());
+        }
+    }
+
+    /**
+     * Reader that returns at most two characters per read and sometimes none at all.
+     */
+    private static class ChunkedReader extends Reader
+    {
+        /** The content. */
+        private final String content;
+
+        /** Position of the next character. */
+        private int pos;
+
+        /** Number of reads so far. */
+        private int reads;
+
+        /**
+         * Constructor
+         *
+         * @param content
+         *            the content
+         */
+        private ChunkedReader(final String content)
+        {
+            this.content = content;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int read(final char[] cbuf, final int off, final int len)
+        {
+            if (pos == content.length())
+            {
+                return -1;
+            }
+            if (++reads % 3 == 0)
+            {
+                return 0;
+            }
+
+            final int n = Math.min(Math.min(len, 2), content.length() - pos);
+            content.getChars(pos, pos + n, cbuf, off);
+            pos += n;
+            return n;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void close()
+        {
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.demandware.xlt.util;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * The scalar values extracted from JSON content by {@link JsonScanner}, by requested path. Strings are decoded, numbers
+ * and booleans are kept as written in the content, <code>null</code> values are kept as <code>null</code>.
+ *
+ * @author Xiaobai Wang
+ */
+public final class JsonValues
+{
+    /** The requested paths. */
+    private final List<String> paths;
+
+    /** The values found for each requested path. */
+    private final List<List<String>> values;
+
+    /**
+     * Constructor
+     *
+     * @param paths
+     *            the requested paths
+     * @param values
+     *            the values found for each requested path
+     */
+    JsonValues(final List<String> paths, final List<List<String>> values)
+    {
+        this.paths = paths;
+        this.values = values;
+    }
+
+    /**
+     * Whether at least one value was found for the given path.
+     *
+     * @param path
+     *            the requested path
+     * @return <code>true</code> if there is a value, <code>false</code> otherwise
+     */
+    public boolean has(final String path)
+    {
+        return !getStrings(path).isEmpty();
+    }
+
+    /**
+     * Get all values found for the given path in document order, e.g. one per array element for
+     * <code>items[*].quantity</code>.
+     *
+     * @param path
+     *            the requested path
+     * @return the values, maybe empty
+     * @throws IllegalArgumentException
+     *             if the path was not requested
+     */
+    public List<String> getStrings(final String path)
+    {
+        final int i = paths.indexOf(path);
+        if (i < 0)
+        {
+            throw new IllegalArgumentException("JSON path was not requested: " + path);
+        }
+        return Collections.unmodifiableList(values.get(i));
+    }
+
+    /**
+     * Get the first value found for the given path.
+     *
+     * @param path
+     *            the requested path
+     * @return the value
+     * @throws NoSuchElementException
+     *             if there is no value for the path
+     */
+    public String getString(final String path)
+    {
+        final List<String> strings = getStrings(path);
+        if (strings.isEmpty())
+        {
+            throw new NoSuchElementException("No JSON value found for path: " + path);
+        }
+        return strings.get(0);
+    }
+
+    /**
+     * Get the first value found for the given path as number.
+     *
+     * @param path
+     *            the requested path
+     * @return the value
+     * @throws NoSuchElementException
+     *             if there is no value for the path
+     * @throws NumberFormatException
+     *             if the value is not a number
+     */
+    public long getLong(final String path)
+    {
+        return toLong(getString(path));
+    }
+
+    /**
+     * Get the first value found for the given path as number.
+     *
+     * @param path
+     *            the requested path
+     * @return the value
+     * @throws NoSuchElementException
+     *             if there is no value for the path
+     * @throws NumberFormatException
+     *             if the value is not a number
+     */
+    public int getInt(final String path)
+    {
+        return (int) getLong(path);
+    }
+
+    /**
+     * Get the first value found for the given path as boolean.
+     *
+     * @param path
+     *            the requested path
+     * @return the value
+     * @throws NoSuchElementException
+     *             if there is no value for the path
+     */
+    public boolean getBoolean(final String path)
+    {
+        return Boolean.parseBoolean(getString(path));
+    }
+
+    /**
+     * Get the sum of all values found for the given path, e.g. the total quantity of <code>items[*].quantity</code>.
+     *
+     * @param path
+     *            the requested path
+     * @return the sum or <code>0</code> if there are no values
+     * @throws NumberFormatException
+     *             if a value is not a number
+     */
+    public long sum(final String path)
+    {
+        long sum = 0;
+        for (final String value : getStrings(path))
+        {
+            sum += toLong(value);
+        }
+        return sum;
+    }
+
+    /**
+     * Converts the given value to a number. Numbers with a fraction or exponent are truncated, just like
+     * <code>JSONObject.getInt</code> does.
+     *
+     * @param value
+     *            the value
+     * @return the number
+     * @throws NumberFormatException
+     *             if the value is not a number
+     */
+    private static long toLong(final String value)
+    {
+        if (value == null)
+        {
+            throw new NumberFormatException("JSON value is null");
+        }
+
+        try
+        {
+            return Long.parseLong(value);
+        }
+        catch (final NumberFormatException e)
+        {
+            return (long) Double.parseDouble(value);
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.demandware.xlt.util;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.xceptance.xlt.api.util.XltLogger;
+import com.xceptance.xlt.api.util.XltProperties;
+
+/**
+ * Counts the hits and misses of the locators checked via the <code>Page.check*</code> methods for all virtual users of
+ * the agent, so locators that never match (catalog or markup drift) can be spotted in load tests as well.
+ * <p>
+ * Checking a locator costs a map look-up and a counter increment. The calling method is taken from the stack trace
+ * only once, when a locator is seen for the first time. Counters are striped by thread, so concurrent users rarely
+ * write to the same cache line. When the agent shuts down, all locators that never had a hit are logged and written to
+ * a CSV file.
+ * </p>
+ * <p>
+ * Configuration:
+ * <ul>
+ * <li><code>locator.monitor.enabled</code> - whether to count hits and misses (default: <code>true</code>)</li>
+ * <li><code>locator.monitor.file</code> - the CSV file to write (default: <code>locator-monitor.csv</code>)</li>
+ * </ul>
+ * </p>
+ *
+ * @author Xiaobai Wang
+ */
+public final class LocatorMonitor
+{
+    /** Whether hits and misses are counted. */
+    private final boolean enabled;
+
+    /** The CSV report file. */
+    private final String reportFile;
+
+    /** The monitored locators mapped by locator description. */
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * Private constructor to prevent external instantiation.
+     */
+    private LocatorMonitor()
+    {
+        final XltProperties props = XltProperties.getInstance();
+        this.enabled = props.getProperty("locator.monitor.enabled", true);
+        this.reportFile = props.getProperty("locator.monitor.file", "locator-monitor.csv");
+
+        if (enabled)
+        {
+            Runtime.getRuntime().addShutdownHook(new Thread("LocatorMonitor-Report")
+            {
+                @Override
+                public void run()
+                {
+                    writeReport();
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the agent-wide monitor instance.
+     *
+     * @return monitor instance
+     */
+    public static LocatorMonitor getInstance()
+    {
+        return Singleton_Holder._INSTANCE;
+    }
+
+    /**
+     * Whether hits and misses are counted.
+     *
+     * @return <code>true</code> if monitoring is enabled, <code>false</code> otherwise
+     */
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Records a locator check.
+     *
+     * @param locator
+     *            the locator description
+     * @param hit
+     *            whether the locator had at least one hit on the page
+     */
+    void record(final String locator, final boolean hit)
+    {
+        if (!enabled)
+        {
+            return;
+        }
+
+        Entry entry = entries.get(locator);
+        if (entry == null)
+        {
+            final Entry newEntry = new Entry(locator, findCaller());
+            entry = entries.putIfAbsent(locator, newEntry);
+            if (entry == null)
+            {
+                entry = newEntry;
+            }
+        }
+
+        if (hit)
+        {
+            entry.hits.increment();
+        }
+        else
+        {
+            entry.misses.increment();
+        }
+    }
+
+    /**
+     * Get the locators that were checked but never had a hit, the most often checked first.
+     *
+     * @return CSV lines (header first)
+     */
+    public List<String> getNeverHitLocators()
+    {
+        final List<Entry> neverHit = new ArrayList<Entry>();
+        for (final Entry entry : entries.values())
+        {
+            if (entry.hits.sum() == 0)
+            {
+                neverHit.add(entry);
+            }
+        }
+
+        Collections.sort(neverHit, new Comparator<Entry>()
+        {
+            @Override
+            public int compare(final Entry o1, final Entry o2)
+            {
+                final long m1 = o1.misses.sum();
+                final long m2 = o2.misses.sum();
+                return m1 < m2 ? 1 : (m1 == m2 ? 0 : -1);
+            }
+        });
+
+        final List<String> lines = new ArrayList<String>();
+        lines.add("Caller,Locator,Misses");
+        for (final Entry entry : neverHit)
+        {
+            lines.add(entry.caller + ",\"" + entry.locator.replace("\"", "\"\"") + "\"," + entry.misses.sum());
+        }
+        return lines;
+    }
+
+    /**
+     * Writes the locators without any hit to the log and the configured CSV file.
+     */
+    private void writeReport()
+    {
+        final List<String> lines = getNeverHitLocators();
+        if (lines.size() < 2)
+        {
+            return;
+        }
+
+        final StringBuilder sb = new StringBuilder("Locators without any hit on this agent:\n");
+        for (int i = 1; i < lines.size(); i++)
+        {
+            sb.append("\t - ").append(lines.get(i)).append('\n');
+        }
+        XltLogger.runTimeLogger.info(sb.toString());
+
+        final File file = new File(reportFile);
+        try (final FileWriter writer = new FileWriter(file))
+        {
+            for (final String line : lines)
+            {
+                writer.write(line);
+                writer.write('\n');
+            }
+        }
+        catch (final IOException e)
+        {
+            XltLogger.runTimeLogger.error("Failed to write locator monitor report to " + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Retrieves the class and method name of the method that called one of the <code>Page.check*</code> methods.
+     *
+     * @return class and method name of the calling method or an empty string if there is no such method on the stack
+     */
+    private static String findCaller()
+    {
+        final String pageClassName = Page.class.getName();
+
+        // skip everything up to and including the Page frames, the next frame is the caller
+        final StackTraceElement[] stackTraceElements = Thread.currentThread().getStackTrace();
+        boolean inPage = false;
+        for (final StackTraceElement element : stackTraceElements)
+        {
+            final boolean isPage = element.getClassName().equals(pageClassName);
+            if (inPage && !isPage)
+            {
+                final String className = element.getClassName();
+                return className.substring(className.lastIndexOf('.') + 1) + "." + element.getMethodName();
+            }
+            inPage = isPage;
+        }
+
+        return "";
+    }
+
+    /**
+     * Counters of a single locator.
+     */
+    private static class Entry
+    {
+        /** The locator description. */
+        private final String locator;
+
+        /** The method the locator was first checked from. */
+        private final String caller;
+
+        /** Number of checks with a hit. */
+        private final StripedCounter hits = new StripedCounter();
+
+        /** Number of checks without a hit. */
+        private final StripedCounter misses = new StripedCounter();
+
+        /**
+         * Constructor
+         *
+         * @param locator
+         *            the locator description
+         * @param caller
+         *            the method the locator was first checked from
+         */
+        private Entry(final String locator, final String caller)
+        {
+            this.locator = locator;
+            this.caller = caller;
+        }
+    }
+
+    /**
+     * Counter that spreads concurrent increments over several cells to avoid contention. Each thread writes to the cell
+     * picked by its ID, the cells are padded so that different cells do not share a cache line.
+     */
+    private static class StripedCounter
+    {
+        /** Number of array slots per cell, 8 longs = 64 bytes. */
+        private static final int PADDING = 8;
+
+        /** Number of cells, a power of two. */
+        private static final int CELLS = Integer.highestOneBit(Runtime.getRuntime().availableProcessors()) << 1;
+
+        /** The cells. */
+        private final AtomicLongArray cells = new AtomicLongArray(CELLS * PADDING);
+
+        /**
+         * Increments the counter.
+         */
+        private void increment()
+        {
+            final int cell = (int) Thread.currentThread().getId() & (CELLS - 1);
+            cells.incrementAndGet(cell * PADDING);
+        }
+
+        /**
+         * Get the current sum of all cells.
+         *
+         * @return counter value
+         */
+        private long sum()
+        {
+            long sum = 0;
+            for (int i = 0; i < CELLS; i++)
+            {
+                sum += cells.get(i * PADDING);
+            }
+            return sum;
+        }
+    }
+
+    /**
+     * Singleton holder
+     */
+    private static class Singleton_Holder
+    {
+        /** Singleton */
+        private static final LocatorMonitor _INSTANCE = new LocatorMonitor();
+    }
+}
@@ -0,0 +1,190 @@
+package com.demandware.xlt.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.xceptance.xlt.api.util.XltRandom;
+
+/**
+ * Read-only, memory-mapped text file with random access to its lines. Only the start and end offsets of each line are
+ * held on the heap, a line is decoded (UTF-8) when it is requested. The file content itself stays in the page cache and
+ * is shared by all users of the agent.
+ * <p>
+ * Lines are trimmed. Empty lines and lines starting with <code>#</code> are skipped, just like the XLT
+ * <code>DataProvider</code> does.
+ * </p>
+ *
+ * @author Xiaobai Wang
+ */
+public final class MappedLines
+{
+    /** Instance without any line. */
+    public static final MappedLines EMPTY = new MappedLines(null, new int[0], new int[0], 0);
+
+    /** The file content or <code>null</code> if there is no file. */
+    private final MappedByteBuffer content;
+
+    /** Start offset of each line. */
+    private final int[] starts;
+
+    /** End offset (exclusive) of each line. */
+    private final int[] ends;
+
+    /** Number of lines. */
+    private final int size;
+
+    /**
+     * Constructor
+     *
+     * @param content
+     *            the file content
+     * @param starts
+     *            start offset of each line
+     * @param ends
+     *            end offset (exclusive) of each line
+     * @param size
+     *            number of lines
+     */
+    private MappedLines(final MappedByteBuffer content, final int[] starts, final int[] ends, final int size)
+    {
+        this.content = content;
+        this.starts = starts;
+        this.ends = ends;
+        this.size = size;
+    }
+
+    /**
+     * Maps the given file and indexes its lines.
+     *
+     * @param file
+     *            the file
+     * @return the lines of the file
+     * @throws IOException
+     *             if the file does not exist, cannot be read or is larger than 2 GB
+     */
+    public static MappedLines open(final File file) throws IOException
+    {
+        final MappedByteBuffer content;
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "r"); final FileChannel channel = raf.getChannel())
+        {
+            if (channel.size() > Integer.MAX_VALUE)
+            {
+                throw new IOException("File too large to be mapped: " + file.getAbsolutePath());
+            }
+            // the mapping stays valid after the channel is closed
+            content = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        final int length = content.limit();
+        int[] starts = new int[1024];
+        int[] ends = new int[1024];
+        int size = 0;
+
+        // skip the byte order mark
+        int lineStart = 0;
+        if (length >= 3 && content.get(0) == (byte) 0xEF && content.get(1) == (byte) 0xBB && content.get(2) == (byte) 0xBF)
+        {
+            lineStart = 3;
+        }
+
+        while (lineStart < length)
+        {
+            int lineEnd = lineStart;
+            while (lineEnd < length && content.get(lineEnd) != '\n')
+            {
+                lineEnd++;
+            }
+
+            // trim, bytes of multi-byte characters are negative and thus never trimmed
+            int start = lineStart;
+            int end = lineEnd;
+            while (start < end && isWhitespace(content.get(start)))
+            {
+                start++;
+            }
+            while (end > start && isWhitespace(content.get(end - 1)))
+            {
+                end--;
+            }
+
+            if (start < end && content.get(start) != '#')
+            {
+                if (size == starts.length)
+                {
+                    starts = Arrays.copyOf(starts, size * 2);
+                    ends = Arrays.copyOf(ends, size * 2);
+                }
+                starts[size] = start;
+                ends[size] = end;
+                size++;
+            }
+
+            lineStart = lineEnd + 1;
+        }
+
+        return new MappedLines(content, Arrays.copyOf(starts, size), Arrays.copyOf(ends, size), size);
+    }
+
+    /**
+     * Get the number of lines.
+     *
+     * @return number of lines
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Get the line with the given index.
+     *
+     * @param index
+     *            line index
+     * @return the line
+     * @throws IndexOutOfBoundsException
+     *             if there is no such line
+     */
+    public String get(final int index)
+    {
+        if (index < 0 || index >= size)
+        {
+            throw new IndexOutOfBoundsException("Line " + index + " of " + size);
+        }
+
+        // absolute reads only, the buffer's position is shared by all threads
+        final int start = starts[index];
+        final byte[] bytes = new byte[ends[index] - start];
+        for (int i = 0; i < bytes.length; i++)
+        {
+            bytes[i] = content.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Get a random line.
+     *
+     * @return random line or <code>null</code> if there are no lines
+     */
+    public String getRandom()
+    {
+        return size == 0 ? null : get(XltRandom.nextInt(size));
+    }
+
+    /**
+     * Whether the given byte is a whitespace or control character.
+     *
+     * @param b
+     *            the byte
+     * @return <code>true</code> if the byte is whitespace, <code>false</code> otherwise
+     */
+    private static boolean isWhitespace(final byte b)
+    {
+        return b >= 0 && b <= ' ';
+    }
+}
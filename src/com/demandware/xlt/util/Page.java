@@ -1,18 +1,19 @@
 package com.demandware.xlt.util;
 
 import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.lang3.StringUtils;
-import org.json.JSONArray;
-import org.json.JSONObject;
+import org.junit.Assert;
 
-import com.gargoylesoftware.htmlunit.WebResponse;
 import com.gargoylesoftware.htmlunit.html.HtmlElement;
 import com.xceptance.common.util.RegExUtils;
 import com.xceptance.xlt.api.engine.Session;
 import com.xceptance.xlt.api.util.XltLogger;
+import com.xceptance.xlt.api.util.elementLookup.BatchLookup;
 import com.xceptance.xlt.api.util.elementLookup.By;
 import com.xceptance.xlt.api.util.elementLookup.HPU;
+import com.xceptance.xlt.api.util.elementLookup.Locator;
 import com.xceptance.xlt.api.util.elementLookup.Results;
 
 /**
@@ -33,6 +34,57 @@ public class Page
         return HPU.find().in(Context.getPage());
     }
 
+    /**
+     * Create a batch lookup for the current page. Register all locators first, they are resolved together on first
+     * access.
+     * 
+     * @return batch lookup for the current page
+     */
+    public static BatchLookup batch()
+    {
+        return new BatchLookup(Context.getPage());
+    }
+
+    /** The id of the single product container. */
+    public static final String SINGLE_PRODUCT_CONTAINER_ID = "product-content";
+
+    /** The id of the product set container. */
+    public static final String PRODUCT_SET_CONTAINER_ID = "product-set-list";
+
+    /** The id of the product grid. */
+    public static final String SEARCH_RESULT_ITEMS_ID = "search-result-items";
+
+    /** The id of the cart form. */
+    public static final String CART_ITEMS_FORM_ID = "cart-items-form";
+
+    /**
+     * Get the types of the current page. The page is classified once, the result is kept until the current page or its
+     * DOM changes.
+     * 
+     * @return types of the current page
+     */
+    public static Set<PageType> getPageTypes()
+    {
+        return PageType.of(Context.getPage());
+    }
+
+    /**
+     * Checks if the current page is of the given type.
+     * 
+     * @param type
+     *            the page type
+     * @return <code>true</code> if the current page is of the given type, <code>false</code> otherwise
+     */
+    private static boolean isPageType(final PageType type)
+    {
+        final boolean is = type.isTypeOf(Context.getPage());
+
+        // Remember result
+        Context.addXPathToNoHitCheck(type.getProbe(), is);
+
+        return is;
+    }
+
     /**
      * Find elements in current page.<br>
      * This is just a shortcut for:<br>
@@ -63,47 +115,65 @@ public class Page
     /** The id of the main container. */
     public static final String MINI_CART_ID = "minicart_contents";
 
+    /** Prepared mini cart container locator. */
+    private static final Locator MINI_CART = HPU.prepare().byId(MINI_CART_ID);
+
     /** Lookup the the mini cart container. */
     public static Results getMiniCartLocator()
     {
-        return find().byId(MINI_CART_ID);
+        return MINI_CART.in(Context.getPage());
     }
 
     /** The id of the main container. */
     public static final String MAIN_CONTAINER_ID = "main";
 
+    /** Prepared main container locator. */
+    private static final Locator MAIN = HPU.prepare().byId(MAIN_CONTAINER_ID);
+
     /** Lookup the main container. */
     public static Results getMainLocator()
     {
-        return find().byId(MAIN_CONTAINER_ID);
+        return MAIN.in(Context.getPage());
     }
 
     /** The id of the search field. */
     public static final String SEARCHFIELD_ID = "tophat-search";
 
+    /** Prepared search field locator. */
+    private static final Locator SEARCH_FIELD = HPU.prepare().byId(SEARCHFIELD_ID);
+
     /** Lookup the search field. */
     public static Results getSearchFieldLocator()
     {
         // return find().byId(SEARCHFIELD_ID);
         // return find().byId(SEARCHFIELD_ID).byXPath("./form/input[@type='search']");
-        return find().byId(SEARCHFIELD_ID);
+        return SEARCH_FIELD.in(Context.getPage());
     }
 
     /** The id of the header container. */
     public static final String NAVIGATION_ID = "header";
 
+    /** Prepared header container locator. */
+    private static final Locator HEADER = HPU.prepare().byId(NAVIGATION_ID);
+
     /** Lookup the header container. */
     public static Results getHeaderLocator()
     {
-        return find().byId(NAVIGATION_ID);
+        return HEADER.in(Context.getPage());
     }
 
+    /** The id of the footer container. */
+    public static final String FOOTER_ID = "footer";
+
+    /** Prepared footer container locator. */
+    private static final Locator FOOTER = HPU.prepare().byId(FOOTER_ID);
+
     /** Lookup the footer container. */
     public static Results getFooterLocator()
     {
         // return find().byId("wrapper").byXPath("./div/footer");
         // return find().byId("wrapper").byXPath("./div[@id='footer']");
-        return find().byId("footer");
+        return FOOTER.in(Context.getPage());
     }
 
     /** Lookup the footer container. */
@@ -121,7 +191,7 @@ public class Page
      */
     public static boolean isMiniCartEmpty() throws Exception
     {
-        return getNumItemsInMiniCartByAjax() == 0;
+        return Context.getCartState().getQuantity() == 0;
     }
 
     /**
@@ -206,7 +276,7 @@ public class Page
      */
     public static boolean isLandingPage()
     {
-        return checkExistance(getPrimaryContentContainerLocator().byCss(".category-main-banner"));
+        return isPageType(PageType.LANDING);
     }
 
     /**
@@ -216,7 +286,7 @@ public class Page
      */
     public static boolean isGiftCertificatePage()
     {
-        return checkExistance(getPrimaryContentContainerLocator().byCss(".gift-certificate-purchase"));
+        return isPageType(PageType.GIFT_CERTIFICATE);
     }
 
     // ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -227,6 +297,9 @@ public class Page
     // ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     // ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
+    /** Prepared register link locator. */
+    private static final Locator REGISTER_LINK = HEADER.byXPath("./ul/li/div/div[@class='user-links']/a[@title='Register']");
+
     /**
      * get the create an account now button in the login/signup page (changed in 15.4, no longer register link along
      * header on home page)
@@ -235,7 +308,7 @@ public class Page
      */
     public static Results getRegisterLinkLocator()
     {
-        return getHeaderLocator().byXPath("./ul/li/div/div[@class='user-links']/a[@title='Register']");
+        return REGISTER_LINK.in(Context.getPage());
     }
 
     /**
@@ -248,6 +321,9 @@ public class Page
         return find().byId("RegistrationForm");
     }
 
+    /** Prepared login/account link locator. */
+    private static final Locator ACCOUNT_LINK = HEADER.byXPath("./ul/li[contains(@class, 'user-info')]/a[@class='user-account']");
+
     /**
      * Get the locator for the login link.
      * 
@@ -255,7 +331,7 @@ public class Page
      */
     public static final Results getLoginLinkLocator()
     {
-        return getHeaderLocator().byXPath("./ul/li[contains(@class, 'user-info')]/a[@class='user-account']");
+        return ACCOUNT_LINK.in(Context.getPage());
     }
 
     /**
@@ -265,7 +341,7 @@ public class Page
      */
     public static final Results getAccountLinkLocator()
     {
-        return getHeaderLocator().byXPath("./ul/li[contains(@class, 'user-info')]/a[@class='user-account']");
+        return ACCOUNT_LINK.in(Context.getPage());
     }
 
     /**
@@ -275,7 +351,7 @@ public class Page
      */
     public static final Results getLogoutLinkLocator()
     {
-        return getPrimaryContentContainerLocator().byXPath("./h1/span[@class='account-logout']/a[@title='Logout']");
+        return LOGOUT_LINK.in(Context.getPage());
     }
 
     /**
@@ -309,6 +385,11 @@ public class Page
 
     /**
      * Checks if the current page is a grid page with no hits/search results page.
+     * <p>
+     * Note: The check below compares the locator against <code>null</code> and therefore is <code>true</code> for
+     * every page. The flows rely on that, so it is not classified by {@link PageType} like the other page checks.
+     * Checking for the no-results container changes the flows and is to be done as a change of its own.
+     * </p>
      * 
      * @return <code>true</code> if the current page is a no search results page, <code>false</code> otherwise
      */
@@ -325,50 +406,37 @@ public class Page
     }
 
     /**
-     * Checks if the current page is a product grid page with visible products.
+     * Checks if the current page is a product grid page with visible products. Camera pages show their products in a
+     * camera landing grid instead.
      * 
      * @return <code>true</code> if the current page is a grid page with visible products, <code>false</code> otherwise
      */
     public static boolean isProductGridPage()
     {
-        boolean isProdGrid = false;
-
-        String myURL = Context.getPage().getUrl().toString();
-        Results productSearchContainer;
-
-        // XltLogger.runTimeLogger.debug("#  -- debug -- Body BEGIN");
-        // XltLogger.runTimeLogger.debug(Context.getPage().asXml());
-        // XltLogger.runTimeLogger.debug("#  -- debug -- Body END");
-
-
-        // /div[@class = 'camera-twoX-wrapper')]/div/div[@class = 'twoXCameras')]
-        if (myURL.contains("cameras"))
+        final boolean isProdGrid;
+        if (Context.getPage().getUrl().toString().contains("cameras"))
         {
-            // HtmlElement test1 = find().byId("main").asserted("not found").first();
-            // HtmlElement test2 = find().byId("main").byXPath("./div").asserted("not found").first();
-            // HtmlElement test3 =
-            // find().byId("main").byXPath("./div[@class='camera-landing']").asserted("not found").first();
-
-            productSearchContainer = find().byId("main")
-                                           .byXPath("./div[@class='camera-landing']/div[@class='camera-twoX-wrapper']/div/div[@class='twoXCameras']");
-            isProdGrid = productSearchContainer.exists();
-
-            XltLogger.runTimeLogger.debug("# isProdGrid = " + isProdGrid);
-
-            return isProdGrid;
+            isProdGrid = isPageType(PageType.CAMERA_GRID);
         }
         else
         {
-            isProdGrid = checkIdExistanceInPage("search-result-items");
-            XltLogger.runTimeLogger.debug("# isProdGrid = " + isProdGrid);
-
-            return isProdGrid;
+            isProdGrid = isPageType(PageType.PRODUCT_GRID);
         }
+
+        XltLogger.runTimeLogger.debug("# isProdGrid = " + isProdGrid);
+
+        return isProdGrid;
     }
 
     /** The ID of the primary content container on the product grid page. */
     public static final String PRIMARY_CONTENT_CONTAINER_ID = "primary";
 
+    /** Prepared primary content container locator. */
+    private static final Locator PRIMARY_CONTENT_CONTAINER = HPU.prepare().byId(PRIMARY_CONTENT_CONTAINER_ID);
+
+    /** Prepared logout link locator (see {@link #getLogoutLinkLocator()}). */
+    private static final Locator LOGOUT_LINK = PRIMARY_CONTENT_CONTAINER.byXPath("./h1/span[@class='account-logout']/a[@title='Logout']");
+
     /**
      * Get the locator for the primary content container on the product grid page.
      *
@@ -376,12 +444,15 @@ public class Page
      */
     public static Results getPrimaryContentContainerLocator()
     {
-        return find().byId(PRIMARY_CONTENT_CONTAINER_ID);
+        return PRIMARY_CONTENT_CONTAINER.in(Context.getPage());
     }
 
     /** The ID of the secondary content container on the product grid page. */
     public static final String SECONDARY_CONTENT_CONTAINER_ID = "secondary";
 
+    /** Prepared secondary content container locator. */
+    private static final Locator SECONDARY_CONTENT_CONTAINER = HPU.prepare().byId(SECONDARY_CONTENT_CONTAINER_ID);
+
     /**
      * Get the locator for the secondary content container on the product grid page.
      * 
@@ -389,7 +460,7 @@ public class Page
      */
     public static Results getSecondaryContentContainerLocator()
     {
-        return find().byId(SECONDARY_CONTENT_CONTAINER_ID);
+        return SECONDARY_CONTENT_CONTAINER.in(Context.getPage());
     }
 
     /**
@@ -427,6 +498,9 @@ public class Page
     /** The ID of the Search content container on the product grid page. */
     public static final String SEARCH_CONTENT_CONTAINER_ID = "site-search-container";
 
+    /** Prepared search content container locator. */
+    private static final Locator SEARCH_CONTENT_CONTAINER = HPU.prepare().byId(SEARCH_CONTENT_CONTAINER_ID);
+
     /**
      * Get the locator for the search content container on the product grid page.
      *
@@ -434,7 +508,7 @@ public class Page
      */
     public static Results getSearchContentContainerLocator()
     {
-        return find().byId(SEARCH_CONTENT_CONTAINER_ID);
+        return SEARCH_CONTENT_CONTAINER.in(Context.getPage());
     }
 
     /**
@@ -560,6 +634,9 @@ public class Page
     // ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     // ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
+    /** Prepared single product container locator. */
+    private static final Locator SINGLE_PRODUCT_CONTAINER = HPU.prepare().byId(SINGLE_PRODUCT_CONTAINER_ID);
+
     /**
      * Get the locator for a single product container.
      * 
@@ -567,7 +644,7 @@ public class Page
      */
     public static Results getSingleProductContainerLocator()
     {
-        return find().byId("product-content");
+        return SINGLE_PRODUCT_CONTAINER.in(Context.getPage());
     }
 
     /**
@@ -587,7 +664,7 @@ public class Page
      */
     public static boolean isSingleProductDetailPage()
     {
-        return checkExistance(getSingleProductContainerLocator());
+        return isPageType(PageType.SINGLE_PRODUCT);
     }
 
     // ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -598,6 +675,9 @@ public class Page
     // ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     // ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
+    /** Prepared product set container locator. */
+    private static final Locator PRODUCT_SET_CONTAINER = HPU.prepare().byId(PRODUCT_SET_CONTAINER_ID);
+
     /**
      * Get the locator for a product set container.
      * 
@@ -605,7 +685,7 @@ public class Page
      */
     public static Results getProductSetContainerLocator()
     {
-        return find().byId("product-set-list");
+        return PRODUCT_SET_CONTAINER.in(Context.getPage());
     }
 
     /**
@@ -615,7 +695,7 @@ public class Page
      */
     public static boolean isProductSetPage()
     {
-        return checkExistance(getProductSetContainerLocator());
+        return isPageType(PageType.PRODUCT_SET);
     }
 
     /**
@@ -626,7 +706,7 @@ public class Page
      */
     public static boolean isProductBundlePage()
     {
-        return checkXPathExistanceInPage("id('pdpMain')/div[contains(@class,'product-col-2')]/form[contains(@class,'bundle')]");
+        return isPageType(PageType.PRODUCT_BUNDLE);
     }
 
     /**
@@ -723,7 +803,7 @@ public class Page
             // Get the set item's price and check that the price is valid (e.g. not N/A)
             final HtmlElement priceElement = findInProduct.byCss("div.add-sub-product > form > .product-price > .price-sales").single();
             String priceElementTextContent = priceElement.getTextContent().trim();
-            if (priceElement == null || !RegExUtils.isMatching(priceElementTextContent, PRICE_REGEXP))
+            if (priceElement == null || !Context.getConfiguration().getPriceParser().isPrice(priceElementTextContent))
             {
                 Session.logEvent("Product has no or invalid price", Context.getPage().getUrl().toExternalForm());
                 return false;
@@ -792,7 +872,7 @@ public class Page
 
         // Get the product's price and check if it's of a valid format.
         final Results priceElement = findInProduct.byCss("form > fieldset > .product-price > .price-sales");
-        if (!priceElement.exists() || !RegExUtils.isMatching(priceElement.single().getTextContent().trim(), PRICE_REGEXP))
+        if (!priceElement.exists() || !Context.getConfiguration().getPriceParser().isPrice(priceElement.single().getTextContent()))
         {
             Session.logEvent("Product has no or invalid price", Context.getPage().getUrl().toExternalForm());
             return false;
@@ -856,27 +936,23 @@ public class Page
     // ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     // ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
-    /** Regular expression to match a price such as "Cart (1) Item, Total: $899.99" or "899,99€" */
-    public static final String PRICE_REGEXP = "\\d{1,3}([,.]\\d{3})*[,.]\\d{2}";
-
     /**
      * Get the totals from the mini cart.
      * 
-     * @return the mini cart totals
+     * @return the mini cart totals in minor units (cents)
      * @throws AssertionError
-     *             if no mini cart was found
+     *             if no mini cart was found or the mini cart does not show a price
      */
-    public static String getMiniCartTotal() throws AssertionError
+    public static long getMiniCartTotal() throws AssertionError
     {
         // Get the mini cart link.
         final HtmlElement minicartLink = getMiniCartLocator().byCss(".mini-cart-total > a.mini-cart-link")
                                                              .asserted("No mini cart totals found on the page.").single();
 
-        // Extract the text.
-        final String wcItemsText = minicartLink.getTextContent().trim();
-
-        // Return the text snippet that matches the price pattern.
-        return RegExUtils.getFirstMatch(wcItemsText, PRICE_REGEXP);
+        // Read the price from a text such as "Cart (1) Item, Total: $899.99".
+        final long total = Context.getConfiguration().getPriceParser().parse(minicartLink.getTextContent());
+        Assert.assertTrue("No mini cart totals found on the page.", total != PriceParser.NO_PRICE);
+        return total;
     }
 
     /**
@@ -939,24 +1015,15 @@ public class Page
         String miniCartUrl = "http://shop.gopro.com/minicartjson";
 
         // AJAX Call for the search. This is problematic because the response is a json blob
-        WebResponse r = new XHR().url(miniCartUrl)
-                         .param("lang", "en_US")
-                                 .fire();
-
-        JSONObject json = new JSONObject(r.getContentAsString());
-
-        // JSONObject items = json.getJSONObject("items");
-        JSONArray items = json.getJSONArray("items");
-        int numOfItems = items.length();
-        int items_count_total = 0;
+        final XHR xhr = new XHR().url(miniCartUrl)
+                                 .param("lang", "en_US")
+                                 .expectJsonObject()
+                                 .extractJson("items[*].quantity");
+        xhr.fire();
 
-        for (int i = 0; i < numOfItems; i++)
-        {
-
-            items_count_total += items.getJSONObject(i).getInt("quantity");
-        }
+        final int items_count_total = (int) xhr.getJson().sum("items[*].quantity");
 
-        System.out.println("items_count_total = " + items_count_total);
+        XltLogger.runTimeLogger.debug("items_count_total = " + items_count_total);
 
         return items_count_total;
     }
@@ -982,6 +1049,9 @@ public class Page
                                                   .getTextContent().trim();
     }
 
+    /** Prepared cart table locator. */
+    private static final Locator CART_TABLE = HPU.prepare().byId("cart-table");
+
     /**
      * Get the locator for the cart table.
      * 
@@ -989,11 +1059,11 @@ public class Page
      */
     public static Results getCartTableLocator()
     {
-        return find().byId("cart-table");
+        return CART_TABLE.in(Context.getPage());
     }
 
     /** Cart item row inside cart table. */
-    private static final String CART_ROW_CSS = "tbody > tr.cart-row";
+    static final String CART_ROW_CSS = "tbody > tr.cart-row";
 
     /**
      * Get the number of cart items from the cart page.
@@ -1159,8 +1229,7 @@ public class Page
      */
     public static boolean isCartPage()
     {
-        return checkExistance(Page.find().byId("cart-items-form"))
-               || checkExistance(getPrimaryContentContainerLocator().byCss(".cart-empty"));
+        return isPageType(PageType.CART) || isPageType(PageType.CART_EMPTY);
     }
 
     // ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
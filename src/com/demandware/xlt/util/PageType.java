@@ -0,0 +1,229 @@
+package com.demandware.xlt.util;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+import com.gargoylesoftware.htmlunit.html.DomElement;
+import com.gargoylesoftware.htmlunit.html.DomNode;
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+import com.xceptance.xlt.api.util.elementLookup.strategy.PageLookupCache;
+import com.xceptance.xlt.api.util.elementLookup.strategy.SimpleSelector;
+
+/**
+ * The types a shop page can be of. Each type is identified by a characteristic element below a container with a known
+ * id. A type check looks the container up by id and searches its subtree only as deep as the characteristic element
+ * can be, so no check walks the whole page. Each type is checked on first request only, the results are attached to
+ * the page and kept until the page's DOM changes (for instance by an XHR update) or another page is loaded.
+ * <p>
+ * A page may be of more than one type, e.g. a quick view shows a product on top of a product grid.
+ * </p>
+ *
+ * @author Xiaobai Wang
+ */
+public enum PageType
+{
+    /** Product grid with visible products. */
+    PRODUCT_GRID(Page.SEARCH_RESULT_ITEMS_ID, null, 0),
+
+    /** Camera landing page showing the cameras as product grid. */
+    CAMERA_GRID(Page.MAIN_CONTAINER_ID,
+                "#" + Page.MAIN_CONTAINER_ID
+                    + " > div[class='camera-landing'] > div[class='camera-twoX-wrapper'] > div > div[class='twoXCameras']", 4),
+
+    /** Single product detail page (or quick view). */
+    SINGLE_PRODUCT(Page.SINGLE_PRODUCT_CONTAINER_ID, null, 0),
+
+    /** Product set page. */
+    PRODUCT_SET(Page.PRODUCT_SET_CONTAINER_ID, null, 0),
+
+    /** Product bundle page. */
+    PRODUCT_BUNDLE("pdpMain", "#pdpMain > div[class*='product-col-2'] > form[class*='bundle']", 2),
+
+    /** Category landing page. */
+    LANDING(Page.PRIMARY_CONTENT_CONTAINER_ID, "#" + Page.PRIMARY_CONTENT_CONTAINER_ID + " .category-main-banner", PageType.ANY_DEPTH),
+
+    /** Gift certificate page. */
+    GIFT_CERTIFICATE(Page.PRIMARY_CONTENT_CONTAINER_ID, "#" + Page.PRIMARY_CONTENT_CONTAINER_ID + " .gift-certificate-purchase", PageType.ANY_DEPTH),
+
+    /** Cart page listing items. */
+    CART(Page.CART_ITEMS_FORM_ID, null, 0),
+
+    /** Cart page of an empty cart. */
+    CART_EMPTY(Page.PRIMARY_CONTENT_CONTAINER_ID, "#" + Page.PRIMARY_CONTENT_CONTAINER_ID + " .cart-empty", PageType.ANY_DEPTH);
+
+    /** Depth of a characteristic element that can be anywhere below its container. */
+    private static final int ANY_DEPTH = -1;
+
+    /** Page data key for the classification results. */
+    private static final String PAGE_TYPES_KEY = PageType.class.getName() + ".types";
+
+    /** The id of the container the characteristic element is found in. */
+    private final String containerId;
+
+    /** Matcher for the characteristic element or <code>null</code> if the container itself is characteristic. */
+    private final SimpleSelector probe;
+
+    /** How many levels below the container the characteristic element can be, {@link #ANY_DEPTH} if not limited. */
+    private final int depth;
+
+    /**
+     * Constructor
+     *
+     * @param containerId
+     *            the id of the container the characteristic element is found in
+     * @param css
+     *            CSS selector of the characteristic element or <code>null</code> if the container itself is
+     *            characteristic
+     * @param depth
+     *            how many levels below the container the characteristic element can be, {@link #ANY_DEPTH} if not
+     *            limited
+     */
+    private PageType(final String containerId, final String css, final int depth)
+    {
+        this.containerId = containerId;
+        this.depth = depth;
+
+        if (css == null)
+        {
+            this.probe = null;
+        }
+        else
+        {
+            this.probe = SimpleSelector.parse(css);
+            if (probe == null)
+            {
+                throw new IllegalArgumentException("Unsupported page type probe: " + css);
+            }
+        }
+    }
+
+    /**
+     * Get the types of the given page. All types not checked so far are checked now.
+     *
+     * @param page
+     *            the page to classify
+     * @return the (unmodifiable) types of the page, empty if the page type is unknown
+     */
+    public static Set<PageType> of(final HtmlPage page)
+    {
+        final Classification classification = getClassification(page);
+        for (final PageType type : values())
+        {
+            classification.is(type, page);
+        }
+
+        return Collections.unmodifiableSet(EnumSet.copyOf(classification.found));
+    }
+
+    /**
+     * Checks if the given page is of this type. The page is checked on first request only.
+     *
+     * @param page
+     *            the page to check
+     * @return <code>true</code> if the page is of this type, <code>false</code> otherwise
+     */
+    public boolean isTypeOf(final HtmlPage page)
+    {
+        return getClassification(page).is(this, page);
+    }
+
+    /**
+     * Get the classification results attached to the given page, attaching new ones if there are none.
+     *
+     * @param page
+     *            the page
+     * @return the page's classification results
+     */
+    private static Classification getClassification(final HtmlPage page)
+    {
+        Classification classification = (Classification) PageLookupCache.getPageData(page, PAGE_TYPES_KEY);
+        if (classification == null)
+        {
+            classification = new Classification();
+            PageLookupCache.putPageData(page, PAGE_TYPES_KEY, classification);
+        }
+        return classification;
+    }
+
+    /**
+     * Checks the given page for the characteristic element of this type.
+     *
+     * @param page
+     *            the page to check
+     * @return <code>true</code> if the page is of this type, <code>false</code> otherwise
+     */
+    private boolean check(final HtmlPage page)
+    {
+        final DomElement container = page.getElementById(containerId);
+        if (container == null)
+        {
+            return false;
+        }
+        return probe == null || find(container, depth);
+    }
+
+    /**
+     * Searches the children of the given node for the characteristic element, down to the given depth.
+     *
+     * @param parent
+     *            the node to search
+     * @param levels
+     *            number of levels left to search, negative if not limited
+     * @return <code>true</code> if the characteristic element was found, <code>false</code> otherwise
+     */
+    private boolean find(final DomNode parent, final int levels)
+    {
+        for (DomNode child = parent.getFirstChild(); child != null; child = child.getNextSibling())
+        {
+            if (child instanceof DomElement)
+            {
+                if (probe.matches((DomElement) child) || (levels != 1 && find(child, levels - 1)))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the selector of the element characteristic for this page type.
+     *
+     * @return probe description
+     */
+    public String getProbe()
+    {
+        return probe != null ? probe.toString() : "#" + containerId;
+    }
+
+    /**
+     * The page types checked so far for a page.
+     */
+    private static class Classification
+    {
+        /** The types checked so far. */
+        private final EnumSet<PageType> checked = EnumSet.noneOf(PageType.class);
+
+        /** The types found so far. */
+        private final EnumSet<PageType> found = EnumSet.noneOf(PageType.class);
+
+        /**
+         * Checks if the given page is of the given type, unless it was checked before.
+         *
+         * @param type
+         *            the page type
+         * @param page
+         *            the page
+         * @return <code>true</code> if the page is of the given type, <code>false</code> otherwise
+         */
+        private boolean is(final PageType type, final HtmlPage page)
+        {
+            if (checked.add(type) && type.check(page))
+            {
+                found.add(type);
+            }
+            return found.contains(type);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.demandware.xlt.util;
+
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * Reads prices such as "$1,000.00", "1.000,00 €" or "Cart (1) Item, Total: $899.99" in a single pass without creating
+ * any objects. Prices are returned in minor units (cents).
+ * <p>
+ * The decimal separator is given by the locale. All other separators a locale might use for digit grouping (
+ * <code>,</code>, <code>.</code>, <code>'</code> and non-breaking spaces) are skipped when followed by a digit. Only
+ * the first two fraction digits are taken into account.
+ * </p>
+ *
+ * @author Xiaobai Wang
+ */
+public final class PriceParser
+{
+    /** Result if the text does not contain a price. */
+    public static final long NO_PRICE = -1;
+
+    /** Separator between integer and fraction digits. */
+    private final char decimalSeparator;
+
+    /** Locale specific grouping separator, in addition to the common ones. */
+    private final char groupingSeparator;
+
+    /**
+     * Creates a parser for the given decimal and grouping separators.
+     *
+     * @param decimalSeparator
+     *            separator between integer and fraction digits
+     * @param groupingSeparator
+     *            separator between digit groups
+     */
+    public PriceParser(final char decimalSeparator, final char groupingSeparator)
+    {
+        this.decimalSeparator = decimalSeparator;
+        this.groupingSeparator = groupingSeparator;
+    }
+
+    /**
+     * Creates a parser for the separators of the given locale.
+     *
+     * @param languageTag
+     *            IETF language tag of the locale, e.g. en-US or de-DE
+     * @return the parser
+     */
+    public static PriceParser forLanguage(final String languageTag)
+    {
+        final DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(Locale.forLanguageTag(languageTag));
+        return new PriceParser(symbols.getDecimalSeparator(), symbols.getGroupingSeparator());
+    }
+
+    /**
+     * Get the first price in the given text. A number with a decimal part is preferred, if there is none the first
+     * whole number is taken.
+     *
+     * @param text
+     *            the text to read
+     * @return the price in minor units or {@link #NO_PRICE} if the text does not contain any number
+     */
+    public long parse(final CharSequence text)
+    {
+        return scan(text, false);
+    }
+
+    /**
+     * Whether the given text contains a price with exactly two fraction digits.
+     *
+     * @param text
+     *            the text to check
+     * @return <code>true</code> if the text contains a price, <code>false</code> otherwise
+     */
+    public boolean isPrice(final CharSequence text)
+    {
+        return scan(text, true) != NO_PRICE;
+    }
+
+    /**
+     * Reads the numbers of the given text one after the other until a number with a decimal part is found.
+     *
+     * @param text
+     *            the text to read
+     * @param strict
+     *            whether to accept numbers with exactly two fraction digits only
+     * @return the price in minor units or {@link #NO_PRICE}
+     */
+    private long scan(final CharSequence text, final boolean strict)
+    {
+        if (text == null)
+        {
+            return NO_PRICE;
+        }
+
+        final int length = text.length();
+        long firstWholeNumber = NO_PRICE;
+
+        int i = 0;
+        while (i < length)
+        {
+            // skip to the next digit
+            if (!isDigit(text.charAt(i)))
+            {
+                i++;
+                continue;
+            }
+
+            long units = 0;
+            long cents = 0;
+            int fractionDigits = -1;
+
+            for (; i < length; i++)
+            {
+                final char c = text.charAt(i);
+                final boolean nextIsDigit = i + 1 < length && isDigit(text.charAt(i + 1));
+                if (isDigit(c))
+                {
+                    if (fractionDigits < 0)
+                    {
+                        units = units * 10 + (c - '0');
+                    }
+                    else
+                    {
+                        if (fractionDigits < 2)
+                        {
+                            cents = cents * 10 + (c - '0');
+                        }
+                        fractionDigits++;
+                    }
+                }
+                else if (c == decimalSeparator && fractionDigits < 0 && nextIsDigit)
+                {
+                    fractionDigits = 0;
+                }
+                else if (!(isGroupingSeparator(c) && fractionDigits < 0 && nextIsDigit))
+                {
+                    break;
+                }
+            }
+
+            if (fractionDigits > 0)
+            {
+                if (!strict || fractionDigits == 2)
+                {
+                    return units * 100 + (fractionDigits == 1 ? cents * 10 : cents);
+                }
+            }
+            else if (firstWholeNumber == NO_PRICE)
+            {
+                firstWholeNumber = units * 100;
+            }
+        }
+
+        return strict ? NO_PRICE : firstWholeNumber;
+    }
+
+    /**
+     * Whether the given character separates digit groups.
+     *
+     * @param c
+     *            the character
+     * @return <code>true</code> if the character is a grouping separator, <code>false</code> otherwise
+     */
+    private boolean isGroupingSeparator(final char c)
+    {
+        if (c == decimalSeparator)
+        {
+            return false;
+        }
+        return c == groupingSeparator || c == ',' || c == '.' || c == '\'' || c == '\u00A0' || c == '\u202F';
+    }
+
+    /**
+     * Whether the given character is an ASCII digit.
+     *
+     * @param c
+     *            the character
+     * @return <code>true</code> if the character is a digit, <code>false</code> otherwise
+     */
+    private static boolean isDigit(final char c)
+    {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,123 @@
+package com.demandware.xlt.util;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable table of effective property keys for a single test scope (user name, site and test class). The table is
+ * built once per scope and configuration snapshot from all configured properties with all fall-backs already applied,
+ * so resolving a key is a single map lookup instead of building and probing up to five candidate keys.
+ * <p>
+ * See {@link Configuration#getEffectiveKey(String)} for the fall-back order.
+ * </p>
+ *
+ * @author Xiaobai Wang
+ */
+final class PropertyResolver
+{
+    /** Effective keys by bare key. Bare keys without a more specific variant are not listed. */
+    private final Map<String, String> effectiveKeys;
+
+    /**
+     * Constructor
+     *
+     * @param effectiveKeys
+     *            effective keys by bare key
+     */
+    private PropertyResolver(final Map<String, String> effectiveKeys)
+    {
+        this.effectiveKeys = effectiveKeys;
+    }
+
+    /**
+     * Get the resolver for the given scope and snapshot. It is built on first request.
+     *
+     * @param snapshot
+     *            configuration snapshot
+     * @param userName
+     *            the test user name
+     * @param sitePrefix
+     *            site specific property prefix
+     * @param testClassName
+     *            the test class name
+     * @return the resolver
+     */
+    static PropertyResolver getInstance(final ConfigurationReloader.Snapshot snapshot, final String userName,
+                                        final String sitePrefix, final String testClassName)
+    {
+        final String scope = userName + '\n' + sitePrefix + '\n' + testClassName;
+
+        PropertyResolver resolver = snapshot.resolvers.get(scope);
+        if (resolver == null)
+        {
+            resolver = build(snapshot.getProperties().keySet(), userName, sitePrefix, testClassName);
+            snapshot.resolvers.put(scope, resolver);
+        }
+
+        return resolver;
+    }
+
+    /**
+     * Get the effective key for the given bare key.
+     *
+     * @param bareKey
+     *            the bare property key, i.e. without any prefixes
+     * @return the first key that produces a result
+     */
+    String getEffectiveKey(final String bareKey)
+    {
+        final String effectiveKey = effectiveKeys.get(bareKey);
+        return effectiveKey != null ? effectiveKey : bareKey;
+    }
+
+    /**
+     * Builds the table for the given scope. Each configured key is checked against all prefixes once. If there are
+     * several variants for the same bare key, the variant of the most specific prefix is taken.
+     *
+     * @param keys
+     *            the configured property keys
+     * @param userName
+     *            the test user name
+     * @param sitePrefix
+     *            site specific property prefix
+     * @param testClassName
+     *            the test class name
+     * @return the resolver
+     */
+    static PropertyResolver build(final Set<String> keys, final String userName, final String sitePrefix,
+                                  final String testClassName)
+    {
+        // prefixes in fall-back order, the bare key itself comes last and is the default
+        final String[] prefixes =
+            {
+                userName + ".", sitePrefix + "." + testClassName + ".", testClassName + ".", sitePrefix
+            };
+
+        final Map<String, String> effectiveKeys = new HashMap<String, String>();
+        final Map<String, Integer> ranks = new HashMap<String, Integer>();
+
+        for (final String key : keys)
+        {
+            for (int rank = 0; rank < prefixes.length; rank++)
+            {
+                final String prefix = prefixes[rank];
+                if (prefix.isEmpty() || !key.startsWith(prefix))
+                {
+                    continue;
+                }
+
+                final String bareKey = key.substring(prefix.length());
+                final Integer knownRank = ranks.get(bareKey);
+                if (knownRank == null || rank < knownRank)
+                {
+                    effectiveKeys.put(bareKey, key);
+                    ranks.put(bareKey, rank);
+                }
+            }
+        }
+
+        return new PropertyResolver(Collections.unmodifiableMap(effectiveKeys));
+    }
+}
@@ -13,6 +13,9 @@ public class SafetyBreak
     /** Threshold */
     private final int max;
 
+    /** Class and method name of the caller, looked up once the break is reached first */
+    private String caller;
+
     /**
      * Initialize the {@link SafetyBreak}
      * 
@@ -98,12 +101,28 @@ public class SafetyBreak
     }
 
     /**
-     * Retrieves the class and method name of the calling method for logging purpose.
+     * Retrieves the class and method name of the calling method for logging purpose. The stack trace is parsed only
+     * once, later calls return the cached result.
      * 
-     * @return class and method name of the calling method or <code>null</code> if class and method could not be parsed
+     * @return class and method name of the calling method or an empty string if class and method could not be parsed
      *         from stack trace.
      */
     private String getCaller()
+    {
+        if (caller == null)
+        {
+            caller = findCaller();
+        }
+        return caller;
+    }
+
+    /**
+     * Parses the class and method name of the calling method from the current stack trace.
+     * 
+     * @return class and method name of the calling method or an empty string if class and method could not be parsed
+     *         from stack trace.
+     */
+    private String findCaller()
     {
         // Parse all stack trace elements.
         final StackTraceElement[] stackTraceElements = Thread.currentThread().getStackTrace();
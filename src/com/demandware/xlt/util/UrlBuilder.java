@@ -0,0 +1,760 @@
+package com.demandware.xlt.util;
+
+import java.io.ByteArrayOutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Mutable URL and query string builder. The URL is split into base (everything up to the query), query parameters and
+ * fragment once, parameters can then be read, added, replaced and removed without creating maps or splitting strings.
+ * <p>
+ * Parameters are kept in encoded form (<code>application/x-www-form-urlencoded</code>, UTF-8), so parsing does not
+ * decode anything and a URL whose parameters were not touched is rebuilt exactly as it was given. Names and values
+ * passed in are percent-encoded, values read are decoded. The final string is assembled in a per-thread
+ * {@link StringBuilder} that is reused for every build.
+ * </p>
+ * <p>
+ * Instances are not thread-safe, but can be reused via {@link #reset(String)}.
+ * </p>
+ *
+ * @author Xiaobai Wang
+ */
+public final class UrlBuilder
+{
+    /** Builders larger than this [chars] are not kept for reuse. */
+    private static final int MAX_POOLED_CAPACITY = 8192;
+
+    /** Per-thread string builder used to assemble URLs. */
+    private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>()
+    {
+        @Override
+        protected StringBuilder initialValue()
+        {
+            return new StringBuilder(256);
+        }
+    };
+
+    /** Hex digits for percent-encoding. */
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    /** Everything up to (excluding) the query. */
+    private String base = "";
+
+    /** Encoded parameter names. */
+    private String[] names = new String[8];
+
+    /** Encoded parameter values, <code>null</code> for parameters without <code>=</code>. */
+    private String[] values = new String[8];
+
+    /** Number of parameters. */
+    private int size;
+
+    /** The raw fragment or <code>null</code> if there is none. */
+    private String fragment;
+
+    /**
+     * Creates an empty builder.
+     */
+    public UrlBuilder()
+    {
+    }
+
+    /**
+     * Creates a builder for the given URL.
+     *
+     * @param url
+     *            the URL, absolute or relative
+     */
+    public UrlBuilder(final String url)
+    {
+        reset(url);
+    }
+
+    /**
+     * Resets this builder to the given URL.
+     *
+     * @param url
+     *            the URL, absolute or relative
+     * @return this builder
+     */
+    public UrlBuilder reset(final String url)
+    {
+        clearParams();
+        fragment = null;
+
+        if (url == null)
+        {
+            base = "";
+            return this;
+        }
+
+        int end = url.length();
+        final int hash = url.indexOf('#');
+        if (hash >= 0)
+        {
+            fragment = url.substring(hash + 1);
+            end = hash;
+        }
+
+        final int question = url.indexOf('?');
+        if (question >= 0 && question < end)
+        {
+            base = url.substring(0, question);
+            parse(url, question + 1, end, false);
+        }
+        else
+        {
+            base = end == url.length() ? url : url.substring(0, end);
+        }
+
+        return this;
+    }
+
+    /**
+     * Adds the parameters of the given query string, e.g. <code>a=1&amp;b=2</code>. Parameters are taken as they are,
+     * they have to be encoded already.
+     *
+     * @param query
+     *            the query string, may be <code>null</code>
+     * @return this builder
+     */
+    public UrlBuilder parseQuery(final String query)
+    {
+        if (query != null)
+        {
+            parse(query, 0, query.length(), false);
+        }
+        return this;
+    }
+
+    /**
+     * Merges the parameters of the given query string, parameters that exist already are replaced.
+     *
+     * @param query
+     *            the query string, may be <code>null</code>
+     * @return this builder
+     */
+    public UrlBuilder mergeQuery(final String query)
+    {
+        if (query != null)
+        {
+            parse(query, 0, query.length(), true);
+        }
+        return this;
+    }
+
+    /**
+     * Adds a parameter.
+     *
+     * @param name
+     *            the parameter name
+     * @param value
+     *            the parameter value, <code>null</code> is taken as empty value
+     * @return this builder
+     */
+    public UrlBuilder addParam(final String name, final String value)
+    {
+        addEncoded(encode(name), encode(value));
+        return this;
+    }
+
+    /**
+     * Adds all given parameters.
+     *
+     * @param params
+     *            the parameters
+     * @return this builder
+     */
+    public UrlBuilder addParams(final Map<String, String> params)
+    {
+        for (final Map.Entry<String, String> param : params.entrySet())
+        {
+            addParam(param.getKey(), param.getValue());
+        }
+        return this;
+    }
+
+    /**
+     * Sets a parameter. The first parameter of that name is replaced and all others are removed, if there is none the
+     * parameter is added.
+     *
+     * @param name
+     *            the parameter name
+     * @param value
+     *            the parameter value, <code>null</code> is taken as empty value
+     * @return this builder
+     */
+    public UrlBuilder setParam(final String name, final String value)
+    {
+        setEncoded(encode(name), encode(value));
+        return this;
+    }
+
+    /**
+     * Removes all parameters of the given name.
+     *
+     * @param name
+     *            the parameter name
+     * @return this builder
+     */
+    public UrlBuilder removeParam(final String name)
+    {
+        final String encodedName = encode(name);
+        int j = 0;
+        for (int i = 0; i < size; i++)
+        {
+            if (!names[i].equals(encodedName))
+            {
+                names[j] = names[i];
+                values[j] = values[i];
+                j++;
+            }
+        }
+        Arrays.fill(names, j, size, null);
+        Arrays.fill(values, j, size, null);
+        size = j;
+
+        return this;
+    }
+
+    /**
+     * Removes all parameters.
+     *
+     * @return this builder
+     */
+    public UrlBuilder clearParams()
+    {
+        Arrays.fill(names, 0, size, null);
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+        return this;
+    }
+
+    /**
+     * Sets the fragment.
+     *
+     * @param fragment
+     *            the raw fragment (without <code>#</code>) or <code>null</code> to remove it
+     * @return this builder
+     */
+    public UrlBuilder fragment(final String fragment)
+    {
+        this.fragment = fragment;
+        return this;
+    }
+
+    /**
+     * Get the decoded value of the first parameter of the given name.
+     *
+     * @param name
+     *            the parameter name
+     * @return the decoded value or <code>null</code> if there is no such parameter
+     */
+    public String getParam(final String name)
+    {
+        final int i = indexOf(encode(name));
+        return i < 0 ? null : getParamValue(i);
+    }
+
+    /**
+     * Whether there is a parameter of the given name.
+     *
+     * @param name
+     *            the parameter name
+     * @return <code>true</code> if there is such a parameter, <code>false</code> otherwise
+     */
+    public boolean hasParam(final String name)
+    {
+        return indexOf(encode(name)) >= 0;
+    }
+
+    /**
+     * Get the number of parameters.
+     *
+     * @return number of parameters
+     */
+    public int getParamCount()
+    {
+        return size;
+    }
+
+    /**
+     * Get the decoded name of the parameter at the given position.
+     *
+     * @param index
+     *            the parameter position
+     * @return the decoded name
+     */
+    public String getParamName(final int index)
+    {
+        checkIndex(index);
+        return decode(names[index]);
+    }
+
+    /**
+     * Get the decoded value of the parameter at the given position.
+     *
+     * @param index
+     *            the parameter position
+     * @return the decoded value
+     */
+    public String getParamValue(final int index)
+    {
+        checkIndex(index);
+        return values[index] == null ? "" : decode(values[index]);
+    }
+
+    /**
+     * Get the encoded query string.
+     *
+     * @return the query string without <code>?</code>, empty if there are no parameters
+     */
+    public String getQuery()
+    {
+        final StringBuilder sb = acquireBuffer();
+        appendQuery(sb);
+        return releaseBuffer(sb);
+    }
+
+    /**
+     * Get the fragment.
+     *
+     * @return the raw fragment or <code>null</code> if there is none
+     */
+    public String getFragment()
+    {
+        return fragment;
+    }
+
+    /**
+     * Builds the URL string.
+     *
+     * @return the URL
+     */
+    public String build()
+    {
+        final StringBuilder sb = acquireBuffer();
+        sb.append(base);
+        if (size > 0)
+        {
+            sb.append('?');
+            appendQuery(sb);
+        }
+        if (fragment != null)
+        {
+            sb.append('#').append(fragment);
+        }
+        return releaseBuffer(sb);
+    }
+
+    /**
+     * Builds the URL.
+     *
+     * @return the URL
+     * @throws MalformedURLException
+     *             if the URL is not absolute or malformed
+     */
+    public URL toURL() throws MalformedURLException
+    {
+        return new URL(build());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return build();
+    }
+
+    /**
+     * Encodes the given parameters as query string.
+     *
+     * @param params
+     *            the parameters
+     * @return the encoded query string
+     */
+    public static String toQueryString(final Map<String, String> params)
+    {
+        final StringBuilder sb = acquireBuffer();
+        for (final Map.Entry<String, String> param : params.entrySet())
+        {
+            if (sb.length() > 0)
+            {
+                sb.append('&');
+            }
+            appendEncoded(sb, param.getKey());
+            sb.append('=');
+            appendEncoded(sb, param.getValue());
+        }
+        return releaseBuffer(sb);
+    }
+
+    /**
+     * Percent-encodes the given string (<code>application/x-www-form-urlencoded</code>, UTF-8), just like
+     * {@link java.net.URLEncoder} does.
+     *
+     * @param s
+     *            the string, <code>null</code> is taken as empty string
+     * @return the encoded string, the given instance if nothing needs to be encoded
+     */
+    public static String encode(final String s)
+    {
+        if (s == null)
+        {
+            return "";
+        }
+
+        for (int i = 0; i < s.length(); i++)
+        {
+            if (!isSafe(s.charAt(i)))
+            {
+                final StringBuilder sb = acquireBuffer();
+                appendEncoded(sb, s);
+                return releaseBuffer(sb);
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Decodes the given percent-encoded string (<code>application/x-www-form-urlencoded</code>, UTF-8). Malformed
+     * escapes are kept as they are.
+     *
+     * @param s
+     *            the encoded string
+     * @return the decoded string, the given instance if nothing needs to be decoded
+     */
+    public static String decode(final String s)
+    {
+        if (s == null || (s.indexOf('%') < 0 && s.indexOf('+') < 0))
+        {
+            return s;
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(s.length());
+        for (int i = 0; i < s.length(); i++)
+        {
+            final char c = s.charAt(i);
+            if (c == '+')
+            {
+                bytes.write(' ');
+            }
+            else if (c == '%' && i + 2 < s.length() && isHex(s.charAt(i + 1)) && isHex(s.charAt(i + 2)))
+            {
+                bytes.write(Character.digit(s.charAt(i + 1), 16) << 4 | Character.digit(s.charAt(i + 2), 16));
+                i += 2;
+            }
+            else if (c < 0x80)
+            {
+                bytes.write(c);
+            }
+            else
+            {
+                // not encoded, write the run of non-ASCII characters as UTF-8
+                int end = i + 1;
+                while (end < s.length() && s.charAt(end) >= 0x80)
+                {
+                    end++;
+                }
+                final byte[] encoded = s.substring(i, end).getBytes(StandardCharsets.UTF_8);
+                bytes.write(encoded, 0, encoded.length);
+                i = end - 1;
+            }
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Appends the percent-encoded form of the given string.
+     *
+     * @param sb
+     *            the target
+     * @param s
+     *            the string, <code>null</code> is taken as empty string
+     */
+    static void appendEncoded(final StringBuilder sb, final String s)
+    {
+        if (s == null)
+        {
+            return;
+        }
+
+        final int length = s.length();
+        for (int i = 0; i < length; i++)
+        {
+            final char c = s.charAt(i);
+            if (isSafe(c))
+            {
+                sb.append(c);
+            }
+            else if (c == ' ')
+            {
+                sb.append('+');
+            }
+            else if (c < 0x80)
+            {
+                appendByte(sb, c);
+            }
+            else if (c < 0x800)
+            {
+                appendByte(sb, 0xC0 | (c >> 6));
+                appendByte(sb, 0x80 | (c & 0x3F));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1)))
+            {
+                final int cp = Character.toCodePoint(c, s.charAt(++i));
+                appendByte(sb, 0xF0 | (cp >> 18));
+                appendByte(sb, 0x80 | ((cp >> 12) & 0x3F));
+                appendByte(sb, 0x80 | ((cp >> 6) & 0x3F));
+                appendByte(sb, 0x80 | (cp & 0x3F));
+            }
+            else if (Character.isSurrogate(c))
+            {
+                // unpaired surrogate, encoded as '?' like URLEncoder does
+                appendByte(sb, '?');
+            }
+            else
+            {
+                appendByte(sb, 0xE0 | (c >> 12));
+                appendByte(sb, 0x80 | ((c >> 6) & 0x3F));
+                appendByte(sb, 0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    /**
+     * Reads the parameters of the given query string section.
+     *
+     * @param query
+     *            the string holding the query
+     * @param from
+     *            start of the query (inclusive)
+     * @param to
+     *            end of the query (exclusive)
+     * @param replace
+     *            whether to replace existing parameters of the same name
+     */
+    private void parse(final String query, final int from, final int to, final boolean replace)
+    {
+        int start = from;
+        while (start < to)
+        {
+            int end = query.indexOf('&', start);
+            if (end < 0 || end > to)
+            {
+                end = to;
+            }
+
+            if (end > start)
+            {
+                final int equals = query.indexOf('=', start);
+                final String name;
+                final String value;
+                if (equals < 0 || equals >= end)
+                {
+                    name = query.substring(start, end);
+                    value = null;
+                }
+                else
+                {
+                    name = query.substring(start, equals);
+                    value = query.substring(equals + 1, end);
+                }
+
+                if (replace)
+                {
+                    setEncoded(name, value);
+                }
+                else
+                {
+                    addEncoded(name, value);
+                }
+            }
+
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Adds an encoded parameter.
+     *
+     * @param name
+     *            the encoded name
+     * @param value
+     *            the encoded value
+     */
+    private void addEncoded(final String name, final String value)
+    {
+        if (size == names.length)
+        {
+            names = Arrays.copyOf(names, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        names[size] = name;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * Sets an encoded parameter, see {@link #setParam(String, String)}.
+     *
+     * @param name
+     *            the encoded name
+     * @param value
+     *            the encoded value
+     */
+    private void setEncoded(final String name, final String value)
+    {
+        final int i = indexOf(name);
+        if (i < 0)
+        {
+            addEncoded(name, value);
+            return;
+        }
+
+        values[i] = value;
+
+        // drop later duplicates
+        int j = i + 1;
+        for (int k = i + 1; k < size; k++)
+        {
+            if (!names[k].equals(name))
+            {
+                names[j] = names[k];
+                values[j] = values[k];
+                j++;
+            }
+        }
+        Arrays.fill(names, j, size, null);
+        Arrays.fill(values, j, size, null);
+        size = j;
+    }
+
+    /**
+     * Get the position of the first parameter with the given encoded name.
+     *
+     * @param name
+     *            the encoded name
+     * @return the position or <code>-1</code> if there is no such parameter
+     */
+    private int indexOf(final String name)
+    {
+        for (int i = 0; i < size; i++)
+        {
+            if (names[i].equals(name))
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Appends the encoded query string.
+     *
+     * @param sb
+     *            the target
+     */
+    private void appendQuery(final StringBuilder sb)
+    {
+        for (int i = 0; i < size; i++)
+        {
+            if (i > 0)
+            {
+                sb.append('&');
+            }
+            sb.append(names[i]);
+            if (values[i] != null)
+            {
+                sb.append('=').append(values[i]);
+            }
+        }
+    }
+
+    /**
+     * Checks the given parameter position.
+     *
+     * @param index
+     *            the parameter position
+     * @throws IndexOutOfBoundsException
+     *             if there is no parameter at that position
+     */
+    private void checkIndex(final int index)
+    {
+        if (index < 0 || index >= size)
+        {
+            throw new IndexOutOfBoundsException("Parameter " + index + " of " + size);
+        }
+    }
+
+    /**
+     * Get the per-thread string builder, emptied.
+     *
+     * @return the string builder
+     */
+    private static StringBuilder acquireBuffer()
+    {
+        final StringBuilder sb = BUFFER.get();
+        sb.setLength(0);
+        return sb;
+    }
+
+    /**
+     * Get the content of the given per-thread string builder. Builders that grew too large are dropped.
+     *
+     * @param sb
+     *            the string builder
+     * @return the content
+     */
+    private static String releaseBuffer(final StringBuilder sb)
+    {
+        final String s = sb.toString();
+        if (sb.capacity() > MAX_POOLED_CAPACITY)
+        {
+            BUFFER.remove();
+        }
+        return s;
+    }
+
+    /**
+     * Appends a percent-encoded byte.
+     *
+     * @param sb
+     *            the target
+     * @param b
+     *            the byte
+     */
+    private static void appendByte(final StringBuilder sb, final int b)
+    {
+        sb.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+    }
+
+    /**
+     * Whether the given character is not encoded.
+     *
+     * @param c
+     *            the character
+     * @return <code>true</code> if the character is taken as it is, <code>false</code> otherwise
+     */
+    private static boolean isSafe(final char c)
+    {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_' || c == '.' || c == '*';
+    }
+
+    /**
+     * Whether the given character is a hex digit.
+     *
+     * @param c
+     *            the character
+     * @return <code>true</code> if the character is a hex digit, <code>false</code> otherwise
+     */
+    private static boolean isHex(final char c)
+    {
+        return Character.digit(c, 16) >= 0;
+    }
+}
@@ -0,0 +1,471 @@
+package com.demandware.xlt.util;
+
+import java.net.URL;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.gargoylesoftware.htmlunit.MockWebConnection;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.WebResponse;
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+
+/**
+ * Test the implementation of {@link UrlBuilder} and the URL hash handling of {@link AjaxUtils} built on it.
+ */
+public class UrlBuilderTest
+{
+    /*
+     * Encoding
+     */
+
+    /**
+     * Strings are encoded just like {@link URLEncoder} does and decoded back by {@link URLDecoder}.
+     */
+    @Test
+    public void testEncodeLikeUrlEncoder() throws Throwable
+    {
+        final Random random = new Random(42);
+        for (int i = 0; i < 1000; i++)
+        {
+            final String s = randomString(random);
+            final String encoded = UrlBuilder.encode(s);
+
+            Assert.assertEquals("Wrong encoding of: " + s, URLEncoder.encode(s, "UTF-8"), encoded);
+            Assert.assertEquals("Wrong round trip of: " + s, s, URLDecoder.decode(encoded, "UTF-8"));
+        }
+    }
+
+    /**
+     * Special characters, surrogate pairs and unpaired surrogates are encoded like {@link URLEncoder} does.
+     */
+    @Test
+    public void testEncodeSpecialCharacters() throws Throwable
+    {
+        final String[] strings =
+            {
+                "", "safe-_.*AZaz09", " ", "+", "a b+c", "&=?#%/~!'()", "\u00e9\u00df", "\u20ac", "\ud83d\ude00",
+                "\ud83d", "\ude00", "x\ud83dy", "\u0000\u007f\u0080\u07ff\u0800\uffff"
+            };
+        for (final String s : strings)
+        {
+            Assert.assertEquals("Wrong encoding of: " + s, URLEncoder.encode(s, "UTF-8"), UrlBuilder.encode(s));
+        }
+
+        Assert.assertEquals("", UrlBuilder.encode(null));
+    }
+
+    /**
+     * Strings that need no encoding are returned as they are.
+     */
+    @Test
+    public void testEncodeUnchanged()
+    {
+        final String s = "nothing-to_encode.*";
+        Assert.assertSame(s, UrlBuilder.encode(s));
+    }
+
+    /**
+     * Encoded strings are decoded just like {@link URLDecoder} does, including lower case escapes, <code>+</code> and
+     * characters that were not encoded at all.
+     */
+    @Test
+    public void testDecodeLikeUrlDecoder() throws Throwable
+    {
+        final String[] strings =
+            {
+                "", "plain", "a+b", "%2B", "%c3%a9%C3%A9", "%E2%82%AC", "%F0%9F%98%80", "\u00e9\u20ac\ud83d\ude00",
+                "mixed%20\u00e9+%e2%82%ac", "%26%3D%3F%23%25"
+            };
+        for (final String s : strings)
+        {
+            Assert.assertEquals("Wrong decoding of: " + s, URLDecoder.decode(s, "UTF-8"), UrlBuilder.decode(s));
+        }
+
+        final Random random = new Random(4711);
+        for (int i = 0; i < 1000; i++)
+        {
+            final String encoded = URLEncoder.encode(randomString(random), "UTF-8");
+            Assert.assertEquals("Wrong decoding of: " + encoded, URLDecoder.decode(encoded, "UTF-8"), UrlBuilder.decode(encoded));
+        }
+    }
+
+    /**
+     * Malformed escapes are kept as they are instead of failing.
+     */
+    @Test
+    public void testDecodeMalformed()
+    {
+        Assert.assertEquals("%", UrlBuilder.decode("%"));
+        Assert.assertEquals("100%", UrlBuilder.decode("100%"));
+        Assert.assertEquals("%4", UrlBuilder.decode("%4"));
+        Assert.assertEquals("%zz A", UrlBuilder.decode("%zz+%41"));
+        Assert.assertEquals("%A", UrlBuilder.decode("%%41"));
+        Assert.assertNull(UrlBuilder.decode(null));
+    }
+
+    /**
+     * Parameters are encoded when added and decoded when read.
+     */
+    @Test
+    public void testParamRoundTrip() throws Throwable
+    {
+        final Random random = new Random(7);
+        for (int i = 0; i < 200; i++)
+        {
+            final String name = randomString(random) + "n";
+            final String value = randomString(random);
+
+            final UrlBuilder url = new UrlBuilder("http://localhost/p").addParam(name, value);
+            Assert.assertEquals("http://localhost/p?" + URLEncoder.encode(name, "UTF-8") + "=" + URLEncoder.encode(value, "UTF-8"),
+                                url.build());
+
+            final UrlBuilder parsed = new UrlBuilder(url.build());
+            Assert.assertEquals(name, parsed.getParamName(0));
+            Assert.assertEquals(value, parsed.getParam(name));
+        }
+    }
+
+    /**
+     * Maps are encoded like {@link URLEncoder} does, in the map's order.
+     */
+    @Test
+    public void testToQueryString() throws Throwable
+    {
+        final Map<String, String> params = new LinkedHashMap<String, String>();
+        params.put("q", "red shoes");
+        params.put("a&b", "1=2");
+        params.put("empty", "");
+        params.put("euro", "\u20ac");
+
+        Assert.assertEquals("q=red+shoes&a%26b=1%3D2&empty=&euro=%E2%82%AC", UrlBuilder.toQueryString(params));
+    }
+
+    /*
+     * Parsing and building
+     */
+
+    /**
+     * URLs whose parameters are not touched are rebuilt exactly as they were given.
+     */
+    @Test
+    public void testRebuildUnchanged()
+    {
+        final String[] urls =
+            {
+                "http://localhost/", "http://localhost/p?a=1", "http://localhost/p?b=%7e&a&c=&d=1+2&b=x#frag?x&y",
+                "/relative?x=%C3%A9", "http://localhost/p#hash", "?only=query", "http://localhost/p?a=1&a=2&a=3"
+            };
+        for (final String url : urls)
+        {
+            Assert.assertEquals(url, new UrlBuilder(url).build());
+        }
+    }
+
+    /**
+     * URL parts are split at the first <code>#</code> and the first <code>?</code> before it.
+     */
+    @Test
+    public void testParse()
+    {
+        final UrlBuilder url = new UrlBuilder("http://localhost/p?a=1&&b&c=x=y#f?g=1&h");
+
+        Assert.assertEquals(3, url.getParamCount());
+        Assert.assertEquals("1", url.getParam("a"));
+        Assert.assertEquals("", url.getParam("b"));
+        Assert.assertEquals("x=y", url.getParam("c"));
+        Assert.assertNull(url.getParam("g"));
+        Assert.assertEquals("f?g=1&h", url.getFragment());
+        Assert.assertEquals("a=1&b&c=x=y", url.getQuery());
+
+        final UrlBuilder hashOnly = new UrlBuilder("http://localhost/p#f?g=1");
+        Assert.assertEquals(0, hashOnly.getParamCount());
+        Assert.assertEquals("f?g=1", hashOnly.getFragment());
+    }
+
+    /**
+     * Setting a parameter replaces the first one of that name and removes all others, the order of the other
+     * parameters is kept.
+     */
+    @Test
+    public void testSetParamRemovesDuplicates()
+    {
+        final UrlBuilder url = new UrlBuilder("http://localhost/p?a=1&b=2&a=3&c=4&a=5#f");
+
+        url.setParam("a", "x y");
+        Assert.assertEquals("http://localhost/p?a=x+y&b=2&c=4#f", url.build());
+
+        url.setParam("d", "new");
+        Assert.assertEquals("http://localhost/p?a=x+y&b=2&c=4&d=new#f", url.build());
+
+        url.setParam("b", null);
+        Assert.assertEquals("http://localhost/p?a=x+y&b=&c=4&d=new#f", url.build());
+    }
+
+    /**
+     * Merging a query replaces existing parameters in place and adds new ones at the end.
+     */
+    @Test
+    public void testMergeQuery()
+    {
+        final UrlBuilder url = new UrlBuilder().parseQuery("a=1&b=2&a=3").mergeQuery("b=x&c=y&a=z");
+
+        Assert.assertEquals("a=z&b=x&c=y", url.getQuery());
+    }
+
+    /**
+     * Removing a parameter removes all parameters of that name.
+     */
+    @Test
+    public void testRemoveParam()
+    {
+        final UrlBuilder url = new UrlBuilder("http://localhost/p?a=1&b=2&a=3&c&a");
+
+        url.removeParam("a");
+        Assert.assertEquals("http://localhost/p?b=2&c", url.build());
+        Assert.assertFalse(url.hasParam("a"));
+
+        url.removeParam("b").removeParam("c");
+        Assert.assertEquals("http://localhost/p", url.build());
+    }
+
+    /**
+     * Names and values are matched in encoded form.
+     */
+    @Test
+    public void testEncodedNames()
+    {
+        final UrlBuilder url = new UrlBuilder("http://localhost/p?a+b=1&%C3%A9=2");
+
+        Assert.assertEquals("1", url.getParam("a b"));
+        Assert.assertEquals("2", url.getParam("\u00e9"));
+        Assert.assertEquals("a b", url.getParamName(0));
+
+        url.setParam("\u00e9", "3");
+        Assert.assertEquals("http://localhost/p?a+b=1&%C3%A9=3", url.build());
+    }
+
+    /**
+     * Many parameters are kept in order.
+     */
+    @Test
+    public void testManyParams()
+    {
+        final UrlBuilder url = new UrlBuilder("http://localhost/p");
+        final StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 50; i++)
+        {
+            url.addParam("p" + i, String.valueOf(i));
+            expected.append(i == 0 ? "?" : "&").append("p").append(i).append('=').append(i);
+        }
+
+        Assert.assertEquals(50, url.getParamCount());
+        Assert.assertEquals("http://localhost/p" + expected, url.build());
+        Assert.assertEquals("49", url.getParamValue(49));
+    }
+
+    /**
+     * Parameter positions are checked.
+     */
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testParamIndexOutOfBounds()
+    {
+        new UrlBuilder("http://localhost/p?a=1").getParamName(1);
+    }
+
+    /**
+     * A builder can be reused for another URL.
+     */
+    @Test
+    public void testReset()
+    {
+        final UrlBuilder url = new UrlBuilder("http://localhost/p?a=1#f");
+
+        url.reset("http://localhost/q?b=2");
+        Assert.assertEquals("http://localhost/q?b=2", url.build());
+        Assert.assertNull(url.getFragment());
+
+        url.reset(null);
+        Assert.assertEquals("", url.build());
+    }
+
+    /*
+     * URL hash
+     */
+
+    /**
+     * The URL hash holds the same parameters as before, now in a stable order.
+     */
+    @Test
+    public void testExtendLikeBefore()
+    {
+        final String[][] cases =
+            {
+                {
+                    null, "q=shoes&format=ajax"
+                },
+                {
+                    "start=1&sz=12", "q=shoes&srule=top&format=ajax"
+                },
+                {
+                    "q=shirts&sz=12&start=13", "q=red+shoes&prefn1=color&prefv1=Red%7CBlue"
+                },
+                {
+                    "", ""
+                },
+                {
+                    "a=1&b=2&c=3", null
+                }
+            };
+        for (final String[] c : cases)
+        {
+            final String hash = AjaxUtils.extend(c[0], c[1]);
+            Assert.assertEquals("Wrong hash for: " + c[0] + " / " + c[1], legacyExtend(c[0], c[1]), legacySplit(hash));
+        }
+    }
+
+    /**
+     * Hash parameters keep their order, query string parameters replace them in place or are appended.
+     */
+    @Test
+    public void testExtendOrder()
+    {
+        Assert.assertEquals("#q=red+shoes&sz=12&start=13&prefn1=color",
+                            AjaxUtils.extend("q=shirts&sz=12&start=13", "q=red+shoes&format=ajax&prefn1=color"));
+        Assert.assertEquals("#q=x&start=1", AjaxUtils.extend(null, "q=x"));
+    }
+
+    /**
+     * Parameters without value are kept now, the former implementation dropped them.
+     */
+    @Test
+    public void testExtendValuelessParams()
+    {
+        Assert.assertEquals("#flag&empty=&start=1", AjaxUtils.extend("flag&empty=", ""));
+    }
+
+    /**
+     * Map parameters are encoded and replace hash parameters of the same name.
+     */
+    @Test
+    public void testExtendMap()
+    {
+        final Map<String, String> params = new LinkedHashMap<String, String>();
+        params.put("q", "red shoes");
+        params.put("format", "ajax");
+        params.put("sz", "24");
+
+        Assert.assertEquals("#q=red+shoes&sz=24&start=1", AjaxUtils.extend("q=shirts&sz=12", params));
+    }
+
+    /**
+     * The page URL's hash is updated with the parameters of the AJAX request, its query is kept.
+     */
+    @Test
+    public void testUpdateUrlHash() throws Throwable
+    {
+        final WebClient webClient = new WebClient();
+        webClient.getOptions().setJavaScriptEnabled(false);
+
+        final MockWebConnection connection = new MockWebConnection();
+        connection.setDefaultResponse("<html><body></body></html>");
+        webClient.setWebConnection(connection);
+
+        final HtmlPage page = webClient.getPage("http://localhost/search?q=shoes#start=1&sz=12");
+        final WebResponse response = webClient.loadWebResponse(new WebRequest(new URL("http://localhost/search?q=shoes&srule=top&format=ajax")));
+
+        AjaxUtils.updateUrlHash(page, response);
+
+        Assert.assertEquals("http://localhost/search?q=shoes#start=1&sz=12&q=shoes&srule=top", page.getUrl().toExternalForm());
+    }
+
+    /**
+     * Generates a random string of characters from all UTF-8 lengths, including surrogate pairs.
+     *
+     * @param random
+     *            the random generator
+     * @return the string
+     */
+    private static String randomString(final Random random)
+    {
+        final StringBuilder sb = new StringBuilder();
+        final int length = random.nextInt(12);
+        for (int i = 0; i < length; i++)
+        {
+            switch (random.nextInt(5))
+            {
+                case 0:
+                    sb.append((char) random.nextInt(0x80));
+                    break;
+                case 1:
+                    sb.append("-_.* +&=%?#/".charAt(random.nextInt(12)));
+                    break;
+                case 2:
+                    sb.append((char) (0x80 + random.nextInt(0x800 - 0x80)));
+                    break;
+                case 3:
+                    sb.append((char) (0x800 + random.nextInt(0xD800 - 0x800)));
+                    break;
+                default:
+                    sb.appendCodePoint(0x10000 + random.nextInt(0x110000 - 0x10000));
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Computes the hash parameters as the former <code>AjaxUtils.extend</code> did (map based, in no particular
+     * order).
+     *
+     * @param hashParams
+     *            hash parameters
+     * @param qsParams
+     *            query string parameters
+     * @return the hash parameters
+     */
+    private static Map<String, String> legacyExtend(final String hashParams, final String qsParams)
+    {
+        final Map<String, String> query = legacySplit(qsParams);
+        query.remove("format");
+
+        final Map<String, String> params = legacySplit(hashParams);
+        params.putAll(query);
+        if (!params.containsKey("start"))
+        {
+            params.put("start", "1");
+        }
+        return params;
+    }
+
+    /**
+     * Splits the given parameters as the former <code>AjaxUtils.parseUrlParams</code> did.
+     *
+     * @param params
+     *            hash or query parameters, with or without leading <code>#</code>
+     * @return the parameters
+     */
+    private static Map<String, String> legacySplit(final String params)
+    {
+        final Map<String, String> parsed = new HashMap<String, String>();
+        if (params != null)
+        {
+            for (final String pair : (params.startsWith("#") ? params.substring(1) : params).split("&"))
+            {
+                final String[] nameValue = pair.split("=");
+                if (nameValue.length == 2)
+                {
+                    parsed.put(nameValue[0], nameValue[1]);
+                }
+            }
+        }
+        return parsed;
+    }
+}
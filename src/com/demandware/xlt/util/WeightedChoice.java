@@ -0,0 +1,341 @@
+package com.demandware.xlt.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.xceptance.xlt.api.util.XltLogger;
+import com.xceptance.xlt.api.util.XltRandom;
+
+/**
+ * Picks one of several branches according to their integer weights in constant time (Walker's alias method, Vose's
+ * variant in integer arithmetic). Each branch takes one threshold and one alias slot, no matter how large its weight
+ * is.
+ * <p>
+ * Every choice counts how often each branch was picked. Choices with the same name, branches and weights, e.g. the ones
+ * of all users running the same test, share their counts. The counts are logged together with the configured share of
+ * each branch when the agent shuts down, so the executed mix can be checked against the configuration.
+ * </p>
+ *
+ * @param <T>
+ *            branch type
+ * @author Xiaobai Wang
+ */
+public final class WeightedChoice<T>
+{
+    /** The hit counters of all choices created so far, by choice name, branches and weights. */
+    private static final ConcurrentMap<String, Tally> TALLIES = new ConcurrentHashMap<String, Tally>();
+
+    static
+    {
+        Runtime.getRuntime().addShutdownHook(new Thread("WeightedChoice-Report")
+        {
+            @Override
+            public void run()
+            {
+                for (final Tally tally : TALLIES.values())
+                {
+                    if (tally.getTotalHits() > 0)
+                    {
+                        XltLogger.runTimeLogger.info(tally.report());
+                    }
+                }
+            }
+        });
+    }
+
+    /** The branches. */
+    private final List<T> branches;
+
+    /** Sum of all weights. */
+    private final int totalWeight;
+
+    /** Per column: random values below the threshold pick the column's branch, all others its alias. */
+    private final int[] thresholds;
+
+    /** Per column: the branch picked if the random value is not below the column's threshold. */
+    private final int[] aliases;
+
+    /** Number of times each branch was picked, shared with all choices of the same name, branches and weights. */
+    private final Tally tally;
+
+    /**
+     * Constructor
+     *
+     * @param name
+     *            choice name used for reporting
+     * @param branches
+     *            the branches
+     * @param weights
+     *            the branch weights, same order as the branches
+     * @throws IllegalArgumentException
+     *             if there are no branches, the number of weights differs, a weight is negative, or all weights are
+     *             <code>0</code>
+     */
+    public WeightedChoice(final String name, final List<T> branches, final int[] weights) throws IllegalArgumentException
+    {
+        final int n = branches.size();
+        if (n == 0 || weights.length != n)
+        {
+            throw new IllegalArgumentException("Need one weight per branch and at least one branch for choice: " + name);
+        }
+
+        long total = 0;
+        for (final int weight : weights)
+        {
+            if (weight < 0)
+            {
+                throw new IllegalArgumentException("Negative weight for choice: " + name);
+            }
+            total += weight;
+        }
+        if (total == 0 || total > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("Total weight out of range for choice: " + name);
+        }
+
+        this.branches = Collections.unmodifiableList(new ArrayList<T>(branches));
+        this.totalWeight = (int) total;
+        this.thresholds = new int[n];
+        this.aliases = new int[n];
+
+        buildAliasTable(weights);
+
+        final Tally newTally = new Tally(name, this.branches, weights.clone(), totalWeight);
+        final Tally registered = TALLIES.putIfAbsent(newTally.key, newTally);
+        this.tally = registered != null ? registered : newTally;
+    }
+
+    /**
+     * Creates a yes/no choice that picks <code>true</code> with the given probability.
+     *
+     * @param name
+     *            choice name used for reporting
+     * @param probability
+     *            probability for <code>true</code> in percent (values outside 0..100 are capped)
+     * @return the choice
+     */
+    public static WeightedChoice<Boolean> probability(final String name, final int probability)
+    {
+        final int p = Math.max(0, Math.min(100, probability));
+        return new WeightedChoice<Boolean>(name, Arrays.asList(Boolean.TRUE, Boolean.FALSE), new int[]
+            {
+                p, 100 - p
+            });
+    }
+
+    /**
+     * Fills the threshold and alias tables. Each branch's weight is scaled by the number of branches, so every column
+     * holds exactly the total weight, split between its own branch and at most one alias.
+     *
+     * @param weights
+     *            the branch weights
+     */
+    private void buildAliasTable(final int[] weights)
+    {
+        final int n = weights.length;
+        final long[] scaled = new long[n];
+
+        final Deque<Integer> small = new ArrayDeque<Integer>();
+        final Deque<Integer> large = new ArrayDeque<Integer>();
+        for (int i = 0; i < n; i++)
+        {
+            scaled[i] = (long) weights[i] * n;
+            if (scaled[i] < totalWeight)
+            {
+                small.push(i);
+            }
+            else
+            {
+                large.push(i);
+            }
+        }
+
+        while (!small.isEmpty() && !large.isEmpty())
+        {
+            final int s = small.pop();
+            final int l = large.pop();
+
+            // fill the small column up with the large branch
+            thresholds[s] = (int) scaled[s];
+            aliases[s] = l;
+
+            scaled[l] -= totalWeight - scaled[s];
+            if (scaled[l] < totalWeight)
+            {
+                small.push(l);
+            }
+            else
+            {
+                large.push(l);
+            }
+        }
+
+        // remaining columns hold exactly the total weight already
+        while (!large.isEmpty())
+        {
+            final int l = large.pop();
+            thresholds[l] = totalWeight;
+            aliases[l] = l;
+        }
+        while (!small.isEmpty())
+        {
+            final int s = small.pop();
+            thresholds[s] = totalWeight;
+            aliases[s] = s;
+        }
+    }
+
+    /**
+     * Picks a branch.
+     *
+     * @return the picked branch
+     */
+    public T next()
+    {
+        final int column = XltRandom.nextInt(thresholds.length);
+        final int index = XltRandom.nextInt(totalWeight) < thresholds[column] ? column : aliases[column];
+
+        tally.hits.incrementAndGet(index);
+        return branches.get(index);
+    }
+
+    /**
+     * Get the choice name.
+     *
+     * @return choice name
+     */
+    public String getName()
+    {
+        return tally.name;
+    }
+
+    /**
+     * Get the number of times the branch with the given index was picked by any choice of the same name, branches and
+     * weights.
+     *
+     * @param index
+     *            branch index
+     * @return number of hits
+     */
+    public long getHits(final int index)
+    {
+        return tally.hits.get(index);
+    }
+
+    /**
+     * Get the number of times any branch was picked by any choice of the same name, branches and weights.
+     *
+     * @return total number of hits
+     */
+    public long getTotalHits()
+    {
+        return tally.getTotalHits();
+    }
+
+    /**
+     * Describes the configured and the executed share of each branch.
+     *
+     * @return report text
+     */
+    public String report()
+    {
+        return tally.report();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return report();
+    }
+
+    /**
+     * The hit counters of all choices with the same name, branches and weights.
+     */
+    private static final class Tally
+    {
+        /** Registry key. */
+        private final String key;
+
+        /** Choice name used for reporting. */
+        private final String name;
+
+        /** The branches. */
+        private final List<?> branches;
+
+        /** The branch weights. */
+        private final int[] weights;
+
+        /** Sum of all weights. */
+        private final int totalWeight;
+
+        /** Number of times each branch was picked. */
+        private final AtomicLongArray hits;
+
+        /**
+         * Constructor
+         *
+         * @param name
+         *            choice name used for reporting
+         * @param branches
+         *            the branches
+         * @param weights
+         *            the branch weights, same order as the branches
+         * @param totalWeight
+         *            sum of all weights
+         */
+        private Tally(final String name, final List<?> branches, final int[] weights, final int totalWeight)
+        {
+            this.key = name + " " + branches + " " + Arrays.toString(weights);
+            this.name = name;
+            this.branches = branches;
+            this.weights = weights;
+            this.totalWeight = totalWeight;
+            this.hits = new AtomicLongArray(weights.length);
+        }
+
+        /**
+         * Get the number of times any branch was picked.
+         *
+         * @return total number of hits
+         */
+        private long getTotalHits()
+        {
+            long total = 0;
+            for (int i = 0; i < hits.length(); i++)
+            {
+                total += hits.get(i);
+            }
+            return total;
+        }
+
+        /**
+         * Describes the configured and the executed share of each branch.
+         *
+         * @return report text
+         */
+        private String report()
+        {
+            final long total = getTotalHits();
+
+            final StringBuilder sb = new StringBuilder("Choice '").append(name).append("' (").append(total).append(" picks):");
+            for (int i = 0; i < weights.length; i++)
+            {
+                final long branchHits = hits.get(i);
+                sb.append(String.format(Locale.ENGLISH, " %s=%.1f%%/%.1f%% (%d)", branches.get(i), 100.0 * weights[i] / totalWeight,
+                                        total > 0 ? 100.0 * branchHits / total : 0.0, branchHits));
+            }
+            return sb.toString();
+        }
+    }
+}
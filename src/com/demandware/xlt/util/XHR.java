@@ -1,23 +1,30 @@
 package com.demandware.xlt.util;
 
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.URL;
+import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.lang3.StringUtils;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 import org.junit.Assert;
 
 import com.gargoylesoftware.htmlunit.DefaultPageCreator;
 import com.gargoylesoftware.htmlunit.DefaultPageCreator.PageType;
 import com.gargoylesoftware.htmlunit.HttpMethod;
+import com.gargoylesoftware.htmlunit.WebClient;
 import com.gargoylesoftware.htmlunit.WebRequest;
 import com.gargoylesoftware.htmlunit.WebResponse;
 import com.gargoylesoftware.htmlunit.html.HTMLParser;
@@ -27,6 +34,7 @@ import com.gargoylesoftware.htmlunit.util.NameValuePair;
 import com.gargoylesoftware.htmlunit.xml.XmlUtil;
 import com.xceptance.common.util.RegExUtils;
 import com.xceptance.xlt.api.engine.Session;
+import com.xceptance.xlt.api.util.elementLookup.strategy.PageLookupCache;
 
 /**
  * <h1>XHR configuration</h1>
@@ -109,6 +117,12 @@ public class XHR
     /** content assertion fail message */
     private String contentAssertionFailMessage;
 
+    /** JSON paths whose values are extracted from the response content */
+    private final List<String> jsonPaths = new ArrayList<String>();
+
+    /** Values extracted from the last JSON response */
+    private volatile JsonValues json;
+
     /** Desired update mode. {@value UpdateMode#NONE} by default */
     private UpdateMode updateMode = UpdateMode.NONE;
 
@@ -474,7 +488,8 @@ public class XHR
     }
 
     /**
-     * Replace the content of the given element with the response body.
+     * Replace the content of the given element with the response body. Depending on the configured update mode (see
+     * {@link DomPatcher}), unchanged nodes are kept.
      * 
      * @param parent
      *            container the response body gets parsed into (previous children will be removed)
@@ -532,6 +547,39 @@ public class XHR
         return expectContent(ContentAssertion.JSON_OBJECT, contentAssertionFailMessage);
     }
 
+    /**
+     * Extract the values of the given JSON paths from the response content, e.g. <code>products.count</code> or
+     * <code>items[*].quantity</code>. The response is checked to be well-formed JSON and the values are extracted in the
+     * same pass, without building a JSON tree. Get the values via {@link #getJson()} once the XHR was fired.
+     * 
+     * @param paths
+     *            the JSON paths (see {@link JsonScanner})
+     * @return XHR configuration
+     */
+    public XHR extractJson(final String... paths)
+    {
+        jsonPaths.addAll(Arrays.asList(paths));
+        return this;
+    }
+
+    /**
+     * Get the JSON values extracted from the response content of the last fired XHR.
+     * 
+     * @return the extracted values
+     * @throws IllegalStateException
+     *             if no JSON response was checked yet
+     * @see #extractJson(String...)
+     */
+    public JsonValues getJson()
+    {
+        final JsonValues values = json;
+        if (values == null)
+        {
+            throw new IllegalStateException("No JSON response checked yet. Configure expectJson*() or extractJson() and fire the XHR first.");
+        }
+        return values;
+    }
+
     /**
      * Expect a non-blank response content
      * 
@@ -706,6 +754,110 @@ public class XHR
      * @throws Exception
      */
     public WebResponse fireFrom(final HtmlPage page) throws Exception
+    {
+        final WebResponse response = send(page.getWebClient(), buildRequest(page));
+        update(response);
+
+        return response;
+    }
+
+    /**
+     * Performs an XHR call for the configured XHR based on the current page without waiting for the response.
+     * 
+     * @return the pending response
+     * @throws Exception
+     * @see #fireAsyncFrom(HtmlPage)
+     */
+    public Future<WebResponse> fireAsync() throws Exception
+    {
+        return fireAsyncFrom(Context.getPage());
+    }
+
+    /**
+     * Performs an XHR call for the configured XHR based on given page without waiting for the response, just like a
+     * browser sends independent requests in parallel. The request is built right away and sent by the current user's
+     * XHR executor (see {@link Context#getXhrExecutor()}), whose threads belong to the user's thread group, so the
+     * request is recorded for the current action and shares the user's cookies.
+     * <p>
+     * Status code and content are checked by the executor. The page is not touched until the response is retrieved
+     * from the returned future, the update (if any) is applied by the thread retrieving it. Use {@link #join(List)} to
+     * wait for several pending XHRs.
+     * </p>
+     * 
+     * @param page
+     *            the current page
+     * @return the pending response
+     * @throws Exception
+     */
+    public Future<WebResponse> fireAsyncFrom(final HtmlPage page) throws Exception
+    {
+        final WebClient webClient = page.getWebClient();
+        final WebRequest request = buildRequest(page);
+
+        final Future<WebResponse> future = Context.getXhrExecutor().submit(Context.wrap(new Callable<WebResponse>()
+        {
+            @Override
+            public WebResponse call() throws Exception
+            {
+                return send(webClient, request);
+            }
+        }));
+
+        return new Pending(future);
+    }
+
+    /**
+     * Waits for all given pending XHRs and applies their page updates in the given order. If any XHR failed, the first
+     * failure is rethrown once all XHRs have finished.
+     * 
+     * @param pending
+     *            the pending XHRs
+     * @return the responses in the given order
+     * @throws Exception
+     *             the first failure
+     */
+    public static List<WebResponse> join(final List<? extends Future<WebResponse>> pending) throws Exception
+    {
+        final List<WebResponse> responses = new ArrayList<WebResponse>(pending.size());
+        Throwable failure = null;
+
+        for (final Future<WebResponse> future : pending)
+        {
+            try
+            {
+                responses.add(future.get());
+            }
+            catch (final ExecutionException e)
+            {
+                responses.add(null);
+                if (failure == null)
+                {
+                    failure = e.getCause();
+                }
+            }
+        }
+
+        if (failure instanceof Exception)
+        {
+            throw (Exception) failure;
+        }
+        if (failure instanceof Error)
+        {
+            throw (Error) failure;
+        }
+
+        return responses;
+    }
+
+    /**
+     * Builds the request for the configured XHR based on given page.
+     * 
+     * @param page
+     *            the current page
+     * @return the request
+     * @throws Exception
+     */
+    private WebRequest buildRequest(final HtmlPage page) throws Exception
     {
         // Often an URL string is (relative or absolute) not full qualified (for
         // example '/foo/bar.html'). So a full qualified URL is build first.
@@ -715,9 +867,7 @@ public class XHR
         final Map<String, String> params = getParams();
         if (!params.isEmpty())
         {
-            String requestUrlString = pageURL.toExternalForm();
-            requestUrlString += (pageURL.getQuery() == null ? "?" : "&") + AjaxUtils.paramsToQueryString(params);
-            pageURL = page.getFullyQualifiedUrl(requestUrlString);
+            pageURL = new UrlBuilder(pageURL.toExternalForm()).addParams(params).toURL();
         }
 
         // Create the basic request
@@ -762,8 +912,23 @@ public class XHR
             request.getAdditionalHeaders().remove(headerName);
         }
 
+        return request;
+    }
+
+    /**
+     * Sends the given request and checks the response as configured.
+     * 
+     * @param webClient
+     *            the web client to use
+     * @param request
+     *            the request to send
+     * @return received response
+     * @throws Exception
+     */
+    private WebResponse send(final WebClient webClient, final WebRequest request) throws Exception
+    {
         // Perform the call
-        final WebResponse response = page.getWebClient().loadWebResponse(request);
+        final WebResponse response = webClient.loadWebResponse(request);
 
         // check expected status code
         final int expectedStatusCode = getExpectedStatusCode();
@@ -773,35 +938,28 @@ public class XHR
         }
 
         // check for expected content type if specified
-        if (!ContentAssertion.NONE.equals(contentAssertion))
+        if (!ContentAssertion.NONE.equals(contentAssertion) || !jsonPaths.isEmpty())
         {
-            final String responseContent = response.getContentAsString();
             switch (contentAssertion)
             {
                 case JSON_OBJECT:
-                    try
-                    {
-                        new JSONObject(responseContent);
-                    }
-                    catch (final JSONException e)
-                    {
-                        Assert.fail(getContentCheckFailMessage(e.getMessage()));
-                    }
+                    json = scanJson(response, JsonScanner.Root.OBJECT);
                     break;
 
                 case JSON_ARRAY:
-                    try
-                    {
-                        new JSONArray(responseContent);
-                    }
-                    catch (final JSONException e)
-                    {
-                        Assert.fail(getContentCheckFailMessage(e.getMessage()));
-                    }
+                    json = scanJson(response, JsonScanner.Root.ARRAY);
+                    break;
+
+                case NONE:
+                    json = scanJson(response, JsonScanner.Root.ANY);
                     break;
 
                 case NOT_BLANK:
-                    Assert.assertTrue(getContentCheckFailMessage(DEFAULT_CONTENT_BLANK_FAIL_MSG), StringUtils.isNotBlank(responseContent));
+                    Assert.assertTrue(getContentCheckFailMessage(DEFAULT_CONTENT_BLANK_FAIL_MSG), StringUtils.isNotBlank(response.getContentAsString()));
+                    if (!jsonPaths.isEmpty())
+                    {
+                        json = scanJson(response, JsonScanner.Root.ANY);
+                    }
                     break;
 
                 default:
@@ -809,18 +967,152 @@ public class XHR
             }
         }
 
+        return response;
+    }
+
+    /**
+     * Checks the response content for well-formed JSON and extracts the configured JSON paths, reading the content
+     * stream just once.
+     * 
+     * @param response
+     *            received response
+     * @param root
+     *            expected type of the root value
+     * @return the extracted values
+     * @throws Exception
+     */
+    private JsonValues scanJson(final WebResponse response, final JsonScanner.Root root) throws Exception
+    {
+        try (final Reader reader = new InputStreamReader(response.getContentAsStream(), response.getContentCharset()))
+        {
+            return JsonScanner.scan(reader, root, jsonPaths);
+        }
+        catch (final ParseException e)
+        {
+            Assert.fail(getContentCheckFailMessage(e.getMessage()));
+            return null;
+        }
+    }
+
+    /**
+     * Updates the page with the given response as configured.
+     * 
+     * @param response
+     *            received response
+     * @throws Exception
+     */
+    private void update(final WebResponse response) throws Exception
+    {
         // update page if necessary
         if (!UpdateMode.NONE.equals(updateMode))
         {
             if (UpdateMode.REPLACE.equals(updateMode))
             {
-                container.removeAllChildren();
+                DomPatcher.replaceContent(container, response.getContentAsString(), Context.getConfiguration().getXhrUpdateMode());
+            }
+            else
+            {
+                HTMLParser.parseFragment(container, response.getContentAsString());
             }
 
-            HTMLParser.parseFragment(container, response.getContentAsString());
+            // page content has changed, so forget the memoized lookup results
+            PageLookupCache.invalidate();
         }
+    }
 
-        return response;
+    /**
+     * Response of an XHR sent asynchronously. The page update is applied once, by the first thread that retrieves the
+     * response.
+     */
+    private class Pending implements Future<WebResponse>
+    {
+        /** The response as sent by the executor. */
+        private final Future<WebResponse> future;
+
+        /** Whether the page update was applied already. */
+        private boolean updated;
+
+        /**
+         * Constructor
+         * 
+         * @param future
+         *            the response as sent by the executor
+         */
+        private Pending(final Future<WebResponse> future)
+        {
+            this.future = future;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean cancel(final boolean mayInterruptIfRunning)
+        {
+            return future.cancel(mayInterruptIfRunning);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean isCancelled()
+        {
+            return future.isCancelled();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean isDone()
+        {
+            return future.isDone();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public WebResponse get() throws InterruptedException, ExecutionException
+        {
+            return applyUpdate(future.get());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public WebResponse get(final long timeout, final TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
+        {
+            return applyUpdate(future.get(timeout, unit));
+        }
+
+        /**
+         * Applies the page update for the given response unless done before.
+         * 
+         * @param response
+         *            received response
+         * @return the response
+         * @throws ExecutionException
+         *             if the update failed
+         */
+        private synchronized WebResponse applyUpdate(final WebResponse response) throws ExecutionException
+        {
+            if (!updated)
+            {
+                updated = true;
+                try
+                {
+                    update(response);
+                }
+                catch (final Exception e)
+                {
+                    throw new ExecutionException(e);
+                }
+            }
+            return response;
+        }
     }
 
     /**
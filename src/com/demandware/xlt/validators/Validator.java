@@ -9,6 +9,7 @@ import com.gargoylesoftware.htmlunit.html.DomElement;
 import com.xceptance.common.util.RegExUtils;
 import com.xceptance.xlt.api.engine.Session;
 import com.xceptance.xlt.api.util.XltLogger;
+import com.xceptance.xlt.api.util.elementLookup.BatchLookup;
 import com.xceptance.xlt.api.util.elementLookup.Results;
 import com.xceptance.xlt.api.validators.StandardValidator;
 
@@ -23,23 +24,30 @@ public class Validator
     {
         validateBasics();
 
+        // Register all page components first, they are resolved together.
+        final BatchLookup components = Page.batch();
+        final Results footer = components.byId(Page.FOOTER_ID);
+        final Results header = components.byId(Page.NAVIGATION_ID);
+        final Results main = components.byId(Page.MAIN_CONTAINER_ID);
+        final Results primary = components.byId(Page.PRIMARY_CONTENT_CONTAINER_ID);
+
         // Tests under development and real load test will behave slightly
         // different.
         if (Context.isLoadTest())
         {
             // check if every Element is present
-            Assert.assertTrue("Page without footer found", Page.getFooterLocator().exists());
-            Assert.assertTrue("Page without header found", Page.hasHeader());
-            Assert.assertTrue("Page without main container found", Page.hasMainContainer());
-            Assert.assertTrue("Page without primary content container  found", Page.hasPrimaryContentContainer());
+            Assert.assertTrue("Page without footer found", footer.exists());
+            Assert.assertTrue("Page without header found", Page.checkExistance(header));
+            Assert.assertTrue("Page without main container found", Page.checkExistance(main));
+            Assert.assertTrue("Page without primary content container  found", Page.checkExistance(primary));
         }
         else
         {
             // check if every Element is present and unique
-            Page.getFooterLocator().asserted().single();
-            Page.find().byXPath("//*[@id='" + Page.NAVIGATION_ID + "']").single();
-            Page.find().byXPath("//*[@id='" + Page.MAIN_CONTAINER_ID + "']").asserted().single();
-            Page.find().byXPath("//*[@id='" + Page.PRIMARY_CONTENT_CONTAINER_ID + "']").asserted().single();
+            footer.asserted().single();
+            header.single();
+            main.asserted().single();
+            primary.asserted().single();
         }
     }
 
@@ -52,25 +60,33 @@ public class Validator
     {
         validateBasics();
 
+        // Register all page components first, they are resolved together.
+        final BatchLookup components = Page.batch();
+        final Results footer = components.byId(Page.FOOTER_ID);
+        final Results header = components.byId(Page.NAVIGATION_ID);
+        final Results main = components.byId(Page.MAIN_CONTAINER_ID);
+        final Results miniCart = components.byId(Page.MINI_CART_ID);
+        final Results searchField = components.byId(Page.SEARCHFIELD_ID);
+
         // Tests under development and real load test will behave slightly
         // different.
         if (Context.isLoadTest())
         {
             // check if every Element is present
-            Assert.assertTrue("Page without footer found", Page.getFooterLocator().exists());
-            Assert.assertTrue("Page without header found", Page.hasHeader());
-            Assert.assertTrue("Page without main container found", Page.hasMainContainer());
-            Assert.assertTrue("Page without mini-cart found", Page.hasMiniCart());
-            Assert.assertTrue("Page without search field found", Page.hasSearchField());
+            Assert.assertTrue("Page without footer found", footer.exists());
+            Assert.assertTrue("Page without header found", Page.checkExistance(header));
+            Assert.assertTrue("Page without main container found", Page.checkExistance(main));
+            Assert.assertTrue("Page without mini-cart found", Page.checkExistance(miniCart));
+            Assert.assertTrue("Page without search field found", Page.checkExistance(searchField));
         }
         else
         {
             // check if every Element is present and unique
-            Page.getFooterLocator().asserted().single();
-            Page.find().byXPath("//*[@id='" + Page.NAVIGATION_ID + "']").asserted().single();
-            Page.find().byXPath("//*[@id='" + Page.MAIN_CONTAINER_ID + "']").asserted().single();
-            Page.find().byXPath("//*[@id='" + Page.MINI_CART_ID + "']").asserted().single();
-            Page.find().byXPath("//*[@id='" + Page.SEARCHFIELD_ID + "']").asserted().single();
+            footer.asserted().single();
+            header.asserted().single();
+            main.asserted().single();
+            miniCart.asserted().single();
+            searchField.asserted().single();
         }
     }
 
@@ -107,6 +123,9 @@ public class Validator
         // The text replacement for cart.headline can be found in the project.properties file
 
         Assert.assertTrue("Unexpected shopping cart headline.", Page.isCartPage());
+
+        // The cart page lists the whole cart, so take it as the current cart state.
+        Context.getCartState().updateFromCartPage();
         Boolean isMiniCartEmpty = Page.isMiniCartEmpty();
 
         if (!isMiniCartEmpty)
@@ -168,7 +187,7 @@ public class Validator
                                       .first().getTextContent().trim();
 
         Assert.assertTrue("Order totals are not formated correctly: " + orderTotal,
-                          RegExUtils.isMatching(orderTotal, Page.PRICE_REGEXP));
+                          Context.getConfiguration().getPriceParser().isPrice(orderTotal));
     }
 
     /**
@@ -225,9 +244,10 @@ public class Validator
         Validator.validateCommonPage();
 
         // As long as it is not an unknown page the action is fine.
-        boolean gridOrProductPage = Page.isGridOrProductPage();
+        final boolean gridOrProductPage = Page.isGridOrProductPage();
+        final boolean noHitsPage = Page.isNoHitsPage();
         Assert.assertTrue("Opening category ended in unexpected page.",
-                          gridOrProductPage || Page.isNoHitsPage() || Page.isLandingPage() || Page.isGiftCertificatePage());
+                          gridOrProductPage || noHitsPage || Page.isLandingPage() || Page.isGiftCertificatePage());
 
         // A sub menu link may point to a product results page, a single
         // product, a landing page or the gift certificates page. So just check
@@ -236,7 +256,7 @@ public class Validator
         {
             // we reached a product grid, perfect. no further checks are necessary
         }
-        else if (Page.isNoHitsPage())
+        else if (noHitsPage)
         {
             // Nevertheless log 'no results' pages.
             Session.logEvent(SelectCategory.class.getSimpleName() + " - No results page", categoryLink.getAttribute("href"));
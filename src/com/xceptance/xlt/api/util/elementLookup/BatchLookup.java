@@ -0,0 +1,293 @@
+package com.xceptance.xlt.api.util.elementLookup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.gargoylesoftware.htmlunit.html.DomElement;
+import com.gargoylesoftware.htmlunit.html.DomNode;
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+import com.xceptance.common.util.ParameterCheckUtils;
+import com.xceptance.xlt.api.util.elementLookup.strategy.SimpleSelector;
+
+/**
+ * Resolves a set of locators at once. All locators are registered first and resolved together as soon as the results
+ * of any of them are requested. Instead of one DOM traversal per locator, there's at most one traversal for the whole
+ * set:
+ * <ul>
+ * <li>ID locators are answered from the page's ID index if the lookup base is the page itself.</li>
+ * <li>All other locators are matched element by element during a single walk over the base's descendants.</li>
+ * </ul>
+ * Locators registered after the set was resolved are resolved together with the next request for their results.
+ * <p>
+ * Other than {@link By#byId(String)} an ID locator returns all elements with the given ID, so uniqueness can be
+ * checked with {@link Results#single()}. CSS locators must be supported by {@link SimpleSelector}; other selectors are
+ * looked up the usual way.
+ * </p>
+ *
+ * <pre>
+ * final BatchLookup batch = new BatchLookup(page);
+ * final Results header = batch.byId(&quot;header&quot;);
+ * final Results footer = batch.byId(&quot;footer&quot;);
+ * final Results banner = batch.byCss(&quot;#primary .banner&quot;);
+ *
+ * // resolves all three locators
+ * header.exists();
+ * </pre>
+ */
+public class BatchLookup
+{
+    /**
+     * Lookup base.
+     */
+    private final DomNode base;
+
+    /**
+     * Registered locators mapped by their description.
+     */
+    private final Map<String, BatchStrategy> strategies = new LinkedHashMap<String, BatchStrategy>();
+
+    /**
+     * Whether there are registered locators that were not resolved yet.
+     */
+    private boolean pending;
+
+    /**
+     * Constructor
+     *
+     * @param base
+     *            lookup base
+     */
+    public BatchLookup(final DomNode base)
+    {
+        ParameterCheckUtils.isNotNull(base, "base");
+        this.base = base;
+    }
+
+    /**
+     * Register a lookup for elements with the given ID.
+     *
+     * @param id
+     *            element ID
+     * @return the results for the given ID (resolved on first access)
+     * @throws IllegalArgumentException
+     *             if the given ID is <code>null</code> or empty
+     */
+    public Results byId(final String id) throws IllegalArgumentException
+    {
+        ParameterCheckUtils.isNonEmptyString(id, "ID locator");
+
+        return new Results(register("ID", id, SimpleSelector.forId(id)));
+    }
+
+    /**
+     * Register a lookup for elements matching the given CSS selector.
+     *
+     * @param locator
+     *            CSS selector
+     * @return the results for the given selector (resolved on first access)
+     * @throws IllegalArgumentException
+     *             if the given selector is <code>null</code> or empty
+     */
+    public Results byCss(final String locator) throws IllegalArgumentException
+    {
+        ParameterCheckUtils.isNonEmptyString(locator, "CSS locator");
+
+        final SimpleSelector selector = SimpleSelector.parse(locator);
+        if (selector == null)
+        {
+            // not supported -> lookup the usual way
+            return new By(base).byCss(locator);
+        }
+
+        return new Results(register("CSS", locator, selector));
+    }
+
+    /**
+     * Registers the given locator if not registered yet.
+     *
+     * @param strategyName
+     *            lookup strategy name
+     * @param locator
+     *            the locator
+     * @param selector
+     *            the parsed locator
+     * @return lookup strategy for the given locator
+     */
+    private BatchStrategy register(final String strategyName, final String locator, final SimpleSelector selector)
+    {
+        final String description = "{" + strategyName + "=" + locator + "}";
+
+        BatchStrategy strategy = strategies.get(description);
+        if (strategy == null)
+        {
+            strategy = new BatchStrategy(description, selector);
+            strategies.put(description, strategy);
+            pending = true;
+        }
+
+        return strategy;
+    }
+
+    /**
+     * Resolves all pending locators.
+     */
+    private void resolve()
+    {
+        if (!pending)
+        {
+            return;
+        }
+        pending = false;
+
+        final Map<String, List<BatchStrategy>> byId = new HashMap<String, List<BatchStrategy>>();
+        final List<BatchStrategy> others = new ArrayList<BatchStrategy>();
+
+        for (final BatchStrategy strategy : strategies.values())
+        {
+            if (strategy.results != null)
+            {
+                continue;
+            }
+            strategy.results = new ArrayList<Object>();
+
+            // answer plain ID lookups from the page's ID index
+            if (strategy.selector.isIdOnly() && base instanceof HtmlPage)
+            {
+                strategy.results.addAll(((HtmlPage) base).getElementsById(strategy.selector.getId()));
+                continue;
+            }
+
+            // group by ID to match them with a single map lookup per element
+            final String id = strategy.selector.getId();
+            if (id != null)
+            {
+                List<BatchStrategy> list = byId.get(id);
+                if (list == null)
+                {
+                    list = new ArrayList<BatchStrategy>();
+                    byId.put(id, list);
+                }
+                list.add(strategy);
+            }
+            else
+            {
+                others.add(strategy);
+            }
+        }
+
+        // nothing left to walk for
+        if (byId.isEmpty() && others.isEmpty())
+        {
+            return;
+        }
+
+        // single walk over all descendants
+        for (final DomNode node : base.getDescendants())
+        {
+            if (node instanceof DomElement)
+            {
+                final DomElement element = (DomElement) node;
+
+                if (!byId.isEmpty())
+                {
+                    final List<BatchStrategy> candidates = byId.get(element.getAttribute("id"));
+                    if (candidates != null)
+                    {
+                        match(element, candidates);
+                    }
+                }
+                match(element, others);
+            }
+        }
+    }
+
+    /**
+     * Adds the given element to the results of all strategies it matches.
+     *
+     * @param element
+     *            the element to check
+     * @param candidates
+     *            the strategies to check
+     */
+    private static void match(final DomElement element, final List<BatchStrategy> candidates)
+    {
+        for (int i = 0; i < candidates.size(); i++)
+        {
+            final BatchStrategy strategy = candidates.get(i);
+            if (strategy.selector.matches(element))
+            {
+                strategy.results.add(element);
+            }
+        }
+    }
+
+    /**
+     * Lookup strategy of a single registered locator.
+     */
+    private class BatchStrategy implements Strategy
+    {
+        /**
+         * Locator description.
+         */
+        private final String description;
+
+        /**
+         * Parsed locator.
+         */
+        private final SimpleSelector selector;
+
+        /**
+         * The results (<code>null</code> as long as not resolved).
+         */
+        private List<Object> results;
+
+        /**
+         * Constructor
+         *
+         * @param description
+         *            locator description
+         * @param selector
+         *            parsed locator
+         */
+        private BatchStrategy(final String description, final SimpleSelector selector)
+        {
+            this.description = description;
+            this.selector = selector;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public List<?> lookup()
+        {
+            if (results == null)
+            {
+                resolve();
+            }
+            return results;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Iterator<?> iterate()
+        {
+            return lookup().iterator();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getLocatorDescription()
+        {
+            return description;
+        }
+    }
+}
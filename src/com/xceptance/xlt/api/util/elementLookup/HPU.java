@@ -25,6 +25,17 @@ public class HPU
         return new In();
     }
 
+    /**
+     * Initializes a prepared locator. Prepared locators are meant to be held in constants and bound to the lookup base
+     * on evaluation via {@link Locator#in(com.gargoylesoftware.htmlunit.html.DomNode)}.
+     * 
+     * @return prepared locator without lookup steps
+     */
+    public static Locator prepare()
+    {
+        return Locator.EMPTY;
+    }
+
     /**
      * Initializes finder and enables result assertions.
      * 
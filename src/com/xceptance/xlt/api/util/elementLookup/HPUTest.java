@@ -2,6 +2,8 @@ package com.xceptance.xlt.api.util.elementLookup;
 
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 
 import org.junit.Assert;
@@ -15,6 +17,8 @@ import com.gargoylesoftware.htmlunit.html.HtmlElement;
 import com.gargoylesoftware.htmlunit.html.HtmlInput;
 import com.gargoylesoftware.htmlunit.html.HtmlPage;
 import com.gargoylesoftware.htmlunit.html.InputElementFactory;
+import com.xceptance.xlt.api.util.XltRandom;
+import com.xceptance.xlt.api.util.elementLookup.strategy.XPathCache;
 
 /**
  * Test the implementation of {@link HPU}.
@@ -858,6 +862,58 @@ public class HPUTest
         Assert.assertNull("Found element falsely.", element);
     }
 
+    /**
+     * Select several random elements: each element is picked at most once and the reservoir is limited to the
+     * requested number.
+     * 
+     * @throws Throwable
+     */
+    @Test
+    public void testResultsRandomCount() throws Throwable
+    {
+        final HtmlPage page = getHtmlPage("<html><body><p>1</p><p>2</p><p>3</p><p>4</p><p>5</p></body></html>");
+
+        for (int i = 0; i < 50; i++)
+        {
+            final List<HtmlElement> picked = HPU.find().in(page).byXPath("//p").random(3);
+            Assert.assertEquals("Wrong number of elements picked.", 3, picked.size());
+            Assert.assertEquals("Element picked twice.", 3, new HashSet<HtmlElement>(picked).size());
+        }
+
+        Assert.assertEquals("Not all elements returned.", 5, HPU.find().in(page).byXPath("//p").random(10).size());
+        Assert.assertTrue("Found elements falsely.", HPU.find().in(page).byXPath("//span").random(2).isEmpty());
+    }
+
+    /**
+     * The picked elements depend on the random seed only.
+     * 
+     * @throws Throwable
+     */
+    @Test
+    public void testResultsRandomReproducible() throws Throwable
+    {
+        final HtmlPage page = getHtmlPage("<html><body><p>1</p><p>2</p><p>3</p><p>4</p><p>5</p><p>6</p><p>7</p></body></html>");
+
+        XltRandom.setSeed(4711);
+        final HtmlElement first = HPU.find().in(page).byXPath("//p").random();
+        final List<HtmlElement> firstSet = HPU.find().in(page).byXPath("//p").random(3);
+
+        XltRandom.setSeed(4711);
+        Assert.assertSame("Different element picked.", first, HPU.find().in(page).byXPath("//p").random());
+        Assert.assertEquals("Different elements picked.", firstSet, HPU.find().in(page).byXPath("//p").random(3));
+    }
+
+    /**
+     * Select <code>0</code> random elements.
+     * 
+     * @throws Throwable
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testResultsRandomCountInvalid() throws Throwable
+    {
+        HPU.find().in(getHtmlPageMany()).byXPath("//*[@class='foo']").random(0);
+    }
+
     /*
      * Single
      */
@@ -1341,6 +1397,401 @@ public class HPUTest
         Assert.assertEquals("Existing element not found.", "1", element.getAttribute("nr"));
     }
 
+    /*
+     * XPath cache
+     */
+
+    /**
+     * Repeated lookups with the same locator reuse the compiled expression.
+     */
+    @Test
+    public void testXPathCacheReuse() throws Throwable
+    {
+        final HtmlPage page = getHtmlPageOne();
+        final XPathCache cache = XPathCache.getInstance();
+
+        HPU.find().in(page).byXPath("//div[@id='foo']").single();
+        final long hits = cache.getHitCount();
+        final HtmlElement element = HPU.find().in(page).byXPath("//div[@id='foo']").single();
+
+        Assert.assertEquals("Existing element not found.", "1", element.getAttribute("nr"));
+        Assert.assertTrue("Compiled expression not reused.", cache.getHitCount() > hits);
+    }
+
+    /**
+     * Compiled expressions match tag and attribute names case-insensitively on HTML pages, as HtmlUnit does.
+     */
+    @Test
+    public void testXPathCacheCaseInsensitive() throws Throwable
+    {
+        final HtmlElement element = HPU.find().in(getHtmlPageOne()).byXPath("//DIV[@ID='foo']").single();
+        Assert.assertEquals("Existing element not found.", "1", element.getAttribute("nr"));
+    }
+
+    /**
+     * Non-node results are returned as values.
+     */
+    @Test
+    public void testXPathCacheNumberResult() throws Throwable
+    {
+        final List<?> results = HPU.find().in(getHtmlPageMany()).byXPath("count(//div[@id='foo'])").raw();
+        Assert.assertEquals("Wrong number of results.", 1, results.size());
+        Assert.assertEquals("Wrong result.", Double.valueOf(2), results.get(0));
+    }
+
+    /*
+     * Page lookup cache
+     */
+
+    /**
+     * Identical lookups on an unchanged page are answered from cache.
+     */
+    @Test
+    public void testPageCacheReuse() throws Throwable
+    {
+        final HtmlPage page = getHtmlPageMany();
+
+        final List<?> first = HPU.find().in(page).byXPath("//div[@id='foo']").byCss("*").raw();
+        final List<?> second = HPU.find().in(page).byXPath("//div[@id='foo']").byCss("*").raw();
+
+        Assert.assertSame("Lookup results not reused.", first, second);
+    }
+
+    /**
+     * <code>all()</code> returns a modifiable copy of the cached results.
+     */
+    @Test
+    public void testPageCacheAllModifiable() throws Throwable
+    {
+        final HtmlPage page = getHtmlPageMany();
+
+        final List<HtmlElement> all = HPU.find().in(page).byXPath("//div[@id='foo']").all();
+        all.clear();
+
+        Assert.assertEquals("Cached results modified.", 2, HPU.find().in(page).byXPath("//div[@id='foo']").count());
+    }
+
+    /**
+     * DOM changes drop the cached results.
+     */
+    @Test
+    public void testPageCacheInvalidatedOnDomChange() throws Throwable
+    {
+        final HtmlPage page = getHtmlPageMany();
+        Assert.assertEquals("Wrong number of results.", 2, HPU.find().in(page).byXPath("//div[@id='foo']").count());
+
+        final HtmlElement div = (HtmlElement) page.createElement("div");
+        div.setAttribute("id", "foo");
+        page.getBody().appendChild(div);
+        Assert.assertEquals("Stale results after node was added.", 3, HPU.find().in(page).byXPath("//div[@id='foo']").count());
+
+        div.setAttribute("id", "bar");
+        Assert.assertEquals("Stale results after attribute change.", 2, HPU.find().in(page).byXPath("//div[@id='foo']").count());
+    }
+
+    /*
+     * Lazy lookup
+     */
+
+    /**
+     * <code>exists()</code> and <code>first()</code> stop at the first match, <code>single()</code> at the second.
+     */
+    @Test
+    public void testLazyLookupStopsEarly() throws Throwable
+    {
+        final List<?> elements = HPU.find().in(getHtmlPageMany()).byXPath("//div").raw();
+        final CountingStrategy strategy = new CountingStrategy(elements);
+
+        Assert.assertTrue("Existing element not found.", new Results(strategy).exists());
+        Assert.assertEquals("Too many elements visited.", 1, strategy.visited);
+
+        strategy.visited = 0;
+        Assert.assertSame("Wrong first element.", elements.get(0), new Results(strategy).first());
+        Assert.assertEquals("Too many elements visited.", 1, strategy.visited);
+
+        strategy.visited = 0;
+        Assert.assertNull("Non-unique element returned.", new Results(strategy).single());
+        Assert.assertEquals("Too many elements visited.", 2, strategy.visited);
+    }
+
+    /**
+     * Lazily evaluated strategy chains return the same elements as the complete lookup.
+     */
+    @Test
+    public void testLazyLookupChained() throws Throwable
+    {
+        final HtmlPage page = getHtmlPage("<html><body><div class=\"a\"><p nr=\"1\"></p></div><div class=\"a\"><p nr=\"2\"></p></div></body></html>");
+
+        final HtmlElement first = HPU.find().in(page).byCss("div.a").byXPath("./p").first();
+        Assert.assertEquals("Wrong first element.", "1", first.getAttribute("nr"));
+        Assert.assertNull("Non-unique element returned.", HPU.find().in(page).byCss("div.a").byXPath("./p").single());
+        Assert.assertFalse("Non-existing element found.", HPU.find().in(page).byCss("div.b").byXPath("./p").exists());
+    }
+
+    /**
+     * Asserted lazy <code>exists()</code> still fails with the locator description.
+     */
+    @Test
+    public void testLazyLookupAssertedExists() throws Throwable
+    {
+        try
+        {
+            HPU.findAsserted().in(getHtmlPageOne()).byXPath("//span").exists();
+            Assert.fail("No assertion error thrown.");
+        }
+        catch (final AssertionError e)
+        {
+            Assert.assertEquals("Wrong assertion message.", "No element found for: {XPath=//span}", e.getMessage());
+        }
+    }
+
+    /*
+     * Batch lookup
+     */
+
+    /**
+     * ID locators of a batch return all elements with the given ID.
+     */
+    @Test
+    public void testBatchById() throws Throwable
+    {
+        final BatchLookup batch = new BatchLookup(getHtmlPageMany());
+        final Results foo = batch.byId("foo");
+        final Results bar = batch.byId("bar");
+
+        Assert.assertEquals("Wrong number of results.", 2, foo.count());
+        Assert.assertFalse("Non-existing element found.", bar.exists());
+        Assert.assertEquals("Wrong locator description.", "{ID=foo}", foo.getLocatorDescription());
+    }
+
+    /**
+     * CSS locators of a batch return the same elements as the CSS engine.
+     */
+    @Test
+    public void testBatchByCss() throws Throwable
+    {
+        final HtmlPage page = getHtmlPage("<html><body><div id=\"a\" class=\"x y\"><p class=\"p\">1</p><span><p class=\"p\">2</p></span></div><p class=\"p\">3</p><form class=\"my-bundle\"></form></body></html>");
+        final String[] selectors =
+            {
+                "p", ".p", "#a .p", "#a > .p", "div.x.y > span > p", "p[class]", "p[class='p']", "form[class*='bundle']",
+                "div.z .p"
+            };
+
+        final BatchLookup batch = new BatchLookup(page);
+        final Results[] results = new Results[selectors.length];
+        for (int i = 0; i < selectors.length; i++)
+        {
+            results[i] = batch.byCss(selectors[i]);
+        }
+
+        for (int i = 0; i < selectors.length; i++)
+        {
+            Assert.assertEquals("Wrong results for: " + selectors[i], HPU.find().in(page).byCss(selectors[i]).all(), results[i].all());
+        }
+    }
+
+    /**
+     * Unsupported CSS selectors are looked up the usual way.
+     */
+    @Test
+    public void testBatchByCssUnsupported() throws Throwable
+    {
+        final HtmlPage page = getHtmlPageMany();
+        Assert.assertEquals("Wrong number of results.", 2, new BatchLookup(page).byCss("div:first-child, div[nr='2']").count());
+    }
+
+    /**
+     * Asserted batch results fail with the locator description.
+     */
+    @Test
+    public void testBatchAsserted() throws Throwable
+    {
+        try
+        {
+            new BatchLookup(getHtmlPageOne()).byCss("div.none").asserted().single();
+            Assert.fail("No assertion error thrown.");
+        }
+        catch (final AssertionError e)
+        {
+            Assert.assertEquals("Wrong assertion message.", "No element found for: {CSS=div.none}", e.getMessage());
+        }
+    }
+
+    /*
+     * Element index
+     */
+
+    /**
+     * Simple locators return the same elements as the CSS and XPath engines, no matter if answered from the element
+     * index or not.
+     */
+    @Test
+    public void testElementIndexLocators() throws Throwable
+    {
+        final HtmlPage page = getHtmlPage("<html><body><div id=\"a\" class=\"tile x\"><p class=\"tile\" name=\"n\">1</p></div><div class=\"tile\"><p>2</p></div></body></html>");
+        final HtmlElement div = page.getHtmlElementById("a");
+
+        final String[] selectors =
+            {
+                ".tile", "div.tile", "p", "#a", "[name='n']", "div.tile > p", "#a .tile", "span"
+            };
+        for (final String selector : selectors)
+        {
+            Assert.assertEquals("Wrong results for: " + selector, page.querySelectorAll(selector), HPU.find().in(page).byCss(selector).all());
+            Assert.assertEquals("Wrong results for: " + selector, div.querySelectorAll(selector), HPU.find().in(div).byCss(selector).all());
+        }
+
+        final String[] xpaths =
+            {
+                "//p", "//*[@id='a']", "//p[@name=\"n\"]", "//*[contains(concat(' ',@class,' '),' tile ')]",
+                ".//*[contains(concat(' ', @class, ' '), ' tile ')]", ".//p", "//span"
+            };
+        for (final String xpath : xpaths)
+        {
+            Assert.assertEquals("Wrong results for: " + xpath, page.getByXPath(xpath), HPU.find().in(page).byXPath(xpath).all());
+            Assert.assertEquals("Wrong results for: " + xpath, div.getByXPath(xpath), HPU.find().in(div).byXPath(xpath).all());
+        }
+    }
+
+    /*
+     * Prepared locators
+     */
+
+    /**
+     * A prepared locator returns the same results as the equivalent strategy chain, for any page it is bound to.
+     */
+    @Test
+    public void testPreparedLocator() throws Throwable
+    {
+        final Locator locator = HPU.prepare().byId("a").byXPath("./ul/li").byCss("a");
+
+        final HtmlPage page = getHtmlPage("<html><body><div id=\"a\"><ul><li><a>1</a></li><li><a>2</a><a>3</a></li></ul></div></body></html>");
+        Assert.assertEquals(HPU.find().in(page).byId("a").byXPath("./ul/li").byCss("a").all(), locator.in(page).all());
+        Assert.assertEquals(3, locator.in(page).count());
+        Assert.assertEquals("2", locator.in(page).index(1).getTextContent());
+
+        final HtmlPage otherPage = getHtmlPage("<html><body><div id=\"a\"><ul><li><a>4</a></li></ul></div></body></html>");
+        Assert.assertEquals("4", locator.in(otherPage).single().getTextContent());
+
+        // further chaining
+        Assert.assertEquals(3, HPU.prepare().byId("a").byXPath("./ul/li").in(page).byCss("a").count());
+    }
+
+    /**
+     * A prepared locator reports the same locator description as the equivalent strategy chain.
+     */
+    @Test
+    public void testPreparedLocatorDescription() throws Throwable
+    {
+        final HtmlPage page = getHtmlPage("<html><body><div id=\"a\"><p>1</p></div></body></html>");
+
+        final Locator locator = HPU.prepare().byId("a").byXPath("./span").byCss("b");
+        Assert.assertFalse(locator.in(page).exists());
+        Assert.assertEquals("{ID=a} -> {XPath=./span} -> {CSS=b}", locator.toString());
+
+        final Results prepared = locator.in(page);
+        prepared.raw();
+        final Results chained = HPU.find().in(page).byId("a").byXPath("./span").byCss("b");
+        chained.raw();
+        Assert.assertEquals(chained.getLocatorDescription(), prepared.getLocatorDescription());
+
+        try
+        {
+            locator.in(page).asserted().first();
+            Assert.fail("Assertion expected");
+        }
+        catch (final AssertionError e)
+        {
+            Assert.assertEquals("No element found for: {ID=a} -> {XPath=./span}", e.getMessage());
+        }
+    }
+
+    /**
+     * Prepared locators are validated once when built.
+     */
+    @Test
+    public void testPreparedLocatorInvalid() throws Throwable
+    {
+        try
+        {
+            HPU.prepare().byXPath("");
+            Assert.fail("IllegalArgumentException expected");
+        }
+        catch (final IllegalArgumentException e)
+        {
+            // expected
+        }
+
+        try
+        {
+            HPU.prepare().byCss("div").byId("a");
+            Assert.fail("IllegalStateException expected");
+        }
+        catch (final IllegalStateException e)
+        {
+            // expected
+        }
+
+        try
+        {
+            HPU.prepare().in(getHtmlPageOne());
+            Assert.fail("IllegalStateException expected");
+        }
+        catch (final IllegalStateException e)
+        {
+            // expected
+        }
+    }
+
+    /*
+     * Locator rewriting
+     */
+
+    /**
+     * Rewritten locators return the same elements as the XPath engine.
+     */
+    @Test
+    public void testLocatorRewriterEquivalence() throws Throwable
+    {
+        final HtmlPage page = getHtmlPage("<html><body><div id=\"a\" class=\"tile x\"><ul><li class=\"item\"><a href=\"#1\">1</a></li><li class=\"item sale\"><a href=\"#2\" class=\"link\">2</a></li><li>3</li></ul></div><div class=\"tiles\"><ul><li class=\"item\"><span>4</span></li></ul></div><table><tbody><tr class=\"total\"><td>a</td><td class=\"price\">b</td></tr></tbody></table></body></html>");
+        final HtmlElement body = page.getBody();
+
+        final String[] xpaths =
+            {
+                "./div/ul/li", "div[@id='a']/ul/li[2]", "./div[contains(concat(' ',@class,' '),' tile ')]/ul/li/a",
+                "./div[contains(@class, 'tile')]/ul/li[contains(concat(' ', @class, ' '), ' item ') and not(contains(@class,'sale'))]",
+                "./div/ul/li[@class='item' or a[@class]]", "./div/ul/li[./a]/a[@href]", "id('a')/ul/li[not(a)]", "./*/ul/*",
+                "./table/tbody/tr[@class='total']/td[2]", "./table/tbody/tr/td[1][@class]", ".//li[contains(concat(' ',@class,' '),' item ')]",
+                "id('missing')/div", "./DIV/UL/LI"
+            };
+        for (final String xpath : xpaths)
+        {
+            Assert.assertTrue("Not rewritten: " + xpath, LocatorRewriter.isSupported(xpath));
+            Assert.assertEquals("Wrong results for: " + xpath, body.getByXPath(xpath), LocatorRewriter.lookup(body, xpath));
+        }
+    }
+
+    /**
+     * Locators the rewriter does not understand are left to the XPath engine.
+     */
+    @Test
+    public void testLocatorRewriterUnsupported() throws Throwable
+    {
+        final String[] xpaths =
+            {
+                "//div", "./..", "./div/text()", "./div[last()]", "./div/following-sibling::div", "./div//li", "./li[contains(., 'x')]",
+                "count(./div)", "id='footer'", "./div[@nr>1]", ".//li[2]"
+            };
+        for (final String xpath : xpaths)
+        {
+            Assert.assertFalse("Rewritten: " + xpath, LocatorRewriter.isSupported(xpath));
+        }
+
+        // detached nodes are evaluated by the XPath engine
+        final HtmlPage page = getHtmlPageOne();
+        Assert.assertNull(LocatorRewriter.lookup(page.createElement("div"), "./div"));
+    }
+
     /**
      * Creates an {@link HtmlPage} object from the passed HTML source code.
      * 
@@ -1405,6 +1856,73 @@ public class HPUTest
         return input;
     }
 
+    /**
+     * Strategy that counts the elements visited while iterating.
+     */
+    private static class CountingStrategy implements Strategy
+    {
+        /**
+         * The result elements.
+         */
+        private final List<?> elements;
+
+        /**
+         * Number of visited elements.
+         */
+        private int visited;
+
+        /**
+         * Constructor
+         * 
+         * @param elements
+         *            the result elements
+         */
+        private CountingStrategy(final List<?> elements)
+        {
+            this.elements = elements;
+        }
+
+        @Override
+        public List<?> lookup()
+        {
+            visited += elements.size();
+            return elements;
+        }
+
+        @Override
+        public Iterator<?> iterate()
+        {
+            final Iterator<?> it = elements.iterator();
+            return new Iterator<Object>()
+            {
+                @Override
+                public boolean hasNext()
+                {
+                    return it.hasNext();
+                }
+
+                @Override
+                public Object next()
+                {
+                    visited++;
+                    return it.next();
+                }
+
+                @Override
+                public void remove()
+                {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        @Override
+        public String getLocatorDescription()
+        {
+            return "{Counting}";
+        }
+    }
+
     /**
      * Unchecked exception for testing purposes.
      */
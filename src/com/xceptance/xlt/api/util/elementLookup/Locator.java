@@ -0,0 +1,107 @@
+package com.xceptance.xlt.api.util.elementLookup;
+
+import com.gargoylesoftware.htmlunit.html.DomNode;
+import com.xceptance.xlt.api.util.elementLookup.strategy.LookupPlan;
+
+/**
+ * Prepared locator. The locator chain is built and validated once and can be held in a constant. It is bound to a
+ * lookup base only when evaluated.
+ *
+ * <pre>
+ * private static final Locator LOGIN_LINK = HPU.prepare().byId(&quot;header&quot;).byXPath(&quot;./ul/li/a[@class='user-account']&quot;);
+ *
+ * final HtmlElement link = LOGIN_LINK.in(page).asserted().single();
+ * </pre>
+ */
+public final class Locator
+{
+    /**
+     * Locator without any lookup step.
+     */
+    static final Locator EMPTY = new Locator(LookupPlan.EMPTY);
+
+    /**
+     * The lookup plan.
+     */
+    private final LookupPlan plan;
+
+    /**
+     * Constructor
+     *
+     * @param plan
+     *            lookup plan
+     */
+    private Locator(final LookupPlan plan)
+    {
+        this.plan = plan;
+    }
+
+    /**
+     * Set ID lookup strategy and ID. The ID lookup must be the first lookup step.
+     *
+     * @param id
+     *            the element's ID
+     * @return the prepared locator
+     * @throws IllegalArgumentException
+     *             if given ID is <code>null</code> or empty
+     * @throws IllegalStateException
+     *             if there are lookup steps already
+     */
+    public Locator byId(final String id) throws IllegalArgumentException, IllegalStateException
+    {
+        return new Locator(plan.byId(id));
+    }
+
+    /**
+     * Set XPath lookup strategy and locator.
+     *
+     * @param locator
+     *            XPath locator
+     * @return the prepared locator
+     * @throws IllegalArgumentException
+     *             if given locator is <code>null</code> or empty
+     */
+    public Locator byXPath(final String locator) throws IllegalArgumentException
+    {
+        return new Locator(plan.byXPath(locator));
+    }
+
+    /**
+     * Set CSS lookup strategy and locator.
+     *
+     * @param locator
+     *            CSS locator
+     * @return the prepared locator
+     * @throws IllegalArgumentException
+     *             if given locator is <code>null</code> or empty
+     */
+    public Locator byCss(final String locator) throws IllegalArgumentException
+    {
+        return new Locator(plan.byCss(locator));
+    }
+
+    /**
+     * Evaluate the locator based on the given element or page.
+     *
+     * @param parent
+     *            lookup base
+     * @return {@link Results} object to query the results from
+     * @throws IllegalArgumentException
+     *             if the lookup base is <code>null</code>
+     * @throws IllegalStateException
+     *             if there are no lookup steps
+     */
+    public Results in(final DomNode parent) throws IllegalArgumentException, IllegalStateException
+    {
+        return new Results(plan.bind(parent));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return plan.getDescription();
+    }
+}
@@ -0,0 +1,906 @@
+package com.xceptance.xlt.api.util.elementLookup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.gargoylesoftware.htmlunit.SgmlPage;
+import com.gargoylesoftware.htmlunit.html.DomElement;
+import com.gargoylesoftware.htmlunit.html.DomNode;
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+import com.xceptance.xlt.api.util.XltProperties;
+
+/**
+ * Rewrites XPath locators into native matchers that walk the DOM directly instead of running the XPath engine.
+ * <p>
+ * Supported are relative location paths (<code>./a/b</code>, <code>a/b</code>, <code>.//a</code> as first step) and
+ * paths starting at <code>id('x')</code> made of child steps with a name test (or <code>*</code>) and predicates. A
+ * predicate may be a position (<code>td[2]</code>, first predicate of a child step only) or a boolean expression of
+ * <code>and</code>, <code>or</code>, <code>not(...)</code>, parentheses and the following terms:
+ * <ul>
+ * <li><code>@attr</code></li>
+ * <li><code>@attr='value'</code></li>
+ * <li><code>contains(@attr,'value')</code></li>
+ * <li><code>contains(concat(' ',@class,' '),' token ')</code></li>
+ * <li>a nested relative location path (the predicate holds if the path has results)</li>
+ * </ul>
+ * Any other locator is not rewritten and evaluated by the XPath engine as usual.
+ * </p>
+ * <p>
+ * The rewriting is controlled by property <code>elementLookup.xpath.rewrite</code>:
+ * <ul>
+ * <li><code>off</code> - locators are not rewritten (default)</li>
+ * <li><code>on</code> - rewritten locators are evaluated natively</li>
+ * <li><code>validate</code> - rewritten locators are evaluated both ways and the results must be identical</li>
+ * </ul>
+ * </p>
+ */
+public final class LocatorRewriter
+{
+    /**
+     * Rewrite mode.
+     */
+    public enum Mode
+    {
+        /** Locators are not rewritten. */
+        OFF,
+
+        /** Rewritten locators are evaluated natively. */
+        ON,
+
+        /** Rewritten locators are evaluated natively and by the XPath engine to compare the results. */
+        VALIDATE
+    }
+
+    /** The configured rewrite mode. */
+    private static final Mode MODE = Mode.valueOf(XltProperties.getInstance().getProperty("elementLookup.xpath.rewrite", "off")
+                                                                .trim().toUpperCase(Locale.ENGLISH));
+
+    /** Maximum number of remembered locators. */
+    private static final int MAX_REWRITTEN_LOCATORS = 1000;
+
+    /** Marker for locators that cannot be rewritten. */
+    private static final Object UNSUPPORTED = new Object();
+
+    /** Rewritten locators mapped by locator text. */
+    private static final ConcurrentHashMap<String, Object> REWRITTEN = new ConcurrentHashMap<String, Object>();
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private LocatorRewriter()
+    {
+    }
+
+    /**
+     * Get the configured rewrite mode.
+     *
+     * @return rewrite mode
+     */
+    public static Mode getMode()
+    {
+        return MODE;
+    }
+
+    /**
+     * Checks if the given XPath can be rewritten.
+     *
+     * @param xpath
+     *            XPath locator
+     * @return <code>true</code> if the XPath can be evaluated natively, <code>false</code> otherwise
+     */
+    public static boolean isSupported(final String xpath)
+    {
+        return rewrite(xpath) != null;
+    }
+
+    /**
+     * Evaluates the given XPath natively.
+     *
+     * @param parent
+     *            lookup base
+     * @param xpath
+     *            XPath locator
+     * @return the matching elements in document order or <code>null</code> if the XPath cannot be rewritten or the
+     *         lookup base is not supported
+     */
+    public static List<DomElement> lookup(final DomNode parent, final String xpath)
+    {
+        final Path path = rewrite(xpath);
+        if (path == null || !isApplicable(parent))
+        {
+            return null;
+        }
+
+        return path.evaluate(parent);
+    }
+
+    /**
+     * Get the rewritten locator.
+     *
+     * @param xpath
+     *            XPath locator
+     * @return the rewritten locator or <code>null</code> if the XPath cannot be rewritten
+     */
+    private static Path rewrite(final String xpath)
+    {
+        Object rewritten = REWRITTEN.get(xpath);
+        if (rewritten == null)
+        {
+            final Path path = new Parser(xpath).parseLocator();
+            rewritten = path != null ? path : UNSUPPORTED;
+
+            if (REWRITTEN.size() < MAX_REWRITTEN_LOCATORS)
+            {
+                REWRITTEN.putIfAbsent(xpath, rewritten);
+            }
+        }
+
+        return rewritten == UNSUPPORTED ? null : (Path) rewritten;
+    }
+
+    /**
+     * Native evaluation is limited to nodes of HTML pages that are attached to their page.
+     *
+     * @param node
+     *            lookup base
+     * @return <code>true</code> if the node is supported, <code>false</code> otherwise
+     */
+    private static boolean isApplicable(final DomNode node)
+    {
+        final SgmlPage page = node.getPage();
+        if (!(page instanceof HtmlPage))
+        {
+            return false;
+        }
+
+        for (DomNode current = node; current != null; current = current.getParentNode())
+        {
+            if (current == page)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Boolean condition on an element.
+     */
+    private interface Condition
+    {
+        /**
+         * Checks the condition.
+         *
+         * @param element
+         *            the element to check
+         * @return <code>true</code> if the condition holds, <code>false</code> otherwise
+         */
+        boolean test(DomElement element);
+    }
+
+    /**
+     * A single location step.
+     */
+    private static class Step
+    {
+        /** Whether the step selects descendants instead of children. */
+        private boolean descendant;
+
+        /** The element name or <code>null</code> for any element. */
+        private String name;
+
+        /** The position among the children that pass the name test or <code>0</code> if there's none. */
+        private int position;
+
+        /** Conditions the elements must fulfill. */
+        private final List<Condition> conditions = new ArrayList<Condition>();
+
+        /**
+         * Checks if the given node passes the name test and the conditions.
+         *
+         * @param node
+         *            the node to check
+         * @return <code>true</code> if the node is an element that passes the name test, <code>false</code>
+         *         otherwise
+         */
+        private boolean matchesName(final DomNode node)
+        {
+            return node instanceof DomElement && (name == null || name.equals(node.getLocalName()));
+        }
+
+        /**
+         * Checks if the given element fulfills all conditions.
+         *
+         * @param element
+         *            the element to check
+         * @return <code>true</code> if all conditions are fulfilled, <code>false</code> otherwise
+         */
+        private boolean matchesConditions(final DomElement element)
+        {
+            for (int i = 0; i < conditions.size(); i++)
+            {
+                if (!conditions.get(i).test(element))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Applies the step to the given context nodes.
+         *
+         * @param context
+         *            the context nodes in document order
+         * @return the selected elements in document order
+         */
+        private List<DomNode> apply(final List<DomNode> context)
+        {
+            final List<DomNode> results = new ArrayList<DomNode>();
+            for (final DomNode node : context)
+            {
+                if (descendant)
+                {
+                    for (final DomNode d : node.getDescendants())
+                    {
+                        if (matchesName(d) && matchesConditions((DomElement) d))
+                        {
+                            results.add(d);
+                        }
+                    }
+                }
+                else
+                {
+                    int index = 0;
+                    for (DomNode child = node.getFirstChild(); child != null; child = child.getNextSibling())
+                    {
+                        if (matchesName(child))
+                        {
+                            index++;
+                            if ((position == 0 || position == index) && matchesConditions((DomElement) child))
+                            {
+                                results.add(child);
+                            }
+                        }
+                    }
+                }
+            }
+            return results;
+        }
+    }
+
+    /**
+     * A rewritten location path.
+     */
+    private static class Path
+    {
+        /** The ID of the start element or <code>null</code> if the path starts at the context node. */
+        private String startId;
+
+        /** The location steps. */
+        private final List<Step> steps = new ArrayList<Step>();
+
+        /**
+         * Evaluates the path.
+         *
+         * @param context
+         *            the context node
+         * @return the selected elements in document order
+         */
+        private List<DomElement> evaluate(final DomNode context)
+        {
+            final DomNode root;
+            if (startId != null)
+            {
+                root = ((HtmlPage) context.getPage()).getElementById(startId);
+                if (root == null)
+                {
+                    return Collections.emptyList();
+                }
+            }
+            else
+            {
+                root = context;
+            }
+
+            List<DomNode> nodes = Collections.singletonList(root);
+
+            // whether some of the current nodes are ancestors of others
+            boolean nested = false;
+            for (int i = 0; i < steps.size() && !nodes.isEmpty(); i++)
+            {
+                final Step step = steps.get(i);
+                nodes = step.apply(nodes);
+
+                if (step.descendant)
+                {
+                    nested = isNested(nodes);
+                }
+                else if (nested && nodes.size() > 1)
+                {
+                    // the children of nested context nodes are collected context node by context node, so children
+                    // of an inner node come after the later children of its outer node
+                    nodes = inDocumentOrder(root, nodes);
+                    nested = isNested(nodes);
+                }
+            }
+
+            final List<DomElement> results = new ArrayList<DomElement>(nodes.size());
+            for (final DomNode node : nodes)
+            {
+                results.add((DomElement) node);
+            }
+            return results;
+        }
+    }
+
+    /**
+     * Checks if any of the given nodes is an ancestor of another one.
+     *
+     * @param nodes
+     *            the nodes in document order
+     * @return <code>true</code> if the nodes nest, <code>false</code> otherwise
+     */
+    private static boolean isNested(final List<DomNode> nodes)
+    {
+        // in document order, a node contains a later one only if it contains its direct successor
+        for (int i = 1; i < nodes.size(); i++)
+        {
+            final DomNode ancestor = nodes.get(i - 1);
+            for (DomNode current = nodes.get(i).getParentNode(); current != null; current = current.getParentNode())
+            {
+                if (current == ancestor)
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sorts the given nodes into document order.
+     *
+     * @param root
+     *            a common ancestor of all nodes
+     * @param nodes
+     *            the nodes to sort, all distinct
+     * @return the nodes in document order
+     */
+    private static List<DomNode> inDocumentOrder(final DomNode root, final List<DomNode> nodes)
+    {
+        final Set<DomNode> remaining = Collections.newSetFromMap(new IdentityHashMap<DomNode, Boolean>());
+        remaining.addAll(nodes);
+
+        final List<DomNode> sorted = new ArrayList<DomNode>(nodes.size());
+        for (final DomNode node : root.getDescendants())
+        {
+            if (remaining.remove(node))
+            {
+                sorted.add(node);
+                if (remaining.isEmpty())
+                {
+                    break;
+                }
+            }
+        }
+        return sorted;
+    }
+
+    /**
+     * Recursive descent parser for the supported XPath subset.
+     */
+    private static class Parser
+    {
+        /** The locator text. */
+        private final String s;
+
+        /** Current position. */
+        private int pos;
+
+        /** Nesting depth of predicates. */
+        private int depth;
+
+        /**
+         * Constructor
+         *
+         * @param xpath
+         *            the locator text
+         */
+        private Parser(final String xpath)
+        {
+            this.s = xpath.trim();
+        }
+
+        /**
+         * Parses the whole locator.
+         *
+         * @return the rewritten locator or <code>null</code> if not supported
+         */
+        private Path parseLocator()
+        {
+            try
+            {
+                final Path path = new Path();
+                if (consumeFunction("id"))
+                {
+                    skipWhitespace();
+                    path.startId = parseLiteral();
+                    skipWhitespace();
+                    expect(')');
+                    if (path.startId.trim().length() == 0 || path.startId.indexOf(' ') >= 0)
+                    {
+                        return null;
+                    }
+                    if (pos == s.length())
+                    {
+                        return null;
+                    }
+                    expect('/');
+                    parseSteps(path, false);
+                }
+                else
+                {
+                    parseRelativePath(path);
+                }
+
+                return pos == s.length() ? path : null;
+            }
+            catch (final IllegalArgumentException e)
+            {
+                return null;
+            }
+        }
+
+        /**
+         * Parses a relative location path.
+         *
+         * @param path
+         *            the path to fill
+         */
+        private void parseRelativePath(final Path path)
+        {
+            boolean descendant = false;
+            if (consume(".//"))
+            {
+                descendant = true;
+            }
+            else if (!consume("./") && !isNameStart())
+            {
+                throw new IllegalArgumentException();
+            }
+            parseSteps(path, descendant);
+        }
+
+        /**
+         * Parses a sequence of location steps separated by <code>/</code>.
+         *
+         * @param path
+         *            the path to fill
+         * @param descendant
+         *            whether the first step selects descendants
+         */
+        private void parseSteps(final Path path, final boolean descendant)
+        {
+            path.steps.add(parseStep(descendant));
+            while (pos < s.length() && s.charAt(pos) == '/')
+            {
+                pos++;
+                path.steps.add(parseStep(false));
+            }
+        }
+
+        /**
+         * Parses a single location step.
+         *
+         * @param descendant
+         *            whether the step selects descendants
+         * @return the step
+         */
+        private Step parseStep(final boolean descendant)
+        {
+            final Step step = new Step();
+            step.descendant = descendant;
+
+            if (consume("*"))
+            {
+                step.name = null;
+            }
+            else
+            {
+                final String name = parseName();
+                // axes, functions and node type tests are not supported
+                if (pos < s.length() && (s.charAt(pos) == '(' || s.charAt(pos) == ':'))
+                {
+                    throw new IllegalArgumentException();
+                }
+                // top-level names are lower-cased by HtmlUnit on HTML pages
+                step.name = depth == 0 ? name.toLowerCase(Locale.ENGLISH) : name;
+            }
+
+            boolean first = true;
+            while (pos < s.length() && s.charAt(pos) == '[')
+            {
+                pos++;
+                depth++;
+                skipWhitespace();
+                if (pos < s.length() && Character.isDigit(s.charAt(pos)))
+                {
+                    // position predicate
+                    if (!first || descendant)
+                    {
+                        throw new IllegalArgumentException();
+                    }
+                    final int start = pos;
+                    while (pos < s.length() && Character.isDigit(s.charAt(pos)))
+                    {
+                        pos++;
+                    }
+                    step.position = Integer.parseInt(s.substring(start, pos));
+                    if (step.position == 0)
+                    {
+                        throw new IllegalArgumentException();
+                    }
+                }
+                else
+                {
+                    step.conditions.add(parseOr());
+                }
+                skipWhitespace();
+                expect(']');
+                depth--;
+                first = false;
+            }
+
+            return step;
+        }
+
+        /**
+         * Parses an <code>or</code> expression.
+         *
+         * @return the condition
+         */
+        private Condition parseOr()
+        {
+            final Condition left = parseAnd();
+            skipWhitespace();
+            if (consumeKeyword("or"))
+            {
+                final Condition right = parseOr();
+                return new Condition()
+                {
+                    @Override
+                    public boolean test(final DomElement element)
+                    {
+                        return left.test(element) || right.test(element);
+                    }
+                };
+            }
+            return left;
+        }
+
+        /**
+         * Parses an <code>and</code> expression.
+         *
+         * @return the condition
+         */
+        private Condition parseAnd()
+        {
+            final Condition left = parseTerm();
+            skipWhitespace();
+            if (consumeKeyword("and"))
+            {
+                final Condition right = parseAnd();
+                return new Condition()
+                {
+                    @Override
+                    public boolean test(final DomElement element)
+                    {
+                        return left.test(element) && right.test(element);
+                    }
+                };
+            }
+            return left;
+        }
+
+        /**
+         * Parses a single term.
+         *
+         * @return the condition
+         */
+        private Condition parseTerm()
+        {
+            skipWhitespace();
+
+            // negation
+            if (consumeFunction("not"))
+            {
+                final Condition negated = parseOr();
+                skipWhitespace();
+                expect(')');
+                return new Condition()
+                {
+                    @Override
+                    public boolean test(final DomElement element)
+                    {
+                        return !negated.test(element);
+                    }
+                };
+            }
+
+            // contains
+            if (consumeFunction("contains"))
+            {
+                return parseContains();
+            }
+
+            // parenthesized expression
+            if (consume("("))
+            {
+                final Condition inner = parseOr();
+                skipWhitespace();
+                expect(')');
+                return inner;
+            }
+
+            // attribute
+            if (consume("@"))
+            {
+                final String name = parseName().toLowerCase(Locale.ENGLISH);
+                skipWhitespace();
+                if (consume("="))
+                {
+                    skipWhitespace();
+                    final String value = parseLiteral();
+                    return new Condition()
+                    {
+                        @Override
+                        public boolean test(final DomElement element)
+                        {
+                            return element.hasAttribute(name) && value.equals(element.getAttribute(name));
+                        }
+                    };
+                }
+                if (pos < s.length() && "!<>".indexOf(s.charAt(pos)) >= 0)
+                {
+                    throw new IllegalArgumentException();
+                }
+                return new Condition()
+                {
+                    @Override
+                    public boolean test(final DomElement element)
+                    {
+                        return element.hasAttribute(name);
+                    }
+                };
+            }
+
+            // nested location path
+            final Path path = new Path();
+            parseRelativePath(path);
+            return new Condition()
+            {
+                @Override
+                public boolean test(final DomElement element)
+                {
+                    return !path.evaluate(element).isEmpty();
+                }
+            };
+        }
+
+        /**
+         * Parses the arguments of a <code>contains</code> call (after the opening parenthesis).
+         *
+         * @return the condition
+         */
+        private Condition parseContains()
+        {
+            skipWhitespace();
+            if (consumeFunction("concat"))
+            {
+                // class token idiom: contains(concat(' ',@class,' '),' token ')
+                skipWhitespace();
+                expectLiteral(" ");
+                skipWhitespace();
+                expect(',');
+                skipWhitespace();
+                expect('@');
+                final String name = parseName().toLowerCase(Locale.ENGLISH);
+                skipWhitespace();
+                expect(',');
+                skipWhitespace();
+                expectLiteral(" ");
+                skipWhitespace();
+                expect(')');
+                skipWhitespace();
+                expect(',');
+                skipWhitespace();
+                final String token = parseLiteral();
+                skipWhitespace();
+                expect(')');
+
+                return new Condition()
+                {
+                    @Override
+                    public boolean test(final DomElement element)
+                    {
+                        final String value = element.hasAttribute(name) ? element.getAttribute(name) : "";
+                        return (" " + value + " ").contains(token);
+                    }
+                };
+            }
+
+            // contains(@attr, 'value')
+            expect('@');
+            final String name = parseName().toLowerCase(Locale.ENGLISH);
+            skipWhitespace();
+            expect(',');
+            skipWhitespace();
+            final String value = parseLiteral();
+            skipWhitespace();
+            expect(')');
+
+            return new Condition()
+            {
+                @Override
+                public boolean test(final DomElement element)
+                {
+                    final String actual = element.hasAttribute(name) ? element.getAttribute(name) : "";
+                    return actual.contains(value);
+                }
+            };
+        }
+
+        /**
+         * Parses a name.
+         *
+         * @return the name
+         */
+        private String parseName()
+        {
+            if (!isNameStart())
+            {
+                throw new IllegalArgumentException();
+            }
+            final int start = pos;
+            while (pos < s.length() && (Character.isLetterOrDigit(s.charAt(pos)) || s.charAt(pos) == '-' || s.charAt(pos) == '_'))
+            {
+                pos++;
+            }
+            return s.substring(start, pos);
+        }
+
+        /**
+         * Whether a name starts at the current position.
+         *
+         * @return <code>true</code> if there's a name start character, <code>false</code> otherwise
+         */
+        private boolean isNameStart()
+        {
+            return pos < s.length() && (Character.isLetter(s.charAt(pos)) || s.charAt(pos) == '_');
+        }
+
+        /**
+         * Parses a string literal.
+         *
+         * @return the literal value
+         */
+        private String parseLiteral()
+        {
+            if (pos >= s.length() || (s.charAt(pos) != '\'' && s.charAt(pos) != '"'))
+            {
+                throw new IllegalArgumentException();
+            }
+            final int end = s.indexOf(s.charAt(pos), pos + 1);
+            if (end < 0)
+            {
+                throw new IllegalArgumentException();
+            }
+            final String literal = s.substring(pos + 1, end);
+            pos = end + 1;
+            return literal;
+        }
+
+        /**
+         * Expects the given string literal.
+         *
+         * @param expected
+         *            the expected literal value
+         */
+        private void expectLiteral(final String expected)
+        {
+            if (!expected.equals(parseLiteral()))
+            {
+                throw new IllegalArgumentException();
+            }
+        }
+
+        /**
+         * Expects the given character.
+         *
+         * @param c
+         *            the expected character
+         */
+        private void expect(final char c)
+        {
+            if (pos >= s.length() || s.charAt(pos) != c)
+            {
+                throw new IllegalArgumentException();
+            }
+            pos++;
+        }
+
+        /**
+         * Consumes the given text if present.
+         *
+         * @param text
+         *            the text
+         * @return <code>true</code> if the text was consumed, <code>false</code> otherwise
+         */
+        private boolean consume(final String text)
+        {
+            if (s.startsWith(text, pos))
+            {
+                pos += text.length();
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Consumes the given keyword if present and followed by whitespace or an opening parenthesis.
+         *
+         * @param keyword
+         *            the keyword
+         * @return <code>true</code> if the keyword was consumed, <code>false</code> otherwise
+         */
+        private boolean consumeKeyword(final String keyword)
+        {
+            final int end = pos + keyword.length();
+            if (s.startsWith(keyword, pos) && end < s.length() && (Character.isWhitespace(s.charAt(end)) || s.charAt(end) == '('))
+            {
+                pos = end;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Consumes the given function name and the opening parenthesis if present.
+         *
+         * @param function
+         *            the function name
+         * @return <code>true</code> if the function call start was consumed, <code>false</code> otherwise
+         */
+        private boolean consumeFunction(final String function)
+        {
+            final int start = pos;
+            if (consume(function))
+            {
+                skipWhitespace();
+                if (consume("("))
+                {
+                    return true;
+                }
+            }
+            pos = start;
+            return false;
+        }
+
+        /**
+         * Skips whitespace.
+         */
+        private void skipWhitespace()
+        {
+            while (pos < s.length() && Character.isWhitespace(s.charAt(pos)))
+            {
+                pos++;
+            }
+        }
+    }
+}
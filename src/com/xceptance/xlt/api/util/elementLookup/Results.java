@@ -1,5 +1,7 @@
 package com.xceptance.xlt.api.util.elementLookup;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 import com.gargoylesoftware.htmlunit.html.HtmlElement;
@@ -60,7 +62,8 @@ public class Results
      */
     public boolean exists()
     {
-        return !raw().isEmpty();
+        // stop at the first match
+        return iterate().hasNext();
     }
 
     /**
@@ -70,12 +73,16 @@ public class Results
      */
     public <T extends HtmlElement> T single()
     {
-        // return unique result element or null
-        if (raw().size() == 1)
+        // return unique result element or null (stop at the second match)
+        final Iterator<?> it = iterate();
+        if (it.hasNext())
         {
             @SuppressWarnings("unchecked")
-            final T element = (T) raw().get(0);
-            return element;
+            final T element = (T) it.next();
+            if (!it.hasNext())
+            {
+                return element;
+            }
         }
 
         return null;
@@ -88,10 +95,12 @@ public class Results
      */
     public <T extends HtmlElement> T first()
     {
-        if (!raw().isEmpty())
+        // stop at the first match
+        final Iterator<?> it = iterate();
+        if (it.hasNext())
         {
             @SuppressWarnings("unchecked")
-            final T element = (T) raw().get(0);
+            final T element = (T) it.next();
             return element;
         }
 
@@ -116,24 +125,88 @@ public class Results
     }
 
     /**
-     * Get a random result element.
+     * Get a random result element. If the results were not looked up yet, the element is picked while traversing
+     * (reservoir sampling), so no result list is built.
      * 
      * @return a random result element or <code>null</code> if no such element is present
      */
     public <T extends HtmlElement> T random()
     {
-        if (!raw().isEmpty())
+        // results known already -> pick directly
+        if (results != null)
+        {
+            if (!results.isEmpty())
+            {
+                @SuppressWarnings("unchecked")
+                final T element = (T) results.get(XltRandom.nextInt(results.size()));
+                return element;
+            }
+
+            return null;
+        }
+
+        // the n-th element replaces the current pick with probability 1/n
+        Object picked = null;
+        int seen = 0;
+        for (final Iterator<?> it = iterate(); it.hasNext();)
+        {
+            final Object element = it.next();
+            seen++;
+            if (XltRandom.nextInt(seen) == 0)
+            {
+                picked = element;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        final T element = (T) picked;
+        return element;
+    }
+
+    /**
+     * Get the given number of random result elements. The elements are picked while traversing (reservoir sampling),
+     * each result element is picked with the same probability and at most once.
+     * 
+     * @param count
+     *            the number of elements to pick
+     * @return the picked elements in no particular order or all result elements if there are not more than the
+     *         requested number (never <code>null</code>)
+     * @throws IllegalArgumentException
+     *             if the count is lower than <code>1</code>
+     */
+    public <T extends HtmlElement> List<T> random(final int count) throws IllegalArgumentException
+    {
+        // count must be 1 at least
+        ParameterCheckUtils.isGreaterThan(count, 0, "count");
+
+        // fill the reservoir with the first elements and let the n-th element replace a random pick with probability
+        // count/n
+        final List<T> picked = new ArrayList<T>(Math.min(count, 16));
+        int seen = 0;
+        for (final Iterator<?> it = iterate(); it.hasNext();)
         {
             @SuppressWarnings("unchecked")
-            final T element = (T) raw().get(XltRandom.nextInt(raw().size()));
-            return element;
+            final T element = (T) it.next();
+            seen++;
+            if (seen <= count)
+            {
+                picked.add(element);
+            }
+            else
+            {
+                final int slot = XltRandom.nextInt(seen);
+                if (slot < count)
+                {
+                    picked.set(slot, element);
+                }
+            }
         }
 
-        return null;
+        return picked;
     }
 
     /**
-     * Get all result elements.
+     * Get all result elements. The returned list is a copy and can be modified freely.
      * 
      * @return all result elements (never <code>null</code>)
      */
@@ -141,7 +214,7 @@ public class Results
     {
         @SuppressWarnings("unchecked")
         final List<T> elements = (List<T>) raw();
-        return elements;
+        return new ArrayList<T>(elements);
     }
 
     /**
@@ -219,7 +292,8 @@ public class Results
     }
 
     /**
-     * Get the unprocessed results.
+     * Get the unprocessed results. The returned list might be shared with the page lookup cache and is then
+     * unmodifiable; use {@link #all()} to get a list that can be modified.
      * 
      * @return unprocessed results (never <code>null</code>)
      */
@@ -234,6 +308,17 @@ public class Results
         return results;
     }
 
+    /**
+     * Iterate the results. Already looked up results are reused, otherwise the results are looked up lazily while
+     * iterating.
+     * 
+     * @return iterator over the results (never <code>null</code>)
+     */
+    protected Iterator<?> iterate()
+    {
+        return results != null ? results.iterator() : getStrategy().iterate();
+    }
+
     /**
      * Enable result assertions(for example expected minimum/maximum amount of result elements).
      * 
@@ -1,5 +1,6 @@
 package com.xceptance.xlt.api.util.elementLookup;
 
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -14,6 +15,14 @@ public interface Strategy
      */
     List<?> lookup();
 
+    /**
+     * Lookup elements lazily. Result elements are looked up while the iterator advances, so the remaining DOM is not
+     * visited if only the first result elements are of interest.
+     * 
+     * @return iterator over the result elements (never <code>null</code>).
+     */
+    Iterator<?> iterate();
+
     /**
      * Get Locator description in format <code>{&lt;LookupStrategyName&gt;=&lt;locator&gt;}</code> and its predecessors
      * if any. If a predecessor failed to find elements the current locator description is not appended.
@@ -226,7 +226,15 @@ public class ResultsAsserted extends Results
     @Override
     public boolean exists() throws AssertionError
     {
-        return super.exists();
+        final boolean exists = super.exists();
+
+        // look up all results to fail with the complete locator description
+        if (!exists)
+        {
+            raw();
+        }
+
+        return exists;
     }
 
     /**
@@ -239,7 +247,15 @@ public class ResultsAsserted extends Results
     @Override
     public <T extends HtmlElement> T first() throws AssertionError
     {
-        return super.first();
+        final T result = super.first();
+
+        // look up all results to fail with the complete locator description
+        if (result == null)
+        {
+            raw();
+        }
+
+        return result;
     }
 
     /**
@@ -265,7 +281,36 @@ public class ResultsAsserted extends Results
     @Override
     public <T extends HtmlElement> T random() throws AssertionError
     {
-        return super.random();
+        final T result = super.random();
+
+        // look up all results to fail with the complete locator description
+        if (result == null)
+        {
+            raw();
+        }
+
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @return the picked result elements
+     * @throws AssertionError
+     *             if no result element is found
+     */
+    @Override
+    public <T extends HtmlElement> List<T> random(final int count) throws AssertionError
+    {
+        final List<T> result = super.random(count);
+
+        // look up all results to fail with the complete locator description
+        if (result.isEmpty())
+        {
+            raw();
+        }
+
+        return result;
     }
 
     /**
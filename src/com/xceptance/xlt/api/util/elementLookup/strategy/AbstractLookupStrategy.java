@@ -2,7 +2,9 @@ package com.xceptance.xlt.api.util.elementLookup.strategy;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import com.gargoylesoftware.htmlunit.html.DomNode;
 import com.xceptance.common.util.ParameterCheckUtils;
@@ -81,6 +83,15 @@ public abstract class AbstractLookupStrategy implements Strategy
         return baseHandler.baseLookup();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterator<?> iterate()
+    {
+        return baseHandler.baseIterate();
+    }
+
     /**
      * Get the the lookup strategy's name.
      * 
@@ -96,7 +107,155 @@ public abstract class AbstractLookupStrategy implements Strategy
      * @return the results according to the given locator
      */
     protected abstract List<?> lookup(final DomNode parent);
+
+    /**
+     * Get the locator's results based on the given parent element lazily. By default all results are looked up at
+     * once.
+     * 
+     * @param parent
+     *            lookup base
+     * @return iterator over the results according to the given locator
+     */
+    protected Iterator<?> iterate(final DomNode parent)
+    {
+        return lookup(parent).iterator();
+    }
     
+    /**
+     * Get the locator's results based on the given parent element and record the evaluation time if lookup
+     * statistics are enabled.
+     * 
+     * @param parent
+     *            lookup base
+     * @return the results according to the given locator
+     */
+    final List<?> timedLookup(final DomNode parent)
+    {
+        final LookupStatistics statistics = LookupStatistics.getInstance();
+        if (!statistics.isEnabled())
+        {
+            return lookup(parent);
+        }
+
+        final long start = System.nanoTime();
+        try
+        {
+            return lookup(parent);
+        }
+        finally
+        {
+            statistics.record(getStrategyName(), getLocator(), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Get the locator's results based on the given parent element lazily and record the time to create and walk the
+     * iterator if lookup statistics are enabled.
+     * 
+     * @param parent
+     *            lookup base
+     * @return iterator over the results according to the given locator
+     */
+    final Iterator<?> timedIterate(final DomNode parent)
+    {
+        final LookupStatistics statistics = LookupStatistics.getInstance();
+        if (!statistics.isEnabled())
+        {
+            return iterate(parent);
+        }
+
+        final LookupStatistics.Evaluation evaluation = statistics.startEvaluation(getStrategyName(), getLocator());
+        final long start = System.nanoTime();
+        try
+        {
+            return new TimedIterator(iterate(parent), evaluation);
+        }
+        finally
+        {
+            evaluation.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Iterator that adds the time spent in {@link #hasNext()} and {@link #next()} to the evaluation of its locator and
+     * records the evaluation once there are no more results.
+     */
+    private static final class TimedIterator implements Iterator<Object>
+    {
+        /**
+         * The timed iterator.
+         */
+        private final Iterator<?> iterator;
+
+        /**
+         * The evaluation to add the time to.
+         */
+        private final LookupStatistics.Evaluation evaluation;
+
+        /**
+         * Constructor
+         * 
+         * @param iterator
+         *            the iterator to time
+         * @param evaluation
+         *            the evaluation to add the time to
+         */
+        private TimedIterator(final Iterator<?> iterator, final LookupStatistics.Evaluation evaluation)
+        {
+            this.iterator = iterator;
+            this.evaluation = evaluation;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean hasNext()
+        {
+            boolean hasNext = true;
+            final long start = System.nanoTime();
+            try
+            {
+                hasNext = iterator.hasNext();
+                return hasNext;
+            }
+            finally
+            {
+                evaluation.add(System.nanoTime() - start);
+                if (!hasNext)
+                {
+                    evaluation.finish();
+                }
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Object next()
+        {
+            final long start = System.nanoTime();
+            try
+            {
+                return iterator.next();
+            }
+            finally
+            {
+                evaluation.add(System.nanoTime() - start);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void remove()
+        {
+            iterator.remove();
+        }
+    }
+
     private abstract class BaseHandler
     {
         /**
@@ -106,6 +265,13 @@ public abstract class AbstractLookupStrategy implements Strategy
          */
         abstract List<?> baseLookup();
 
+        /**
+         * Lookup elements lazily.
+         * 
+         * @return iterator over the result elements (never <code>null</code>).
+         */
+        abstract Iterator<?> baseIterate();
+
         /**
          * Get Locator description in format <code>{&lt;LookupStrategyName&gt;=&lt;locator&gt;}</code> and its predecessors
          * if any. If a predecessor failed to find elements the current locator description is not appended.
@@ -113,6 +279,21 @@ public abstract class AbstractLookupStrategy implements Strategy
          * @return locator description
          */
         abstract String getLocatorDescription();
+
+        /**
+         * Get the node the whole strategy chain is based on.
+         * 
+         * @return chain base node or <code>null</code> if unknown
+         */
+        abstract DomNode getChainBase();
+
+        /**
+         * Get the key describing the whole strategy chain. Other than the locator description the key does not depend
+         * on the lookup outcome.
+         * 
+         * @return chain key or <code>null</code> if unknown
+         */
+        abstract String getChainKey();
     }
     
     /**
@@ -125,6 +306,11 @@ public abstract class AbstractLookupStrategy implements Strategy
          */
         private final DomNode parent;
 
+        /**
+         * Chain key (lazily built).
+         */
+        private String chainKey;
+
         /**
          * Constructor
          * 
@@ -142,7 +328,24 @@ public abstract class AbstractLookupStrategy implements Strategy
         @Override
         List<?> baseLookup()
         {
-            return lookup(parent);
+            final String key = getChainKey();
+
+            List<?> results = PageLookupCache.get(parent, key);
+            if (results == null)
+            {
+                results = PageLookupCache.put(parent, key, timedLookup(parent));
+            }
+            return results;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        Iterator<?> baseIterate()
+        {
+            final List<?> cached = PageLookupCache.get(parent, getChainKey());
+            return cached != null ? cached.iterator() : timedIterate(parent);
         }
 
         /**
@@ -155,6 +358,28 @@ public abstract class AbstractLookupStrategy implements Strategy
                                       .append(getLocator())
                                       .append("}").toString();
         }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        DomNode getChainBase()
+        {
+            return parent;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        String getChainKey()
+        {
+            if (chainKey == null)
+            {
+                chainKey = getLocatorDescription();
+            }
+            return chainKey;
+        }
     }
     
     /**
@@ -172,6 +397,11 @@ public abstract class AbstractLookupStrategy implements Strategy
          */
         private boolean parentLookupFailed = false;
 
+        /**
+         * Chain key (lazily built).
+         */
+        private String chainKey;
+
         /**
          * Constructor
          * 
@@ -192,21 +422,61 @@ public abstract class AbstractLookupStrategy implements Strategy
             @SuppressWarnings("unchecked")
             final List<DomNode> parentResults = (List<DomNode>) parentStrategy.lookup();
 
-            if (!parentResults.isEmpty())
+            parentLookupFailed = parentResults.isEmpty();
+            if (!parentLookupFailed)
             {
+                final DomNode base = getChainBase();
+                final String key = getChainKey();
+
+                // cached results available?
+                if (key != null)
+                {
+                    final List<?> cached = PageLookupCache.get(base, key);
+                    if (cached != null)
+                    {
+                        return cached;
+                    }
+                }
 
                 final List<Object> results = new ArrayList<Object>();
                 for (final DomNode parentResult : parentResults)
                 {
-                    results.addAll(lookup(parentResult));
+                    results.addAll(timedLookup(parentResult));
                 }
-                return results;
+                return key != null ? PageLookupCache.put(base, key, results) : results;
             }
 
-            parentLookupFailed = true;
             return Collections.emptyList();
         }
 
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        Iterator<?> baseIterate()
+        {
+            final Iterator<?> parentResults = parentStrategy.iterate();
+
+            parentLookupFailed = !parentResults.hasNext();
+            if (!parentLookupFailed)
+            {
+                // cached results available?
+                final String key = getChainKey();
+                if (key != null)
+                {
+                    final List<?> cached = PageLookupCache.get(getChainBase(), key);
+                    if (cached != null)
+                    {
+                        return cached.iterator();
+                    }
+                }
+
+                return new ChainIterator(parentResults);
+            }
+
+            return Collections.emptyIterator();
+        }
+
         /**
          * {@inheritDoc}
          */
@@ -229,5 +499,117 @@ public abstract class AbstractLookupStrategy implements Strategy
             }
             return sb.toString();
         }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        DomNode getChainBase()
+        {
+            if (parentStrategy instanceof AbstractLookupStrategy)
+            {
+                return ((AbstractLookupStrategy) parentStrategy).baseHandler.getChainBase();
+            }
+            if (parentStrategy instanceof LookupPlan.BoundStrategy)
+            {
+                return ((LookupPlan.BoundStrategy) parentStrategy).getChainBase();
+            }
+            return null;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        String getChainKey()
+        {
+            if (chainKey == null)
+            {
+                String parentKey = null;
+                if (parentStrategy instanceof AbstractLookupStrategy)
+                {
+                    parentKey = ((AbstractLookupStrategy) parentStrategy).baseHandler.getChainKey();
+                }
+                else if (parentStrategy instanceof LookupPlan.BoundStrategy)
+                {
+                    parentKey = ((LookupPlan.BoundStrategy) parentStrategy).getChainKey();
+                }
+
+                if (parentKey != null)
+                {
+                    chainKey = new StringBuilder(parentKey).append(" -> {").append(getStrategyName()).append("=")
+                                                           .append(getLocator()).append("}").toString();
+                }
+            }
+            return chainKey;
+        }
+    }
+
+    /**
+     * Iterates the results of this strategy for each result of the preceding strategy. The next parent result is not
+     * looked up before all results of the current one were consumed.
+     */
+    private class ChainIterator implements Iterator<Object>
+    {
+        /**
+         * Results of the preceding strategy.
+         */
+        private final Iterator<?> parents;
+
+        /**
+         * Results based on the current parent result.
+         */
+        private Iterator<?> current = Collections.emptyIterator();
+
+        /**
+         * Constructor
+         * 
+         * @param parents
+         *            results of the preceding strategy
+         */
+        private ChainIterator(final Iterator<?> parents)
+        {
+            this.parents = parents;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean hasNext()
+        {
+            // advance to the next parent that has results
+            while (!current.hasNext())
+            {
+                if (!parents.hasNext())
+                {
+                    return false;
+                }
+                current = timedIterate((DomNode) parents.next());
+            }
+            return true;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Object next()
+        {
+            if (!hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
     }
 }
@@ -6,7 +6,7 @@ import com.gargoylesoftware.htmlunit.html.DomNode;
 import com.xceptance.xlt.api.util.elementLookup.Strategy;
 
 /**
- * CSS lookup strategy
+ * CSS lookup strategy. Simple selectors are answered from the {@link ElementIndex} if enabled.
  */
 public class CssLookupStrategy extends AbstractLookupStrategy
 {
@@ -42,6 +42,13 @@ public class CssLookupStrategy extends AbstractLookupStrategy
     @Override
     protected List<?> lookup(final DomNode parent)
     {
+        // try the element index first
+        final List<?> indexed = ElementIndex.lookupCss(parent, getLocator());
+        if (indexed != null)
+        {
+            return indexed;
+        }
+
         return parent.querySelectorAll(getLocator());
     }
 
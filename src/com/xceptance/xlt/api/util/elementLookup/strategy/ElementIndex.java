@@ -0,0 +1,457 @@
+package com.xceptance.xlt.api.util.elementLookup.strategy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.gargoylesoftware.htmlunit.SgmlPage;
+import com.gargoylesoftware.htmlunit.html.DomElement;
+import com.gargoylesoftware.htmlunit.html.DomNode;
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+import com.xceptance.xlt.api.util.XltProperties;
+
+/**
+ * Index of the elements of a page by ID, <code>name</code> attribute, class token and tag name. The index is built
+ * lazily with a single walk over the page when it is needed first and dropped together with the other page data of
+ * the {@link PageLookupCache} as soon as the page's DOM changes.
+ * <p>
+ * Lookup strategies use the index to answer simple locators without running the CSS or XPath engine:
+ * <ul>
+ * <li>CSS selectors supported by {@link SimpleSelector} whose rightmost compound requires an ID, a name, a class or a
+ * tag name</li>
+ * <li>XPath locators of the form <code>//tag</code>, <code>//tag[@id='x']</code>, <code>//tag[@name='x']</code> and
+ * <code>//tag[contains(concat(' ',@class,' '),' x ')]</code> (<code>tag</code> may be <code>*</code>, a leading
+ * <code>.</code> makes the lookup relative)</li>
+ * </ul>
+ * All other locators are left to the full engines. The index is optional and enabled via property
+ * <code>elementLookup.index.enabled</code> (default: <code>false</code>).
+ * </p>
+ */
+public final class ElementIndex
+{
+    /** Whether the index should be used at all (requires the page data of the {@link PageLookupCache}). */
+    private static final boolean ENABLED = XltProperties.getInstance().getProperty("elementLookup.index.enabled", false) &&
+                                           PageLookupCache.isEnabled();
+
+    /** Page data key of the index. */
+    private static final String PAGE_DATA_KEY = ElementIndex.class.getName();
+
+    /** Maximum number of remembered locators. */
+    private static final int MAX_PARSED_LOCATORS = 1000;
+
+    /** Marker for locators that cannot be answered from the index. */
+    private static final Object UNSUPPORTED = new Object();
+
+    /** Parsed CSS locators mapped by locator text. */
+    private static final ConcurrentHashMap<String, Object> PARSED_CSS = new ConcurrentHashMap<String, Object>();
+
+    /** Parsed XPath locators mapped by locator text. */
+    private static final ConcurrentHashMap<String, Object> PARSED_XPATH = new ConcurrentHashMap<String, Object>();
+
+    /** Simple XPath locators that can be answered from the index. */
+    private static final Pattern SIMPLE_XPATH = Pattern.compile("^(\\.?)//(\\*|[a-zA-Z][a-zA-Z0-9]*)" +
+                                                                "(?:\\[(?:@(id|name)\\s*=\\s*(?:'([^']*)'|\"([^\"]*)\")" +
+                                                                "|contains\\(\\s*concat\\(\\s*' '\\s*,\\s*@class\\s*,\\s*' '\\s*\\)\\s*,\\s*' ([a-zA-Z0-9_-]+) '\\s*\\))\\])?$");
+
+    /** Elements by ID. */
+    private final Map<String, List<DomElement>> byId = new HashMap<String, List<DomElement>>();
+
+    /** Elements by name attribute. */
+    private final Map<String, List<DomElement>> byName = new HashMap<String, List<DomElement>>();
+
+    /** Elements by class token. */
+    private final Map<String, List<DomElement>> byClass = new HashMap<String, List<DomElement>>();
+
+    /** Elements by (lower-case) tag name. */
+    private final Map<String, List<DomElement>> byTag = new HashMap<String, List<DomElement>>();
+
+    /**
+     * Builds the index for the given page.
+     *
+     * @param page
+     *            the page to index
+     */
+    private ElementIndex(final HtmlPage page)
+    {
+        for (final DomNode node : page.getDescendants())
+        {
+            if (node instanceof DomElement)
+            {
+                final DomElement element = (DomElement) node;
+
+                add(byTag, element.getTagName().toLowerCase(Locale.ENGLISH), element);
+                if (element.hasAttribute("id"))
+                {
+                    add(byId, element.getAttribute("id"), element);
+                }
+                if (element.hasAttribute("name"))
+                {
+                    add(byName, element.getAttribute("name"), element);
+                }
+                if (element.hasAttribute("class"))
+                {
+                    addTokens(byClass, element.getAttribute("class"), element);
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether the index is enabled.
+     *
+     * @return <code>true</code> if the index is used, <code>false</code> otherwise
+     */
+    public static boolean isEnabled()
+    {
+        return ENABLED;
+    }
+
+    /**
+     * Looks up the elements matching the given CSS selector.
+     *
+     * @param parent
+     *            lookup base
+     * @param css
+     *            CSS selector
+     * @return the matching elements or <code>null</code> if the selector cannot be answered from the index
+     */
+    static List<?> lookupCss(final DomNode parent, final String css)
+    {
+        if (!ENABLED)
+        {
+            return null;
+        }
+
+        Object parsed = PARSED_CSS.get(css);
+        if (parsed == null)
+        {
+            final SimpleSelector selector = SimpleSelector.parse(css);
+            parsed = selector != null ? selector : UNSUPPORTED;
+            remember(PARSED_CSS, css, parsed);
+        }
+
+        return parsed == UNSUPPORTED ? null : lookup(parent, (SimpleSelector) parsed, parent);
+    }
+
+    /**
+     * Looks up the elements matching the given XPath.
+     *
+     * @param parent
+     *            lookup base
+     * @param xpath
+     *            XPath locator
+     * @return the matching elements or <code>null</code> if the XPath cannot be answered from the index
+     */
+    static List<?> lookupXPath(final DomNode parent, final String xpath)
+    {
+        if (!ENABLED)
+        {
+            return null;
+        }
+
+        Object parsed = PARSED_XPATH.get(xpath);
+        if (parsed == null)
+        {
+            parsed = parseXPath(xpath);
+            remember(PARSED_XPATH, xpath, parsed);
+        }
+
+        if (parsed == UNSUPPORTED)
+        {
+            return null;
+        }
+
+        // absolute path is evaluated from the document root
+        final XPathPlan plan = (XPathPlan) parsed;
+        return lookup(parent, plan.selector, plan.relative ? parent : parent.getPage());
+    }
+
+    /**
+     * Looks up the elements matching the given selector within the given scope.
+     *
+     * @param parent
+     *            lookup base
+     * @param selector
+     *            the selector
+     * @param scope
+     *            only descendants of this node are returned
+     * @return the matching elements in document order or <code>null</code> if the index cannot be used
+     */
+    private static List<?> lookup(final DomNode parent, final SimpleSelector selector, final DomNode scope)
+    {
+        final ElementIndex index = get(parent);
+        if (index == null)
+        {
+            return null;
+        }
+
+        final List<DomElement> candidates = index.getCandidates(selector);
+        if (candidates == null)
+        {
+            return null;
+        }
+
+        final boolean wholePage = scope == parent.getPage();
+        final List<DomElement> results = new ArrayList<DomElement>();
+        for (int i = 0; i < candidates.size(); i++)
+        {
+            final DomElement candidate = candidates.get(i);
+            if (selector.matches(candidate) && (wholePage || isDescendant(candidate, scope)))
+            {
+                results.add(candidate);
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Get the index of the page of the given node. The index is built if necessary.
+     *
+     * @param node
+     *            lookup base
+     * @return the index or <code>null</code> if there's no index for the node's page or the node is not part of it
+     */
+    private static ElementIndex get(final DomNode node)
+    {
+        final SgmlPage page = node.getPage();
+        if (!(page instanceof HtmlPage) || !PageLookupCache.isAttached(node))
+        {
+            return null;
+        }
+
+        ElementIndex index = (ElementIndex) PageLookupCache.getPageData(node, PAGE_DATA_KEY);
+        if (index == null)
+        {
+            index = new ElementIndex((HtmlPage) page);
+            PageLookupCache.putPageData(node, PAGE_DATA_KEY, index);
+        }
+
+        return index;
+    }
+
+    /**
+     * Get the candidate elements for the given selector, i.e. the smallest indexed list that contains all matching
+     * elements.
+     *
+     * @param selector
+     *            the selector
+     * @return the candidates in document order or <code>null</code> if the selector has no indexed condition
+     */
+    private List<DomElement> getCandidates(final SimpleSelector selector)
+    {
+        final String id = selector.getId();
+        if (id != null)
+        {
+            return get(byId, id);
+        }
+
+        final String name = selector.getAttributeValue("name");
+        if (name != null)
+        {
+            return get(byName, name);
+        }
+
+        final List<String> classNames = selector.getClassNames();
+        if (!classNames.isEmpty())
+        {
+            List<DomElement> candidates = null;
+            for (final String className : classNames)
+            {
+                final List<DomElement> list = get(byClass, className);
+                if (candidates == null || list.size() < candidates.size())
+                {
+                    candidates = list;
+                }
+            }
+            return candidates;
+        }
+
+        final String tagName = selector.getTagName();
+        if (tagName != null)
+        {
+            return get(byTag, tagName);
+        }
+
+        return null;
+    }
+
+    /**
+     * Parses the given XPath.
+     *
+     * @param xpath
+     *            XPath locator
+     * @return the lookup plan or {@link #UNSUPPORTED} if the XPath cannot be answered from the index
+     */
+    private static Object parseXPath(final String xpath)
+    {
+        final Matcher m = SIMPLE_XPATH.matcher(xpath.trim());
+        if (!m.matches())
+        {
+            return UNSUPPORTED;
+        }
+
+        final StringBuilder css = new StringBuilder(m.group(2));
+        if (m.group(3) != null)
+        {
+            final String value = m.group(4) != null ? m.group(4) : m.group(5);
+            if (value.indexOf('\'') >= 0 || value.indexOf('\\') >= 0)
+            {
+                return UNSUPPORTED;
+            }
+            css.append('[').append(m.group(3)).append("='").append(value).append("']");
+        }
+        else if (m.group(6) != null)
+        {
+            css.append('.').append(m.group(6));
+        }
+
+        final SimpleSelector selector = SimpleSelector.parse(css.toString());
+        return selector != null ? new XPathPlan(selector, m.group(1).length() > 0) : UNSUPPORTED;
+    }
+
+    /**
+     * Remembers the parsed locator as long as the limit is not reached.
+     *
+     * @param parsedLocators
+     *            parsed locators
+     * @param locator
+     *            the locator
+     * @param parsed
+     *            the parsed locator
+     */
+    private static void remember(final ConcurrentHashMap<String, Object> parsedLocators, final String locator, final Object parsed)
+    {
+        if (parsedLocators.size() < MAX_PARSED_LOCATORS)
+        {
+            parsedLocators.putIfAbsent(locator, parsed);
+        }
+    }
+
+    /**
+     * Checks if the given element is a descendant of the given node.
+     *
+     * @param element
+     *            the element
+     * @param ancestor
+     *            the potential ancestor
+     * @return <code>true</code> if the element is a descendant of the given node, <code>false</code> otherwise
+     */
+    private static boolean isDescendant(final DomElement element, final DomNode ancestor)
+    {
+        for (DomNode node = element.getParentNode(); node != null; node = node.getParentNode())
+        {
+            if (node == ancestor)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the indexed elements for the given key.
+     *
+     * @param map
+     *            the index map
+     * @param key
+     *            the key
+     * @return the indexed elements (never <code>null</code>)
+     */
+    private static List<DomElement> get(final Map<String, List<DomElement>> map, final String key)
+    {
+        final List<DomElement> elements = map.get(key);
+        return elements != null ? elements : Collections.<DomElement> emptyList();
+    }
+
+    /**
+     * Adds the element to the index map.
+     *
+     * @param map
+     *            the index map
+     * @param key
+     *            the key
+     * @param element
+     *            the element
+     */
+    private static void add(final Map<String, List<DomElement>> map, final String key, final DomElement element)
+    {
+        List<DomElement> elements = map.get(key);
+        if (elements == null)
+        {
+            elements = new ArrayList<DomElement>(2);
+            map.put(key, elements);
+        }
+        elements.add(element);
+    }
+
+    /**
+     * Adds the element to the index map for each of the given whitespace separated tokens.
+     *
+     * @param map
+     *            the index map
+     * @param tokens
+     *            whitespace separated token list
+     * @param element
+     *            the element
+     */
+    private static void addTokens(final Map<String, List<DomElement>> map, final String tokens, final DomElement element)
+    {
+        int start = -1;
+        for (int i = 0; i <= tokens.length(); i++)
+        {
+            final boolean separator = i == tokens.length() || Character.isWhitespace(tokens.charAt(i));
+            if (separator)
+            {
+                if (start >= 0)
+                {
+                    final String token = tokens.substring(start, i);
+
+                    // add each element once per token only
+                    final List<DomElement> elements = map.get(token);
+                    if (elements == null || elements.get(elements.size() - 1) != element)
+                    {
+                        add(map, token, element);
+                    }
+                    start = -1;
+                }
+            }
+            else if (start < 0)
+            {
+                start = i;
+            }
+        }
+    }
+
+    /**
+     * Lookup plan of a simple XPath.
+     */
+    private static class XPathPlan
+    {
+        /** The equivalent selector. */
+        private final SimpleSelector selector;
+
+        /** Whether the XPath is relative to the lookup base. */
+        private final boolean relative;
+
+        /**
+         * Constructor
+         *
+         * @param selector
+         *            the equivalent selector
+         * @param relative
+         *            whether the XPath is relative to the lookup base
+         */
+        private XPathPlan(final SimpleSelector selector, final boolean relative)
+        {
+            this.selector = selector;
+            this.relative = relative;
+        }
+    }
+}
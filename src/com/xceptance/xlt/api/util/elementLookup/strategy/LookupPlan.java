@@ -0,0 +1,378 @@
+package com.xceptance.xlt.api.util.elementLookup.strategy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.gargoylesoftware.htmlunit.html.DomNode;
+import com.xceptance.common.util.ParameterCheckUtils;
+import com.xceptance.xlt.api.util.elementLookup.Strategy;
+
+/**
+ * Immutable, page independent strategy chain. Locators are validated once when the plan is built. Binding the plan to
+ * a lookup base creates a single lightweight strategy object, so plans can be held in constants and evaluated over and
+ * over again without building a new strategy chain each time.
+ * <p>
+ * Results are shared with the {@link PageLookupCache} under the same keys the equivalent strategy chain uses.
+ * </p>
+ */
+public final class LookupPlan
+{
+    /**
+     * Plan without any step.
+     */
+    public static final LookupPlan EMPTY = new LookupPlan(new AbstractLookupStrategy[0], new String[0]);
+
+    /**
+     * Lookup steps. The strategies are used for their locator evaluation only, their own lookup base is not set.
+     */
+    private final AbstractLookupStrategy[] steps;
+
+    /**
+     * Chain key (and locator description) of the chain up to and including the step with the same index.
+     */
+    private final String[] keys;
+
+    /**
+     * Constructor
+     *
+     * @param steps
+     *            lookup steps
+     * @param keys
+     *            chain keys
+     */
+    private LookupPlan(final AbstractLookupStrategy[] steps, final String[] keys)
+    {
+        this.steps = steps;
+        this.keys = keys;
+    }
+
+    /**
+     * Append an ID lookup. The ID lookup must be the first step of the plan.
+     *
+     * @param id
+     *            the element's ID
+     * @return the extended plan
+     * @throws IllegalArgumentException
+     *             if given ID is <code>null</code> or empty
+     * @throws IllegalStateException
+     *             if the plan has steps already
+     */
+    public LookupPlan byId(final String id) throws IllegalArgumentException, IllegalStateException
+    {
+        if (steps.length > 0)
+        {
+            throw new IllegalStateException("ID lookup must be the first step of a lookup plan");
+        }
+        return append(new IdLookupStrategy((DomNode) null, id));
+    }
+
+    /**
+     * Append an XPath lookup.
+     *
+     * @param locator
+     *            XPath locator
+     * @return the extended plan
+     * @throws IllegalArgumentException
+     *             if given locator is <code>null</code> or empty
+     */
+    public LookupPlan byXPath(final String locator) throws IllegalArgumentException
+    {
+        return append(new XPathLookupStrategy((DomNode) null, locator));
+    }
+
+    /**
+     * Append a CSS lookup.
+     *
+     * @param locator
+     *            CSS locator
+     * @return the extended plan
+     * @throws IllegalArgumentException
+     *             if given locator is <code>null</code> or empty
+     */
+    public LookupPlan byCss(final String locator) throws IllegalArgumentException
+    {
+        return append(new CssLookupStrategy((DomNode) null, locator));
+    }
+
+    /**
+     * Whether the plan has no steps.
+     *
+     * @return <code>true</code> if there are no steps, <code>false</code> otherwise
+     */
+    public boolean isEmpty()
+    {
+        return steps.length == 0;
+    }
+
+    /**
+     * Get the description of the whole plan.
+     *
+     * @return plan description
+     */
+    public String getDescription()
+    {
+        return steps.length > 0 ? keys[steps.length - 1] : "";
+    }
+
+    /**
+     * Bind the plan to the given lookup base.
+     *
+     * @param base
+     *            lookup base
+     * @return lookup strategy evaluating the plan for the given base
+     * @throws IllegalArgumentException
+     *             if the base is <code>null</code>
+     * @throws IllegalStateException
+     *             if the plan has no steps
+     */
+    public Strategy bind(final DomNode base) throws IllegalArgumentException, IllegalStateException
+    {
+        ParameterCheckUtils.isNotNull(base, "base");
+        if (steps.length == 0)
+        {
+            throw new IllegalStateException("Lookup plan has no steps");
+        }
+
+        return new BoundStrategy(base);
+    }
+
+    /**
+     * Creates a new plan with the given step appended.
+     *
+     * @param step
+     *            the step to append
+     * @return the extended plan
+     */
+    private LookupPlan append(final AbstractLookupStrategy step)
+    {
+        final int length = steps.length;
+
+        final AbstractLookupStrategy[] newSteps = new AbstractLookupStrategy[length + 1];
+        System.arraycopy(steps, 0, newSteps, 0, length);
+        newSteps[length] = step;
+
+        final String description = new StringBuilder().append("{").append(step.getStrategyName()).append("=")
+                                                      .append(step.getLocator()).append("}").toString();
+        final String[] newKeys = new String[length + 1];
+        System.arraycopy(keys, 0, newKeys, 0, length);
+        newKeys[length] = length == 0 ? description : keys[length - 1] + " -> " + description;
+
+        return new LookupPlan(newSteps, newKeys);
+    }
+
+    /**
+     * The plan bound to a lookup base.
+     */
+    class BoundStrategy implements Strategy
+    {
+        /**
+         * Lookup base.
+         */
+        private final DomNode base;
+
+        /**
+         * Index of the last step that was evaluated because its predecessor had no results, or <code>-1</code>.
+         */
+        private int failedStep = -1;
+
+        /**
+         * Constructor
+         *
+         * @param base
+         *            lookup base
+         */
+        private BoundStrategy(final DomNode base)
+        {
+            this.base = base;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public List<?> lookup()
+        {
+            final int last = steps.length - 1;
+
+            // whole chain cached?
+            List<?> results = PageLookupCache.get(base, keys[last]);
+            if (results != null)
+            {
+                return results;
+            }
+
+            results = PageLookupCache.get(base, keys[0]);
+            if (results == null)
+            {
+                results = PageLookupCache.put(base, keys[0], steps[0].timedLookup(base));
+            }
+
+            for (int i = 1; i <= last; i++)
+            {
+                // predecessor without results -> stop here
+                if (results.isEmpty())
+                {
+                    failedStep = i - 1;
+                    return Collections.emptyList();
+                }
+
+                final List<?> cached = PageLookupCache.get(base, keys[i]);
+                if (cached != null)
+                {
+                    results = cached;
+                    continue;
+                }
+
+                final List<Object> stepResults = new ArrayList<Object>();
+                for (final Object parent : results)
+                {
+                    stepResults.addAll(steps[i].timedLookup((DomNode) parent));
+                }
+                results = PageLookupCache.put(base, keys[i], stepResults);
+            }
+
+            return results;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Iterator<?> iterate()
+        {
+            // start after the longest cached part of the chain
+            int next = 0;
+            Iterator<?> results = null;
+            for (int i = steps.length - 1; i >= 0 && results == null; i--)
+            {
+                final List<?> cached = PageLookupCache.get(base, keys[i]);
+                if (cached != null)
+                {
+                    results = cached.iterator();
+                    next = i + 1;
+                }
+            }
+
+            if (results == null)
+            {
+                results = steps[0].timedIterate(base);
+                next = 1;
+            }
+
+            for (int i = next; i < steps.length; i++)
+            {
+                results = new StepIterator(steps[i], results);
+            }
+
+            return results;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getLocatorDescription()
+        {
+            return keys[failedStep >= 0 ? failedStep : steps.length - 1];
+        }
+
+        /**
+         * Get the node the plan is bound to.
+         *
+         * @return lookup base
+         */
+        DomNode getChainBase()
+        {
+            return base;
+        }
+
+        /**
+         * Get the key describing the whole plan.
+         *
+         * @return chain key
+         */
+        String getChainKey()
+        {
+            return keys[steps.length - 1];
+        }
+    }
+
+    /**
+     * Iterates the results of a step for each result of the preceding step. The next parent result is not looked up
+     * before all results of the current one were consumed.
+     */
+    private static class StepIterator implements Iterator<Object>
+    {
+        /**
+         * The step to evaluate.
+         */
+        private final AbstractLookupStrategy step;
+
+        /**
+         * Results of the preceding step.
+         */
+        private final Iterator<?> parents;
+
+        /**
+         * Results based on the current parent result.
+         */
+        private Iterator<?> current = Collections.emptyIterator();
+
+        /**
+         * Constructor
+         *
+         * @param step
+         *            the step to evaluate
+         * @param parents
+         *            results of the preceding step
+         */
+        private StepIterator(final AbstractLookupStrategy step, final Iterator<?> parents)
+        {
+            this.step = step;
+            this.parents = parents;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean hasNext()
+        {
+            // advance to the next parent that has results
+            while (!current.hasNext())
+            {
+                if (!parents.hasNext())
+                {
+                    return false;
+                }
+                current = step.timedIterate((DomNode) parents.next());
+            }
+            return true;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Object next()
+        {
+            if (!hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,513 @@
+package com.xceptance.xlt.api.util.elementLookup.strategy;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.xceptance.xlt.api.engine.CustomValue;
+import com.xceptance.xlt.api.engine.Session;
+import com.xceptance.xlt.api.util.XltLogger;
+import com.xceptance.xlt.api.util.XltProperties;
+
+/**
+ * Records how long the evaluation of each locator takes. Every user records into its own histograms, shared by all
+ * threads of the user's thread group (e.g. the user's XHR threads). At the end of each test iteration
+ * ({@link #endIteration()}) the user's histograms are merged into the agent-wide statistics and the iteration's total
+ * lookup time per strategy is logged as custom value <code>LookupTime &lt;strategy&gt;</code> (in milliseconds).
+ * Lookups of helper threads that finish after that are counted for the user's next iteration. When the agent shuts
+ * down, the most expensive locators are written to a CSV file.
+ * <p>
+ * Only the evaluation of a locator for a single lookup base is measured. Results answered from the
+ * {@link PageLookupCache} are not recorded. For lazily evaluated locators the creation of the iterator and all calls
+ * to it are measured as one evaluation, which is recorded when the iterator is exhausted or, if the results are not
+ * iterated to the end, when the iteration ends. Evaluations started by helper threads are only recorded once they are
+ * iterated to the end.
+ * </p>
+ * <p>
+ * Configuration:
+ * <ul>
+ * <li><code>elementLookup.statistics.enabled</code> - whether to record lookup times (default: <code>false</code>)</li>
+ * <li><code>elementLookup.statistics.file</code> - the CSV file to write (default:
+ * <code>lookup-statistics.csv</code>)</li>
+ * <li><code>elementLookup.statistics.top</code> - the number of locators to write (default: 50)</li>
+ * </ul>
+ * </p>
+ */
+public final class LookupStatistics
+{
+    /** Number of histogram buckets. Bucket <code>i</code> holds durations below <code>2^i</code> nanoseconds. */
+    private static final int BUCKETS = 40;
+
+    /** Whether lookup times are recorded. */
+    private final boolean enabled;
+
+    /** The CSV report file. */
+    private final String reportFile;
+
+    /** Number of locators to report. */
+    private final int top;
+
+    /** The recorders of all users mapped by the users' thread groups. */
+    private final ConcurrentMap<ThreadGroup, Recorder> recorders = new ConcurrentHashMap<ThreadGroup, Recorder>();
+
+    /** The recorder of the current thread's user. */
+    private final ThreadLocal<Recorder> threadRecorder = new ThreadLocal<Recorder>()
+    {
+        @Override
+        protected Recorder initialValue()
+        {
+            final ThreadGroup group = Thread.currentThread().getThreadGroup();
+
+            final Recorder recorder = new Recorder();
+            final Recorder existing = recorders.putIfAbsent(group, recorder);
+            return existing != null ? existing : recorder;
+        }
+    };
+
+    /** The evaluations started by the current thread that are not recorded yet. */
+    private final ThreadLocal<Set<Evaluation>> threadEvaluations = new ThreadLocal<Set<Evaluation>>()
+    {
+        @Override
+        protected Set<Evaluation> initialValue()
+        {
+            return new HashSet<Evaluation>();
+        }
+    };
+
+    /** The merged histograms of all threads mapped by strategy name and locator. */
+    private final Map<String, Map<String, Histogram>> merged = new HashMap<String, Map<String, Histogram>>();
+
+    /**
+     * Private constructor to prevent external instantiation.
+     */
+    private LookupStatistics()
+    {
+        final XltProperties props = XltProperties.getInstance();
+        this.enabled = props.getProperty("elementLookup.statistics.enabled", false);
+        this.reportFile = props.getProperty("elementLookup.statistics.file", "lookup-statistics.csv");
+        this.top = Math.max(1, props.getProperty("elementLookup.statistics.top", 50));
+
+        if (enabled)
+        {
+            Runtime.getRuntime().addShutdownHook(new Thread("LookupStatistics-Report")
+            {
+                @Override
+                public void run()
+                {
+                    writeReport();
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the agent-wide statistics instance.
+     *
+     * @return statistics instance
+     */
+    public static LookupStatistics getInstance()
+    {
+        return Singleton_Holder._INSTANCE;
+    }
+
+    /**
+     * Whether lookup times are recorded.
+     *
+     * @return <code>true</code> if recording is enabled, <code>false</code> otherwise
+     */
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Records a single locator evaluation.
+     *
+     * @param strategyName
+     *            lookup strategy name
+     * @param locator
+     *            the locator
+     * @param nanos
+     *            evaluation time in nanoseconds
+     */
+    void record(final String strategyName, final String locator, final long nanos)
+    {
+        threadRecorder.get().record(strategyName, locator, nanos);
+    }
+
+    /**
+     * Starts a locator evaluation whose time is measured in several parts, e.g. while its results are iterated.
+     *
+     * @param strategyName
+     *            lookup strategy name
+     * @param locator
+     *            the locator
+     * @return the evaluation
+     */
+    Evaluation startEvaluation(final String strategyName, final String locator)
+    {
+        final Evaluation evaluation = new Evaluation(strategyName, locator);
+        threadEvaluations.get().add(evaluation);
+        return evaluation;
+    }
+
+    /**
+     * Ends the current user's test iteration. The iteration's total lookup time per strategy is logged as custom
+     * value and the user's histograms are merged into the agent-wide statistics.
+     */
+    public void endIteration()
+    {
+        if (!enabled)
+        {
+            return;
+        }
+
+        // record the evaluations whose results were not iterated to the end
+        for (final Evaluation evaluation : new ArrayList<Evaluation>(threadEvaluations.get()))
+        {
+            evaluation.finish();
+        }
+        threadEvaluations.remove();
+
+        // take over the user's histograms, helper threads record into fresh ones from now on
+        final Map<String, Map<String, Histogram>> histograms = threadRecorder.get().drain();
+        if (histograms.isEmpty())
+        {
+            return;
+        }
+
+        // log the iteration's lookup time per strategy
+        final Session session = Session.getCurrent();
+        for (final Map.Entry<String, Map<String, Histogram>> strategy : histograms.entrySet())
+        {
+            long total = 0;
+            for (final Histogram histogram : strategy.getValue().values())
+            {
+                total += histogram.total;
+            }
+
+            final CustomValue value = new CustomValue("LookupTime " + strategy.getKey());
+            value.setValue(total / 1000000.0);
+            session.getDataManager().logDataRecord(value);
+        }
+
+        // merge into agent-wide statistics
+        synchronized (merged)
+        {
+            for (final Map.Entry<String, Map<String, Histogram>> strategy : histograms.entrySet())
+            {
+                Map<String, Histogram> byLocator = merged.get(strategy.getKey());
+                if (byLocator == null)
+                {
+                    byLocator = new HashMap<String, Histogram>();
+                    merged.put(strategy.getKey(), byLocator);
+                }
+
+                for (final Map.Entry<String, Histogram> locator : strategy.getValue().entrySet())
+                {
+                    final Histogram histogram = byLocator.get(locator.getKey());
+                    if (histogram == null)
+                    {
+                        byLocator.put(locator.getKey(), locator.getValue());
+                    }
+                    else
+                    {
+                        histogram.merge(locator.getValue());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the most expensive locators recorded so far, one line per locator.
+     *
+     * @param count
+     *            maximum number of locators
+     * @return CSV lines (header first)
+     */
+    public List<String> getTopLocators(final int count)
+    {
+        final List<Object[]> rows = new ArrayList<Object[]>();
+        synchronized (merged)
+        {
+            for (final Map.Entry<String, Map<String, Histogram>> strategy : merged.entrySet())
+            {
+                for (final Map.Entry<String, Histogram> locator : strategy.getValue().entrySet())
+                {
+                    rows.add(new Object[]
+                        {
+                            strategy.getKey(), locator.getKey(), locator.getValue().copy()
+                        });
+                }
+            }
+        }
+
+        // most expensive first
+        Collections.sort(rows, new Comparator<Object[]>()
+        {
+            @Override
+            public int compare(final Object[] o1, final Object[] o2)
+            {
+                final long t1 = ((Histogram) o1[2]).total;
+                final long t2 = ((Histogram) o2[2]).total;
+                return t1 < t2 ? 1 : (t1 == t2 ? 0 : -1);
+            }
+        });
+
+        final List<String> lines = new ArrayList<String>();
+        lines.add("Strategy,Locator,Count,Total [ms],Mean [us],P50 [us],P90 [us],P99 [us],Max [us]");
+        for (int i = 0; i < rows.size() && i < count; i++)
+        {
+            final Histogram histogram = (Histogram) rows.get(i)[2];
+            lines.add(String.format(Locale.ENGLISH, "%s,\"%s\",%d,%.3f,%.1f,%.1f,%.1f,%.1f,%.1f", rows.get(i)[0],
+                                    ((String) rows.get(i)[1]).replace("\"", "\"\""), histogram.count, histogram.total / 1000000.0,
+                                    histogram.total / 1000.0 / histogram.count, histogram.percentile(0.5) / 1000.0,
+                                    histogram.percentile(0.9) / 1000.0, histogram.percentile(0.99) / 1000.0, histogram.max / 1000.0));
+        }
+        return lines;
+    }
+
+    /**
+     * Writes the most expensive locators to the configured CSV file.
+     */
+    private void writeReport()
+    {
+        final List<String> lines = getTopLocators(top);
+        if (lines.size() < 2)
+        {
+            return;
+        }
+
+        final File file = new File(reportFile);
+        try (final FileWriter writer = new FileWriter(file))
+        {
+            for (final String line : lines)
+            {
+                writer.write(line);
+                writer.write('\n');
+            }
+        }
+        catch (final IOException e)
+        {
+            XltLogger.runTimeLogger.error("Failed to write lookup statistics to " + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * A locator evaluation measured in several parts. Not thread-safe, each evaluation is used by the thread that started
+     * it only.
+     */
+    final class Evaluation
+    {
+        /** Lookup strategy name. */
+        private final String strategyName;
+
+        /** The locator. */
+        private final String locator;
+
+        /** Evaluation time so far [ns]. */
+        private long nanos;
+
+        /** Whether the evaluation was recorded already. */
+        private boolean finished;
+
+        /**
+         * Constructor
+         *
+         * @param strategyName
+         *            lookup strategy name
+         * @param locator
+         *            the locator
+         */
+        private Evaluation(final String strategyName, final String locator)
+        {
+            this.strategyName = strategyName;
+            this.locator = locator;
+        }
+
+        /**
+         * Adds to the evaluation time.
+         *
+         * @param nanos
+         *            time in nanoseconds
+         */
+        void add(final long nanos)
+        {
+            this.nanos += nanos;
+        }
+
+        /**
+         * Records the evaluation unless it was recorded already.
+         */
+        void finish()
+        {
+            if (!finished)
+            {
+                finished = true;
+                threadEvaluations.get().remove(this);
+                record(strategyName, locator, nanos);
+            }
+        }
+    }
+
+    /**
+     * The histograms of a single user's current iteration. Written by all threads of the user, so access is
+     * synchronized. Apart from the end of an iteration, only one thread records at a time in most cases, so the lock is
+     * hardly ever contended.
+     */
+    private static class Recorder
+    {
+        /** The histograms mapped by strategy name and locator. */
+        private Map<String, Map<String, Histogram>> histograms = new HashMap<String, Map<String, Histogram>>();
+
+        /**
+         * Records a single locator evaluation.
+         *
+         * @param strategyName
+         *            lookup strategy name
+         * @param locator
+         *            the locator
+         * @param nanos
+         *            evaluation time in nanoseconds
+         */
+        private synchronized void record(final String strategyName, final String locator, final long nanos)
+        {
+            Map<String, Histogram> byLocator = histograms.get(strategyName);
+            if (byLocator == null)
+            {
+                byLocator = new HashMap<String, Histogram>();
+                histograms.put(strategyName, byLocator);
+            }
+
+            Histogram histogram = byLocator.get(locator);
+            if (histogram == null)
+            {
+                histogram = new Histogram();
+                byLocator.put(locator, histogram);
+            }
+
+            histogram.add(nanos);
+        }
+
+        /**
+         * Takes all histograms recorded so far and starts over with fresh ones.
+         *
+         * @return the recorded histograms
+         */
+        private synchronized Map<String, Map<String, Histogram>> drain()
+        {
+            final Map<String, Map<String, Histogram>> drained = histograms;
+            histograms = new HashMap<String, Map<String, Histogram>>();
+            return drained;
+        }
+    }
+
+    /**
+     * Log2 histogram of durations. Not thread-safe, each histogram is written under its {@link Recorder}'s lock or after
+     * it was drained.
+     */
+    private static class Histogram
+    {
+        /** Number of durations per bucket. */
+        private final long[] buckets = new long[BUCKETS];
+
+        /** Number of durations. */
+        private long count;
+
+        /** Sum of all durations [ns]. */
+        private long total;
+
+        /** Longest duration [ns]. */
+        private long max;
+
+        /**
+         * Adds a duration.
+         *
+         * @param nanos
+         *            duration in nanoseconds
+         */
+        private void add(final long nanos)
+        {
+            final int bucket = nanos <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+            buckets[bucket]++;
+            count++;
+            total += nanos;
+            if (nanos > max)
+            {
+                max = nanos;
+            }
+        }
+
+        /**
+         * Adds all durations of the given histogram.
+         *
+         * @param other
+         *            the histogram to merge
+         */
+        private void merge(final Histogram other)
+        {
+            for (int i = 0; i < BUCKETS; i++)
+            {
+                buckets[i] += other.buckets[i];
+            }
+            count += other.count;
+            total += other.total;
+            max = Math.max(max, other.max);
+        }
+
+        /**
+         * Creates a copy of this histogram.
+         *
+         * @return the copy
+         */
+        private Histogram copy()
+        {
+            final Histogram copy = new Histogram();
+            copy.merge(this);
+            return copy;
+        }
+
+        /**
+         * Get the upper bound of the bucket holding the given percentile.
+         *
+         * @param p
+         *            percentile (0..1)
+         * @return upper bound of the percentile's bucket [ns], but not more than the longest duration
+         */
+        private long percentile(final double p)
+        {
+            final long rank = (long) Math.ceil(p * count);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++)
+            {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0)
+                {
+                    return Math.min(max, 1L << i);
+                }
+            }
+            return max;
+        }
+    }
+
+    /**
+     * Singleton holder
+     */
+    private static class Singleton_Holder
+    {
+        /** Singleton */
+        private static final LookupStatistics _INSTANCE = new LookupStatistics();
+    }
+}
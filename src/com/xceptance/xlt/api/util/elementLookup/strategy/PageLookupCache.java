@@ -0,0 +1,333 @@
+package com.xceptance.xlt.api.util.elementLookup.strategy;
+
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.gargoylesoftware.htmlunit.SgmlPage;
+import com.gargoylesoftware.htmlunit.html.DomChangeEvent;
+import com.gargoylesoftware.htmlunit.html.DomChangeListener;
+import com.gargoylesoftware.htmlunit.html.DomNode;
+import com.gargoylesoftware.htmlunit.html.HtmlAttributeChangeEvent;
+import com.gargoylesoftware.htmlunit.html.HtmlAttributeChangeListener;
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+import com.xceptance.xlt.api.util.XltProperties;
+
+/**
+ * Memoizes lookup results for the page the current thread works on. Results are keyed by the lookup base node and the
+ * full strategy chain, so repeated identical lookups on an unchanged page do not walk the DOM again.
+ * <p>
+ * Besides lookup results, arbitrary data derived from the page's DOM can be attached to the page (see
+ * {@link #getPageData(DomNode, String)}). It follows the same life cycle as the cached results.
+ * </p>
+ * <p>
+ * The cached results are dropped as soon as the page's DOM changes (nodes added/removed, attributes changed), when
+ * another page is looked up, or when {@link #invalidate()} is called explicitly. Lookups based on nodes that are not
+ * attached to the page are never cached.
+ * </p>
+ * <p>
+ * The cache can be disabled via property <code>elementLookup.pageCache.enabled</code> (default: <code>true</code>).
+ * </p>
+ */
+public final class PageLookupCache
+{
+    /** Whether lookup results should be cached at all. */
+    private static final boolean ENABLED = XltProperties.getInstance().getProperty("elementLookup.pageCache.enabled", true);
+
+    /** The cache for the page the current thread works on. */
+    private static final ThreadLocal<PageEntry> CURRENT = new ThreadLocal<PageEntry>();
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private PageLookupCache()
+    {
+    }
+
+    /**
+     * Whether lookup results and page data are cached.
+     *
+     * @return <code>true</code> if the cache is enabled, <code>false</code> otherwise
+     */
+    public static boolean isEnabled()
+    {
+        return ENABLED;
+    }
+
+    /**
+     * Drops all cached results of the current thread.
+     */
+    public static void invalidate()
+    {
+        final PageEntry entry = CURRENT.get();
+        if (entry != null)
+        {
+            entry.clear();
+        }
+    }
+
+    /**
+     * Get the data attached to the page of the given node.
+     *
+     * @param node
+     *            any node of the page
+     * @param key
+     *            data key
+     * @return the attached data or <code>null</code> if there's none
+     */
+    public static Object getPageData(final DomNode node, final String key)
+    {
+        final PageEntry entry = getEntry(node, false);
+        return entry != null ? entry.data.get(key) : null;
+    }
+
+    /**
+     * Attaches data to the page of the given node. The data is dropped as soon as the page's DOM changes.
+     *
+     * @param node
+     *            any node of the page
+     * @param key
+     *            data key
+     * @param data
+     *            the data to attach
+     */
+    public static void putPageData(final DomNode node, final String key, final Object data)
+    {
+        final PageEntry entry = getEntry(node, true);
+        if (entry != null)
+        {
+            entry.data.put(key, data);
+        }
+    }
+
+    /**
+     * Get the cached results for the given lookup.
+     *
+     * @param base
+     *            lookup base
+     * @param key
+     *            strategy chain key
+     * @return the cached results or <code>null</code> if there are none
+     */
+    static List<?> get(final DomNode base, final String key)
+    {
+        final PageEntry entry = getEntry(base, false);
+        if (entry != null)
+        {
+            final Map<String, List<?>> baseResults = entry.results.get(base);
+            if (baseResults != null)
+            {
+                return baseResults.get(key);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Caches the results for the given lookup if possible.
+     *
+     * @param base
+     *            lookup base
+     * @param key
+     *            strategy chain key
+     * @param results
+     *            the lookup results
+     * @return the results to use from now on (unmodifiable if cached)
+     */
+    static List<?> put(final DomNode base, final String key, final List<?> results)
+    {
+        final PageEntry entry = getEntry(base, true);
+        if (entry == null || !isAttached(base))
+        {
+            return results;
+        }
+
+        Map<String, List<?>> baseResults = entry.results.get(base);
+        if (baseResults == null)
+        {
+            baseResults = new HashMap<String, List<?>>();
+            entry.results.put(base, baseResults);
+        }
+
+        final List<?> cached = Collections.unmodifiableList(results);
+        baseResults.put(key, cached);
+
+        return cached;
+    }
+
+    /**
+     * Get the cache entry for the page of the given node.
+     *
+     * @param base
+     *            lookup base
+     * @param create
+     *            whether to (re)create the entry if the current one belongs to another page
+     * @return the cache entry or <code>null</code> if there's none or caching is not possible
+     */
+    private static PageEntry getEntry(final DomNode base, final boolean create)
+    {
+        if (!ENABLED || base == null)
+        {
+            return null;
+        }
+
+        final SgmlPage page = base.getPage();
+        if (!(page instanceof HtmlPage))
+        {
+            return null;
+        }
+
+        PageEntry entry = CURRENT.get();
+        if (entry != null && entry.page.get() == page)
+        {
+            return entry;
+        }
+
+        if (!create)
+        {
+            return null;
+        }
+
+        // cache belongs to another page -> start over
+        if (entry != null)
+        {
+            entry.detach();
+        }
+        entry = new PageEntry((HtmlPage) page);
+        CURRENT.set(entry);
+
+        return entry;
+    }
+
+    /**
+     * Checks if the given node is part of its page's DOM tree. Changes to detached nodes are not reported to the
+     * page's listeners, so lookups based on them must not be cached.
+     *
+     * @param node
+     *            the node to check
+     * @return <code>true</code> if the node is attached to its page, <code>false</code> otherwise
+     */
+    static boolean isAttached(final DomNode node)
+    {
+        final SgmlPage page = node.getPage();
+        for (DomNode current = node; current != null; current = current.getParentNode())
+        {
+            if (current == page)
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Cached lookup results of a single page. The entry listens for DOM changes of its page and drops all results on
+     * any change.
+     */
+    private static class PageEntry implements DomChangeListener, HtmlAttributeChangeListener
+    {
+        /**
+         * serialVersionUID
+         */
+        private static final long serialVersionUID = 1L;
+
+        /** The page the results belong to. */
+        private final WeakReference<HtmlPage> page;
+
+        /** Cached results mapped by lookup base and strategy chain key. */
+        private final Map<DomNode, Map<String, List<?>>> results = new IdentityHashMap<DomNode, Map<String, List<?>>>();
+
+        /** Data attached to the page mapped by key. */
+        private final Map<String, Object> data = new HashMap<String, Object>();
+
+        /**
+         * Constructor
+         *
+         * @param page
+         *            the page the results belong to
+         */
+        private PageEntry(final HtmlPage page)
+        {
+            this.page = new WeakReference<HtmlPage>(page);
+
+            page.addDomChangeListener(this);
+            page.addHtmlAttributeChangeListener(this);
+        }
+
+        /**
+         * Drops all cached results.
+         */
+        private void clear()
+        {
+            results.clear();
+            data.clear();
+        }
+
+        /**
+         * Drops all cached results and stops listening for DOM changes of the page. Called when the entry is replaced
+         * by the entry of another page, as the page might still be in use (e.g. by another window or a page that is
+         * returned to) and would keep notifying the dead entry otherwise.
+         */
+        private void detach()
+        {
+            clear();
+
+            final HtmlPage htmlPage = page.get();
+            if (htmlPage != null)
+            {
+                htmlPage.removeDomChangeListener(this);
+                htmlPage.removeHtmlAttributeChangeListener(this);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void nodeAdded(final DomChangeEvent event)
+        {
+            clear();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void nodeDeleted(final DomChangeEvent event)
+        {
+            clear();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void attributeAdded(final HtmlAttributeChangeEvent event)
+        {
+            clear();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void attributeRemoved(final HtmlAttributeChangeEvent event)
+        {
+            clear();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void attributeReplaced(final HtmlAttributeChangeEvent event)
+        {
+            clear();
+        }
+    }
+}
@@ -0,0 +1,606 @@
+package com.xceptance.xlt.api.util.elementLookup.strategy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import com.gargoylesoftware.htmlunit.html.DomElement;
+import com.gargoylesoftware.htmlunit.html.DomNode;
+
+/**
+ * Matcher for a subset of CSS selectors that can be evaluated element by element without running the CSS engine.
+ * <p>
+ * Supported are compound selectors made of an optional tag name (or <code>*</code>), <code>#id</code>,
+ * <code>.class</code> and attribute conditions (<code>[attr]</code>, <code>[attr=value]</code>,
+ * <code>[attr~=value]</code>, <code>[attr*=value]</code>, <code>[attr^=value]</code>, <code>[attr$=value]</code>),
+ * combined by descendant (whitespace) or child (<code>&gt;</code>) combinators. Anything else (pseudo classes,
+ * sibling combinators, escapes, selector groups) is not supported and makes {@link #parse(String)} return
+ * <code>null</code>.
+ * </p>
+ */
+public final class SimpleSelector
+{
+    /** Combinator between a compound and its predecessor: descendant. */
+    private static final char DESCENDANT = ' ';
+
+    /** Combinator between a compound and its predecessor: child. */
+    private static final char CHILD = '>';
+
+    /** The compounds from left to right. */
+    private final Compound[] compounds;
+
+    /** The combinators; combinators[i] connects compounds[i - 1] and compounds[i]. */
+    private final char[] combinators;
+
+    /** The selector text. */
+    private final String text;
+
+    /**
+     * Constructor
+     *
+     * @param compounds
+     *            the compounds from left to right
+     * @param combinators
+     *            the combinators
+     * @param text
+     *            the selector text
+     */
+    private SimpleSelector(final Compound[] compounds, final char[] combinators, final String text)
+    {
+        this.compounds = compounds;
+        this.combinators = combinators;
+        this.text = text;
+    }
+
+    /**
+     * Parses the given CSS selector.
+     *
+     * @param css
+     *            the CSS selector
+     * @return the parsed selector or <code>null</code> if the selector is not supported
+     */
+    public static SimpleSelector parse(final String css)
+    {
+        if (css == null)
+        {
+            return null;
+        }
+
+        final String s = css.trim();
+        final List<Compound> compounds = new ArrayList<Compound>();
+        final StringBuilder combinators = new StringBuilder();
+
+        int pos = 0;
+        char combinator = DESCENDANT;
+        while (pos < s.length())
+        {
+            // parse compound
+            final Compound compound = new Compound();
+            pos = compound.parse(s, pos);
+            if (pos < 0)
+            {
+                return null;
+            }
+            compounds.add(compound);
+            combinators.append(combinator);
+
+            // parse combinator
+            combinator = DESCENDANT;
+            boolean separated = false;
+            while (pos < s.length() && (Character.isWhitespace(s.charAt(pos)) || s.charAt(pos) == CHILD))
+            {
+                if (s.charAt(pos) == CHILD)
+                {
+                    if (combinator == CHILD)
+                    {
+                        return null;
+                    }
+                    combinator = CHILD;
+                }
+                separated = true;
+                pos++;
+            }
+
+            // combinator must be followed by a compound and compounds must be separated by a combinator
+            if ((separated && pos == s.length()) || (!separated && pos < s.length()))
+            {
+                return null;
+            }
+        }
+
+        if (compounds.isEmpty())
+        {
+            return null;
+        }
+
+        return new SimpleSelector(compounds.toArray(new Compound[compounds.size()]), combinators.toString().toCharArray(), s);
+    }
+
+    /**
+     * Creates a selector matching elements with the given ID. Other than {@link #parse(String)} the ID is taken as is,
+     * no matter which characters it contains.
+     *
+     * @param id
+     *            the element ID
+     * @return selector matching elements with the given ID
+     */
+    public static SimpleSelector forId(final String id)
+    {
+        final Compound compound = new Compound();
+        compound.id = id;
+
+        return new SimpleSelector(new Compound[]
+            {
+                compound
+            }, new char[]
+            {
+                DESCENDANT
+            }, "#" + id);
+    }
+
+    /**
+     * Get the ID the matching elements must have.
+     *
+     * @return the ID required by the rightmost compound (<code>#id</code> or <code>[id=value]</code>) or
+     *         <code>null</code> if there's no such requirement
+     */
+    public String getId()
+    {
+        final String id = compounds[compounds.length - 1].id;
+        return id != null ? id : getAttributeValue("id");
+    }
+
+    /**
+     * Get the value the given attribute of the matching elements must be equal to.
+     *
+     * @param name
+     *            the (lower-case) attribute name
+     * @return the value required by an equality condition of the rightmost compound or <code>null</code> if there's no
+     *         such condition
+     */
+    public String getAttributeValue(final String name)
+    {
+        for (final AttributeCondition attribute : compounds[compounds.length - 1].attributes)
+        {
+            if ("=".equals(attribute.operator) && attribute.name.equals(name))
+            {
+                return attribute.value;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Get the tag name the matching elements must have.
+     *
+     * @return the (lower-cased) tag name required by the rightmost compound or <code>null</code> if any tag is accepted
+     */
+    public String getTagName()
+    {
+        return compounds[compounds.length - 1].tagName;
+    }
+
+    /**
+     * Get the class names the matching elements must have.
+     *
+     * @return the class names required by the rightmost compound (never <code>null</code>)
+     */
+    public List<String> getClassNames()
+    {
+        return compounds[compounds.length - 1].classNames;
+    }
+
+    /**
+     * Whether this selector is nothing but an ID condition (i.e. <code>#foo</code>).
+     *
+     * @return <code>true</code> if this selector matches elements by ID only, <code>false</code> otherwise
+     */
+    public boolean isIdOnly()
+    {
+        return compounds.length == 1 && compounds[0].id != null && compounds[0].isIdOnly();
+    }
+
+    /**
+     * Whether this selector consists of a single compound (no combinators).
+     *
+     * @return <code>true</code> if there are no combinators, <code>false</code> otherwise
+     */
+    public boolean isCompound()
+    {
+        return compounds.length == 1;
+    }
+
+    /**
+     * Checks if the given element matches this selector.
+     *
+     * @param element
+     *            the element to check
+     * @return <code>true</code> if the element matches, <code>false</code> otherwise
+     */
+    public boolean matches(final DomElement element)
+    {
+        final int last = compounds.length - 1;
+        return compounds[last].matches(element) && matchesAncestors(element, last);
+    }
+
+    /**
+     * Checks if the ancestors of the given element match the compounds left of the given index.
+     *
+     * @param element
+     *            element that matched the compound with the given index
+     * @param index
+     *            compound index
+     * @return <code>true</code> if the ancestors match, <code>false</code> otherwise
+     */
+    private boolean matchesAncestors(final DomElement element, final int index)
+    {
+        if (index == 0)
+        {
+            return true;
+        }
+
+        final Compound previous = compounds[index - 1];
+        DomNode parent = element.getParentNode();
+        if (combinators[index] == CHILD)
+        {
+            return parent instanceof DomElement && previous.matches((DomElement) parent) &&
+                   matchesAncestors((DomElement) parent, index - 1);
+        }
+
+        // descendant -> try all ancestors
+        for (; parent instanceof DomElement; parent = parent.getParentNode())
+        {
+            if (previous.matches((DomElement) parent) && matchesAncestors((DomElement) parent, index - 1))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return text;
+    }
+
+    /**
+     * Checks if the given whitespace separated token list contains the given token.
+     *
+     * @param tokens
+     *            whitespace separated token list
+     * @param token
+     *            the token to search for
+     * @return <code>true</code> if the token is contained, <code>false</code> otherwise
+     */
+    static boolean containsToken(final String tokens, final String token)
+    {
+        final int length = token.length();
+        int from = 0;
+        while (true)
+        {
+            final int index = tokens.indexOf(token, from);
+            if (index < 0)
+            {
+                return false;
+            }
+
+            final int end = index + length;
+            if ((index == 0 || Character.isWhitespace(tokens.charAt(index - 1))) &&
+                (end == tokens.length() || Character.isWhitespace(tokens.charAt(end))))
+            {
+                return true;
+            }
+            from = index + 1;
+        }
+    }
+
+    /**
+     * Checks if the given character may be part of an identifier.
+     *
+     * @param c
+     *            the character to check
+     * @return <code>true</code> if the character is allowed in identifiers, <code>false</code> otherwise
+     */
+    private static boolean isIdentifierChar(final char c)
+    {
+        return Character.isLetterOrDigit(c) || c == '-' || c == '_';
+    }
+
+    /**
+     * Parses an identifier.
+     *
+     * @param s
+     *            the selector text
+     * @param pos
+     *            start position
+     * @return end position (exclusive)
+     */
+    private static int parseIdentifier(final String s, final int pos)
+    {
+        int end = pos;
+        while (end < s.length() && isIdentifierChar(s.charAt(end)))
+        {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * A single attribute condition.
+     */
+    private static class AttributeCondition
+    {
+        /** The (lower-cased) attribute name. */
+        private String name;
+
+        /** The operator or <code>null</code> if the attribute must exist only. */
+        private String operator;
+
+        /** The value to compare with. */
+        private String value;
+
+        /**
+         * Checks if the given element fulfills this condition.
+         *
+         * @param element
+         *            the element to check
+         * @return <code>true</code> if the condition is fulfilled, <code>false</code> otherwise
+         */
+        private boolean matches(final DomElement element)
+        {
+            if (!element.hasAttribute(name))
+            {
+                return false;
+            }
+            if (operator == null)
+            {
+                return true;
+            }
+
+            final String actual = element.getAttribute(name);
+            switch (operator.charAt(0))
+            {
+                case '=':
+                    return actual.equals(value);
+                case '~':
+                    return value.length() > 0 && containsToken(actual, value);
+                case '*':
+                    return value.length() > 0 && actual.contains(value);
+                case '^':
+                    return value.length() > 0 && actual.startsWith(value);
+                case '$':
+                    return value.length() > 0 && actual.endsWith(value);
+                default:
+                    return false;
+            }
+        }
+    }
+
+    /**
+     * A compound selector (a sequence of conditions for a single element).
+     */
+    private static class Compound
+    {
+        /** The (lower-cased) tag name or <code>null</code> if any tag is accepted. */
+        private String tagName;
+
+        /** The required ID or <code>null</code>. */
+        private String id;
+
+        /** The required class names. */
+        private final List<String> classNames = new ArrayList<String>();
+
+        /** The attribute conditions. */
+        private final List<AttributeCondition> attributes = new ArrayList<AttributeCondition>();
+
+        /**
+         * Whether the compound consists of an ID condition only.
+         *
+         * @return <code>true</code> if there's nothing but an ID condition, <code>false</code> otherwise
+         */
+        private boolean isIdOnly()
+        {
+            return tagName == null && classNames.isEmpty() && attributes.isEmpty();
+        }
+
+        /**
+         * Parses the compound starting at the given position.
+         *
+         * @param s
+         *            the selector text
+         * @param start
+         *            start position
+         * @return the position after the compound or <code>-1</code> if the compound is not supported
+         */
+        private int parse(final String s, final int start)
+        {
+            int pos = start;
+
+            // tag name
+            if (pos < s.length() && s.charAt(pos) == '*')
+            {
+                pos++;
+            }
+            else
+            {
+                final int end = parseIdentifier(s, pos);
+                if (end > pos)
+                {
+                    tagName = s.substring(pos, end).toLowerCase(Locale.ENGLISH);
+                    pos = end;
+                }
+            }
+
+            // conditions
+            while (pos < s.length())
+            {
+                final char c = s.charAt(pos);
+                if (c == '#' || c == '.')
+                {
+                    final int end = parseIdentifier(s, pos + 1);
+                    if (end == pos + 1 || (c == '#' && id != null))
+                    {
+                        return -1;
+                    }
+
+                    final String name = s.substring(pos + 1, end);
+                    if (c == '#')
+                    {
+                        id = name;
+                    }
+                    else
+                    {
+                        classNames.add(name);
+                    }
+                    pos = end;
+                }
+                else if (c == '[')
+                {
+                    pos = parseAttribute(s, pos + 1);
+                    if (pos < 0)
+                    {
+                        return -1;
+                    }
+                }
+                else
+                {
+                    break;
+                }
+            }
+
+            // the compound must not be empty
+            return pos > start ? pos : -1;
+        }
+
+        /**
+         * Parses an attribute condition.
+         *
+         * @param s
+         *            the selector text
+         * @param start
+         *            position after the opening bracket
+         * @return the position after the closing bracket or <code>-1</code> if the condition is not supported
+         */
+        private int parseAttribute(final String s, final int start)
+        {
+            final AttributeCondition condition = new AttributeCondition();
+
+            int pos = parseIdentifier(s, start);
+            if (pos == start || pos >= s.length())
+            {
+                return -1;
+            }
+            condition.name = s.substring(start, pos).toLowerCase(Locale.ENGLISH);
+
+            // operator
+            char c = s.charAt(pos);
+            if (c != ']')
+            {
+                if (c == '=')
+                {
+                    condition.operator = "=";
+                    pos++;
+                }
+                else if ("~*^$".indexOf(c) >= 0 && pos + 1 < s.length() && s.charAt(pos + 1) == '=')
+                {
+                    condition.operator = s.substring(pos, pos + 2);
+                    pos += 2;
+                }
+                else
+                {
+                    return -1;
+                }
+
+                // value
+                if (pos >= s.length())
+                {
+                    return -1;
+                }
+                c = s.charAt(pos);
+                if (c == '\'' || c == '"')
+                {
+                    // escapes are not supported
+                    final int end = s.indexOf(c, pos + 1);
+                    final int escape = s.indexOf('\\', pos + 1);
+                    if (end < 0 || (escape >= 0 && escape < end))
+                    {
+                        return -1;
+                    }
+                    condition.value = s.substring(pos + 1, end);
+                    pos = end + 1;
+                }
+                else
+                {
+                    final int end = parseIdentifier(s, pos);
+                    if (end == pos)
+                    {
+                        return -1;
+                    }
+                    condition.value = s.substring(pos, end);
+                    pos = end;
+                }
+            }
+
+            if (pos >= s.length() || s.charAt(pos) != ']')
+            {
+                return -1;
+            }
+
+            attributes.add(condition);
+            return pos + 1;
+        }
+
+        /**
+         * Checks if the given element matches this compound.
+         *
+         * @param element
+         *            the element to check
+         * @return <code>true</code> if the element matches, <code>false</code> otherwise
+         */
+        private boolean matches(final DomElement element)
+        {
+            if (tagName != null && !tagName.equalsIgnoreCase(element.getTagName()))
+            {
+                return false;
+            }
+
+            if (id != null && !(element.hasAttribute("id") && id.equals(element.getAttribute("id"))))
+            {
+                return false;
+            }
+
+            if (!classNames.isEmpty())
+            {
+                if (!element.hasAttribute("class"))
+                {
+                    return false;
+                }
+
+                final String classes = element.getAttribute("class");
+                for (final String className : classNames)
+                {
+                    if (!containsToken(classes, className))
+                    {
+                        return false;
+                    }
+                }
+            }
+
+            for (final AttributeCondition attribute : attributes)
+            {
+                if (!attribute.matches(element))
+                {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+}
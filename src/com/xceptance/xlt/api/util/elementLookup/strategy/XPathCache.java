@@ -0,0 +1,342 @@
+package com.xceptance.xlt.api.util.elementLookup.strategy;
+
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.transform.TransformerException;
+
+import org.apache.xml.utils.PrefixResolver;
+import org.apache.xpath.XPath;
+import org.apache.xpath.XPathContext;
+import org.apache.xpath.objects.XObject;
+import org.w3c.dom.Node;
+
+import com.gargoylesoftware.htmlunit.html.DomNode;
+import com.xceptance.xlt.api.util.XltProperties;
+
+/**
+ * Process-wide cache of compiled XPath expressions. The cache is shared by all virtual users of an agent and keyed by
+ * the locator text. Once the configured size is reached, an arbitrary entry is evicted for each new expression. Since
+ * nearly all locators are static string constants the cache usually never fills up.
+ * <p>
+ * Expressions are pre-processed the same way HtmlUnit does it for {@link DomNode#getByXPath(String)}, so element and
+ * attribute names are matched case-insensitively on HTML pages and the results do not differ.
+ * </p>
+ * <p>
+ * Configuration:
+ * <ul>
+ * <li><code>elementLookup.xpath.cache.enabled</code> - whether to use compiled expressions at all (default:
+ * <code>true</code>)</li>
+ * <li><code>elementLookup.xpath.cache.size</code> - maximum number of cached expressions (default: 500)</li>
+ * </ul>
+ * </p>
+ */
+public final class XPathCache
+{
+    /** Default maximum number of cached expressions. */
+    private static final int DEFAULT_MAX_SIZE = 500;
+
+    /**
+     * Prefix resolver used to compile and execute the expressions. HTML locators do not use namespace prefixes.
+     */
+    private static final PrefixResolver NO_NAMESPACES = new PrefixResolver()
+    {
+        @Override
+        public String getNamespaceForPrefix(final String prefix)
+        {
+            return null;
+        }
+
+        @Override
+        public String getNamespaceForPrefix(final String prefix, final Node context)
+        {
+            return null;
+        }
+
+        @Override
+        public String getBaseIdentifier()
+        {
+            return null;
+        }
+
+        @Override
+        public boolean handlesNullPrefixes()
+        {
+            return false;
+        }
+    };
+
+    /** Attribute names to lower-case (as done by HtmlUnit). */
+    private static final Pattern ATTRIBUTE_NAME_PATTERN = Pattern.compile("(@[a-zA-Z]+)");
+
+    /** Compiled expressions for HTML pages (case-insensitive tag names) mapped by their locator text. */
+    private final ConcurrentHashMap<String, XPath> htmlExpressions = new ConcurrentHashMap<String, XPath>();
+
+    /** Compiled expressions for XML pages (case-sensitive tag names) mapped by their locator text. */
+    private final ConcurrentHashMap<String, XPath> xmlExpressions = new ConcurrentHashMap<String, XPath>();
+
+    /** Maximum number of cached expressions. */
+    private final int maxSize;
+
+    /** Whether compiled expressions should be used at all. */
+    private final boolean enabled;
+
+    /** Number of lookups answered from cache. */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** Number of lookups that needed a compilation. */
+    private final AtomicLong misses = new AtomicLong();
+
+    /** Number of evicted expressions. */
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Private constructor to prevent external instantiation.
+     */
+    private XPathCache()
+    {
+        final XltProperties props = XltProperties.getInstance();
+        this.enabled = props.getProperty("elementLookup.xpath.cache.enabled", true);
+        this.maxSize = Math.max(1, props.getProperty("elementLookup.xpath.cache.size", DEFAULT_MAX_SIZE));
+    }
+
+    /**
+     * Returns the agent-wide cache instance.
+     *
+     * @return cache instance
+     */
+    public static XPathCache getInstance()
+    {
+        return Singleton_Holder._INSTANCE;
+    }
+
+    /**
+     * Whether compiled expressions should be used. If not, lookups fall back to {@link DomNode#getByXPath(String)}.
+     *
+     * @return <code>true</code> if compiled expressions are enabled, <code>false</code> otherwise
+     */
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Get the compiled expression for the given locator. The expression is compiled and cached if necessary.
+     *
+     * @param locator
+     *            XPath locator
+     * @param caseSensitive
+     *            whether tag names are case-sensitive
+     * @return compiled expression
+     * @throws RuntimeException
+     *             if the locator is not a valid XPath expression
+     */
+    public XPath get(final String locator, final boolean caseSensitive)
+    {
+        final ConcurrentHashMap<String, XPath> expressions = caseSensitive ? xmlExpressions : htmlExpressions;
+
+        XPath xpath = expressions.get(locator);
+        if (xpath != null)
+        {
+            hits.incrementAndGet();
+            return xpath;
+        }
+
+        misses.incrementAndGet();
+        xpath = compile(locator, caseSensitive);
+
+        // make room for the new expression if necessary
+        if (expressions.size() >= maxSize)
+        {
+            final Iterator<String> it = expressions.keySet().iterator();
+            if (it.hasNext())
+            {
+                it.next();
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+
+        final XPath existing = expressions.putIfAbsent(locator, xpath);
+        return existing == null ? xpath : existing;
+    }
+
+    /**
+     * Evaluates the given locator relative to the given node.
+     *
+     * @param contextNode
+     *            the context node
+     * @param locator
+     *            XPath locator
+     * @return evaluation result
+     * @throws RuntimeException
+     *             if the locator is invalid or cannot be evaluated
+     */
+    public XObject execute(final DomNode contextNode, final String locator)
+    {
+        final XPath xpath = get(locator, contextNode.getPage().hasCaseSensitiveTagNames());
+        try
+        {
+            return xpath.execute(new XPathContext(), contextNode, NO_NAMESPACES);
+        }
+        catch (final TransformerException e)
+        {
+            throw new RuntimeException("Could not retrieve XPath >" + locator + "< on " + contextNode, e);
+        }
+    }
+
+    /**
+     * Get the number of lookups answered from cache.
+     *
+     * @return number of cache hits
+     */
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of lookups that needed a compilation.
+     *
+     * @return number of cache misses
+     */
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    /**
+     * Get the number of evicted expressions.
+     *
+     * @return number of evictions
+     */
+    public long getEvictionCount()
+    {
+        return evictions.get();
+    }
+
+    /**
+     * Get the current number of cached expressions.
+     *
+     * @return number of cached expressions
+     */
+    public int size()
+    {
+        return htmlExpressions.size() + xmlExpressions.size();
+    }
+
+    /**
+     * Get the maximum number of cached expressions.
+     *
+     * @return maximum number of cached expressions
+     */
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+
+    /**
+     * Drops all cached expressions. The counters are kept.
+     */
+    public void clear()
+    {
+        htmlExpressions.clear();
+        xmlExpressions.clear();
+    }
+
+    /**
+     * Get a short summary of the cache statistics.
+     *
+     * @return cache statistics
+     */
+    @Override
+    public String toString()
+    {
+        return new StringBuilder().append("XPathCache [size=").append(size()).append("/").append(maxSize)
+                                  .append(", hits=").append(getHitCount()).append(", misses=").append(getMissCount())
+                                  .append(", evictions=").append(getEvictionCount()).append("]").toString();
+    }
+
+    /**
+     * Compiles the given locator.
+     *
+     * @param locator
+     *            XPath locator
+     * @param caseSensitive
+     *            whether tag names are case-sensitive
+     * @return compiled expression
+     * @throws RuntimeException
+     *             if the locator is not a valid XPath expression
+     */
+    private static XPath compile(final String locator, final boolean caseSensitive)
+    {
+        try
+        {
+            return new XPath(preProcess(locator, caseSensitive), null, NO_NAMESPACES, XPath.SELECT, null);
+        }
+        catch (final TransformerException e)
+        {
+            throw new RuntimeException("Invalid XPath >" + locator + "<", e);
+        }
+    }
+
+    /**
+     * Pre-processes the locator like HtmlUnit does. For case-insensitive pages everything outside of brackets and
+     * parentheses is lower-cased. Attribute names are always lower-cased.
+     *
+     * @param locator
+     *            XPath locator
+     * @param caseSensitive
+     *            whether tag names are case-sensitive
+     * @return pre-processed locator
+     */
+    static String preProcess(final String locator, final boolean caseSensitive)
+    {
+        String xpath = locator;
+        if (!caseSensitive)
+        {
+            final char[] chars = xpath.toCharArray();
+            int depth = 0;
+            for (int i = 0; i < chars.length; i++)
+            {
+                final char c = chars[i];
+                if (c == '[' || c == '(')
+                {
+                    depth++;
+                }
+                else if (c == ']' || c == ')')
+                {
+                    depth--;
+                }
+                else if (depth == 0)
+                {
+                    chars[i] = Character.toLowerCase(c);
+                }
+            }
+            xpath = new String(chars);
+        }
+
+        final Matcher matcher = ATTRIBUTE_NAME_PATTERN.matcher(xpath);
+        final StringBuffer sb = new StringBuffer(xpath.length());
+        while (matcher.find())
+        {
+            matcher.appendReplacement(sb, matcher.group().toLowerCase(Locale.ENGLISH));
+        }
+        matcher.appendTail(sb);
+
+        return sb.toString();
+    }
+
+    /**
+     * Hold the singleton cache to enable lazy instantiation.
+     */
+    private static class Singleton_Holder
+    {
+        /** Singleton */
+        private static final XPathCache _INSTANCE = new XPathCache();
+    }
+}
@@ -1,12 +1,26 @@
 package com.xceptance.xlt.api.util.elementLookup.strategy;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.xml.transform.TransformerException;
+
+import org.apache.xpath.objects.XObject;
+import org.junit.Assert;
+import org.w3c.dom.Node;
+import org.w3c.dom.traversal.NodeIterator;
 
 import com.gargoylesoftware.htmlunit.html.DomNode;
+import com.xceptance.xlt.api.util.elementLookup.LocatorRewriter;
 import com.xceptance.xlt.api.util.elementLookup.Strategy;
 
 /**
- * XPath lookup strategy
+ * XPath lookup strategy. Expressions are compiled once and shared via the {@link XPathCache}. Node-set results can be
+ * iterated lazily, so the DOM is only traversed as far as needed. Simple expressions are answered from the
+ * {@link ElementIndex} if enabled, common idioms are evaluated natively if rewriting is enabled (see
+ * {@link LocatorRewriter}).
  */
 public class XPathLookupStrategy extends AbstractLookupStrategy
 {
@@ -42,7 +56,138 @@ public class XPathLookupStrategy extends AbstractLookupStrategy
     @Override
     protected List<?> lookup(final DomNode parent)
     {
-        return parent.getByXPath(getLocator());
+        // try the element index first
+        final List<?> indexed = ElementIndex.lookupXPath(parent, getLocator());
+        if (indexed != null)
+        {
+            return indexed;
+        }
+
+        // then the rewritten locator
+        final List<?> rewritten = lookupRewritten(parent);
+        if (rewritten != null)
+        {
+            return rewritten;
+        }
+
+        return evaluate(parent);
+    }
+
+    /**
+     * Evaluates the locator natively if it can be rewritten (see {@link LocatorRewriter}). In validation mode, the
+     * locator is evaluated by the XPath engine as well and both results must be identical.
+     * 
+     * @param parent
+     *            lookup base
+     * @return the lookup results or <code>null</code> if the locator was not rewritten
+     */
+    private List<?> lookupRewritten(final DomNode parent)
+    {
+        final LocatorRewriter.Mode mode = LocatorRewriter.getMode();
+        if (mode == LocatorRewriter.Mode.OFF)
+        {
+            return null;
+        }
+
+        final List<?> rewritten = LocatorRewriter.lookup(parent, getLocator());
+        if (rewritten != null && mode == LocatorRewriter.Mode.VALIDATE)
+        {
+            Assert.assertEquals("Rewritten XPath returned different results for: " + getLocator(), evaluate(parent), rewritten);
+        }
+
+        return rewritten;
+    }
+
+    /**
+     * Evaluates the locator by the XPath engine.
+     * 
+     * @param parent
+     *            lookup base
+     * @return the lookup results
+     */
+    private List<?> evaluate(final DomNode parent)
+    {
+        final XPathCache cache = XPathCache.getInstance();
+        if (!cache.isEnabled())
+        {
+            return parent.getByXPath(getLocator());
+        }
+
+        // evaluate the compiled expression
+        final XObject result = cache.execute(parent, getLocator());
+
+        // convert the result the same way HtmlUnit does it
+        final List<Object> results = new ArrayList<Object>();
+        switch (result.getType())
+        {
+            case XObject.CLASS_NODESET:
+                try
+                {
+                    final NodeIterator it = result.nodeset();
+                    for (Node node = it.nextNode(); node != null; node = it.nextNode())
+                    {
+                        results.add(node);
+                    }
+                }
+                catch (final TransformerException e)
+                {
+                    throw new RuntimeException("Could not retrieve XPath >" + getLocator() + "< on " + parent, e);
+                }
+                break;
+            case XObject.CLASS_NUMBER:
+                results.add(Double.valueOf(result.num()));
+                break;
+            case XObject.CLASS_BOOLEAN:
+                results.add(Boolean.valueOf(result.bool()));
+                break;
+            case XObject.CLASS_STRING:
+                results.add(result.str());
+                break;
+            default:
+                throw new RuntimeException("Unprocessed XPath result type: " + result.getTypeString());
+        }
+
+        return results;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Iterator<?> iterate(final DomNode parent)
+    {
+        // the index answers without traversal anyway
+        final List<?> indexed = ElementIndex.lookupXPath(parent, getLocator());
+        if (indexed != null)
+        {
+            return indexed.iterator();
+        }
+
+        // rewritten locators do not need the XPath engine either
+        final List<?> rewritten = lookupRewritten(parent);
+        if (rewritten != null)
+        {
+            return rewritten.iterator();
+        }
+
+        final XPathCache cache = XPathCache.getInstance();
+        if (cache.isEnabled())
+        {
+            final XObject result = cache.execute(parent, getLocator());
+            if (result.getType() == XObject.CLASS_NODESET)
+            {
+                try
+                {
+                    return new NodeIteratorAdapter(result.nodeset());
+                }
+                catch (final TransformerException e)
+                {
+                    throw new RuntimeException("Could not retrieve XPath >" + getLocator() + "< on " + parent, e);
+                }
+            }
+        }
+
+        return super.iterate(parent);
     }
 
     /**
@@ -53,4 +198,80 @@ public class XPathLookupStrategy extends AbstractLookupStrategy
     {
         return "XPath";
     }
+
+    /**
+     * Adapts a DOM {@link NodeIterator} to {@link Iterator}. The next node is fetched from the underlying iterator on
+     * demand only.
+     */
+    private static class NodeIteratorAdapter implements Iterator<Node>
+    {
+        /**
+         * The underlying node iterator.
+         */
+        private final NodeIterator nodes;
+
+        /**
+         * The next node to return (if any).
+         */
+        private Node next;
+
+        /**
+         * Whether the next node was fetched already.
+         */
+        private boolean fetched;
+
+        /**
+         * Constructor
+         * 
+         * @param nodes
+         *            the underlying node iterator
+         */
+        private NodeIteratorAdapter(final NodeIterator nodes)
+        {
+            this.nodes = nodes;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean hasNext()
+        {
+            if (!fetched)
+            {
+                next = nodes.nextNode();
+                fetched = true;
+
+                // release the iterator's resources once exhausted
+                if (next == null)
+                {
+                    nodes.detach();
+                }
+            }
+            return next != null;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Node next()
+        {
+            if (!hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+            fetched = false;
+            return next;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
 }